@@ -0,0 +1,73 @@
+package com.bbv.sorter.hardware.control;
+
+/**
+ * Discrete PID controller with a limited output.
+ * <p>
+ * The derivative acts on the measurement instead of the error, so a setpoint step does
+ * not kick the output. The integral stops growing while the output is saturated in the
+ * direction of the error (anti-windup). Not thread safe, one control loop owns it.
+ */
+public final class PidController {
+
+    private final double proportionalGain;
+    private final double integralGain;
+    private final double derivativeGain;
+    private final double minOutput;
+    private final double maxOutput;
+
+    private double integral;
+    private double lastMeasurement = Double.NaN;
+
+    /**
+     * @param integralGain   output per error and second
+     * @param derivativeGain output per change of the measurement per second
+     */
+    public PidController(double proportionalGain, double integralGain, double derivativeGain, double minOutput, double maxOutput) {
+        if (minOutput >= maxOutput) {
+            throw new IllegalArgumentException("minOutput must be below maxOutput");
+        }
+        this.proportionalGain = proportionalGain;
+        this.integralGain = integralGain;
+        this.derivativeGain = derivativeGain;
+        this.minOutput = minOutput;
+        this.maxOutput = maxOutput;
+    }
+
+    /**
+     * @param seconds time since the last update
+     * @return the new output
+     */
+    public double update(double setpoint, double measurement, double seconds) {
+        double error = setpoint - measurement;
+        double derivative = Double.isNaN(lastMeasurement) || seconds <= 0
+                ? 0.0
+                : -derivativeGain * (measurement - lastMeasurement) / seconds;
+        lastMeasurement = measurement;
+
+        double candidate = integral + integralGain * error * seconds;
+        double output = proportionalGain * error + candidate + derivative;
+        if (output > maxOutput) {
+            if (error < 0) {
+                integral = candidate;
+            }
+            return maxOutput;
+        }
+        if (output < minOutput) {
+            if (error > 0) {
+                integral = candidate;
+            }
+            return minOutput;
+        }
+        integral = candidate;
+        return output;
+    }
+
+    /**
+     * Restart from the given output without a bump, e.g. after the process was stopped.
+     */
+    public void reset(double output) {
+        integral = Math.max(minOutput, Math.min(maxOutput, output));
+        lastMeasurement = Double.NaN;
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * Non-blocking variant of {@link Conveyor}: every hardware access returns immediately
+ * and completes the future when the hardware answered, so a slow fieldbus does not
+ * block the calling thread. Operations on one conveyor complete in the order they were issued.
+ */
+public interface AsyncConveyor {
+
+    /**
+     * @param snapshot filled with the current values, must not be used until the future completed
+     * @return the given snapshot
+     */
+    CompletableFuture<ConveyorSnapshot> readSnapshot(ConveyorSnapshot snapshot);
+
+    CompletableFuture<Void> start();
+
+    CompletableFuture<Void> stop();
+
+    CompletableFuture<Void> setValve1(boolean pressure);
+
+    CompletableFuture<Void> setValve2(boolean pressure);
+
+    CompletableFuture<Void> setValve3(boolean pressure);
+
+    /**
+     * @see Conveyor#setValves(int)
+     */
+    CompletableFuture<Void> setValves(int valves);
+
+    /**
+     * @see Conveyor#updateValves(int, int)
+     */
+    CompletableFuture<Void> updateValves(int valves, int mask);
+
+    /**
+     * @see Conveyor#setDriveOutput(double)
+     */
+    CompletableFuture<Void> setDriveOutput(double percent);
+
+    /**
+     * @see Conveyor#addConveyorListener(ConveyorListener)
+     */
+    void addConveyorListener(ConveyorListener listener);
+
+    void removeConveyorListener(ConveyorListener listener);
+
+}
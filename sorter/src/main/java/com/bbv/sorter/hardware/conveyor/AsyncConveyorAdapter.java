@@ -0,0 +1,101 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import org.eclipse.milo.opcua.stack.core.util.ExecutionQueue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * Runs the calls of a blocking {@link Conveyor} driver on an I/O executor.
+ * The executor may be shared by several conveyors, the calls of one conveyor
+ * are queued and executed one after the other.
+ */
+public class AsyncConveyorAdapter implements AsyncConveyor {
+
+    private final Conveyor conveyor;
+    private final ExecutionQueue queue;
+
+    public AsyncConveyorAdapter(Conveyor conveyor, ExecutorService executor) {
+        this.conveyor = conveyor;
+        this.queue = new ExecutionQueue(executor);
+    }
+
+    @Override
+    public CompletableFuture<ConveyorSnapshot> readSnapshot(ConveyorSnapshot snapshot) {
+        return submit(() -> {
+            conveyor.readSnapshot(snapshot);
+            return snapshot;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> start() {
+        return run(conveyor::start);
+    }
+
+    @Override
+    public CompletableFuture<Void> stop() {
+        return run(conveyor::stop);
+    }
+
+    @Override
+    public CompletableFuture<Void> setValve1(boolean pressure) {
+        return run(() -> conveyor.setValve1(pressure));
+    }
+
+    @Override
+    public CompletableFuture<Void> setValve2(boolean pressure) {
+        return run(() -> conveyor.setValve2(pressure));
+    }
+
+    @Override
+    public CompletableFuture<Void> setValve3(boolean pressure) {
+        return run(() -> conveyor.setValve3(pressure));
+    }
+
+    @Override
+    public CompletableFuture<Void> setValves(int valves) {
+        return run(() -> conveyor.setValves(valves));
+    }
+
+    @Override
+    public CompletableFuture<Void> updateValves(int valves, int mask) {
+        return run(() -> conveyor.updateValves(valves, mask));
+    }
+
+    @Override
+    public CompletableFuture<Void> setDriveOutput(double percent) {
+        return run(() -> conveyor.setDriveOutput(percent));
+    }
+
+    @Override
+    public void addConveyorListener(ConveyorListener listener) {
+        conveyor.addConveyorListener(listener);
+    }
+
+    @Override
+    public void removeConveyorListener(ConveyorListener listener) {
+        conveyor.removeConveyorListener(listener);
+    }
+
+    private CompletableFuture<Void> run(Runnable call) {
+        return submit(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        queue.submit(() -> {
+            try {
+                future.complete(call.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+}
@@ -3,6 +3,11 @@ package com.bbv.sorter.hardware.conveyor;
 
 public interface Conveyor {
 
+    /**
+     * Number of colors the color detector reads, see {@link #getLastProcessedColor()}.
+     */
+    int COLORS = 6;
+
     /**
      * Return the Status of the Conveyor
      * true = Online
@@ -47,7 +52,61 @@ public interface Conveyor {
 
     void setValve3(boolean pressure);
 
+    /**
+     * Set all valves in one hardware write, so that they change at the same instant.
+     *
+     * @param valves the valves to pressurize, {@link ConveyorSnapshot#VALVE_1} to
+     *               {@link ConveyorSnapshot#VALVE_3}, the other valves are released
+     */
+    void setValves(int valves);
+
+    /**
+     * Set some of the valves in one hardware write, the other valves keep their state.
+     * A driver that cannot write single valves together reads the others first.
+     *
+     * @param valves the valves to pressurize, only the valves in the mask are set
+     * @param mask   the valves to set, {@link ConveyorSnapshot#VALVE_1} to {@link ConveyorSnapshot#VALVE_3}
+     */
+    default void updateValves(int valves, int mask) {
+        if ((mask & ConveyorSnapshot.VALVES) == ConveyorSnapshot.VALVES) {
+            setValves(valves);
+            return;
+        }
+        int current = ConveyorSnapshot.bit(readValve1(), ConveyorSnapshot.VALVE_1)
+                | ConveyorSnapshot.bit(readValve2(), ConveyorSnapshot.VALVE_2)
+                | ConveyorSnapshot.bit(readValve3(), ConveyorSnapshot.VALVE_3);
+        setValves((current & ~mask) | (valves & mask));
+    }
+
+    /**
+     * Set the output of the belt drive while the conveyor is started. The belt follows with
+     * the dynamics of the drive and its load, see {@link SpeedController} to control the speed.
+     *
+     * @param percent 0 to 100 % of the rated drive speed
+     */
+    void setDriveOutput(double percent);
+
+    /**
+     * @return the color of the last button that passed the color detector, 1 to {@link #COLORS},
+     * 0 if it could not be read
+     */
     int getLastProcessedColor();
 
+    /**
+     * Read all signals in one hardware round-trip, so that the values are coherent
+     * with each other. Does not allocate, the caller passes a reusable holder.
+     *
+     * @param snapshot filled with the current values
+     */
+    void readSnapshot(ConveyorSnapshot snapshot);
+
+    /**
+     * Register a listener that is notified about signal changes only,
+     * see {@link ConveyorListener}.
+     */
+    void addConveyorListener(ConveyorListener listener);
+
+    void removeConveyorListener(ConveyorListener listener);
+
 
 }
@@ -0,0 +1,110 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.bbv.sorter.hardware.conveyor.ConveyorSnapshot.*;
+
+/**
+ * Edge detection and listener dispatch for {@link Conveyor} implementations.
+ * The implementation publishes every snapshot it samples, only the differences
+ * to the previous snapshot are forwarded to the listeners.
+ */
+public final class ConveyorEventSupport {
+
+    private static final int[] LIGHT_BARRIER_BITS = {LIGHT_BARRIER_1, LIGHT_BARRIER_2, LIGHT_BARRIER_3};
+    private static final int[] VALVE_BITS = {VALVE_1, VALVE_2, VALVE_3};
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    private final ConveyorSnapshot last = new ConveyorSnapshot();
+    private boolean initialized = false;
+
+    public synchronized void addListener(ConveyorListener listener) {
+        registrations.add(new Registration(listener, last.getSpeed()));
+    }
+
+    public void removeListener(ConveyorListener listener) {
+        registrations.removeIf(r -> r.listener == listener);
+    }
+
+    /**
+     * Compare the snapshot with the previous one and notify the listeners about the changes.
+     * The first snapshot only establishes the baseline.
+     */
+    public synchronized void publish(ConveyorSnapshot snapshot) {
+        if (!initialized || registrations.isEmpty()) {
+            last.copyFrom(snapshot);
+            initialized = true;
+            return;
+        }
+
+        int changed = last.getSignals() ^ snapshot.getSignals();
+        boolean modeChanged = last.getMode() != snapshot.getMode();
+        boolean colorChanged = last.getLastProcessedColor() != snapshot.getLastProcessedColor();
+        boolean speedChanged = last.getSpeed() != snapshot.getSpeed();
+        last.copyFrom(snapshot);
+
+        if (changed == 0 && !modeChanged && !colorChanged && !speedChanged) {
+            return;
+        }
+
+        for (Registration registration : registrations) {
+            try {
+                registration.dispatch(snapshot, changed, modeChanged, colorChanged, speedChanged);
+            } catch (RuntimeException e) {
+                logger.error("Error notifying conveyor listener {}: {}", registration.listener, e.getMessage(), e);
+            }
+        }
+    }
+
+    private static final class Registration {
+
+        private final ConveyorListener listener;
+        private double lastSpeed;
+
+        private Registration(ConveyorListener listener, double speed) {
+            this.listener = listener;
+            this.lastSpeed = speed;
+        }
+
+        private void dispatch(ConveyorSnapshot snapshot, int changed, boolean modeChanged, boolean colorChanged, boolean speedChanged) {
+            listener.onSampled(snapshot.getSampleNanos());
+            if ((changed & STATUS) != 0) {
+                listener.onStatusChanged(snapshot.isSet(STATUS));
+            }
+            if (modeChanged) {
+                listener.onModeChanged(snapshot.getMode());
+            }
+            if ((changed & LIGHT_BARRIERS) != 0) {
+                for (int i = 0; i < LIGHT_BARRIER_BITS.length; i++) {
+                    if ((changed & LIGHT_BARRIER_BITS[i]) != 0) {
+                        listener.onLightBarrierChanged(i + 1, snapshot.isSet(LIGHT_BARRIER_BITS[i]));
+                    }
+                }
+            }
+            if ((changed & VALVES) != 0) {
+                for (int i = 0; i < VALVE_BITS.length; i++) {
+                    if ((changed & VALVE_BITS[i]) != 0) {
+                        listener.onValveChanged(i + 1, snapshot.isSet(VALVE_BITS[i]));
+                    }
+                }
+            }
+            if (colorChanged) {
+                listener.onLastProcessedColorChanged(snapshot.getLastProcessedColor());
+            }
+            if (speedChanged) {
+                double speed = snapshot.getSpeed();
+                if (Math.abs(speed - lastSpeed) >= listener.getSpeedThreshold()) {
+                    lastSpeed = speed;
+                    listener.onSpeedChanged(speed);
+                }
+            }
+        }
+    }
+
+}
@@ -1,11 +1,419 @@
 package com.bbv.sorter.hardware.conveyor;
 
+import com.bbv.sorter.hardware.control.PidController;
+import com.bbv.sorter.hardware.modbus.ModbusConnectionPool;
+import com.bbv.sorter.hardware.timing.PulseTimer;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of the conveyor lines, numbered from 1 to {@link #getLineCount()}.
+ * <p>
+ * Every line has its conveyor, scanner, valve pulser and edge ring. The optional features,
+ * sorting, speed estimation, speed control and throughput optimization, are created when
+ * first asked for and only if enabled, otherwise their getters return null.
+ */
 public final class ConveyorFactory {
 
+    /**
+     * Scan cycle of the I/O image in milliseconds, see {@link ConveyorScanner}.
+     */
+    public static final long SCAN_CYCLE_MILLIS = Long.getLong("sorter.scanCycleMillis", 10L);
+
+    /**
+     * Time after which a read of the scanner fails and the next cycle reads again, see {@link ConveyorScanner}.
+     */
+    public static final long SCAN_TIMEOUT_MILLIS = Long.getLong("sorter.scanTimeoutMillis", 2000L);
+
+    /**
+     * Conveyor implementation, "mock" (default), "simulator", see {@link ConveyorSimulator},
+     * "modbus", see {@link ModbusConveyor}, or "shm", see {@link SharedMemoryConveyor}.
+     */
+    public static final String CONVEYOR = System.getProperty("sorter.conveyor", "mock");
+
+    /**
+     * Number of conveyor lines served by this process.
+     */
+    public static final int LINES = Integer.getInteger("sorter.lines", 1);
+
+    /**
+     * Factor of all lengths of the lines, see {@link ConveyorGeometry#scale(double)}. A line
+     * scaled by {@code sorter.line<N>.geometry.scale} overrides it.
+     */
+    public static final double GEOMETRY_SCALE = Double.parseDouble(System.getProperty("sorter.geometry.scale", "1.0"));
+
+    /**
+     * Belt speed of the lines in cm/s at full drive output. A line with
+     * {@code sorter.line<N>.geometry.ratedSpeed} overrides it.
+     */
+    public static final double GEOMETRY_RATED_SPEED = Double.parseDouble(System.getProperty("sorter.geometry.ratedSpeed",
+            Double.toString(ConveyorGeometry.DEFAULT.getRatedSpeed())));
+
+    /**
+     * Threads shared by the scanners of all lines.
+     */
+    public static final int SCAN_THREADS = Integer.getInteger("sorter.scanThreads", Math.min(LINES, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Threads shared by all lines to run the blocking driver calls, see {@link AsyncConveyorAdapter}.
+     */
+    public static final int IO_THREADS = Integer.getInteger("sorter.ioThreads", 4);
+
+    /**
+     * How long before a timed valve edge the pulse timer stops parking and spins, see {@link PulseTimer}.
+     */
+    public static final long PULSE_SPIN_MICROS = Long.getLong("sorter.pulseSpinMicros", 200L);
+
+    /**
+     * Start the {@link SortingEngine} of every line with the server.
+     */
+    public static final boolean SORTING = Boolean.getBoolean("sorter.sorting");
+
+    /**
+     * Initial color to valve assignment of all lines, see {@link SortingTable#parse(String)}.
+     */
+    public static final String SORTING_TABLE = System.getProperty("sorter.sorting.table", "1:1,2:2,3:3");
+
+    /**
+     * Light barrier edges kept per line, see {@link LightBarrierEdgeRing}.
+     */
+    public static final int EDGE_CAPACITY = Integer.getInteger("sorter.edgeCapacity", 4096);
+
+    /**
+     * Estimate the belt speed of every line from the transit times of the buttons, see {@link TransitSpeedEstimator}.
+     */
+    public static final boolean SPEED_ESTIMATE = Boolean.parseBoolean(System.getProperty("sorter.speedEstimate", "true"));
+
+    /**
+     * Weight of a new transit in the estimated speed, see {@link TransitSpeedEstimator}.
+     */
+    public static final double SPEED_ESTIMATE_ALPHA = Double.parseDouble(System.getProperty("sorter.speedEstimate.alpha", "0.2"));
+
+    /**
+     * Largest relative deviation of a transit from the estimated speed, see {@link TransitSpeedEstimator}.
+     */
+    public static final double SPEED_ESTIMATE_TOLERANCE = Double.parseDouble(System.getProperty("sorter.speedEstimate.tolerance", "0.3"));
+
+    /**
+     * Start the {@link SpeedController} of every line with the server.
+     */
+    public static final boolean SPEED_CONTROL = Boolean.getBoolean("sorter.speedControl");
+
+    /**
+     * Cycles per second of the speed controllers.
+     */
+    public static final int SPEED_CONTROL_HZ = Integer.getInteger("sorter.speedControl.hz", 1000);
+
+    /**
+     * Initial belt speed of all lines in cm/s, see {@link SpeedController#setSetpoint(double)}.
+     */
+    public static final double SPEED_SETPOINT = Double.parseDouble(System.getProperty("sorter.speedControl.setpoint", "5.0"));
+
+    /**
+     * Drive output in percent per cm/s of speed error.
+     */
+    public static final double SPEED_CONTROL_KP = Double.parseDouble(System.getProperty("sorter.speedControl.kp", "10.0"));
+
+    /**
+     * Drive output in percent per cm of integrated speed error.
+     */
+    public static final double SPEED_CONTROL_KI = Double.parseDouble(System.getProperty("sorter.speedControl.ki", "33.0"));
+
+    /**
+     * Drive output in percent per cm/s of speed change per second.
+     */
+    public static final double SPEED_CONTROL_KD = Double.parseDouble(System.getProperty("sorter.speedControl.kd", "0.0"));
+
+    /**
+     * Start the {@link ThroughputOptimizer} of every line with the server, implies {@link #SPEED_CONTROL}.
+     */
+    public static final boolean THROUGHPUT_OPTIMIZER = Boolean.getBoolean("sorter.throughputOptimizer");
+
+    /**
+     * Time between two adaptations of the speed setpoint.
+     */
+    public static final long THROUGHPUT_OPTIMIZER_PERIOD_MILLIS = Long.getLong("sorter.throughputOptimizer.periodMillis", 2000L);
+
+    /**
+     * Shortest time from an LB2 edge to the opening of valve 1 on top of the decision latency.
+     */
+    public static final long THROUGHPUT_OPTIMIZER_MIN_LEAD_MILLIS = Long.getLong("sorter.throughputOptimizer.minLeadMillis", 50L);
+
+    private static final ExecutorService IO_EXECUTOR = Executors.newFixedThreadPool(IO_THREADS, r -> {
+        Thread thread = new Thread(r, "conveyor-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ConveyorGeometry[] GEOMETRIES = new ConveyorGeometry[LINES];
+    private static final Conveyor[] INSTANCES = new Conveyor[LINES];
+    private static final AsyncConveyor[] ASYNC_INSTANCES = new AsyncConveyor[LINES];
+    private static final ConveyorScanner[] SCANNERS = new ConveyorScanner[LINES];
+    private static final ValvePulser[] PULSERS = new ValvePulser[LINES];
+    private static final SortingEngine[] SORTING_ENGINES = new SortingEngine[LINES];
+    private static final LightBarrierEdgeRing[] EDGE_RINGS = new LightBarrierEdgeRing[LINES];
+    private static final TransitSpeedEstimator[] SPEED_ESTIMATORS = new TransitSpeedEstimator[LINES];
+    private static final SpeedController[] SPEED_CONTROLLERS = new SpeedController[LINES];
+    private static final ThroughputOptimizer[] THROUGHPUT_OPTIMIZERS = new ThroughputOptimizer[LINES];
+
+    private static final PulseTimer PULSE_TIMER = new PulseTimer("valve-pulse-timer", PULSE_SPIN_MICROS, TimeUnit.MICROSECONDS);
+
+    // all lines are behind one gateway, opened with the first Modbus line
+    private static ModbusConnectionPool modbusPool;
+    private static ScheduledExecutorService scanExecutor;
+
+    static {
+        if (LINES < 1) {
+            throw new IllegalArgumentException("sorter.lines must be at least 1: " + LINES);
+        }
+        if (SPEED_CONTROL_HZ < 1) {
+            throw new IllegalArgumentException("sorter.speedControl.hz must be at least 1: " + SPEED_CONTROL_HZ);
+        }
+        for (int i = 0; i < LINES; i++) {
+            GEOMETRIES[i] = createGeometry(i + 1);
+            INSTANCES[i] = createConveyor(CONVEYOR, i + 1);
+            ASYNC_INSTANCES[i] = new AsyncConveyorAdapter(INSTANCES[i], IO_EXECUTOR);
+            SCANNERS[i] = new ConveyorScanner(ASYNC_INSTANCES[i], SCAN_CYCLE_MILLIS, SCAN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            PULSERS[i] = new ValvePulser(ASYNC_INSTANCES[i], PULSE_TIMER);
+            EDGE_RINGS[i] = new LightBarrierEdgeRing(EDGE_CAPACITY);
+            INSTANCES[i].addConveyorListener(EDGE_RINGS[i]);
+        }
+    }
+
 
+    public static int getLineCount() {
+        return LINES;
+    }
+
+    /**
+     * @param line 1 to {@link #getLineCount()}
+     * @return the positions and speed limit of the line, the same for every conveyor implementation
+     */
+    public static ConveyorGeometry getGeometry(int line) {
+        return GEOMETRIES[line - 1];
+    }
 
+    /**
+     * @return the conveyor of the first line
+     */
     public static Conveyor getInstance() {
-        return  ConveyorMock.getInstance();
+        return getInstance(1);
+    }
+
+    /**
+     * @param line 1 to {@link #getLineCount()}
+     */
+    public static Conveyor getInstance(int line) {
+        return INSTANCES[line - 1];
+    }
+
+    /**
+     * @param line 1 to {@link #getLineCount()}
+     * @return the non-blocking access to the conveyor of the line
+     */
+    public static AsyncConveyor getAsyncInstance(int line) {
+        return ASYNC_INSTANCES[line - 1];
+    }
+
+    /**
+     * @return the scanner of the first line
+     */
+    public static ConveyorScanner getScanner() {
+        return getScanner(1);
+    }
+
+    /**
+     * @param line 1 to {@link #getLineCount()}
+     */
+    public static ConveyorScanner getScanner(int line) {
+        return SCANNERS[line - 1];
+    }
+
+    /**
+     * @param line 1 to {@link #getLineCount()}
+     * @return the timed valve pulses of the line, all lines share one timer thread
+     */
+    public static ValvePulser getPulser(int line) {
+        return PULSERS[line - 1];
+    }
+
+    /**
+     * @param line 1 to {@link #getLineCount()}
+     * @return null unless {@link #SORTING}
+     */
+    public static synchronized SortingEngine getSortingEngine(int line) {
+        if (!SORTING) {
+            return null;
+        }
+        int i = line - 1;
+        if (SORTING_ENGINES[i] == null) {
+            SORTING_ENGINES[i] = new SortingEngine(line, GEOMETRIES[i], SCANNERS[i], PULSERS[i], SortingTable.parse(SORTING_TABLE),
+                    2 * SCAN_CYCLE_MILLIS + 5, TimeUnit.MILLISECONDS);
+        }
+        return SORTING_ENGINES[i];
+    }
+
+    /**
+     * @param line 1 to {@link #getLineCount()}
+     * @return the light barrier edges of the line, recorded from the start
+     */
+    public static LightBarrierEdgeRing getEdgeRing(int line) {
+        return EDGE_RINGS[line - 1];
+    }
+
+    /**
+     * @param line 1 to {@link #getLineCount()}
+     * @return the belt speed of the line measured by the buttons from now on, null unless {@link #SPEED_ESTIMATE}
+     */
+    public static synchronized TransitSpeedEstimator getSpeedEstimator(int line) {
+        if (!SPEED_ESTIMATE) {
+            return null;
+        }
+        int i = line - 1;
+        if (SPEED_ESTIMATORS[i] == null) {
+            SPEED_ESTIMATORS[i] = new TransitSpeedEstimator(GEOMETRIES[i], SPEED_ESTIMATE_ALPHA, SPEED_ESTIMATE_TOLERANCE);
+            INSTANCES[i].addConveyorListener(SPEED_ESTIMATORS[i]);
+        }
+        return SPEED_ESTIMATORS[i];
+    }
+
+    /**
+     * @param line 1 to {@link #getLineCount()}
+     * @return null unless {@link #SPEED_CONTROL} or {@link #THROUGHPUT_OPTIMIZER}
+     */
+    public static synchronized SpeedController getSpeedController(int line) {
+        if (!SPEED_CONTROL && !THROUGHPUT_OPTIMIZER) {
+            return null;
+        }
+        int i = line - 1;
+        if (SPEED_CONTROLLERS[i] == null) {
+            SPEED_CONTROLLERS[i] = new SpeedController(line, SCANNERS[i], INSTANCES[i],
+                    new PidController(SPEED_CONTROL_KP, SPEED_CONTROL_KI, SPEED_CONTROL_KD, 0.0, 100.0),
+                    SPEED_SETPOINT, TimeUnit.SECONDS.toNanos(1) / SPEED_CONTROL_HZ, TimeUnit.NANOSECONDS);
+        }
+        return SPEED_CONTROLLERS[i];
+    }
+
+    /**
+     * @param line 1 to {@link #getLineCount()}
+     * @return null unless {@link #THROUGHPUT_OPTIMIZER}
+     */
+    public static synchronized ThroughputOptimizer getThroughputOptimizer(int line) {
+        if (!THROUGHPUT_OPTIMIZER) {
+            return null;
+        }
+        int i = line - 1;
+        if (THROUGHPUT_OPTIMIZERS[i] == null) {
+            THROUGHPUT_OPTIMIZERS[i] = new ThroughputOptimizer(line, GEOMETRIES[i], EDGE_RINGS[i], SCANNERS[i], getSortingEngine(line),
+                    getSpeedController(line), THROUGHPUT_OPTIMIZER_MIN_LEAD_MILLIS, THROUGHPUT_OPTIMIZER_PERIOD_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+        return THROUGHPUT_OPTIMIZERS[i];
+    }
+
+    /**
+     * Start the scanners of all lines on a shared pool of {@link #SCAN_THREADS} threads, and the
+     * enabled features of every line.
+     */
+    public static synchronized void startScanners() {
+        if (scanExecutor != null) {
+            return;
+        }
+        scanExecutor = Executors.newScheduledThreadPool(SCAN_THREADS, r -> {
+            Thread thread = new Thread(r, "conveyor-scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int line = 1; line <= LINES; line++) {
+            getScanner(line).start(scanExecutor);
+            SortingEngine engine = getSortingEngine(line);
+            if (engine != null) {
+                engine.start();
+            }
+            SpeedController controller = getSpeedController(line);
+            if (controller != null) {
+                controller.start();
+            }
+            ThroughputOptimizer optimizer = getThroughputOptimizer(line);
+            if (optimizer != null) {
+                optimizer.start();
+            }
+        }
+    }
+
+    public static synchronized void stopScanners() {
+        if (scanExecutor == null) {
+            return;
+        }
+        for (ThroughputOptimizer optimizer : THROUGHPUT_OPTIMIZERS) {
+            if (optimizer != null) {
+                optimizer.stop();
+            }
+        }
+        for (SpeedController controller : SPEED_CONTROLLERS) {
+            if (controller != null) {
+                controller.stop();
+            }
+        }
+        for (SortingEngine engine : SORTING_ENGINES) {
+            if (engine != null) {
+                engine.stop();
+            }
+        }
+        for (ConveyorScanner scanner : SCANNERS) {
+            scanner.stop();
+        }
+        scanExecutor.shutdown();
+        scanExecutor = null;
+    }
+
+    private static ConveyorGeometry createGeometry(int line) {
+        double scale = Double.parseDouble(System.getProperty("sorter.line" + line + ".geometry.scale", Double.toString(GEOMETRY_SCALE)));
+        double ratedSpeed = Double.parseDouble(System.getProperty("sorter.line" + line + ".geometry.ratedSpeed",
+                Double.toString(GEOMETRY_RATED_SPEED)));
+        return ConveyorGeometry.DEFAULT.scale(scale).withRatedSpeed(ratedSpeed);
+    }
+
+    private static Conveyor createConveyor(String type, int line) {
+        switch (type) {
+            case "mock":
+                return new ConveyorMock();
+            case "simulator":
+                return new ConveyorSimulator(
+                        GEOMETRIES[line - 1],
+                        Long.getLong("sorter.simulator.seed", 42L) + line,
+                        Double.parseDouble(System.getProperty("sorter.simulator.partsPerSecond", "2.0")),
+                        Double.parseDouble(System.getProperty("sorter.simulator.speed", "5.0")),
+                        Double.parseDouble(System.getProperty("sorter.simulator.noReadProbability", "0.02")),
+                        Double.parseDouble(System.getProperty("sorter.simulator.loadPerPart", "0.0")),
+                        Double.parseDouble(System.getProperty("sorter.simulator.detectorExposure", "0.0")),
+                        System::nanoTime);
+            case "modbus":
+                // one gateway, the lines are addressed by the unit id
+                if (modbusPool == null) {
+                    modbusPool = new ModbusConnectionPool(
+                            System.getProperty("sorter.modbus.host", "localhost"),
+                            Integer.getInteger("sorter.modbus.port", 502),
+                            Integer.getInteger("sorter.modbus.connections", 2),
+                            Integer.getInteger("sorter.modbus.timeoutMillis", 1000));
+                }
+                return new ModbusConveyor(modbusPool, line);
+            case "shm":
+                try {
+                    return new SharedMemoryConveyor(SharedMemoryImage.open(Paths.get(
+                            System.getProperty("sorter.shm.directory", System.getProperty("java.io.tmpdir")),
+                            "sorter-line" + line + ".img")));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown conveyor: " + type);
+        }
     }
 }
@@ -0,0 +1,134 @@
+package com.bbv.sorter.hardware.conveyor;
+
+/**
+ * Immutable layout of a line: the positions of the sensors and valves along the belt in cm,
+ * measured from LB1, the size and spacing of the buttons and the speed of the belt.
+ * <p>
+ * The belt carries at most {@link #getMaxPartsPerSecond()} buttons per second, the rated
+ * speed over the minimal gap. The {@link #DEFAULT} line carries 5 buttons per second, a
+ * {@link #scale(double) scaled} line with the same belt speed proportionally more.
+ */
+public final class ConveyorGeometry {
+
+    /**
+     * The line of the sorter demonstrator, 44 cm long with buttons of 1.5 cm at 10 cm/s.
+     */
+    public static final ConveyorGeometry DEFAULT = new ConveyorGeometry(8.0, 16.0, 22.0, 28.0, 34.0, 40.0, 44.0, 1.5, 2.0, 10.0);
+
+    private final double colorDetector;
+    private final double lightBarrier2;
+    private final double[] valves;
+    private final double lightBarrier3;
+    private final double beltLength;
+    private final double partLength;
+    private final double minPartGap;
+    private final double ratedSpeed;
+
+    /**
+     * @param colorDetector position of the color detector
+     * @param lightBarrier2 position of LB2
+     * @param valve1        position of valve 1, the valves follow LB2 in their order
+     * @param valve2        position of valve 2
+     * @param valve3        position of valve 3
+     * @param lightBarrier3 position of LB3
+     * @param beltLength    distance from LB1 to the end of the belt
+     * @param partLength    diameter of a button, a light barrier is interrupted while a button covers it
+     * @param minPartGap    minimal distance between the centers of two buttons, the feeder holds
+     *                      back a button until the belt is clear
+     * @param ratedSpeed    belt speed in cm/s at full drive output without load
+     */
+    public ConveyorGeometry(double colorDetector, double lightBarrier2, double valve1, double valve2, double valve3,
+                            double lightBarrier3, double beltLength, double partLength, double minPartGap, double ratedSpeed) {
+        if (!(0 < colorDetector && colorDetector < lightBarrier2 && lightBarrier2 < valve1 && valve1 < valve2
+                && valve2 < valve3 && valve3 < lightBarrier3 && lightBarrier3 <= beltLength)) {
+            throw new IllegalArgumentException("Expected LB1 < color detector < LB2 < V1 < V2 < V3 < LB3 <= belt length");
+        }
+        if (!(partLength > 0 && minPartGap >= partLength && ratedSpeed > 0)) {
+            throw new IllegalArgumentException("partLength and ratedSpeed must be positive, minPartGap at least partLength");
+        }
+        this.colorDetector = colorDetector;
+        this.lightBarrier2 = lightBarrier2;
+        this.valves = new double[]{valve1, valve2, valve3};
+        this.lightBarrier3 = lightBarrier3;
+        this.beltLength = beltLength;
+        this.partLength = partLength;
+        this.minPartGap = minPartGap;
+        this.ratedSpeed = ratedSpeed;
+    }
+
+    /**
+     * @return the line with all lengths multiplied by the factor and the same rated speed
+     */
+    public ConveyorGeometry scale(double factor) {
+        if (factor <= 0) {
+            throw new IllegalArgumentException("factor must be positive: " + factor);
+        }
+        return new ConveyorGeometry(colorDetector * factor, lightBarrier2 * factor,
+                valves[0] * factor, valves[1] * factor, valves[2] * factor, lightBarrier3 * factor,
+                beltLength * factor, partLength * factor, minPartGap * factor, ratedSpeed);
+    }
+
+    /**
+     * @return the line with another belt drive
+     */
+    public ConveyorGeometry withRatedSpeed(double ratedSpeed) {
+        return new ConveyorGeometry(colorDetector, lightBarrier2, valves[0], valves[1], valves[2], lightBarrier3,
+                beltLength, partLength, minPartGap, ratedSpeed);
+    }
+
+    /**
+     * @return the position of LB1, the origin of all positions
+     */
+    public double getLightBarrier1() {
+        return 0.0;
+    }
+
+    public double getColorDetector() {
+        return colorDetector;
+    }
+
+    public double getLightBarrier2() {
+        return lightBarrier2;
+    }
+
+    /**
+     * @param valve 1, 2 or 3
+     */
+    public double getValve(int valve) {
+        return valves[valve - 1];
+    }
+
+    public double getLightBarrier3() {
+        return lightBarrier3;
+    }
+
+    public double getBeltLength() {
+        return beltLength;
+    }
+
+    public double getPartLength() {
+        return partLength;
+    }
+
+    public double getMinPartGap() {
+        return minPartGap;
+    }
+
+    public double getRatedSpeed() {
+        return ratedSpeed;
+    }
+
+    /**
+     * @return the buttons per second the feeder puts on the belt at most, at rated speed
+     */
+    public double getMaxPartsPerSecond() {
+        return ratedSpeed / minPartGap;
+    }
+
+    @Override
+    public String toString() {
+        return "ConveyorGeometry{beltLength=" + beltLength + ", partLength=" + partLength
+                + ", minPartGap=" + minPartGap + ", ratedSpeed=" + ratedSpeed + '}';
+    }
+
+}
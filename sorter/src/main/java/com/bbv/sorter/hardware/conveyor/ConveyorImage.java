@@ -0,0 +1,162 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import com.bbv.sorter.hardware.timing.WallClock;
+
+import static com.bbv.sorter.hardware.conveyor.ConveyorSnapshot.*;
+
+
+/**
+ * Immutable I/O image of a {@link Conveyor}, captured once per scan cycle
+ * by the {@link ConveyorScanner}.
+ * <p>
+ * The image carries the sample time of the hardware, mapped to the wall clock once when
+ * the image is taken, and for every {@link ConveyorSignal} the sample time of the image
+ * in which the signal took its current value.
+ */
+public final class ConveyorImage {
+
+    private static final ConveyorSignal[] SIGNALS = ConveyorSignal.values();
+
+    /**
+     * The image of a scanner before its first read: all signals off and zero, never young enough for a reader.
+     */
+    static final ConveyorImage EMPTY = new ConveyorImage();
+
+    private final int signals;
+    private final double speed;
+    private final int mode;
+    private final int lastProcessedColor;
+    private final long nanoTime;
+    private final long epochNanos;
+    private final long[] changeEpochNanos = new long[SIGNALS.length];
+    private final boolean valid;
+
+    private ConveyorImage() {
+        signals = 0;
+        speed = 0.0;
+        mode = 0;
+        lastProcessedColor = 0;
+        nanoTime = 0;
+        epochNanos = 0;
+        valid = false;
+    }
+
+    private ConveyorImage(ConveyorSnapshot snapshot, ConveyorImage previous) {
+        signals = snapshot.getSignals();
+        speed = snapshot.getSpeed();
+        mode = snapshot.getMode();
+        lastProcessedColor = snapshot.getLastProcessedColor();
+        nanoTime = snapshot.getSampleNanos();
+        epochNanos = WallClock.toEpochNanos(nanoTime);
+        valid = true;
+        for (ConveyorSignal signal : SIGNALS) {
+            changeEpochNanos[signal.ordinal()] = previous == null || !previous.valid || changed(signal, previous)
+                    ? epochNanos
+                    : previous.changeEpochNanos[signal.ordinal()];
+        }
+    }
+
+    /**
+     * @param snapshot the result of a bulk read
+     * @param previous the image before, null for the first one
+     * @return an immutable copy of the snapshot
+     */
+    static ConveyorImage of(ConveyorSnapshot snapshot, ConveyorImage previous) {
+        return new ConveyorImage(snapshot, previous);
+    }
+
+    /**
+     * @return false for the {@link #EMPTY} image of a scanner that did not read the hardware yet
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the hardware was sampled
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * @return nanoseconds since the hardware was sampled, {@link Long#MAX_VALUE} if it was not
+     */
+    public long getAgeNanos() {
+        return valid ? System.nanoTime() - nanoTime : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the sample time in nanoseconds since 1970-01-01 UTC
+     */
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+
+    /**
+     * @return the sample time in nanoseconds since 1970-01-01 UTC of the first image with
+     * the current value of the signal
+     */
+    public long getChangeEpochNanos(ConveyorSignal signal) {
+        return changeEpochNanos[signal.ordinal()];
+    }
+
+    private boolean changed(ConveyorSignal signal, ConveyorImage previous) {
+        switch (signal.getType()) {
+            case BOOLEAN:
+                return signal.readBoolean(this) != signal.readBoolean(previous);
+            case ENUM:
+                return signal.readInt(this) != signal.readInt(previous);
+            default:
+                return Double.doubleToLongBits(signal.readDouble(this)) != Double.doubleToLongBits(signal.readDouble(previous));
+        }
+    }
+
+    /**
+     * @return the digital signals packed as in {@link ConveyorSnapshot}
+     */
+    public int getSignals() {
+        return signals;
+    }
+
+    public boolean getStatus() {
+        return (signals & STATUS) != 0;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public boolean readLightBarrier1() {
+        return (signals & LIGHT_BARRIER_1) != 0;
+    }
+
+    public boolean readLightBarrier2() {
+        return (signals & LIGHT_BARRIER_2) != 0;
+    }
+
+    public boolean readLightBarrier3() {
+        return (signals & LIGHT_BARRIER_3) != 0;
+    }
+
+    public double readSpeed() {
+        return speed;
+    }
+
+    public boolean readValve1() {
+        return (signals & VALVE_1) != 0;
+    }
+
+    public boolean readValve2() {
+        return (signals & VALVE_2) != 0;
+    }
+
+    public boolean readValve3() {
+        return (signals & VALVE_3) != 0;
+    }
+
+    public int getLastProcessedColor() {
+        return lastProcessedColor;
+    }
+
+}
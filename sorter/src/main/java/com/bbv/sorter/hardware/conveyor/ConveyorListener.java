@@ -0,0 +1,56 @@
+package com.bbv.sorter.hardware.conveyor;
+
+
+/**
+ * Receives signal changes of a {@link Conveyor} (report by exception).
+ * Callbacks are only invoked on a real change and run on the thread that
+ * sampled the hardware, so implementations must return quickly.
+ */
+public interface ConveyorListener {
+
+    /**
+     * Called before the changes of a sample are reported.
+     *
+     * @param sampleNanos {@link System#nanoTime()} when the hardware was sampled
+     */
+    default void onSampled(long sampleNanos) {
+    }
+
+    default void onStatusChanged(boolean status) {
+    }
+
+    default void onModeChanged(int mode) {
+    }
+
+    /**
+     * @param lightBarrier 1, 2 or 3
+     * @param value        the new value
+     */
+    default void onLightBarrierChanged(int lightBarrier, boolean value) {
+    }
+
+    /**
+     * @param valve 1, 2 or 3
+     * @param value the new value
+     */
+    default void onValveChanged(int valve, boolean value) {
+    }
+
+    default void onLastProcessedColorChanged(int color) {
+    }
+
+    /**
+     * Called when the speed moved by at least {@link #getSpeedThreshold()}
+     * since the last notification to this listener.
+     */
+    default void onSpeedChanged(double speed) {
+    }
+
+    /**
+     * @return the minimal speed change in cm/s to be notified, 0 for every change
+     */
+    default double getSpeedThreshold() {
+        return 0.0;
+    }
+
+}
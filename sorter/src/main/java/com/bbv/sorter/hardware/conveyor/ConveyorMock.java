@@ -7,27 +7,36 @@ import java.util.Random;
 
 /**
  * Mock Class
+ * <p>
+ * While running, the belt moves at the drive output times {@link #RATED_SPEED}, with
+ * a random deviation of up to {@link #SPEED_NOISE} so that the speed keeps changing.
  */
 public class ConveyorMock implements Conveyor {
 
-    private static final Conveyor INSTANCE = new ConveyorMock();
+    /**
+     * Belt speed in cm/s at a drive output of 100 %.
+     */
+    public static final double RATED_SPEED = 10.0;
+
+    /**
+     * Largest relative deviation of the speed from the one set by the drive output.
+     */
+    public static final double SPEED_NOISE = 0.1;
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private volatile boolean status = true;
     private volatile int mode = 0;
-    private volatile boolean valve1 = false;
-    private volatile boolean valve2 = false;
-    private volatile boolean valve3 = false;
+    // valves in the layout of ConveyorSnapshot, so that they change together
+    private volatile int valves = 0;
+    private volatile double driveOutput = 50.0;
 
     private final Random random = new Random();
 
+    private final ConveyorEventSupport events = new ConveyorEventSupport();
 
-    private ConveyorMock() {
-    }
 
-    static Conveyor getInstance() {
-        return INSTANCE;
+    ConveyorMock() {
     }
 
     @Override
@@ -70,37 +79,52 @@ public class ConveyorMock implements Conveyor {
 
     @Override
     public double readSpeed() {
-        return mode==1 ? random.nextInt(10) : 0.0;
+        return mode==1 ? driveOutput / 100.0 * RATED_SPEED * (1.0 + SPEED_NOISE * (2.0 * random.nextDouble() - 1.0)) : 0.0;
     }
 
     @Override
     public boolean readValve1() {
-        return valve1;
+        return (valves & ConveyorSnapshot.VALVE_1) != 0;
     }
 
     @Override
     public boolean readValve2() {
-        return valve2;
+        return (valves & ConveyorSnapshot.VALVE_2) != 0;
     }
 
     @Override
     public boolean readValve3() {
-        return valve3;
+        return (valves & ConveyorSnapshot.VALVE_3) != 0;
     }
 
     @Override
     public void setValve1(boolean pressure) {
-        valve1 = pressure;
+        setValve(ConveyorSnapshot.VALVE_1, pressure);
     }
 
     @Override
     public void setValve2(boolean pressure) {
-        valve2 = pressure;
+        setValve(ConveyorSnapshot.VALVE_2, pressure);
     }
 
     @Override
     public void setValve3(boolean pressure) {
-        valve3 = pressure;
+        setValve(ConveyorSnapshot.VALVE_3, pressure);
+    }
+
+    @Override
+    public synchronized void setValves(int valves) {
+        this.valves = valves & ConveyorSnapshot.VALVES;
+    }
+
+    @Override
+    public synchronized void updateValves(int valves, int mask) {
+        this.valves = (this.valves & ~mask) | (valves & mask & ConveyorSnapshot.VALVES);
+    }
+
+    @Override
+    public void setDriveOutput(double percent) {
+        driveOutput = percent;
     }
 
     @Override
@@ -108,6 +132,32 @@ public class ConveyorMock implements Conveyor {
         return  mode==1 ? random.nextInt(7) : 0;
     }
 
+    @Override
+    public void readSnapshot(ConveyorSnapshot snapshot) {
+        int signals = ConveyorSnapshot.bit(status, ConveyorSnapshot.STATUS)
+                | ConveyorSnapshot.bit(getRandomBoolean(), ConveyorSnapshot.LIGHT_BARRIER_1)
+                | ConveyorSnapshot.bit(getRandomBoolean(), ConveyorSnapshot.LIGHT_BARRIER_2)
+                | ConveyorSnapshot.bit(getRandomBoolean(), ConveyorSnapshot.LIGHT_BARRIER_3)
+                | valves;
+        snapshot.set(signals, readSpeed(), mode, getLastProcessedColor(), System.nanoTime());
+        // the random signals only exist once they are sampled, so changes are reported from here
+        events.publish(snapshot);
+    }
+
+    @Override
+    public void addConveyorListener(ConveyorListener listener) {
+        events.addListener(listener);
+    }
+
+    @Override
+    public void removeConveyorListener(ConveyorListener listener) {
+        events.removeListener(listener);
+    }
+
+    private synchronized void setValve(int valve, boolean pressure) {
+        valves = pressure ? valves | valve : valves & ~valve;
+    }
+
     private boolean getRandomBoolean() {
         return  mode==1 && random.nextBoolean();
     }
@@ -0,0 +1,110 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import com.bbv.sorter.hardware.modbus.Modbus;
+import com.bbv.sorter.hardware.modbus.ModbusDataModel;
+import com.bbv.sorter.hardware.modbus.ModbusException;
+
+/**
+ * Exposes a {@link Conveyor} with the register map of {@link ModbusConveyor}, e.g. to serve a
+ * {@link ConveyorSimulator} from a {@link com.bbv.sorter.hardware.modbus.ModbusSlave}.
+ * Every request is answered from one snapshot of the conveyor.
+ */
+public class ConveyorModbusDataModel implements ModbusDataModel {
+
+    private final ConveyorSnapshot snapshot = new ConveyorSnapshot();
+
+    private final Conveyor conveyor;
+
+    public ConveyorModbusDataModel(Conveyor conveyor) {
+        this.conveyor = conveyor;
+    }
+
+    @Override
+    public synchronized int readCoils(int address, int count) throws ModbusException {
+        check(Modbus.READ_COILS, address, count, ModbusConveyor.COILS);
+        conveyor.readSnapshot(snapshot);
+        int coils = ConveyorSnapshot.bit(snapshot.getMode() == 1, 1 << ModbusConveyor.COIL_RUN)
+                | ConveyorSnapshot.bit(snapshot.isSet(ConveyorSnapshot.VALVE_1), 1 << ModbusConveyor.COIL_VALVE_1)
+                | ConveyorSnapshot.bit(snapshot.isSet(ConveyorSnapshot.VALVE_2), 1 << ModbusConveyor.COIL_VALVE_2)
+                | ConveyorSnapshot.bit(snapshot.isSet(ConveyorSnapshot.VALVE_3), 1 << ModbusConveyor.COIL_VALVE_3);
+        return coils >>> address;
+    }
+
+    @Override
+    public synchronized int readDiscreteInputs(int address, int count) throws ModbusException {
+        check(Modbus.READ_DISCRETE_INPUTS, address, count, ModbusConveyor.DISCRETE_INPUTS);
+        conveyor.readSnapshot(snapshot);
+        int inputs = ConveyorSnapshot.bit(snapshot.isSet(ConveyorSnapshot.STATUS), 1 << ModbusConveyor.INPUT_STATUS)
+                | ConveyorSnapshot.bit(snapshot.isSet(ConveyorSnapshot.LIGHT_BARRIER_1), 1 << ModbusConveyor.INPUT_LIGHT_BARRIER_1)
+                | ConveyorSnapshot.bit(snapshot.isSet(ConveyorSnapshot.LIGHT_BARRIER_2), 1 << ModbusConveyor.INPUT_LIGHT_BARRIER_2)
+                | ConveyorSnapshot.bit(snapshot.isSet(ConveyorSnapshot.LIGHT_BARRIER_3), 1 << ModbusConveyor.INPUT_LIGHT_BARRIER_3);
+        return inputs >>> address;
+    }
+
+    @Override
+    public synchronized void readInputRegisters(int address, int count, int[] registers) throws ModbusException {
+        check(Modbus.READ_INPUT_REGISTERS, address, count, ModbusConveyor.INPUT_REGISTERS);
+        conveyor.readSnapshot(snapshot);
+        for (int i = 0; i < count; i++) {
+            registers[i] = register(address + i);
+        }
+    }
+
+    @Override
+    public synchronized void writeCoils(int address, int count, int values) throws ModbusException {
+        check(Modbus.WRITE_MULTIPLE_COILS, address, count, ModbusConveyor.COILS);
+        // coil values shifted to their address
+        int written = ((1 << count) - 1) << address;
+        int coils = values << address;
+
+        if ((written & (1 << ModbusConveyor.COIL_RUN)) != 0) {
+            if ((coils & (1 << ModbusConveyor.COIL_RUN)) != 0) {
+                conveyor.start();
+            } else {
+                conveyor.stop();
+            }
+        }
+
+        int valveCoils = (1 << ModbusConveyor.COIL_VALVE_1) | (1 << ModbusConveyor.COIL_VALVE_2) | (1 << ModbusConveyor.COIL_VALVE_3);
+        if ((written & valveCoils) != 0) {
+            // the valves of one request change together
+            conveyor.readSnapshot(snapshot);
+            int valves = 0;
+            valves |= valve(written, coils, ModbusConveyor.COIL_VALVE_1, ConveyorSnapshot.VALVE_1);
+            valves |= valve(written, coils, ModbusConveyor.COIL_VALVE_2, ConveyorSnapshot.VALVE_2);
+            valves |= valve(written, coils, ModbusConveyor.COIL_VALVE_3, ConveyorSnapshot.VALVE_3);
+            conveyor.setValves(valves);
+        }
+    }
+
+    @Override
+    public void writeHoldingRegister(int address, int value) throws ModbusException {
+        check(Modbus.WRITE_SINGLE_REGISTER, address, 1, ModbusConveyor.HOLDING_REGISTERS);
+        conveyor.setDriveOutput(value / ModbusConveyor.DRIVE_OUTPUT_SCALE);
+    }
+
+    private int valve(int written, int coils, int coil, int valve) {
+        boolean value = (written & (1 << coil)) != 0
+                ? (coils & (1 << coil)) != 0
+                : snapshot.isSet(valve);
+        return ConveyorSnapshot.bit(value, valve);
+    }
+
+    private int register(int address) {
+        switch (address) {
+            case ModbusConveyor.REGISTER_MODE:
+                return snapshot.getMode() & 0xFFFF;
+            case ModbusConveyor.REGISTER_SPEED:
+                return (int) Math.round(snapshot.getSpeed() * ModbusConveyor.SPEED_SCALE) & 0xFFFF;
+            default:
+                return snapshot.getLastProcessedColor() & 0xFFFF;
+        }
+    }
+
+    private static void check(int function, int address, int count, int size) throws ModbusException {
+        if (address < 0 || address + count > size) {
+            throw new ModbusException(function, Modbus.ILLEGAL_DATA_ADDRESS);
+        }
+    }
+
+}
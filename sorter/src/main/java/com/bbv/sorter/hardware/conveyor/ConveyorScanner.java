@@ -0,0 +1,163 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import com.bbv.sorter.hardware.timing.Timeouts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PLC style scan engine: reads every signal of a {@link Conveyor} once per cycle
+ * and publishes the result as an immutable {@link ConveyorImage}.
+ * Readers never touch the hardware, so the load on the fieldbus does not depend
+ * on the number of clients.
+ * The hardware is read through the {@link AsyncConveyor}, so a slow read does not block
+ * the scan threads; a cycle is skipped while the previous read is still in flight.
+ * <p>
+ * The hardware is first read by the first scan cycle or refresh, not by the constructor,
+ * so an unreachable conveyor does not prevent the server from starting.
+ * <p>
+ * A reader that needs a newer image than the last one calls {@link #refresh()}, which
+ * reads the hardware at once. There is at most one read in flight, concurrent refreshes
+ * and scan cycles share it. A read that fails, also at once, or does not complete within
+ * the read timeout ends the read in flight, the next cycle reads again.
+ */
+public class ConveyorScanner {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AsyncConveyor conveyor;
+    private final long cycleTime;
+    private final long readTimeout;
+    private final TimeUnit unit;
+
+    // the read in flight owns the snapshot until it completed, a read that timed out keeps it
+    private volatile ConveyorSnapshot snapshot = new ConveyorSnapshot();
+    private final AtomicReference<CompletableFuture<ConveyorImage>> reading = new AtomicReference<>();
+    private volatile ConveyorImage image;
+    private volatile long skippedCycles = 0;
+
+    private ScheduledFuture<?> scanTask;
+
+    /**
+     * @param readTimeout time after which a read of the hardware fails and the next one may start
+     */
+    public ConveyorScanner(AsyncConveyor conveyor, long cycleTime, long readTimeout, TimeUnit unit) {
+        if (cycleTime <= 0) {
+            throw new IllegalArgumentException("cycleTime must be positive: " + cycleTime);
+        }
+        if (readTimeout <= 0) {
+            throw new IllegalArgumentException("readTimeout must be positive: " + readTimeout);
+        }
+        this.conveyor = conveyor;
+        this.cycleTime = cycleTime;
+        this.readTimeout = readTimeout;
+        this.unit = unit;
+        this.image = ConveyorImage.EMPTY;
+    }
+
+    /**
+     * @return the image captured by the last completed scan cycle, {@link ConveyorImage#EMPTY}
+     * until the first read of the hardware completed
+     */
+    public ConveyorImage getImage() {
+        return image;
+    }
+
+    public AsyncConveyor getConveyor() {
+        return conveyor;
+    }
+
+    /**
+     * @return the number of cycles skipped because the previous read or a refresh was still in flight
+     */
+    public long getSkippedCycles() {
+        return skippedCycles;
+    }
+
+    /**
+     * Schedule the scan cycle on the given executor, which may be shared by several scanners.
+     */
+    public synchronized void start(ScheduledExecutorService executor) {
+        if (scanTask != null) {
+            return;
+        }
+        scanTask = executor.scheduleAtFixedRate(this::scan, 0, cycleTime, unit);
+        logger.debug("Conveyor Scanner started, cycle={} {}", cycleTime, unit);
+    }
+
+    public synchronized void stop() {
+        if (scanTask == null) {
+            return;
+        }
+        scanTask.cancel(false);
+        scanTask = null;
+        logger.debug("Conveyor Scanner stopped");
+    }
+
+    /**
+     * Read the hardware now, or join the read in flight, and publish the result as the
+     * new image.
+     *
+     * @return the new image, completed exceptionally if the read failed or timed out
+     */
+    public CompletableFuture<ConveyorImage> refresh() {
+        CompletableFuture<ConveyorImage> next = new CompletableFuture<>();
+        while (!reading.compareAndSet(null, next)) {
+            CompletableFuture<ConveyorImage> inFlight = reading.get();
+            if (inFlight != null) {
+                return inFlight;
+            }
+        }
+        CompletableFuture<ConveyorSnapshot> result;
+        try {
+            result = Timeouts.orTimeout(conveyor.readSnapshot(snapshot), readTimeout, unit);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((s, ex) -> {
+            ConveyorImage read = null;
+            Throwable failure = ex;
+            try {
+                if (ex == null) {
+                    // copy the snapshot before the next read may reuse it
+                    read = ConveyorImage.of(s, image);
+                    image = read;
+                } else if (ex instanceof TimeoutException) {
+                    // the driver may still fill the snapshot, the next reads use another one
+                    snapshot = new ConveyorSnapshot();
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                reading.set(null);
+            }
+            if (failure != null) {
+                logger.error("Error scanning conveyor: {}", failure.getMessage(), failure);
+                next.completeExceptionally(failure);
+            } else {
+                next.complete(read);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Run one scan cycle. Errors are logged so that a single failing read does not
+     * stop the scanner; the previous image stays valid.
+     */
+    void scan() {
+        if (reading.get() != null) {
+            skippedCycles++;
+            return;
+        }
+        refresh();
+    }
+
+}
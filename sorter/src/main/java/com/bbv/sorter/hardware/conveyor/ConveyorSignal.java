@@ -0,0 +1,138 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import java.util.EnumSet;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+
+/**
+ * The signals of a {@link Conveyor} that are exposed as variables.
+ * <p>
+ * Every signal has a {@link Type} and is read from a {@link ConveyorImage} with the
+ * primitive reader of its type, a digital signal as its bit in
+ * {@link ConveyorImage#getSignals()}. The outputs, Mode and the valves, can also be set.
+ */
+public enum ConveyorSignal {
+
+    STATUS(ConveyorSnapshot.STATUS),
+    MODE(ConveyorImage::getMode),
+    LIGHT_BARRIER_1(ConveyorSnapshot.LIGHT_BARRIER_1),
+    LIGHT_BARRIER_2(ConveyorSnapshot.LIGHT_BARRIER_2),
+    LIGHT_BARRIER_3(ConveyorSnapshot.LIGHT_BARRIER_3),
+    SPEED(ConveyorImage::readSpeed),
+    VALVE_1(ConveyorSnapshot.VALVE_1),
+    VALVE_2(ConveyorSnapshot.VALVE_2),
+    VALVE_3(ConveyorSnapshot.VALVE_3),
+    LAST_PROCESSED_COLOR(ConveyorImage::getLastProcessedColor);
+
+    /**
+     * The value type of a signal.
+     */
+    public enum Type {
+        /**
+         * A digital signal, read with {@link #readBoolean(ConveyorImage)}.
+         */
+        BOOLEAN,
+        /**
+         * A code of an enumeration, not negative, read with {@link #readInt(ConveyorImage)}.
+         */
+        ENUM,
+        /**
+         * An analog signal, read with {@link #readDouble(ConveyorImage)}.
+         */
+        DOUBLE
+    }
+
+    private static final ConveyorSignal[] LIGHT_BARRIERS = {LIGHT_BARRIER_1, LIGHT_BARRIER_2, LIGHT_BARRIER_3};
+    private static final ConveyorSignal[] VALVES = {VALVE_1, VALVE_2, VALVE_3};
+    private static final EnumSet<ConveyorSignal> OUTPUTS = EnumSet.of(MODE, VALVE_1, VALVE_2, VALVE_3);
+
+    private final Type type;
+    private final int mask;
+    private final ToIntFunction<ConveyorImage> intReader;
+    private final ToDoubleFunction<ConveyorImage> doubleReader;
+
+    ConveyorSignal(int mask) {
+        this(Type.BOOLEAN, mask, null, null);
+    }
+
+    ConveyorSignal(ToIntFunction<ConveyorImage> intReader) {
+        this(Type.ENUM, 0, intReader, null);
+    }
+
+    ConveyorSignal(ToDoubleFunction<ConveyorImage> doubleReader) {
+        this(Type.DOUBLE, 0, null, doubleReader);
+    }
+
+    ConveyorSignal(Type type, int mask, ToIntFunction<ConveyorImage> intReader, ToDoubleFunction<ConveyorImage> doubleReader) {
+        this.type = type;
+        this.mask = mask;
+        this.intReader = intReader;
+        this.doubleReader = doubleReader;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the bit of this {@link Type#BOOLEAN} signal in {@link ConveyorImage#getSignals()},
+     * for the valves also in {@link Conveyor#setValves(int)}
+     */
+    public int getMask() {
+        requireType(Type.BOOLEAN);
+        return mask;
+    }
+
+    /**
+     * @return true for the signals the {@link Conveyor} sets: Mode with start and stop, the valves
+     */
+    public boolean isOutput() {
+        return OUTPUTS.contains(this);
+    }
+
+    /**
+     * @return the value of this {@link Type#BOOLEAN} signal in the image
+     */
+    public boolean readBoolean(ConveyorImage image) {
+        requireType(Type.BOOLEAN);
+        return (image.getSignals() & mask) != 0;
+    }
+
+    /**
+     * @return the code of this {@link Type#ENUM} signal in the image
+     */
+    public int readInt(ConveyorImage image) {
+        requireType(Type.ENUM);
+        return intReader.applyAsInt(image);
+    }
+
+    /**
+     * @return the value of this {@link Type#DOUBLE} signal in the image
+     */
+    public double readDouble(ConveyorImage image) {
+        requireType(Type.DOUBLE);
+        return doubleReader.applyAsDouble(image);
+    }
+
+    private void requireType(Type expected) {
+        if (type != expected) {
+            throw new IllegalStateException(this + " is " + type + ", not " + expected);
+        }
+    }
+
+    /**
+     * @param lightBarrier 1, 2 or 3 as in {@link ConveyorListener#onLightBarrierChanged(int, boolean)}
+     */
+    public static ConveyorSignal lightBarrier(int lightBarrier) {
+        return LIGHT_BARRIERS[lightBarrier - 1];
+    }
+
+    /**
+     * @param valve 1, 2 or 3 as in {@link ConveyorListener#onValveChanged(int, boolean)}
+     */
+    public static ConveyorSignal valve(int valve) {
+        return VALVES[valve - 1];
+    }
+
+}
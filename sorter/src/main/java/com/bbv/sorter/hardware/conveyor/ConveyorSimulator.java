@@ -0,0 +1,459 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Deterministic physics based simulation of the sorter line.
+ * <p>
+ * Buttons arrive at LB1 with a configurable rate, travel with the belt speed past the
+ * color detector, LB2, the three valves and LB3 and fall off at the end of the belt.
+ * A button that passes a pressurized valve is ejected into the bin of that valve.
+ * The positions, the size and spacing of the buttons and the rated belt speed are those
+ * of the {@link ConveyorGeometry} of the line.
+ * <p>
+ * The belt follows the drive output with a first order lag. Every button on the belt
+ * slows it down by the load per part, so the speed for a given drive output depends on
+ * the traffic unless it is controlled, see {@link SpeedController}. Stopping brakes the
+ * belt at once.
+ * <p>
+ * The color detector needs a button in front of it for the exposure time. A faster button
+ * is not read with the probability of the missing share of the exposure.
+ * <p>
+ * The simulation is driven by the given clock: every access advances the model to the
+ * current clock value. With the same seed and the same clock values the produced
+ * signals are identical, pass a manual clock for reproducible runs. The snapshots carry
+ * the clock value as their sample time, a simulator behind the server uses {@code System::nanoTime}.
+ * Buttons are not moved individually: the position of a button is the distance the belt
+ * travelled since the button entered, so advancing the model only costs work
+ * for the buttons that cross a sensor or a valve.
+ */
+public class ConveyorSimulator implements Conveyor {
+
+    /**
+     * Time constant of the belt drive in seconds.
+     */
+    public static final double DRIVE_TIME_CONSTANT = 0.3;
+
+    private static final int VALVE_COUNT = Integer.bitCount(ConveyorSnapshot.VALVES);
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ConveyorGeometry geometry;
+    private final SplittableRandom random;
+    // own stream, the arrivals and colors do not depend on the speed
+    private final SplittableRandom detectorRandom;
+    private final LongSupplier clock;
+    private final double noReadProbability;
+    private final double loadPerPart;
+    private final double detectorExposure;
+    private double partsPerSecond;
+
+    private final ConveyorEventSupport events = new ConveyorEventSupport();
+
+    // parts on the belt, oldest first: belt distance at which the part entered, its color
+    private final double[] partEntry;
+    private final int[] partColor;
+    private final boolean[] partEjected;
+    private int head = 0;
+    private int size = 0;
+
+    private long time;
+    private double distance = 0.0;
+    private long nextArrival;
+    private double lastEntry = Double.NEGATIVE_INFINITY;
+
+    private boolean status = true;
+    private int mode = 0;
+    private double speed = 0.0;
+    private double driveOutput;
+    private int valves = 0;
+    private int lastProcessedColor = 0;
+
+    private long arrivedParts = 0;
+    private long passedParts = 0;
+    private long blockedParts = 0;
+    private long unreadParts = 0;
+    private final long[] ejectedParts = new long[VALVE_COUNT];
+
+    /**
+     * @param seed              seed of the arrival times and colors
+     * @param partsPerSecond    mean arrival rate of the feeder
+     * @param speed             belt speed in cm/s while started, until the drive output is changed
+     * @param noReadProbability probability that the color detector can not read a button
+     * @param clock             time source in nanoseconds, e.g. {@code System::nanoTime}
+     */
+    public ConveyorSimulator(long seed, double partsPerSecond, double speed, double noReadProbability, LongSupplier clock) {
+        this(seed, partsPerSecond, speed, noReadProbability, 0.0, clock);
+    }
+
+    /**
+     * @param loadPerPart relative loss of belt speed per button on the belt
+     */
+    public ConveyorSimulator(long seed, double partsPerSecond, double speed, double noReadProbability, double loadPerPart, LongSupplier clock) {
+        this(seed, partsPerSecond, speed, noReadProbability, loadPerPart, 0.0, clock);
+    }
+
+    /**
+     * @param detectorExposure time in seconds the color detector needs to read a button, 0 reads at any speed
+     */
+    public ConveyorSimulator(long seed, double partsPerSecond, double speed, double noReadProbability, double loadPerPart,
+                             double detectorExposure, LongSupplier clock) {
+        this(ConveyorGeometry.DEFAULT, seed, partsPerSecond, speed, noReadProbability, loadPerPart, detectorExposure, clock);
+    }
+
+    /**
+     * @param geometry layout of the simulated line, its rated speed and minimal gap limit the rate
+     *                 of buttons that reach LB1
+     */
+    public ConveyorSimulator(ConveyorGeometry geometry, long seed, double partsPerSecond, double speed, double noReadProbability,
+                             double loadPerPart, double detectorExposure, LongSupplier clock) {
+        if (partsPerSecond <= 0 || speed <= 0) {
+            throw new IllegalArgumentException("partsPerSecond and speed must be positive");
+        }
+        if (loadPerPart < 0 || detectorExposure < 0) {
+            throw new IllegalArgumentException("loadPerPart and detectorExposure must not be negative");
+        }
+        this.geometry = geometry;
+        this.random = new SplittableRandom(seed);
+        this.detectorRandom = detectorExposure > 0 ? random.split() : null;
+        this.partsPerSecond = partsPerSecond;
+        this.driveOutput = speed / geometry.getRatedSpeed() * 100.0;
+        this.noReadProbability = noReadProbability;
+        this.loadPerPart = loadPerPart;
+        this.detectorExposure = detectorExposure;
+        this.clock = clock;
+
+        int capacity = (int) Math.ceil((geometry.getBeltLength() + geometry.getPartLength() + geometry.getMinPartGap()) / geometry.getMinPartGap()) + 1;
+        partEntry = new double[capacity];
+        partColor = new int[capacity];
+        partEjected = new boolean[capacity];
+
+        time = clock.getAsLong();
+        nextArrival = time + nextInterArrival();
+    }
+
+    @Override
+    public synchronized boolean getStatus() {
+        advance();
+        return status;
+    }
+
+    @Override
+    public synchronized int getMode() {
+        advance();
+        return mode;
+    }
+
+    @Override
+    public synchronized void start() {
+        advance();
+        if (mode != 1) {
+            logger.info("Conveyor Simulator Started");
+            mode = 1;
+            nextArrival = time + nextInterArrival();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        advance();
+        if (mode != 0) {
+            logger.info("Conveyor Simulator Stopped");
+            mode = 0;
+            speed = 0.0;
+        }
+    }
+
+    @Override
+    public synchronized boolean readLightBarrier1() {
+        advance();
+        return isCovered(geometry.getLightBarrier1());
+    }
+
+    @Override
+    public synchronized boolean readLightBarrier2() {
+        advance();
+        return isCovered(geometry.getLightBarrier2());
+    }
+
+    @Override
+    public synchronized boolean readLightBarrier3() {
+        advance();
+        return isCovered(geometry.getLightBarrier3());
+    }
+
+    @Override
+    public synchronized double readSpeed() {
+        advance();
+        return mode == 1 ? speed : 0.0;
+    }
+
+    @Override
+    public synchronized boolean readValve1() {
+        advance();
+        return (valves & ConveyorSnapshot.VALVE_1) != 0;
+    }
+
+    @Override
+    public synchronized boolean readValve2() {
+        advance();
+        return (valves & ConveyorSnapshot.VALVE_2) != 0;
+    }
+
+    @Override
+    public synchronized boolean readValve3() {
+        advance();
+        return (valves & ConveyorSnapshot.VALVE_3) != 0;
+    }
+
+    @Override
+    public synchronized void setValve1(boolean pressure) {
+        setValve(ConveyorSnapshot.VALVE_1, pressure);
+    }
+
+    @Override
+    public synchronized void setValve2(boolean pressure) {
+        setValve(ConveyorSnapshot.VALVE_2, pressure);
+    }
+
+    @Override
+    public synchronized void setValve3(boolean pressure) {
+        setValve(ConveyorSnapshot.VALVE_3, pressure);
+    }
+
+    @Override
+    public synchronized void setValves(int valves) {
+        advance();
+        this.valves = valves & ConveyorSnapshot.VALVES;
+    }
+
+    @Override
+    public synchronized void updateValves(int valves, int mask) {
+        advance();
+        this.valves = (this.valves & ~mask) | (valves & mask & ConveyorSnapshot.VALVES);
+    }
+
+    @Override
+    public synchronized void setDriveOutput(double percent) {
+        advance();
+        driveOutput = Math.max(0.0, Math.min(100.0, percent));
+    }
+
+    @Override
+    public synchronized int getLastProcessedColor() {
+        advance();
+        return lastProcessedColor;
+    }
+
+    @Override
+    public void readSnapshot(ConveyorSnapshot snapshot) {
+        synchronized (this) {
+            advance();
+            int signals = ConveyorSnapshot.bit(status, ConveyorSnapshot.STATUS)
+                    | ConveyorSnapshot.bit(isCovered(geometry.getLightBarrier1()), ConveyorSnapshot.LIGHT_BARRIER_1)
+                    | ConveyorSnapshot.bit(isCovered(geometry.getLightBarrier2()), ConveyorSnapshot.LIGHT_BARRIER_2)
+                    | ConveyorSnapshot.bit(isCovered(geometry.getLightBarrier3()), ConveyorSnapshot.LIGHT_BARRIER_3)
+                    | valves;
+            snapshot.set(signals, mode == 1 ? speed : 0.0, mode, lastProcessedColor, time);
+        }
+        events.publish(snapshot);
+    }
+
+    @Override
+    public void addConveyorListener(ConveyorListener listener) {
+        events.addListener(listener);
+    }
+
+    @Override
+    public void removeConveyorListener(ConveyorListener listener) {
+        events.removeListener(listener);
+    }
+
+    /**
+     * Change the mean arrival rate of the feeder, e.g. to follow the production upstream.
+     */
+    public synchronized void setPartsPerSecond(double partsPerSecond) {
+        if (partsPerSecond <= 0) {
+            throw new IllegalArgumentException("partsPerSecond must be positive");
+        }
+        advance();
+        this.partsPerSecond = partsPerSecond;
+        // the arrivals have no memory, the next one is drawn with the new rate
+        nextArrival = time + nextInterArrival();
+    }
+
+    public ConveyorGeometry getGeometry() {
+        return geometry;
+    }
+
+    public synchronized long getArrivedParts() {
+        return arrivedParts;
+    }
+
+    /**
+     * @return the number of buttons that reached the end of the belt without being ejected
+     */
+    public synchronized long getPassedParts() {
+        return passedParts;
+    }
+
+    /**
+     * @return the number of buttons the feeder could not put on the belt because it was not clear
+     */
+    public synchronized long getBlockedParts() {
+        return blockedParts;
+    }
+
+    /**
+     * @return the number of buttons the color detector could not read
+     */
+    public synchronized long getUnreadParts() {
+        return unreadParts;
+    }
+
+    /**
+     * @param valve 1, 2 or 3
+     * @return the number of buttons ejected by that valve
+     */
+    public synchronized long getEjectedParts(int valve) {
+        return ejectedParts[valve - 1];
+    }
+
+    private void setValve(int valve, boolean pressure) {
+        advance();
+        valves = pressure ? valves | valve : valves & ~valve;
+    }
+
+    /**
+     * Move the model forward to the current clock value.
+     */
+    private void advance() {
+        long now = clock.getAsLong();
+        if (now <= time) {
+            return;
+        }
+
+        if (mode == 1) {
+            double from = distance;
+            // the load of the buttons entering meanwhile counts from the next advance
+            double target = Math.max(0.0, driveOutput / 100.0 * geometry.getRatedSpeed() * (1.0 - loadPerPart * size));
+            double to = distance + travelled(target, now - time);
+
+            while (nextArrival <= now) {
+                feed(distance + travelled(target, nextArrival - time));
+                nextArrival += nextInterArrival();
+            }
+
+            distance = to;
+            speed = target + (speed - target) * Math.exp(-(now - time) / NANOS_PER_SECOND / DRIVE_TIME_CONSTANT);
+            processCrossings(from, to);
+        }
+
+        time = now;
+    }
+
+    /**
+     * @return the distance the belt travels in the given time while its speed approaches the target
+     */
+    private double travelled(double target, long nanos) {
+        double seconds = nanos / NANOS_PER_SECOND;
+        return target * seconds + (speed - target) * DRIVE_TIME_CONSTANT * (1.0 - Math.exp(-seconds / DRIVE_TIME_CONSTANT));
+    }
+
+    /**
+     * Put a new button on the belt, it waits in the feeder until there is enough space.
+     */
+    private void feed(double entry) {
+        if (lastEntry > entry || size == partEntry.length) {
+            // the previous button is still waiting in the feeder
+            blockedParts++;
+            return;
+        }
+        entry = Math.max(entry, lastEntry + geometry.getMinPartGap());
+        int index = (head + size) % partEntry.length;
+        partEntry[index] = entry;
+        partColor[index] = random.nextDouble() < noReadProbability ? 0 : 1 + random.nextInt(COLORS);
+        partEjected[index] = false;
+        size++;
+        lastEntry = entry;
+        arrivedParts++;
+    }
+
+    private void processCrossings(double from, double to) {
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % partEntry.length;
+            if (partEjected[index]) {
+                continue;
+            }
+            double before = from - partEntry[index];
+            double after = to - partEntry[index];
+
+            if (before < geometry.getColorDetector() && after >= geometry.getColorDetector()) {
+                lastProcessedColor = detect(partColor[index]);
+                if (lastProcessedColor == 0) {
+                    unreadParts++;
+                }
+            }
+            for (int v = 0; v < VALVE_COUNT; v++) {
+                if ((valves & (ConveyorSnapshot.VALVE_1 << v)) != 0
+                        && before < geometry.getValve(v + 1) && after >= geometry.getValve(v + 1)) {
+                    partEjected[index] = true;
+                    ejectedParts[v]++;
+                    break;
+                }
+            }
+        }
+
+        while (size > 0) {
+            int index = head;
+            if (partEjected[index]) {
+                retireOldest();
+            } else if (to - partEntry[index] - geometry.getPartLength() / 2 > geometry.getBeltLength()) {
+                passedParts++;
+                retireOldest();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void retireOldest() {
+        head = (head + 1) % partEntry.length;
+        size--;
+    }
+
+    /**
+     * @return the color read by the detector, 0 if the button passed too fast
+     */
+    private int detect(int color) {
+        if (color == 0 || detectorExposure == 0.0 || speed <= 0) {
+            return color;
+        }
+        double dwell = geometry.getPartLength() / speed;
+        return dwell < detectorExposure && detectorRandom.nextDouble() > dwell / detectorExposure ? 0 : color;
+    }
+
+    private boolean isCovered(double position) {
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % partEntry.length;
+            if (!partEjected[index] && Math.abs(distance - partEntry[index] - position) <= geometry.getPartLength() / 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Exponentially distributed time to the next arrival.
+     */
+    private long nextInterArrival() {
+        return (long) (-Math.log(1.0 - random.nextDouble()) / partsPerSecond * NANOS_PER_SECOND) + 1;
+    }
+
+}
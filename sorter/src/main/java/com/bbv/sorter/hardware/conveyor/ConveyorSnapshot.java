@@ -0,0 +1,84 @@
+package com.bbv.sorter.hardware.conveyor;
+
+
+/**
+ * Reusable holder for a coherent bulk read of all {@link Conveyor} signals,
+ * filled by {@link Conveyor#readSnapshot(ConveyorSnapshot)}.
+ * The digital signals are packed into a bitfield, see the bit constants.
+ * Instances are mutable and not thread safe, a caller keeps one per reading thread.
+ */
+public final class ConveyorSnapshot {
+
+    public static final int STATUS = 1;
+    public static final int LIGHT_BARRIER_1 = 1 << 1;
+    public static final int LIGHT_BARRIER_2 = 1 << 2;
+    public static final int LIGHT_BARRIER_3 = 1 << 3;
+    public static final int VALVE_1 = 1 << 4;
+    public static final int VALVE_2 = 1 << 5;
+    public static final int VALVE_3 = 1 << 6;
+
+    public static final int LIGHT_BARRIERS = LIGHT_BARRIER_1 | LIGHT_BARRIER_2 | LIGHT_BARRIER_3;
+    public static final int VALVES = VALVE_1 | VALVE_2 | VALVE_3;
+
+    private int signals;
+    private double speed;
+    private int mode;
+    private int lastProcessedColor;
+    private long sampleNanos;
+
+    /**
+     * Fill all values at once, used by the {@link Conveyor} implementations.
+     *
+     * @param sampleNanos {@link System#nanoTime()} when the hardware was sampled
+     */
+    public void set(int signals, double speed, int mode, int lastProcessedColor, long sampleNanos) {
+        this.signals = signals;
+        this.speed = speed;
+        this.mode = mode;
+        this.lastProcessedColor = lastProcessedColor;
+        this.sampleNanos = sampleNanos;
+    }
+
+    public void copyFrom(ConveyorSnapshot other) {
+        set(other.signals, other.speed, other.mode, other.lastProcessedColor, other.sampleNanos);
+    }
+
+    /**
+     * @param signal one of the bit constants
+     * @return true if the signal is set
+     */
+    public boolean isSet(int signal) {
+        return (signals & signal) != 0;
+    }
+
+    public int getSignals() {
+        return signals;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public int getLastProcessedColor() {
+        return lastProcessedColor;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the hardware was sampled
+     */
+    public long getSampleNanos() {
+        return sampleNanos;
+    }
+
+    /**
+     * Pack a boolean into the given bit.
+     */
+    public static int bit(boolean value, int signal) {
+        return value ? signal : 0;
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Preallocated ring of the last light barrier edges of a conveyor, each with the
+ * {@link System#nanoTime()} it was sampled at.
+ * <p>
+ * Registered as {@link ConveyorListener}, the ring is written by the thread that samples
+ * the conveyor only (single producer). Any number of consumers read it concurrently
+ * without locks and without allocation: every consumer keeps the sequence of the next
+ * edge it wants and {@link #read(long, EdgeVisitor) reads} from there. A consumer that
+ * falls behind by more than the capacity loses the overwritten edges.
+ * <p>
+ * Every slot is a stamp and a time. The stamp holds the sequence and the edge, and
+ * is cleared while the producer writes the slot, so a reader detects a slot that was
+ * overwritten while it read it.
+ */
+public final class LightBarrierEdgeRing implements ConveyorListener {
+
+    /**
+     * Receives the edges of a {@link #read(long, EdgeVisitor) read}.
+     */
+    public interface EdgeVisitor {
+
+        /**
+         * @param lightBarrier 1, 2 or 3
+         * @param rising       the barrier was interrupted, otherwise released
+         */
+        void onEdge(long sequence, int lightBarrier, boolean rising, long nanoTime);
+    }
+
+    private static final long WRITING = -1L;
+    private static final int EDGE_BITS = 3;
+
+    private final AtomicLongArray slots;
+    private final AtomicLong head = new AtomicLong();
+    private final int mask;
+
+    // only accessed by the producer
+    private long next = 0;
+    private long sampleNanos;
+
+    /**
+     * @param capacity number of edges kept, a power of two
+     */
+    public LightBarrierEdgeRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.slots = new AtomicLongArray(2 * capacity);
+        this.mask = capacity - 1;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the sequence of the next edge, the number of edges recorded so far
+     */
+    public long getHead() {
+        return head.get();
+    }
+
+    @Override
+    public void onSampled(long sampleNanos) {
+        this.sampleNanos = sampleNanos;
+    }
+
+    @Override
+    public void onLightBarrierChanged(int lightBarrier, boolean value) {
+        record(lightBarrier, value, sampleNanos);
+    }
+
+    /**
+     * Producer side, must not be called concurrently.
+     */
+    public void record(int lightBarrier, boolean rising, long nanoTime) {
+        long sequence = next++;
+        int slot = (int) (sequence & mask) << 1;
+        slots.set(slot, WRITING);
+        slots.set(slot + 1, nanoTime);
+        slots.set(slot, sequence << EDGE_BITS | lightBarrier << 1 | (rising ? 1 : 0));
+        head.set(sequence + 1);
+    }
+
+    /**
+     * Hands the recorded edges from the given sequence on to the visitor, oldest first.
+     * Edges already overwritten are skipped.
+     *
+     * @param from the sequence of the first wanted edge
+     * @return the sequence to continue with
+     */
+    public long read(long from, EdgeVisitor visitor) {
+        long end = head.get();
+        long sequence = Math.max(from, end - getCapacity());
+        for (; sequence < end; sequence++) {
+            int slot = (int) (sequence & mask) << 1;
+            long stamp = slots.get(slot);
+            long nanoTime = slots.get(slot + 1);
+            if (stamp >>> EDGE_BITS != sequence || slots.get(slot) != stamp) {
+                // overwritten by the producer meanwhile
+                continue;
+            }
+            visitor.onEdge(sequence, (int) (stamp >> 1) & 0b11, (stamp & 1) != 0, nanoTime);
+        }
+        return end;
+    }
+
+    /**
+     * Hands the last edges on to the visitor, oldest first.
+     *
+     * @return the sequence to continue with
+     */
+    public long readLast(int count, EdgeVisitor visitor) {
+        return read(head.get() - Math.max(0, Math.min(count, getCapacity())), visitor);
+    }
+
+}
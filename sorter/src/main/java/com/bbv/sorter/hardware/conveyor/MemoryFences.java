@@ -0,0 +1,62 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Memory fences for the plain accesses of a memory mapped file shared with another process,
+ * where the ordering of volatile Java fields does not apply.
+ * <p>
+ * Java 8 has no public API for fences, these are the fences of {@code sun.misc.Unsafe}.
+ * The class is looked up by name instead of referenced, so the build does not depend on
+ * the internal API and stays free of its warnings. The method handles are constants,
+ * the JIT compiles a call to the fence instruction itself.
+ */
+final class MemoryFences {
+
+    private static final MethodHandle LOAD_FENCE;
+    private static final MethodHandle STORE_FENCE;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType fence = MethodType.methodType(void.class);
+            LOAD_FENCE = lookup.findVirtual(unsafeClass, "loadFence", fence).bindTo(unsafe);
+            STORE_FENCE = lookup.findVirtual(unsafeClass, "storeFence", fence).bindTo(unsafe);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private MemoryFences() {
+    }
+
+    /**
+     * No load before the fence is reordered with a load or store after it.
+     */
+    static void loadFence() {
+        try {
+            LOAD_FENCE.invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * No load or store before the fence is reordered with a store after it.
+     */
+    static void storeFence() {
+        try {
+            STORE_FENCE.invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+}
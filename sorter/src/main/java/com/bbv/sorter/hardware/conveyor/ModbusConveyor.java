@@ -0,0 +1,256 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import com.bbv.sorter.hardware.modbus.Modbus;
+import com.bbv.sorter.hardware.modbus.ModbusConnectionPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Driver for a conveyor behind a Modbus TCP coupler.
+ * <p>
+ * Register map, addresses from 0:
+ * <ul>
+ * <li>coils: run (write 1 to start, 0 to stop), valve 1 to 3</li>
+ * <li>discrete inputs: status, light barrier 1 to 3</li>
+ * <li>input registers: mode, speed in 1/100 cm/s, last processed color</li>
+ * <li>holding registers: drive output in 1/100 %</li>
+ * </ul>
+ * The signals of a table are adjacent, so {@link #readSnapshot(ConveyorSnapshot)} reads
+ * each table with one request and pipelines the three requests instead of issuing a
+ * round-trip per signal. A failed request, also one without response within the timeout
+ * of the pool, is thrown as {@link UncheckedIOException}.
+ */
+public class ModbusConveyor implements Conveyor {
+
+    public static final int COIL_RUN = 0;
+    public static final int COIL_VALVE_1 = 1;
+    public static final int COIL_VALVE_2 = 2;
+    public static final int COIL_VALVE_3 = 3;
+    public static final int COILS = 4;
+
+    public static final int INPUT_STATUS = 0;
+    public static final int INPUT_LIGHT_BARRIER_1 = 1;
+    public static final int INPUT_LIGHT_BARRIER_2 = 2;
+    public static final int INPUT_LIGHT_BARRIER_3 = 3;
+    public static final int DISCRETE_INPUTS = 4;
+
+    public static final int REGISTER_MODE = 0;
+    public static final int REGISTER_SPEED = 1;
+    public static final int REGISTER_LAST_PROCESSED_COLOR = 2;
+    public static final int INPUT_REGISTERS = 3;
+
+    public static final int HOLDING_REGISTER_DRIVE_OUTPUT = 0;
+    public static final int HOLDING_REGISTERS = 1;
+
+    /**
+     * Register units per cm/s.
+     */
+    public static final double SPEED_SCALE = 100.0;
+
+    /**
+     * Register units per percent of drive output.
+     */
+    public static final double DRIVE_OUTPUT_SCALE = 100.0;
+
+    private static final byte[] READ_ALL_COILS = Modbus.readRequest(Modbus.READ_COILS, 0, COILS);
+    private static final byte[] READ_ALL_DISCRETE_INPUTS = Modbus.readRequest(Modbus.READ_DISCRETE_INPUTS, 0, DISCRETE_INPUTS);
+    private static final byte[] READ_VALVE_COILS = Modbus.readRequest(Modbus.READ_COILS, COIL_VALVE_1, 3);
+    private static final byte[] READ_ALL_INPUT_REGISTERS = Modbus.readRequest(Modbus.READ_INPUT_REGISTERS, 0, INPUT_REGISTERS);
+
+    private final ConveyorEventSupport events = new ConveyorEventSupport();
+
+    private final ModbusConnectionPool pool;
+    private final int unitId;
+
+    /**
+     * @param pool   connections to the gateway, may be shared with the other lines behind it
+     * @param unitId unit identifier of the line behind the gateway
+     */
+    public ModbusConveyor(ModbusConnectionPool pool, int unitId) {
+        this.pool = pool;
+        this.unitId = unitId;
+    }
+
+    @Override
+    public boolean getStatus() {
+        return readBit(Modbus.READ_DISCRETE_INPUTS, INPUT_STATUS);
+    }
+
+    @Override
+    public int getMode() {
+        return readRegister(REGISTER_MODE);
+    }
+
+    @Override
+    public void start() {
+        writeCoil(COIL_RUN, true);
+    }
+
+    @Override
+    public void stop() {
+        writeCoil(COIL_RUN, false);
+    }
+
+    @Override
+    public boolean readLightBarrier1() {
+        return readBit(Modbus.READ_DISCRETE_INPUTS, INPUT_LIGHT_BARRIER_1);
+    }
+
+    @Override
+    public boolean readLightBarrier2() {
+        return readBit(Modbus.READ_DISCRETE_INPUTS, INPUT_LIGHT_BARRIER_2);
+    }
+
+    @Override
+    public boolean readLightBarrier3() {
+        return readBit(Modbus.READ_DISCRETE_INPUTS, INPUT_LIGHT_BARRIER_3);
+    }
+
+    @Override
+    public double readSpeed() {
+        return readRegister(REGISTER_SPEED) / SPEED_SCALE;
+    }
+
+    @Override
+    public boolean readValve1() {
+        return readBit(Modbus.READ_COILS, COIL_VALVE_1);
+    }
+
+    @Override
+    public boolean readValve2() {
+        return readBit(Modbus.READ_COILS, COIL_VALVE_2);
+    }
+
+    @Override
+    public boolean readValve3() {
+        return readBit(Modbus.READ_COILS, COIL_VALVE_3);
+    }
+
+    @Override
+    public void setValve1(boolean pressure) {
+        writeCoil(COIL_VALVE_1, pressure);
+    }
+
+    @Override
+    public void setValve2(boolean pressure) {
+        writeCoil(COIL_VALVE_2, pressure);
+    }
+
+    @Override
+    public void setValve3(boolean pressure) {
+        writeCoil(COIL_VALVE_3, pressure);
+    }
+
+    /**
+     * The valve coils are adjacent and written with one write multiple coils request.
+     */
+    @Override
+    public void setValves(int valves) {
+        int coils = ConveyorSnapshot.bit((valves & ConveyorSnapshot.VALVE_1) != 0, 1)
+                | ConveyorSnapshot.bit((valves & ConveyorSnapshot.VALVE_2) != 0, 1 << (COIL_VALVE_2 - COIL_VALVE_1))
+                | ConveyorSnapshot.bit((valves & ConveyorSnapshot.VALVE_3) != 0, 1 << (COIL_VALVE_3 - COIL_VALVE_1));
+        await(pool.request(unitId, Modbus.writeMultipleCoils(COIL_VALVE_1, 3, coils)));
+    }
+
+    /**
+     * There is no masked write of coils: the valve coils are read with one request and
+     * written back with the others changed.
+     */
+    @Override
+    public void updateValves(int valves, int mask) {
+        if ((mask & ConveyorSnapshot.VALVES) == ConveyorSnapshot.VALVES) {
+            setValves(valves);
+            return;
+        }
+        byte[] coils = await(pool.request(unitId, READ_VALVE_COILS));
+        int current = ConveyorSnapshot.bit(Modbus.bit(coils, 0), ConveyorSnapshot.VALVE_1)
+                | ConveyorSnapshot.bit(Modbus.bit(coils, COIL_VALVE_2 - COIL_VALVE_1), ConveyorSnapshot.VALVE_2)
+                | ConveyorSnapshot.bit(Modbus.bit(coils, COIL_VALVE_3 - COIL_VALVE_1), ConveyorSnapshot.VALVE_3);
+        setValves((current & ~mask) | (valves & mask));
+    }
+
+    @Override
+    public void setDriveOutput(double percent) {
+        int value = (int) Math.round(Math.max(0.0, Math.min(100.0, percent)) * DRIVE_OUTPUT_SCALE);
+        await(pool.request(unitId, Modbus.writeSingleRegister(HOLDING_REGISTER_DRIVE_OUTPUT, value)));
+    }
+
+    @Override
+    public int getLastProcessedColor() {
+        return readRegister(REGISTER_LAST_PROCESSED_COLOR);
+    }
+
+    @Override
+    public void readSnapshot(ConveyorSnapshot snapshot) {
+        // all three requests are on the wire before the first response is awaited
+        long requested = System.nanoTime();
+        CompletableFuture<byte[]> coilsRequest = pool.request(unitId, READ_ALL_COILS);
+        CompletableFuture<byte[]> inputsRequest = pool.request(unitId, READ_ALL_DISCRETE_INPUTS);
+        CompletableFuture<byte[]> registersRequest = pool.request(unitId, READ_ALL_INPUT_REGISTERS);
+
+        byte[] coils = await(coilsRequest);
+        byte[] inputs = await(inputsRequest);
+        byte[] registers = await(registersRequest);
+        // the slave sampled somewhere between the requests and the last response
+        long sampled = requested + (System.nanoTime() - requested) / 2;
+
+        int signals = ConveyorSnapshot.bit(Modbus.bit(inputs, INPUT_STATUS), ConveyorSnapshot.STATUS)
+                | ConveyorSnapshot.bit(Modbus.bit(inputs, INPUT_LIGHT_BARRIER_1), ConveyorSnapshot.LIGHT_BARRIER_1)
+                | ConveyorSnapshot.bit(Modbus.bit(inputs, INPUT_LIGHT_BARRIER_2), ConveyorSnapshot.LIGHT_BARRIER_2)
+                | ConveyorSnapshot.bit(Modbus.bit(inputs, INPUT_LIGHT_BARRIER_3), ConveyorSnapshot.LIGHT_BARRIER_3)
+                | ConveyorSnapshot.bit(Modbus.bit(coils, COIL_VALVE_1), ConveyorSnapshot.VALVE_1)
+                | ConveyorSnapshot.bit(Modbus.bit(coils, COIL_VALVE_2), ConveyorSnapshot.VALVE_2)
+                | ConveyorSnapshot.bit(Modbus.bit(coils, COIL_VALVE_3), ConveyorSnapshot.VALVE_3);
+        snapshot.set(signals,
+                Modbus.register(registers, REGISTER_SPEED) / SPEED_SCALE,
+                Modbus.register(registers, REGISTER_MODE),
+                Modbus.register(registers, REGISTER_LAST_PROCESSED_COLOR),
+                sampled);
+        events.publish(snapshot);
+    }
+
+    @Override
+    public void addConveyorListener(ConveyorListener listener) {
+        events.addListener(listener);
+    }
+
+    @Override
+    public void removeConveyorListener(ConveyorListener listener) {
+        events.removeListener(listener);
+    }
+
+    private boolean readBit(int function, int address) {
+        return Modbus.bit(await(pool.request(unitId, Modbus.readRequest(function, address, 1))), 0);
+    }
+
+    private int readRegister(int address) {
+        return Modbus.register(await(pool.request(unitId, Modbus.readRequest(Modbus.READ_INPUT_REGISTERS, address, 1))), 0);
+    }
+
+    private void writeCoil(int address, boolean value) {
+        await(pool.request(unitId, Modbus.writeSingleCoil(address, value)));
+    }
+
+    private byte[] await(CompletableFuture<byte[]> response) {
+        try {
+            // the connection fails a request without response in its timeout, this is a safety net
+            return response.get(pool.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new UncheckedIOException(new SocketTimeoutException("No Modbus response within " + pool.getTimeoutMillis() + " ms"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for the Modbus response"));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new UncheckedIOException(cause instanceof IOException ? (IOException) cause : new IOException(cause));
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.bbv.sorter.hardware.conveyor;
+
+
+/**
+ * Follows the buttons tracked by a {@link SortingEngine} from LB1 until they are ejected
+ * or leave the belt. Parts are identified by an id unique per engine, times are in
+ * {@link System#nanoTime()}. Callbacks run on the engine thread and must return quickly.
+ */
+public interface PartListener {
+
+    default void onPartEntered(long id, long lightBarrier1) {
+    }
+
+    /**
+     * @param color the code of {@link Conveyor#getLastProcessedColor()}
+     */
+    default void onPartColored(long id, int color) {
+    }
+
+    default void onPartReachedValves(long id, long lightBarrier2) {
+    }
+
+    default void onPartReachedEnd(long id, long lightBarrier3) {
+    }
+
+    /**
+     * The part is no longer tracked, its id is not used again.
+     *
+     * @param valve the valve pulsed for the part, 0 if none
+     */
+    default void onPartRetired(long id, PartOutcome outcome, int valve) {
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.bbv.sorter.hardware.conveyor;
+
+/**
+ * What became of a button tracked by the {@link SortingEngine}.
+ */
+public enum PartOutcome {
+
+    /**
+     * Its valve was pulsed in time.
+     */
+    EJECTED,
+
+    /**
+     * Its valve was pulsed after it should have opened, the button may have passed.
+     */
+    LATE,
+
+    /**
+     * The decision came after the button passed its valve, it left the belt at LB3.
+     */
+    MISSED,
+
+    /**
+     * No valve for its color, it left the belt at LB3.
+     */
+    PASSED,
+
+    /**
+     * The belt stopped or the engine ended while the button was tracked.
+     */
+    LOST
+
+}
@@ -0,0 +1,153 @@
+package com.bbv.sorter.hardware.conveyor;
+
+/**
+ * Driver for a conveyor controlled by a soft-PLC on the same host, exchanging the
+ * process image through a {@link SharedMemoryImage}.
+ * <p>
+ * Reads return the inputs last published by the PLC. Commands are written to the
+ * output area and take effect in the next PLC cycle, so e.g. {@link #readValve1()}
+ * reflects {@link #setValve1(boolean)} only after the PLC applied it.
+ */
+public class SharedMemoryConveyor implements Conveyor {
+
+    private final ConveyorEventSupport events = new ConveyorEventSupport();
+    private final ConveyorSnapshot inputs = new ConveyorSnapshot();
+
+    private final SharedMemoryImage image;
+
+    private int outputs;
+    private double driveOutput;
+
+    public SharedMemoryConveyor(SharedMemoryImage image) {
+        this.image = image;
+        this.outputs = image.readOutputs();
+        this.driveOutput = image.readDriveOutput();
+    }
+
+    @Override
+    public boolean getStatus() {
+        return readInput(ConveyorSnapshot.STATUS);
+    }
+
+    @Override
+    public synchronized int getMode() {
+        image.readInputs(inputs);
+        return inputs.getMode();
+    }
+
+    @Override
+    public void start() {
+        writeOutput(SharedMemoryImage.RUN, true);
+    }
+
+    @Override
+    public void stop() {
+        writeOutput(SharedMemoryImage.RUN, false);
+    }
+
+    @Override
+    public boolean readLightBarrier1() {
+        return readInput(ConveyorSnapshot.LIGHT_BARRIER_1);
+    }
+
+    @Override
+    public boolean readLightBarrier2() {
+        return readInput(ConveyorSnapshot.LIGHT_BARRIER_2);
+    }
+
+    @Override
+    public boolean readLightBarrier3() {
+        return readInput(ConveyorSnapshot.LIGHT_BARRIER_3);
+    }
+
+    @Override
+    public synchronized double readSpeed() {
+        image.readInputs(inputs);
+        return inputs.getSpeed();
+    }
+
+    @Override
+    public boolean readValve1() {
+        return readInput(ConveyorSnapshot.VALVE_1);
+    }
+
+    @Override
+    public boolean readValve2() {
+        return readInput(ConveyorSnapshot.VALVE_2);
+    }
+
+    @Override
+    public boolean readValve3() {
+        return readInput(ConveyorSnapshot.VALVE_3);
+    }
+
+    @Override
+    public void setValve1(boolean pressure) {
+        writeOutput(ConveyorSnapshot.VALVE_1, pressure);
+    }
+
+    @Override
+    public void setValve2(boolean pressure) {
+        writeOutput(ConveyorSnapshot.VALVE_2, pressure);
+    }
+
+    @Override
+    public void setValve3(boolean pressure) {
+        writeOutput(ConveyorSnapshot.VALVE_3, pressure);
+    }
+
+    @Override
+    public synchronized void setValves(int valves) {
+        outputs = (outputs & ~ConveyorSnapshot.VALVES) | (valves & ConveyorSnapshot.VALVES);
+        image.writeOutputs(outputs, driveOutput);
+    }
+
+    @Override
+    public synchronized void updateValves(int valves, int mask) {
+        int masked = mask & ConveyorSnapshot.VALVES;
+        outputs = (outputs & ~masked) | (valves & masked);
+        image.writeOutputs(outputs, driveOutput);
+    }
+
+    @Override
+    public synchronized void setDriveOutput(double percent) {
+        driveOutput = percent;
+        image.writeOutputs(outputs, driveOutput);
+    }
+
+    @Override
+    public synchronized int getLastProcessedColor() {
+        image.readInputs(inputs);
+        return inputs.getLastProcessedColor();
+    }
+
+    @Override
+    public void readSnapshot(ConveyorSnapshot snapshot) {
+        image.readInputs(snapshot);
+        events.publish(snapshot);
+    }
+
+    @Override
+    public void addConveyorListener(ConveyorListener listener) {
+        events.addListener(listener);
+    }
+
+    @Override
+    public void removeConveyorListener(ConveyorListener listener) {
+        events.removeListener(listener);
+    }
+
+    private synchronized boolean readInput(int signal) {
+        image.readInputs(inputs);
+        return inputs.isSet(signal);
+    }
+
+    /**
+     * The server is the only writer of the output area, serialized by this lock.
+     */
+    private synchronized void writeOutput(int output, boolean value) {
+        outputs = value ? outputs | output : outputs & ~output;
+        image.writeOutputs(outputs, driveOutput);
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process image of a conveyor in a memory mapped file, shared between the server
+ * and a soft-PLC on the same host.
+ * <p>
+ * The file holds two areas with a single writer each: the input area is written by the
+ * PLC and holds the signals in the layout of {@link ConveyorSnapshot}, the output area is
+ * written by the server and holds the requested run state, valves and drive output.
+ * <p>
+ * Each area is protected by a seqlock: the writer makes the sequence odd, writes the
+ * values and makes it even again; a reader retries until it read the same even sequence
+ * before and after the values, so it never sees a torn image. Reading costs a few memory
+ * loads and never blocks the writer. A writer that died halfway through a write leaves
+ * its sequence odd; a read that waits longer than {@value #MAX_WRITE_MILLIS} ms for the
+ * sequence to become even fails with an {@link UncheckedIOException}.
+ */
+public final class SharedMemoryImage implements Closeable {
+
+    public static final int MAGIC = 0x534F5254; // "SORT"
+    public static final int LAYOUT_VERSION = 2;
+
+    /**
+     * Run request in the value of {@link #readOutputs()}.
+     */
+    public static final int RUN = 1 << 31;
+
+    // header
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+
+    // input area, written by the PLC
+    private static final int OFFSET_INPUT_SEQUENCE = 64;
+    private static final int OFFSET_SIGNALS = 72;
+    private static final int OFFSET_MODE = 76;
+    private static final int OFFSET_SPEED = 80;
+    private static final int OFFSET_LAST_PROCESSED_COLOR = 88;
+
+    // output area, written by the server, on its own cache line
+    private static final int OFFSET_OUTPUT_SEQUENCE = 128;
+    private static final int OFFSET_RUN = 136;
+    private static final int OFFSET_VALVES = 140;
+    private static final int OFFSET_DRIVE_OUTPUT = 144;
+
+    public static final int SIZE = 192;
+
+    // a writer holding its area longer has died halfway through a write
+    private static final long MAX_WRITE_MILLIS = 100;
+    private static final long MAX_WRITE_NANOS = TimeUnit.MILLISECONDS.toNanos(MAX_WRITE_MILLIS);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private SharedMemoryImage(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Map the image, the file is created and initialized if it does not exist yet.
+     */
+    public static SharedMemoryImage open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            buffer.order(ByteOrder.nativeOrder());
+
+            SharedMemoryImage image = new SharedMemoryImage(channel, buffer);
+            synchronized (SharedMemoryImage.class) {
+                // a new file is zero filled
+                if (buffer.getInt(OFFSET_MAGIC) == 0) {
+                    buffer.putInt(OFFSET_VERSION, LAYOUT_VERSION);
+                    buffer.putDouble(OFFSET_DRIVE_OUTPUT, Double.NaN);
+                    MemoryFences.storeFence();
+                    buffer.putInt(OFFSET_MAGIC, MAGIC);
+                }
+            }
+            if (buffer.getInt(OFFSET_MAGIC) != MAGIC || buffer.getInt(OFFSET_VERSION) != LAYOUT_VERSION) {
+                throw new IOException("Not a conveyor process image of version " + LAYOUT_VERSION + ": " + file);
+            }
+            return image;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the input area, spinning while the PLC writes it.
+     *
+     * @throws UncheckedIOException if the PLC did not finish a write within {@value #MAX_WRITE_MILLIS} ms
+     */
+    public void readInputs(ConveyorSnapshot snapshot) {
+        int signals;
+        int mode;
+        double speed;
+        int lastProcessedColor;
+        long sequence;
+        do {
+            sequence = awaitEven(OFFSET_INPUT_SEQUENCE);
+            signals = buffer.getInt(OFFSET_SIGNALS);
+            mode = buffer.getInt(OFFSET_MODE);
+            speed = buffer.getDouble(OFFSET_SPEED);
+            lastProcessedColor = buffer.getInt(OFFSET_LAST_PROCESSED_COLOR);
+            MemoryFences.loadFence();
+        } while (buffer.getLong(OFFSET_INPUT_SEQUENCE) != sequence);
+        // the PLC publishes its inputs within its cycle, the read is the sample time
+        snapshot.set(signals, speed, mode, lastProcessedColor, System.nanoTime());
+    }
+
+    /**
+     * PLC side, the caller must be the only writer of the input area.
+     */
+    public void writeInputs(ConveyorSnapshot snapshot) {
+        long sequence = beginWrite(OFFSET_INPUT_SEQUENCE);
+        buffer.putInt(OFFSET_SIGNALS, snapshot.getSignals());
+        buffer.putInt(OFFSET_MODE, snapshot.getMode());
+        buffer.putDouble(OFFSET_SPEED, snapshot.getSpeed());
+        buffer.putInt(OFFSET_LAST_PROCESSED_COLOR, snapshot.getLastProcessedColor());
+        endWrite(OFFSET_INPUT_SEQUENCE, sequence);
+    }
+
+    /**
+     * @return the run request in bit 31 and the valves in the layout of {@link ConveyorSnapshot}
+     */
+    public int readOutputs() {
+        int run;
+        int valves;
+        long sequence;
+        do {
+            sequence = awaitEven(OFFSET_OUTPUT_SEQUENCE);
+            run = buffer.getInt(OFFSET_RUN);
+            valves = buffer.getInt(OFFSET_VALVES);
+            MemoryFences.loadFence();
+        } while (buffer.getLong(OFFSET_OUTPUT_SEQUENCE) != sequence);
+        return (run != 0 ? RUN : 0) | (valves & ConveyorSnapshot.VALVES);
+    }
+
+    /**
+     * @return the drive output in percent, NaN until the server set one
+     */
+    public double readDriveOutput() {
+        double driveOutput;
+        long sequence;
+        do {
+            sequence = awaitEven(OFFSET_OUTPUT_SEQUENCE);
+            driveOutput = buffer.getDouble(OFFSET_DRIVE_OUTPUT);
+            MemoryFences.loadFence();
+        } while (buffer.getLong(OFFSET_OUTPUT_SEQUENCE) != sequence);
+        return driveOutput;
+    }
+
+    /**
+     * Server side, the caller must be the only writer of the output area.
+     *
+     * @param outputs     as returned by {@link #readOutputs()}
+     * @param driveOutput as returned by {@link #readDriveOutput()}
+     */
+    public void writeOutputs(int outputs, double driveOutput) {
+        long sequence = beginWrite(OFFSET_OUTPUT_SEQUENCE);
+        buffer.putInt(OFFSET_RUN, (outputs & RUN) != 0 ? 1 : 0);
+        buffer.putInt(OFFSET_VALVES, outputs & ConveyorSnapshot.VALVES);
+        buffer.putDouble(OFFSET_DRIVE_OUTPUT, driveOutput);
+        endWrite(OFFSET_OUTPUT_SEQUENCE, sequence);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long awaitEven(int offset) {
+        long sequence = buffer.getLong(offset);
+        if ((sequence & 1) != 0) {
+            long deadline = System.nanoTime() + MAX_WRITE_NANOS;
+            do {
+                if (System.nanoTime() - deadline > 0) {
+                    throw new UncheckedIOException(new IOException(
+                            "Process image locked by its writer for more than " + MAX_WRITE_MILLIS + " ms"));
+                }
+                Thread.yield();
+                sequence = buffer.getLong(offset);
+            } while ((sequence & 1) != 0);
+        }
+        MemoryFences.loadFence();
+        return sequence;
+    }
+
+    private long beginWrite(int offset) {
+        long sequence = buffer.getLong(offset) + 1;
+        buffer.putLong(offset, sequence);
+        MemoryFences.storeFence();
+        return sequence;
+    }
+
+    private void endWrite(int offset, long sequence) {
+        MemoryFences.storeFence();
+        buffer.putLong(offset, sequence + 1);
+    }
+
+}
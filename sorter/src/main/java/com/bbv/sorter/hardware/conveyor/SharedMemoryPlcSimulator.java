@@ -0,0 +1,116 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PLC side of a {@link SharedMemoryImage} for testing without a soft-PLC: every cycle
+ * applies the outputs requested by the server to a {@link Conveyor}, typically a
+ * {@link ConveyorSimulator}, and publishes its signals as inputs.
+ * <p>
+ * Run as a separate process with
+ * {@code SharedMemoryPlcSimulator <image file> [cycle micros] [seed]}.
+ */
+public class SharedMemoryPlcSimulator implements Runnable {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ConveyorSnapshot snapshot = new ConveyorSnapshot();
+
+    private final SharedMemoryImage image;
+    private final Conveyor conveyor;
+    private final long cycleNanos;
+
+    private int appliedOutputs;
+    private double appliedDriveOutput = Double.NaN;
+    private volatile boolean running = true;
+    private long cycles = 0;
+
+    public SharedMemoryPlcSimulator(SharedMemoryImage image, Conveyor conveyor, long cycleTime, TimeUnit unit) {
+        this.image = image;
+        this.conveyor = conveyor;
+        this.cycleNanos = unit.toNanos(cycleTime);
+        this.appliedOutputs = ~image.readOutputs();
+    }
+
+    /**
+     * One PLC cycle: apply the outputs, then publish the inputs.
+     */
+    public void cycle() {
+        int outputs = image.readOutputs();
+        int changed = outputs ^ appliedOutputs;
+        if (changed != 0) {
+            if ((changed & SharedMemoryImage.RUN) != 0) {
+                if ((outputs & SharedMemoryImage.RUN) != 0) {
+                    conveyor.start();
+                } else {
+                    conveyor.stop();
+                }
+            }
+            if ((changed & ConveyorSnapshot.VALVES) != 0) {
+                conveyor.setValves(outputs & ConveyorSnapshot.VALVES);
+            }
+            appliedOutputs = outputs;
+        }
+        double driveOutput = image.readDriveOutput();
+        if (!Double.isNaN(driveOutput) && driveOutput != appliedDriveOutput) {
+            conveyor.setDriveOutput(driveOutput);
+            appliedDriveOutput = driveOutput;
+        }
+
+        conveyor.readSnapshot(snapshot);
+        image.writeInputs(snapshot);
+        cycles++;
+    }
+
+    /**
+     * Run cycles at the fixed cycle time until {@link #stop()}.
+     */
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        while (running) {
+            cycle();
+            next += cycleNanos;
+            long delay = next - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            } else {
+                // overrun, do not try to catch up
+                next = System.nanoTime();
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SharedMemoryPlcSimulator <image file> [cycle micros] [seed]");
+            System.exit(1);
+        }
+        Path file = Paths.get(args[0]);
+        long cycleMicros = args.length > 1 ? Long.parseLong(args[1]) : 1000L;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+
+        SharedMemoryImage image = SharedMemoryImage.open(file);
+        ConveyorSimulator simulator = new ConveyorSimulator(seed, 2.0, 5.0, 0.02, System::nanoTime);
+        SharedMemoryPlcSimulator plc = new SharedMemoryPlcSimulator(image, simulator, cycleMicros, TimeUnit.MICROSECONDS);
+
+        plc.logger.info("Simulating the PLC of {} with a cycle of {} us", file, cycleMicros);
+        plc.run();
+    }
+
+}
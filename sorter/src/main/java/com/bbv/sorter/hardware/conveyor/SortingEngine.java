@@ -0,0 +1,402 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import com.bbv.sorter.hardware.timing.JitterHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Closed loop sorting of one line inside the server: the color of every button is
+ * mapped to a valve by the {@link SortingTable} and the valve is pulsed when the
+ * button passes it.
+ * <p>
+ * A button is tracked from its LB1 edge. Its color is taken from the I/O image once
+ * it passed the color detector, its LB2 edge fixes the time it crosses the valves.
+ * The valve is pulsed by the {@link ValvePulser} for the time the button needs to pass
+ * it, centered on the crossing. The positions are those of the line, see
+ * {@link ConveyorGeometry}.
+ * <p>
+ * The edges are handed from the sampling thread to a dedicated engine thread, so the
+ * decisions neither wait for nor delay the OPC UA request handling. Every edge carries
+ * the time the hardware was sampled, not the time it was handed over. For every button
+ * the time from the LB2 edge to the scheduled pulse is checked against its budget,
+ * the time left until the valve must open.
+ * <p>
+ * The recipe may be replaced while the line runs. Every decision reads the current
+ * table once, a button is sorted entirely by either the old or the new recipe.
+ * <p>
+ * Buttons that are not ejected are followed until LB3. The {@link PartListener} sees
+ * every button from LB1 until it is retired.
+ */
+public class SortingEngine implements ConveyorListener {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int LIGHT_BARRIER_1 = 1;
+    private static final int LIGHT_BARRIER_2 = 2;
+    private static final int LIGHT_BARRIER_3 = 3;
+    private static final int STOPPED = 4;
+
+    // buttons on their way to LB3 at most, older ones missed their LB3 edge
+    private static final int MAX_PASSING = 16;
+
+    private static final PartListener NO_PART_LISTENER = new PartListener() {
+    };
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+
+    // buttons between LB1 and LB2, oldest first, only accessed by the engine thread
+    private final ArrayDeque<Part> parts = new ArrayDeque<>();
+    // buttons between LB2 and LB3 that were not ejected, oldest first, only accessed by the engine thread
+    private final ArrayDeque<Part> passing = new ArrayDeque<>();
+
+    private final JitterHistogram decisionLatency = new JitterHistogram();
+    private final AtomicLong sortedParts = new AtomicLong();
+    private final AtomicLong passedParts = new AtomicLong();
+    private final AtomicLong lateParts = new AtomicLong();
+    private final AtomicLong unexpectedParts = new AtomicLong();
+    private final AtomicLong detectedParts = new AtomicLong();
+    private final AtomicLong unreadParts = new AtomicLong();
+
+    private final int line;
+    private final ConveyorGeometry geometry;
+    private final ConveyorScanner scanner;
+    private final ValvePulser pulser;
+    private final long colorMarginNanos;
+
+    private final AtomicReference<SortingTable> table;
+    private volatile PartListener partListener = NO_PART_LISTENER;
+    private Thread thread;
+    private long nextPartId = 1;
+    // sample of the changes being reported, only accessed by the sampling thread
+    private long sampleNanos;
+
+    /**
+     * @param geometry    positions of the color detector, LB2 and the valves of the line
+     * @param colorMargin time after the computed pass of the color detector until the color
+     *                    is taken from the image, at least two scan cycles
+     */
+    public SortingEngine(int line, ConveyorGeometry geometry, ConveyorScanner scanner, ValvePulser pulser, SortingTable table,
+                         long colorMargin, TimeUnit unit) {
+        this.line = line;
+        this.geometry = geometry;
+        this.scanner = scanner;
+        this.pulser = pulser;
+        this.table = new AtomicReference<>(table);
+        this.colorMarginNanos = unit.toNanos(colorMargin);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        events.clear();
+        scanner.getConveyor().addConveyorListener(this);
+
+        thread = new Thread(this::run, "sorting-engine-" + line);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY - 1);
+        thread.start();
+        logger.info("Sorting line {} with {}", line, table.get());
+    }
+
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        scanner.getConveyor().removeConveyorListener(this);
+        thread.interrupt();
+        try {
+            // a restarted engine must not share the tracked buttons with the old thread
+            thread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    public SortingTable getTable() {
+        return table.get();
+    }
+
+    /**
+     * Replaces the recipe, takes effect with the next button reaching LB2.
+     */
+    public void setTable(SortingTable table) {
+        SortingTable previous = this.table.getAndSet(table);
+        logger.info("Recipe of line {} changed from {} to {}", line, previous, table);
+    }
+
+    public void setPartListener(PartListener partListener) {
+        this.partListener = partListener == null ? NO_PART_LISTENER : partListener;
+    }
+
+    /**
+     * @return the time from the sample of an LB2 edge to the scheduled valve pulse
+     */
+    public JitterHistogram getDecisionLatency() {
+        return decisionLatency;
+    }
+
+    /**
+     * @return the buttons a valve was pulsed for
+     */
+    public long getSortedParts() {
+        return sortedParts.get();
+    }
+
+    /**
+     * @return the buttons without a valve for their color, left for the end of the belt
+     */
+    public long getPassedParts() {
+        return passedParts.get();
+    }
+
+    /**
+     * @return the buttons whose decision took longer than their budget, the valve was
+     * opened late or not at all
+     */
+    public long getLateParts() {
+        return lateParts.get();
+    }
+
+    /**
+     * @return LB2 edges without a button seen at LB1
+     */
+    public long getUnexpectedParts() {
+        return unexpectedParts.get();
+    }
+
+    /**
+     * @return the buttons whose color was taken from the detector
+     */
+    public long getDetectedParts() {
+        return detectedParts.get();
+    }
+
+    /**
+     * @return the buttons the detector could not read, part of {@link #getDetectedParts()}
+     */
+    public long getUnreadParts() {
+        return unreadParts.get();
+    }
+
+    @Override
+    public void onSampled(long sampleNanos) {
+        this.sampleNanos = sampleNanos;
+    }
+
+    @Override
+    public void onLightBarrierChanged(int lightBarrier, boolean value) {
+        if (value) {
+            events.offer(new Event(lightBarrier, sampleNanos));
+        }
+    }
+
+    @Override
+    public void onModeChanged(int mode) {
+        if (mode != 1) {
+            events.offer(new Event(STOPPED, sampleNanos));
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Part next = nextWithoutColor();
+                Event event = next == null
+                        ? events.take()
+                        : events.poll(next.colorDeadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+                if (event != null) {
+                    handle(event);
+                }
+                assignColors(System.nanoTime());
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (RuntimeException e) {
+            logger.error("Sorting engine of line {} failed", line, e);
+        } finally {
+            retireAll();
+        }
+    }
+
+    private void handle(Event event) {
+        switch (event.type) {
+            case LIGHT_BARRIER_1: {
+                double speed = scanner.getImage().readSpeed();
+                if (speed > 0) {
+                    long detector = nanos((geometry.getColorDetector() - geometry.getLightBarrier1()) / speed);
+                    Part part = new Part(nextPartId++, event.time + detector + colorMarginNanos);
+                    parts.add(part);
+                    partListener.onPartEntered(part.id, event.time);
+                }
+                break;
+            }
+            case LIGHT_BARRIER_2: {
+                Part part = parts.poll();
+                if (part == null) {
+                    unexpectedParts.incrementAndGet();
+                } else {
+                    if (part.color < 0) {
+                        assignColor(part);
+                    }
+                    partListener.onPartReachedValves(part.id, event.time);
+                    eject(part, event.time);
+                }
+                break;
+            }
+            case LIGHT_BARRIER_3: {
+                Part part = passing.poll();
+                if (part != null) {
+                    partListener.onPartReachedEnd(part.id, event.time);
+                    retire(part);
+                }
+                break;
+            }
+            default:
+                // the belt stopped, the computed times are void
+                if (!parts.isEmpty() || !passing.isEmpty()) {
+                    logger.info("Line {} stopped, {} buttons no longer tracked", line, parts.size() + passing.size());
+                    retireAll();
+                }
+        }
+    }
+
+    private void eject(Part part, long edge) {
+        int valve = table.get().getValve(part.color);
+        double speed = scanner.getImage().readSpeed();
+        if (valve == 0 || speed <= 0) {
+            passedParts.incrementAndGet();
+            pass(part, PartOutcome.PASSED);
+            return;
+        }
+
+        // the LB2 edge is the front of the button, the valve ejects when the center crosses it
+        double center = geometry.getLightBarrier2() - geometry.getPartLength() / 2;
+        long crossing = edge + nanos((geometry.getValve(valve) - center) / speed);
+        long duration = nanos(geometry.getPartLength() / speed);
+        long open = crossing - duration / 2;
+        long close = open + duration;
+
+        long now = System.nanoTime();
+        decisionLatency.record(now - edge);
+
+        part.valve = valve;
+        if (now <= open) {
+            pulser.pulse(valve, open - now, duration);
+            sortedParts.incrementAndGet();
+            part.outcome = PartOutcome.EJECTED;
+            retire(part);
+        } else {
+            lateParts.incrementAndGet();
+            if (now < close) {
+                pulser.pulse(valve, 0, close - now);
+                sortedParts.incrementAndGet();
+                part.outcome = PartOutcome.LATE;
+                retire(part);
+            } else {
+                part.valve = 0;
+                pass(part, PartOutcome.MISSED);
+            }
+        }
+    }
+
+    private void pass(Part part, PartOutcome outcome) {
+        part.outcome = outcome;
+        passing.add(part);
+        if (passing.size() > MAX_PASSING) {
+            Part missing = passing.poll();
+            missing.outcome = PartOutcome.LOST;
+            retire(missing);
+        }
+    }
+
+    private void retire(Part part) {
+        partListener.onPartRetired(part.id, part.outcome, part.valve);
+    }
+
+    private void retireAll() {
+        for (ArrayDeque<Part> tracked : Arrays.asList(parts, passing)) {
+            Part part;
+            while ((part = tracked.poll()) != null) {
+                part.outcome = PartOutcome.LOST;
+                retire(part);
+            }
+        }
+    }
+
+    private void assignColors(long now) {
+        for (Part part : parts) {
+            if (part.color >= 0) {
+                continue;
+            }
+            if (part.colorDeadline - now > 0) {
+                break;
+            }
+            assignColor(part);
+        }
+    }
+
+    private void assignColor(Part part) {
+        part.color = scanner.getImage().getLastProcessedColor();
+        detectedParts.incrementAndGet();
+        if (part.color == 0) {
+            unreadParts.incrementAndGet();
+        }
+        partListener.onPartColored(part.id, part.color);
+    }
+
+    private Part nextWithoutColor() {
+        for (Part part : parts) {
+            if (part.color < 0) {
+                return part;
+            }
+        }
+        return null;
+    }
+
+    private static long nanos(double seconds) {
+        return (long) (seconds * NANOS_PER_SECOND);
+    }
+
+    private static final class Event {
+
+        private final int type;
+        private final long time;
+
+        private Event(int type, long time) {
+            this.type = type;
+            this.time = time;
+        }
+    }
+
+    private static final class Part {
+
+        private final long id;
+        private final long colorDeadline;
+        private int color = -1;
+        private int valve;
+        private PartOutcome outcome;
+
+        private Part(long id, long colorDeadline) {
+            this.id = id;
+            this.colorDeadline = colorDeadline;
+        }
+    }
+
+}
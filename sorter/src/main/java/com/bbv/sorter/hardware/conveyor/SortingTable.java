@@ -0,0 +1,98 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import java.util.Arrays;
+
+/**
+ * Immutable recipe of a line: the valves that eject the buttons of every detected color.
+ * <p>
+ * The recipe is a valve mask per color code, indexed by the values of
+ * {@link Conveyor#getLastProcessedColor()} with 0 for no read. Bit 0 to 2 of a mask
+ * are valve 1 to 3, a button is ejected by the first valve of its mask it passes.
+ * Tables are never modified, a new recipe is a new table.
+ */
+public final class SortingTable {
+
+    /**
+     * Number of color codes including no read.
+     */
+    public static final int COLORS = Conveyor.COLORS + 1;
+
+    /**
+     * All valves of a mask, one bit per valve of a {@link ConveyorSnapshot}.
+     */
+    public static final int VALVES = (1 << Integer.bitCount(ConveyorSnapshot.VALVES)) - 1;
+
+    private final int[] masks;
+
+    private SortingTable(int[] masks) {
+        this.masks = masks;
+    }
+
+    /**
+     * @param masks valve mask per color code, {@link #COLORS} entries
+     */
+    public static SortingTable of(int[] masks) {
+        if (masks.length != COLORS) {
+            throw new IllegalArgumentException("Expected " + COLORS + " valve masks, got " + masks.length);
+        }
+        for (int color = 0; color < COLORS; color++) {
+            if ((masks[color] & ~VALVES) != 0) {
+                throw new IllegalArgumentException("Valve mask of color " + color + " out of range: " + masks[color]);
+            }
+        }
+        return new SortingTable(masks.clone());
+    }
+
+    /**
+     * @param definition comma separated {@code color:valve} pairs, e.g. {@code "1:1,2:2,3:3"},
+     *                   colors without a pair are not ejected
+     */
+    public static SortingTable parse(String definition) {
+        int[] masks = new int[COLORS];
+        for (String pair : definition.split(",")) {
+            if (pair.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = pair.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected color:valve, got '" + pair + "'");
+            }
+            int color = Integer.parseInt(parts[0].trim());
+            int valve = Integer.parseInt(parts[1].trim());
+            if (color < 0 || color >= COLORS || valve < 0 || valve > Integer.bitCount(VALVES)) {
+                throw new IllegalArgumentException("Color 0 to " + (COLORS - 1) + " and valve 0 to " + Integer.bitCount(VALVES)
+                        + " expected, got '" + pair + "'");
+            }
+            masks[color] |= valve == 0 ? 0 : 1 << (valve - 1);
+        }
+        return new SortingTable(masks);
+    }
+
+    /**
+     * @return the valves of the color, 0 if it is not ejected
+     */
+    public int getValveMask(int color) {
+        return color >= 0 && color < COLORS ? masks[color] : 0;
+    }
+
+    /**
+     * @return the first valve 1 to 3 the button passes, or 0 if the color is not ejected
+     */
+    public int getValve(int color) {
+        int mask = getValveMask(color);
+        return mask == 0 ? 0 : Integer.numberOfTrailingZeros(mask) + 1;
+    }
+
+    /**
+     * @return a copy of the valve masks
+     */
+    public int[] getValveMasks() {
+        return masks.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "SortingTable" + Arrays.toString(masks);
+    }
+
+}
@@ -0,0 +1,218 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import com.bbv.sorter.hardware.control.PidController;
+import com.bbv.sorter.hardware.timing.JitterHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Closed loop control of the belt speed of one line inside the server, so the belt
+ * holds its setpoint under a changing load without a client in the loop.
+ * <p>
+ * A dedicated thread runs the cycle at a fixed rate: the speed measured in the last
+ * image of the {@link ConveyorScanner}, one {@link PidController} update, one drive output.
+ * The scanner stays the only reader of the conveyor, so the controller adds no reads to
+ * the fieldbus and no listener runs on the control thread. The controller is updated once
+ * per new image, with the time between the samples; a cycle without a new image holds
+ * the output. The cycles are scheduled on absolute deadlines, a late start does not shift
+ * the cycles after it. A cycle that ends after the start of the next one is an overrun, the
+ * cycles it covered are skipped instead of caught up.
+ * <p>
+ * While the belt is stopped the controller holds its output and restarts from it.
+ */
+public class SpeedController {
+
+    public static final double MIN_SETPOINT = 1.0;
+    public static final double MAX_SETPOINT = 10.0;
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    // a change of the output below the resolution of the drive is not written
+    private static final double OUTPUT_RESOLUTION = 0.01;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final JitterHistogram jitter = new JitterHistogram();
+    private final AtomicLong cycles = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private final int line;
+    private final ConveyorScanner scanner;
+    private final Conveyor conveyor;
+    private final PidController pid;
+    private final long periodNanos;
+
+    private volatile double setpoint;
+    private volatile double output = Double.NaN;
+    private volatile long maxExecutionNanos;
+    private volatile Thread thread;
+
+    // only accessed by the control thread, the image the controller was last updated with
+    private ConveyorImage last;
+
+    /**
+     * @param scanner  measures the speed
+     * @param conveyor receives the drive output
+     * @param setpoint initial belt speed in cm/s
+     * @param period   time between the starts of two cycles
+     */
+    public SpeedController(int line, ConveyorScanner scanner, Conveyor conveyor, PidController pid, double setpoint, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        this.line = line;
+        this.scanner = scanner;
+        this.conveyor = conveyor;
+        this.pid = pid;
+        this.periodNanos = unit.toNanos(period);
+        setSetpoint(setpoint);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        Thread controlThread = new Thread(this::run, "speed-control-" + line);
+        controlThread.setDaemon(true);
+        controlThread.setPriority(Thread.MAX_PRIORITY);
+        thread = controlThread;
+        controlThread.start();
+        logger.info("Controlling the speed of line {} to {} cm/s every {} us", line, setpoint, TimeUnit.NANOSECONDS.toMicros(periodNanos));
+    }
+
+    public synchronized void stop() {
+        Thread controlThread = thread;
+        if (controlThread == null) {
+            return;
+        }
+        thread = null;
+        controlThread.interrupt();
+        try {
+            controlThread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    public double getSetpoint() {
+        return setpoint;
+    }
+
+    /**
+     * @param setpoint belt speed in cm/s, {@link #MIN_SETPOINT} to {@link #MAX_SETPOINT}
+     */
+    public void setSetpoint(double setpoint) {
+        if (!(setpoint >= MIN_SETPOINT && setpoint <= MAX_SETPOINT)) {
+            throw new IllegalArgumentException("Speed setpoint must be " + MIN_SETPOINT + " to " + MAX_SETPOINT + " cm/s: " + setpoint);
+        }
+        this.setpoint = setpoint;
+    }
+
+    /**
+     * @return the last drive output in percent, NaN before the first cycle
+     */
+    public double getOutput() {
+        return output;
+    }
+
+    public long getCycles() {
+        return cycles.get();
+    }
+
+    /**
+     * @return the cycles that did not end before the start of the next one
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * @return the cycles that failed to write the conveyor
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return the lateness of the cycle starts
+     */
+    public JitterHistogram getJitter() {
+        return jitter;
+    }
+
+    public double getMaxExecutionMicros() {
+        return maxExecutionNanos / 1000.0;
+    }
+
+    private void run() {
+        Thread self = Thread.currentThread();
+        boolean failing = false;
+        long deadline = System.nanoTime() + periodNanos;
+        while (thread == self && !self.isInterrupted()) {
+            long wait;
+            while ((wait = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+                if (self.isInterrupted()) {
+                    return;
+                }
+            }
+            long start = System.nanoTime();
+            jitter.record(start - deadline);
+
+            try {
+                cycle();
+                if (failing) {
+                    logger.info("Speed control of line {} recovered", line);
+                    failing = false;
+                }
+            } catch (RuntimeException e) {
+                errors.incrementAndGet();
+                if (!failing) {
+                    logger.warn("Speed control of line {} failed", line, e);
+                    failing = true;
+                }
+            }
+            cycles.incrementAndGet();
+
+            long end = System.nanoTime();
+            long execution = end - start;
+            if (execution > maxExecutionNanos) {
+                maxExecutionNanos = execution;
+            }
+            deadline += periodNanos;
+            if (end - deadline > 0) {
+                overruns.incrementAndGet();
+                deadline += ((end - deadline) / periodNanos + 1) * periodNanos;
+            }
+        }
+    }
+
+    private void cycle() {
+        ConveyorImage image = scanner.getImage();
+        if (image == last || !image.isValid()) {
+            return;
+        }
+        ConveyorImage previous = last;
+        last = image;
+        double current = output;
+        if (image.getMode() != 1) {
+            pid.reset(Double.isNaN(current) ? 0.0 : current);
+            return;
+        }
+        double seconds = previous == null ? 0.0 : (image.getNanoTime() - previous.getNanoTime()) / NANOS_PER_SECOND;
+        double next = pid.update(setpoint, image.readSpeed(), seconds);
+        if (Double.isNaN(current) || Math.abs(next - current) >= OUTPUT_RESOLUTION) {
+            conveyor.setDriveOutput(next);
+            output = next;
+        }
+    }
+
+}
@@ -0,0 +1,307 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the speed setpoint of a line to its traffic: the belt runs as fast as the buttons
+ * need to stay apart, and no faster than the color detector and the valves allow.
+ * <p>
+ * Every period the optimizer reads the LB1 edges of the period from the
+ * {@link LightBarrierEdgeRing}. The time a button covers LB1 gives the occupancy, the time
+ * between two buttons leaving it gives their spacing on the belt. A button closer than
+ * {@link #getBunchedGap()} to the one before is bunched, it waited in the feeder or came in a
+ * cluster. More than {@link #MAX_BUNCHED} bunched buttons speed the belt up by one step,
+ * less than half of it slow it down by one step, so the belt is not faster than the
+ * traffic needs.
+ * <p>
+ * The speed is limited by
+ * <ul>
+ * <li>the lead time: from the LB2 edge to the opening of valve 1 the engine needs the
+ * {@link #LATENCY_QUANTILE} of its decision latency in the period plus the minimal lead,</li>
+ * <li>the read rate: a period with more than {@link #MAX_UNREAD} unread buttons lowers
+ * the limit below the current setpoint, periods with good reads raise it again slowly.</li>
+ * </ul>
+ * The setpoint is applied by the {@link SpeedController} of the line.
+ */
+public class ThroughputOptimizer implements LightBarrierEdgeRing.EdgeVisitor {
+
+    /**
+     * Spacing below which a button counts as bunched, in minimal gaps of the line.
+     */
+    public static final double BUNCHED_GAP_FACTOR = 1.25;
+
+    /**
+     * Share of bunched buttons above which the belt speeds up.
+     */
+    public static final double MAX_BUNCHED = 0.2;
+
+    /**
+     * Share of unread buttons above which the belt is too fast for the color detector.
+     */
+    public static final double MAX_UNREAD = 0.05;
+
+    /**
+     * Change of the setpoint per period in cm/s.
+     */
+    public static final double STEP = 0.5;
+
+    /**
+     * Share of the decisions of a period that must fit the lead time, the rare outliers
+     * above it are late buttons rather than a slower belt.
+     */
+    public static final double LATENCY_QUANTILE = 0.99;
+
+    // fewer buttons in a period do not tell anything, they are counted with the next one
+    private static final int MIN_PARTS = 4;
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final int line;
+    private final ConveyorGeometry geometry;
+    private final double bunchedGap;
+    private final LightBarrierEdgeRing edgeRing;
+    private final ConveyorScanner scanner;
+    private final SortingEngine engine;
+    private final SpeedController controller;
+    private final long minLeadNanos;
+    private final long periodNanos;
+
+    // only accessed by the optimizer thread
+    private long next;
+    private double speed;
+    private long covering = NONE;
+    private long lastLeft = NONE;
+    private long windowStart;
+    private long coveredNanos;
+    private int parts;
+    private int bunchedParts;
+    private long detectedParts;
+    private long unreadParts;
+    private long[] decisionLatency;
+    private double readLimit = SpeedController.MAX_SETPOINT;
+
+    private volatile double occupancy;
+    private volatile double spacing;
+    private volatile double bunched;
+    private volatile double unread = Double.NaN;
+    private volatile double partsPerMinute;
+    private volatile double speedLimit = SpeedController.MAX_SETPOINT;
+    private volatile Thread thread;
+
+    /**
+     * @param geometry minimal gap of the buttons and distance from LB2 to valve 1 of the line
+     * @param engine   sorting engine of the line, null if the line does not sort
+     * @param minLead  shortest time from the LB2 edge to the opening of valve 1 on top of
+     *                 the decision latency
+     * @param period   time between two adaptations
+     */
+    public ThroughputOptimizer(int line, ConveyorGeometry geometry, LightBarrierEdgeRing edgeRing, ConveyorScanner scanner,
+                               SortingEngine engine, SpeedController controller, long minLead, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        this.line = line;
+        this.geometry = geometry;
+        this.bunchedGap = BUNCHED_GAP_FACTOR * geometry.getMinPartGap();
+        this.edgeRing = edgeRing;
+        this.scanner = scanner;
+        this.engine = engine;
+        this.controller = controller;
+        this.minLeadNanos = unit.toNanos(minLead);
+        this.periodNanos = unit.toNanos(period);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        next = edgeRing.getHead();
+        restartWindow(System.nanoTime());
+        covering = NONE;
+        lastLeft = NONE;
+
+        Thread optimizerThread = new Thread(this::run, "throughput-optimizer-" + line);
+        optimizerThread.setDaemon(true);
+        thread = optimizerThread;
+        optimizerThread.start();
+        logger.info("Optimizing the throughput of line {} every {} ms", line, TimeUnit.NANOSECONDS.toMillis(periodNanos));
+    }
+
+    public synchronized void stop() {
+        Thread optimizerThread = thread;
+        if (optimizerThread == null) {
+            return;
+        }
+        thread = null;
+        optimizerThread.interrupt();
+        try {
+            optimizerThread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    /**
+     * @return share of the time a button covered LB1 in the last evaluated period
+     */
+    public double getOccupancy() {
+        return occupancy;
+    }
+
+    /**
+     * @return spacing in cm below which a button counts as bunched
+     */
+    public double getBunchedGap() {
+        return bunchedGap;
+    }
+
+    /**
+     * @return mean distance in cm between the buttons in the last evaluated period
+     */
+    public double getSpacing() {
+        return spacing;
+    }
+
+    /**
+     * @return share of bunched buttons in the last evaluated period
+     */
+    public double getBunched() {
+        return bunched;
+    }
+
+    /**
+     * @return share of unread buttons in the last evaluated period, NaN without sorting
+     */
+    public double getUnread() {
+        return unread;
+    }
+
+    public double getPartsPerMinute() {
+        return partsPerMinute;
+    }
+
+    /**
+     * @return the highest setpoint allowed by the lead time and the read rate
+     */
+    public double getSpeedLimit() {
+        return speedLimit;
+    }
+
+    @Override
+    public void onEdge(long sequence, int lightBarrier, boolean rising, long nanoTime) {
+        if (lightBarrier != 1) {
+            return;
+        }
+        if (rising) {
+            covering = nanoTime;
+            return;
+        }
+        if (covering != NONE) {
+            coveredNanos += nanoTime - Math.max(covering, windowStart);
+            covering = NONE;
+        }
+        if (lastLeft != NONE && speed * (nanoTime - lastLeft) / NANOS_PER_SECOND < bunchedGap) {
+            bunchedParts++;
+        }
+        lastLeft = nanoTime;
+        parts++;
+    }
+
+    private void run() {
+        Thread self = Thread.currentThread();
+        try {
+            while (thread == self) {
+                TimeUnit.NANOSECONDS.sleep(periodNanos);
+                optimize(System.nanoTime());
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (RuntimeException e) {
+            logger.error("Throughput optimizer of line {} failed", line, e);
+        }
+    }
+
+    private void optimize(long now) {
+        ConveyorImage image = scanner.getImage();
+        speed = image.readSpeed();
+        next = edgeRing.read(next, this);
+        if (image.getMode() != 1 || speed <= 0) {
+            // a standing belt tells nothing about the traffic
+            restartWindow(now);
+            lastLeft = NONE;
+            return;
+        }
+        if (parts < MIN_PARTS) {
+            return;
+        }
+
+        double seconds = (now - windowStart) / NANOS_PER_SECOND;
+        occupancy = Math.min(1.0, coveredNanos / NANOS_PER_SECOND / seconds);
+        spacing = speed * seconds / parts;
+        bunched = (double) bunchedParts / parts;
+        partsPerMinute = parts * 60.0 / seconds;
+
+        double setpoint = controller.getSetpoint();
+        updateReadLimit(setpoint);
+        double latencyMicros = engine == null ? Double.NaN
+                : engine.getDecisionLatency().getPercentileMicros(decisionLatency, LATENCY_QUANTILE);
+        // no button was ejected in the period, the engine waited for none
+        double leadSeconds = (minLeadNanos + (Double.isNaN(latencyMicros) ? 0.0 : latencyMicros * 1000.0)) / NANOS_PER_SECOND;
+        double limit = Math.min(Math.min(SpeedController.MAX_SETPOINT, readLimit), (geometry.getValve(1) - geometry.getLightBarrier2()) / leadSeconds);
+        speedLimit = limit;
+
+        double target = setpoint;
+        if (bunched > MAX_BUNCHED) {
+            target += STEP;
+        } else if (bunched < MAX_BUNCHED / 2) {
+            target -= STEP;
+        }
+        target = Math.max(SpeedController.MIN_SETPOINT, Math.min(limit, target));
+        if (target != setpoint) {
+            controller.setSetpoint(target);
+            logger.debug("Line {}: {} parts/min, {} bunched, setpoint {} cm/s", line, partsPerMinute, bunched, target);
+        }
+        restartWindow(now);
+    }
+
+    private void updateReadLimit(double setpoint) {
+        if (engine == null || !engine.isRunning()) {
+            unread = Double.NaN;
+            return;
+        }
+        long detected = engine.getDetectedParts() - detectedParts;
+        long notRead = engine.getUnreadParts() - unreadParts;
+        if (detected < MIN_PARTS) {
+            unread = Double.NaN;
+            return;
+        }
+        unread = (double) notRead / detected;
+        if (unread > MAX_UNREAD) {
+            readLimit = Math.max(SpeedController.MIN_SETPOINT, setpoint - STEP);
+        } else if (unread <= MAX_UNREAD / 2) {
+            readLimit = Math.min(SpeedController.MAX_SETPOINT, readLimit + STEP / 4);
+        }
+    }
+
+    private void restartWindow(long now) {
+        windowStart = now;
+        coveredNanos = 0;
+        parts = 0;
+        bunchedParts = 0;
+        if (engine != null) {
+            detectedParts = engine.getDetectedParts();
+            unreadParts = engine.getUnreadParts();
+            decisionLatency = engine.getDecisionLatency().snapshot();
+        }
+    }
+
+}
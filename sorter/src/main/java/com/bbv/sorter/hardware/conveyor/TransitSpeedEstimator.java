@@ -0,0 +1,182 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import java.util.Arrays;
+
+
+/**
+ * Belt speed measured by the buttons: the time a button needs from LB1 to LB2 and from
+ * LB2 to LB3 over the known spacing of the barriers, smoothed by an exponentially
+ * weighted moving average.
+ * <p>
+ * Registered as {@link ConveyorListener}, the estimator handles every edge as it is
+ * sampled, on the thread that samples the conveyor, with the time of its sample. It never
+ * touches the hardware and every edge is handled in constant time. A stop, the mode
+ * leaving 1 or the speed reported as 0, drops the buttons between the barriers: they stood
+ * on the belt, their transit says nothing about the speed.
+ * <p>
+ * Edges may be lost and ejected buttons never reach LB3, so an edge is not simply paired
+ * with the oldest edge of the barrier before. Between LB1 and LB2 no button leaves the
+ * belt, the first transit is the one of the oldest button there. Every later transit is the
+ * one that fits the estimate best, transits differing from it by more than the tolerance
+ * are dropped. After as many dropped transits in a row as buttons fit between two barriers,
+ * the belt changed its speed and the estimate starts over.
+ * <p>
+ * The buttons are put on the belt at LB1, they interrupt it without crossing it. Only
+ * the moment a button leaves a barrier is a crossing at every barrier.
+ */
+public class TransitSpeedEstimator implements ConveyorListener {
+
+    // edges of one barrier still waiting for the next barrier, enough for the buttons between two barriers
+    private static final int PENDING = 32;
+    private static final long NONE = Long.MIN_VALUE;
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final ConveyorGeometry geometry;
+    private final double alpha;
+    private final double tolerance;
+
+    // only accessed by the thread sampling the conveyor
+    private final long[] pendingLightBarrier1 = new long[PENDING];
+    private final long[] pendingLightBarrier2 = new long[PENDING];
+    private int nextLightBarrier1 = 0;
+    private int nextLightBarrier2 = 0;
+    private long sampleNanos;
+    // -1 and NaN until the first change was reported, the belt is taken to run until then
+    private int mode = -1;
+    private double speed = Double.NaN;
+    private int dropped = 0;
+
+    private volatile boolean stopped = false;
+    private volatile double estimate = Double.NaN;
+    private volatile long samples = 0;
+
+    /**
+     * @param geometry  spacing of the light barriers of the line
+     * @param alpha     weight of a new transit in the average, 0 to 1
+     * @param tolerance largest relative deviation of a transit from the estimate
+     */
+    public TransitSpeedEstimator(ConveyorGeometry geometry, double alpha, double tolerance) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+        }
+        this.geometry = geometry;
+        this.alpha = alpha;
+        this.tolerance = tolerance;
+        Arrays.fill(pendingLightBarrier1, NONE);
+        Arrays.fill(pendingLightBarrier2, NONE);
+    }
+
+    /**
+     * @return the estimated belt speed in cm/s, 0 while the belt stands or before the first transit
+     */
+    public double getSpeed() {
+        double speed = estimate;
+        return stopped || Double.isNaN(speed) ? 0.0 : speed;
+    }
+
+    /**
+     * @return the number of transits in the estimate
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    @Override
+    public void onSampled(long sampleNanos) {
+        this.sampleNanos = sampleNanos;
+    }
+
+    @Override
+    public void onModeChanged(int mode) {
+        this.mode = mode;
+        update();
+    }
+
+    @Override
+    public void onSpeedChanged(double speed) {
+        this.speed = speed;
+        update();
+    }
+
+    @Override
+    public void onLightBarrierChanged(int lightBarrier, boolean value) {
+        if (value || stopped) {
+            return;
+        }
+        switch (lightBarrier) {
+            case 1:
+                pendingLightBarrier1[nextLightBarrier1] = sampleNanos;
+                nextLightBarrier1 = (nextLightBarrier1 + 1) % PENDING;
+                break;
+            case 2:
+                measure(pendingLightBarrier1, geometry.getLightBarrier2() - geometry.getLightBarrier1(), sampleNanos, true);
+                pendingLightBarrier2[nextLightBarrier2] = sampleNanos;
+                nextLightBarrier2 = (nextLightBarrier2 + 1) % PENDING;
+                break;
+            default:
+                measure(pendingLightBarrier2, geometry.getLightBarrier3() - geometry.getLightBarrier2(), sampleNanos, false);
+        }
+    }
+
+    private void update() {
+        boolean stop = (mode >= 0 && mode != 1) || speed <= 0;
+        if (stop && !stopped) {
+            Arrays.fill(pendingLightBarrier1, NONE);
+            Arrays.fill(pendingLightBarrier2, NONE);
+        }
+        stopped = stop;
+    }
+
+    /**
+     * @param inOrder no button leaves the belt between the barriers, so without an estimate
+     *                the oldest departure is the arriving button
+     */
+    private void measure(long[] pending, double distance, long arrival, boolean inOrder) {
+        double current = estimate;
+        boolean first = Double.isNaN(current);
+        if (first && !inOrder) {
+            return;
+        }
+
+        int best = -1;
+        double bestDeviation = tolerance;
+        for (int i = 0; i < PENDING; i++) {
+            long departure = pending[i];
+            if (departure == NONE || arrival - departure <= 0) {
+                continue;
+            }
+            if (first) {
+                if (best < 0 || departure - pending[best] < 0) {
+                    best = i;
+                }
+                continue;
+            }
+            double deviation = Math.abs(speed(distance, arrival - departure) / current - 1.0);
+            if (deviation <= bestDeviation) {
+                best = i;
+                bestDeviation = deviation;
+            }
+        }
+        if (best < 0) {
+            if (!first && ++dropped >= PENDING) {
+                // start over from the buttons passing from now on
+                dropped = 0;
+                estimate = Double.NaN;
+                Arrays.fill(pendingLightBarrier1, NONE);
+                Arrays.fill(pendingLightBarrier2, NONE);
+            }
+            return;
+        }
+
+        double speed = speed(distance, arrival - pending[best]);
+        pending[best] = NONE;
+        dropped = 0;
+        estimate = first ? speed : current + alpha * (speed - current);
+        samples++;
+    }
+
+    private static double speed(double distance, long transitNanos) {
+        return distance * NANOS_PER_SECOND / transitNanos;
+    }
+
+}
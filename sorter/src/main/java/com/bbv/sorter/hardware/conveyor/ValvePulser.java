@@ -0,0 +1,103 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import com.bbv.sorter.hardware.timing.JitterHistogram;
+import com.bbv.sorter.hardware.timing.PulseTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pressurizes a valve of a conveyor for a given time, timed by a {@link PulseTimer}
+ * inside the server instead of by two client calls.
+ * <p>
+ * Overlapping pulses on the same valve merge: the valve is released when the last
+ * of them ended.
+ * <p>
+ * The timer thread is shared by all lines, so it only hands an edge to the
+ * {@link AsyncConveyor} of the line: a slow write does not delay the edges of the other
+ * lines, and the queue of the line keeps the edges in order with the other writes to its
+ * valves. The lateness of an edge is recorded when its write completed.
+ */
+public class ValvePulser {
+
+    /**
+     * Longest accepted delay and duration of a pulse.
+     */
+    public static final long MAX_PULSE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final JitterHistogram jitter = new JitterHistogram();
+
+    // only accessed by the timer thread
+    private final int[] activePulses = new int[3];
+
+    private final AsyncConveyor conveyor;
+    private final PulseTimer timer;
+
+    public ValvePulser(AsyncConveyor conveyor, PulseTimer timer) {
+        this.conveyor = conveyor;
+        this.timer = timer;
+    }
+
+    /**
+     * @param valve         1 to 3
+     * @param delayNanos    time until the valve is pressurized
+     * @param durationNanos time the valve stays pressurized
+     */
+    public void pulse(int valve, long delayNanos, long durationNanos) {
+        if (valve < 1 || valve > 3) {
+            throw new IllegalArgumentException("valve must be 1 to 3: " + valve);
+        }
+        if (delayNanos < 0 || delayNanos > MAX_PULSE_NANOS) {
+            throw new IllegalArgumentException("delay out of range: " + delayNanos + " ns");
+        }
+        if (durationNanos <= 0 || durationNanos > MAX_PULSE_NANOS) {
+            throw new IllegalArgumentException("duration out of range: " + durationNanos + " ns");
+        }
+
+        long pressurize = System.nanoTime() + delayNanos;
+        long release = pressurize + durationNanos;
+        timer.schedule(pressurize, () -> {
+            if (activePulses[valve - 1]++ == 0) {
+                setValve(valve, true, pressurize);
+            }
+        });
+        timer.schedule(release, () -> {
+            if (--activePulses[valve - 1] == 0) {
+                setValve(valve, false, release);
+            }
+        });
+    }
+
+    /**
+     * @return the lateness of the valve edges, from the planned time to the completed write
+     */
+    public JitterHistogram getJitter() {
+        return jitter;
+    }
+
+    private void setValve(int valve, boolean pressure, long deadline) {
+        CompletableFuture<Void> written;
+        switch (valve) {
+            case 1:
+                written = conveyor.setValve1(pressure);
+                break;
+            case 2:
+                written = conveyor.setValve2(pressure);
+                break;
+            default:
+                written = conveyor.setValve3(pressure);
+        }
+        written.whenComplete((ignored, ex) -> {
+            if (ex != null) {
+                logger.warn("Valve {} edge failed: {}", valve, ex.getMessage());
+            } else {
+                jitter.record(System.nanoTime() - deadline);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.bbv.sorter.hardware.modbus;
+
+/**
+ * Function codes and PDU (function code and data, without the MBAP header) encoding
+ * of the Modbus application protocol subset used by the sorter.
+ */
+public interface Modbus {
+
+    int READ_COILS = 0x01;
+    int READ_DISCRETE_INPUTS = 0x02;
+    int READ_INPUT_REGISTERS = 0x04;
+    int WRITE_SINGLE_COIL = 0x05;
+    int WRITE_SINGLE_REGISTER = 0x06;
+    int WRITE_MULTIPLE_COILS = 0x0F;
+
+    int ILLEGAL_FUNCTION = 0x01;
+    int ILLEGAL_DATA_ADDRESS = 0x02;
+    int ILLEGAL_DATA_VALUE = 0x03;
+    int SLAVE_DEVICE_FAILURE = 0x04;
+
+    /**
+     * Bit set in the function code of an exception response.
+     */
+    int EXCEPTION = 0x80;
+
+    /**
+     * Length of the MBAP header: transaction id, protocol id, length and unit id.
+     */
+    int HEADER_LENGTH = 7;
+
+    int MAX_PDU_LENGTH = 253;
+
+    /**
+     * @param function {@link #READ_COILS}, {@link #READ_DISCRETE_INPUTS} or {@link #READ_INPUT_REGISTERS}
+     */
+    static byte[] readRequest(int function, int address, int count) {
+        return new byte[]{
+                (byte) function,
+                (byte) (address >> 8), (byte) address,
+                (byte) (count >> 8), (byte) count
+        };
+    }
+
+    static byte[] writeSingleCoil(int address, boolean value) {
+        return new byte[]{
+                (byte) WRITE_SINGLE_COIL,
+                (byte) (address >> 8), (byte) address,
+                (byte) (value ? 0xFF : 0x00), 0x00
+        };
+    }
+
+    /**
+     * @param value the unsigned 16 bit value of the holding register
+     */
+    static byte[] writeSingleRegister(int address, int value) {
+        return new byte[]{
+                (byte) WRITE_SINGLE_REGISTER,
+                (byte) (address >> 8), (byte) address,
+                (byte) (value >> 8), (byte) value
+        };
+    }
+
+    /**
+     * @param values the coil values packed LSB first, bit 0 is the coil at {@code address}
+     */
+    static byte[] writeMultipleCoils(int address, int count, int values) {
+        int bytes = (count + 7) / 8;
+        byte[] pdu = new byte[6 + bytes];
+        pdu[0] = (byte) WRITE_MULTIPLE_COILS;
+        pdu[1] = (byte) (address >> 8);
+        pdu[2] = (byte) address;
+        pdu[3] = (byte) (count >> 8);
+        pdu[4] = (byte) count;
+        pdu[5] = (byte) bytes;
+        for (int i = 0; i < bytes; i++) {
+            pdu[6 + i] = (byte) (values >>> (8 * i));
+        }
+        return pdu;
+    }
+
+    /**
+     * @param response the response to a read of coils or discrete inputs
+     * @param index    offset from the start address of the request
+     */
+    static boolean bit(byte[] response, int index) {
+        return (response[2 + index / 8] & (1 << (index % 8))) != 0;
+    }
+
+    /**
+     * @param response the response to a read of registers
+     * @param index    offset from the start address of the request
+     * @return the unsigned register value
+     */
+    static int register(byte[] response, int index) {
+        return ((response[2 + 2 * index] & 0xFF) << 8) | (response[3 + 2 * index] & 0xFF);
+    }
+
+    static int unsignedShort(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF);
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.bbv.sorter.hardware.modbus;
+
+import com.bbv.sorter.hardware.timing.Timeouts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent Modbus TCP connection with pipelined transactions.
+ * <p>
+ * A request is sent as soon as it is issued, without waiting for the responses of the
+ * requests before it. A reader thread matches the responses to the pending requests by
+ * the transaction id of the MBAP header, so the slave may answer in any order.
+ * Every request has a deadline: if its response does not arrive within the timeout, e.g.
+ * because the slave dropped the request while it answers others, or the connection fails,
+ * all pending requests fail and the connection is closed, to be replaced by a new one.
+ */
+public class ModbusConnection implements Closeable {
+
+    private static final int PROTOCOL_ID = 0;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<Integer, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger transactionIds = new AtomicInteger();
+
+    private final int timeoutMillis;
+    private final Socket socket;
+    private final OutputStream out;
+    private final DataInputStream in;
+
+    private volatile IOException failure;
+
+    /**
+     * @param timeoutMillis connect timeout and maximal time to wait for a response
+     */
+    public ModbusConnection(String host, int port, int timeoutMillis) throws IOException {
+        this.timeoutMillis = timeoutMillis;
+        this.socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+        socket.setSoTimeout(timeoutMillis);
+        this.out = socket.getOutputStream();
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        Thread reader = new Thread(this::receive, "modbus-reader-" + host + ":" + port);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * @param unitId unit identifier of the slave behind the gateway
+     * @param pdu    function code and request data, not modified
+     * @return the response PDU, completed exceptionally with a {@link ModbusException}
+     * for an exception response, a {@link SocketTimeoutException} if there was no response
+     * within the timeout or an {@link IOException} if the connection failed
+     */
+    public CompletableFuture<byte[]> request(int unitId, byte[] pdu) {
+        CompletableFuture<byte[]> response = new CompletableFuture<>();
+
+        IOException failed = failure;
+        if (failed != null) {
+            response.completeExceptionally(failed);
+            return response;
+        }
+
+        int transactionId = transactionIds.incrementAndGet() & 0xFFFF;
+
+        byte[] frame = new byte[Modbus.HEADER_LENGTH + pdu.length];
+        frame[0] = (byte) (transactionId >> 8);
+        frame[1] = (byte) transactionId;
+        frame[2] = (byte) (PROTOCOL_ID >> 8);
+        frame[3] = (byte) PROTOCOL_ID;
+        frame[4] = (byte) ((pdu.length + 1) >> 8);
+        frame[5] = (byte) (pdu.length + 1);
+        frame[6] = (byte) unitId;
+        System.arraycopy(pdu, 0, frame, Modbus.HEADER_LENGTH, pdu.length);
+
+        // registered before sending, the response may arrive before write returns
+        pending.put(transactionId, response);
+        Timeouts.orTimeout(response, timeoutMillis, TimeUnit.MILLISECONDS, () -> {
+            SocketTimeoutException timeout = new SocketTimeoutException("No response to transaction " + transactionId + " within " + timeoutMillis + " ms");
+            if (pending.get(transactionId) == response) {
+                // a lost request or response, the connection is not trusted any more;
+                // closed before the caller sees the timeout, so it does not retry on it
+                logger.warn("Modbus connection {} failed: {}", socket.getRemoteSocketAddress(), timeout.getMessage());
+                fail(timeout);
+            }
+            return timeout;
+        });
+        if (failure != null) {
+            // failed after the check above, the pending requests may already be drained
+            pending.remove(transactionId);
+            response.completeExceptionally(failure);
+            return response;
+        }
+        try {
+            synchronized (out) {
+                out.write(frame);
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+        return response;
+    }
+
+    /**
+     * @return the number of requests waiting for their response
+     */
+    public int getPendingRequests() {
+        return pending.size();
+    }
+
+    public boolean isOpen() {
+        return failure == null;
+    }
+
+    @Override
+    public void close() {
+        fail(new IOException("Connection closed"));
+    }
+
+    private void receive() {
+        byte[] header = new byte[Modbus.HEADER_LENGTH];
+        try {
+            while (isOpen()) {
+                try {
+                    in.readFully(header);
+                } catch (SocketTimeoutException e) {
+                    if (pending.isEmpty()) {
+                        // idle connection
+                        continue;
+                    }
+                    throw e;
+                }
+
+                int transactionId = Modbus.unsignedShort(header, 0);
+                int length = Modbus.unsignedShort(header, 4) - 1;
+                if (length < 1 || length > Modbus.MAX_PDU_LENGTH) {
+                    throw new IOException("Invalid MBAP length " + (length + 1));
+                }
+                byte[] pdu = new byte[length];
+                in.readFully(pdu);
+
+                CompletableFuture<byte[]> response = pending.remove(transactionId);
+                if (response == null) {
+                    logger.warn("Response to unknown transaction {} discarded", transactionId);
+                } else if ((pdu[0] & Modbus.EXCEPTION) != 0) {
+                    response.completeExceptionally(new ModbusException(pdu[0] & ~Modbus.EXCEPTION & 0xFF, length > 1 ? pdu[1] & 0xFF : 0));
+                } else {
+                    response.complete(pdu);
+                }
+            }
+        } catch (IOException e) {
+            if (isOpen()) {
+                logger.warn("Modbus connection {} failed: {}", socket.getRemoteSocketAddress(), e.toString());
+            }
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // already failed
+                }
+            }
+        }
+        for (Integer transactionId : pending.keySet()) {
+            CompletableFuture<byte[]> response = pending.remove(transactionId);
+            if (response != null) {
+                response.completeExceptionally(failure);
+            }
+        }
+    }
+
+}
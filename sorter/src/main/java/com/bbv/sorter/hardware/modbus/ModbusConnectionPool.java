@@ -0,0 +1,167 @@
+package com.bbv.sorter.hardware.modbus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small fixed set of persistent {@link ModbusConnection}s to one gateway, shared by the
+ * slaves behind it. Every request names its slave by the unit id.
+ * <p>
+ * Every request goes to the open connection with the fewest pending requests.
+ * A failed connection is replaced on the next request, so a restart of the slave or
+ * coupler only fails the requests that were in flight. A connection is opened by the
+ * request that needs it, outside of the lock of the pool: the requests meanwhile use the
+ * open connections or wait for the one being opened, they never wait for the lock.
+ * <p>
+ * A slot whose connect failed is not connected again before its backoff, from
+ * {@link #MIN_RECONNECT_MILLIS} doubled with every further failure up to
+ * {@link #MAX_RECONNECT_MILLIS}. While all slots back off the requests fail at once,
+ * instead of each waiting for the connect timeout of an unreachable gateway.
+ */
+public class ModbusConnectionPool implements Closeable {
+
+    public static final long MIN_RECONNECT_MILLIS = 100;
+    public static final long MAX_RECONNECT_MILLIS = 5000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final String host;
+    private final int port;
+    private final int timeoutMillis;
+
+    private final Slot[] slots;
+
+    private boolean closed = false;
+
+    /**
+     * @param size number of connections, the connections are opened on demand
+     */
+    public ModbusConnectionPool(String host, int port, int size, int timeoutMillis) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be at least 1: " + size);
+        }
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * @see ModbusConnection#request(int, byte[])
+     */
+    public CompletableFuture<byte[]> request(int unitId, byte[] pdu) {
+        Slot connecting = null;
+        CompletableFuture<ModbusConnection> connection;
+        synchronized (this) {
+            if (closed) {
+                return failed(new IOException("Connection pool closed"));
+            }
+            long now = System.nanoTime();
+            Slot best = null;
+            Slot opening = null;
+            Slot backingOff = null;
+            for (Slot slot : slots) {
+                CompletableFuture<ModbusConnection> future = slot.connection;
+                if (future == null || (future.isCompletedExceptionally() && now - slot.retryNanos >= 0)
+                        || (future.isDone() && !future.isCompletedExceptionally() && !future.join().isOpen())) {
+                    // prefer opening an idle slot over queueing behind a busy connection
+                    connecting = slot;
+                    break;
+                } else if (!future.isDone()) {
+                    opening = slot;
+                } else if (future.isCompletedExceptionally()) {
+                    backingOff = slot;
+                } else if (best == null || future.join().getPendingRequests() < best.connection.join().getPendingRequests()) {
+                    best = slot;
+                }
+            }
+            if (connecting != null) {
+                connecting.connection = new CompletableFuture<>();
+                connection = connecting.connection;
+            } else if (best != null || opening != null) {
+                connection = (best != null ? best : opening).connection;
+            } else {
+                return failed(new IOException("Gateway " + host + ":" + port + " not reachable, next connect in "
+                        + TimeUnit.NANOSECONDS.toMillis(backingOff.retryNanos - now) + " ms", backingOff.failure));
+            }
+        }
+        if (connecting != null) {
+            connect(connecting, connection);
+        }
+        return connection.thenCompose(open -> open.request(unitId, pdu));
+    }
+
+    /**
+     * @return the time to wait for a response in milliseconds
+     */
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public int getSize() {
+        return slots.length;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Slot slot : slots) {
+            if (slot.connection != null) {
+                // a connection still being opened is closed once it is open
+                slot.connection.thenAccept(ModbusConnection::close);
+                slot.connection = null;
+            }
+        }
+    }
+
+    /**
+     * Open the connection of the slot on the calling thread, without holding the lock.
+     */
+    private void connect(Slot slot, CompletableFuture<ModbusConnection> connection) {
+        try {
+            ModbusConnection open = new ModbusConnection(host, port, timeoutMillis);
+            synchronized (this) {
+                slot.backoffMillis = 0;
+                slot.failure = null;
+            }
+            connection.complete(open);
+        } catch (IOException e) {
+            long backoffMillis;
+            synchronized (this) {
+                backoffMillis = slot.backoffMillis == 0 ? MIN_RECONNECT_MILLIS : Math.min(MAX_RECONNECT_MILLIS, 2 * slot.backoffMillis);
+                slot.backoffMillis = backoffMillis;
+                slot.retryNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+                slot.failure = e;
+            }
+            logger.warn("Modbus gateway {}:{} not reachable, next connect in {} ms: {}", host, port, backoffMillis, e.getMessage());
+            connection.completeExceptionally(e);
+        }
+    }
+
+    private static CompletableFuture<byte[]> failed(IOException e) {
+        CompletableFuture<byte[]> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+
+    /**
+     * One connection of the pool, guarded by the pool.
+     */
+    private static final class Slot {
+
+        // completed when open, failed when the connect failed, null before the first request
+        CompletableFuture<ModbusConnection> connection;
+        long retryNanos;
+        long backoffMillis;
+        IOException failure;
+    }
+
+}
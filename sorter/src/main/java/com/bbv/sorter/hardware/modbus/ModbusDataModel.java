@@ -0,0 +1,35 @@
+package com.bbv.sorter.hardware.modbus;
+
+/**
+ * Coils, discrete inputs, input and holding registers served by a {@link ModbusSlave}.
+ * An access outside of the model throws a {@link ModbusException} with
+ * {@link Modbus#ILLEGAL_DATA_ADDRESS}, which is returned as exception response.
+ */
+public interface ModbusDataModel {
+
+    /**
+     * @return the values packed LSB first, bit 0 is the coil at {@code address}
+     */
+    int readCoils(int address, int count) throws ModbusException;
+
+    /**
+     * @return the values packed LSB first, bit 0 is the input at {@code address}
+     */
+    int readDiscreteInputs(int address, int count) throws ModbusException;
+
+    /**
+     * @param registers filled with the unsigned register values from index 0
+     */
+    void readInputRegisters(int address, int count, int[] registers) throws ModbusException;
+
+    /**
+     * @param values the values packed LSB first, bit 0 is the coil at {@code address}
+     */
+    void writeCoils(int address, int count, int values) throws ModbusException;
+
+    /**
+     * @param value the unsigned 16 bit value
+     */
+    void writeHoldingRegister(int address, int value) throws ModbusException;
+
+}
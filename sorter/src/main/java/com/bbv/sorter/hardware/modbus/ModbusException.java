@@ -0,0 +1,30 @@
+package com.bbv.sorter.hardware.modbus;
+
+import java.io.IOException;
+
+/**
+ * Exception response of a Modbus slave.
+ */
+public class ModbusException extends IOException {
+
+    private final int function;
+    private final int exceptionCode;
+
+    public ModbusException(int function, int exceptionCode) {
+        super(String.format("Modbus exception 0x%02X for function 0x%02X", exceptionCode, function));
+        this.function = function;
+        this.exceptionCode = exceptionCode;
+    }
+
+    public int getFunction() {
+        return function;
+    }
+
+    /**
+     * @return e.g. {@link Modbus#ILLEGAL_DATA_ADDRESS}
+     */
+    public int getExceptionCode() {
+        return exceptionCode;
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.bbv.sorter.hardware.modbus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process Modbus TCP slave serving a {@link ModbusDataModel}, to run the Modbus
+ * driver against a simulated line without a coupler.
+ * <p>
+ * Every client connection is served by its own thread. The requests of a connection
+ * are answered in order, pipelined requests are read while the previous responses
+ * are still in flight. Only the function codes in {@link Modbus} are supported,
+ * bit reads and writes are limited to 32 bits.
+ */
+public class ModbusSlave implements Closeable {
+
+    private static final int MAX_BITS = 32;
+    private static final int MAX_REGISTERS = 125;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+    private final ModbusDataModel model;
+    private final ServerSocket serverSocket;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Listen on the loopback interface.
+     *
+     * @param port the port, 0 for an ephemeral port, see {@link #getPort()}
+     */
+    public ModbusSlave(ModbusDataModel model, int port) throws IOException {
+        this.model = model;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+
+        Thread acceptor = new Thread(this::accept, "modbus-slave-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket client = serverSocket.accept();
+                client.setTcpNoDelay(true);
+                clients.add(client);
+
+                Thread thread = new Thread(() -> serve(client), "modbus-slave-" + client.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.warn("Modbus slave accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        byte[] header = new byte[Modbus.HEADER_LENGTH];
+        int[] registers = new int[MAX_REGISTERS];
+
+        try (Socket socket = client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+
+            while (!closed) {
+                in.readFully(header);
+                int length = Modbus.unsignedShort(header, 4) - 1;
+                if (length < 1 || length > Modbus.MAX_PDU_LENGTH) {
+                    throw new IOException("Invalid MBAP length " + (length + 1));
+                }
+                byte[] request = new byte[length];
+                in.readFully(request);
+
+                byte[] response;
+                try {
+                    response = process(request, registers);
+                } catch (ModbusException e) {
+                    response = new byte[]{(byte) ((request[0] & 0xFF) | Modbus.EXCEPTION), (byte) e.getExceptionCode()};
+                } catch (RuntimeException e) {
+                    logger.warn("Modbus slave request failed", e);
+                    response = new byte[]{(byte) ((request[0] & 0xFF) | Modbus.EXCEPTION), (byte) Modbus.SLAVE_DEVICE_FAILURE};
+                }
+
+                byte[] frame = new byte[Modbus.HEADER_LENGTH + response.length];
+                System.arraycopy(header, 0, frame, 0, 4);
+                frame[4] = (byte) ((response.length + 1) >> 8);
+                frame[5] = (byte) (response.length + 1);
+                frame[6] = header[6];
+                System.arraycopy(response, 0, frame, Modbus.HEADER_LENGTH, response.length);
+                out.write(frame);
+            }
+        } catch (EOFException | SocketException e) {
+            // client disconnected
+        } catch (IOException e) {
+            logger.warn("Modbus slave connection failed", e);
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private byte[] process(byte[] request, int[] registers) throws ModbusException {
+        int function = request[0] & 0xFF;
+        if (request.length < 5) {
+            throw new ModbusException(function, Modbus.ILLEGAL_DATA_VALUE);
+        }
+        int address = Modbus.unsignedShort(request, 1);
+        int count = Modbus.unsignedShort(request, 3);
+
+        switch (function) {
+            case Modbus.READ_COILS:
+            case Modbus.READ_DISCRETE_INPUTS: {
+                checkCount(function, count, MAX_BITS);
+                int values = function == Modbus.READ_COILS
+                        ? model.readCoils(address, count)
+                        : model.readDiscreteInputs(address, count);
+                int bytes = (count + 7) / 8;
+                byte[] response = new byte[2 + bytes];
+                response[0] = (byte) function;
+                response[1] = (byte) bytes;
+                for (int i = 0; i < bytes; i++) {
+                    response[2 + i] = (byte) (values >>> (8 * i));
+                }
+                return response;
+            }
+            case Modbus.READ_INPUT_REGISTERS: {
+                checkCount(function, count, MAX_REGISTERS);
+                model.readInputRegisters(address, count, registers);
+                byte[] response = new byte[2 + 2 * count];
+                response[0] = (byte) function;
+                response[1] = (byte) (2 * count);
+                for (int i = 0; i < count; i++) {
+                    response[2 + 2 * i] = (byte) (registers[i] >> 8);
+                    response[3 + 2 * i] = (byte) registers[i];
+                }
+                return response;
+            }
+            case Modbus.WRITE_SINGLE_COIL: {
+                // the value is 0xFF00 or 0x0000 and takes the place of the count
+                if (count != 0xFF00 && count != 0x0000) {
+                    throw new ModbusException(function, Modbus.ILLEGAL_DATA_VALUE);
+                }
+                model.writeCoils(address, 1, count == 0xFF00 ? 1 : 0);
+                return request.clone();
+            }
+            case Modbus.WRITE_SINGLE_REGISTER: {
+                // the value takes the place of the count
+                model.writeHoldingRegister(address, count);
+                return request.clone();
+            }
+            case Modbus.WRITE_MULTIPLE_COILS: {
+                checkCount(function, count, MAX_BITS);
+                int bytes = (count + 7) / 8;
+                if (request.length < 6 + bytes || (request[5] & 0xFF) != bytes) {
+                    throw new ModbusException(function, Modbus.ILLEGAL_DATA_VALUE);
+                }
+                int values = 0;
+                for (int i = 0; i < bytes; i++) {
+                    values |= (request[6 + i] & 0xFF) << (8 * i);
+                }
+                model.writeCoils(address, count, values);
+                byte[] response = new byte[5];
+                System.arraycopy(request, 0, response, 0, 5);
+                return response;
+            }
+            default:
+                throw new ModbusException(function, Modbus.ILLEGAL_FUNCTION);
+        }
+    }
+
+    private static void checkCount(int function, int count, int max) throws ModbusException {
+        if (count < 1 || count > max) {
+            throw new ModbusException(function, Modbus.ILLEGAL_DATA_VALUE);
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.bbv.sorter.hardware.timing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of how late timed actions ran, with fixed buckets from 1 us to 5 ms.
+ * Recording is lock-free and does not allocate.
+ */
+public final class JitterHistogram {
+
+    /**
+     * Upper bounds of the buckets in microseconds, the last bucket is unbounded.
+     */
+    private static final long[] BOUNDS_MICROS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MICROS.length + 1);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param latenessNanos actual minus planned time, early actions count as on time
+     */
+    public void record(long latenessNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, latenessNanos));
+        int bucket = 0;
+        while (bucket < BOUNDS_MICROS.length && micros >= BOUNDS_MICROS[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+
+        long current = max.get();
+        while (latenessNanos > current && !max.compareAndSet(current, latenessNanos)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return the upper bound of each bucket in microseconds, the last is infinite
+     */
+    public Double[] getBoundsMicros() {
+        Double[] bounds = new Double[BOUNDS_MICROS.length + 1];
+        for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+            bounds[i] = (double) BOUNDS_MICROS[i];
+        }
+        bounds[BOUNDS_MICROS.length] = Double.POSITIVE_INFINITY;
+        return bounds;
+    }
+
+    /**
+     * @return the number of actions per bucket of {@link #getBoundsMicros()}
+     */
+    public Long[] getCounts() {
+        Long[] result = new Long[counts.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of actions per bucket, to compare with the counts of a later time
+     * @see #getPercentileMicros(long[], double)
+     */
+    public long[] snapshot() {
+        long[] result = new long[counts.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Percentile of the actions recorded since a {@link #snapshot()}, so that a window of
+     * recent actions is not dominated by an outlier long ago.
+     *
+     * @param since    the counts at the start of the window
+     * @param quantile share of the actions at or below the result, e.g. 0.99
+     * @return the upper bound of the bucket holding the quantile in microseconds, infinite
+     * for the last bucket, NaN if no action was recorded since
+     */
+    public double getPercentileMicros(long[] since, double quantile) {
+        long[] window = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < window.length; i++) {
+            window[i] = counts.get(i) - since[i];
+            total += window[i];
+        }
+        if (total <= 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+            seen += window[i];
+            if (seen >= rank) {
+                return BOUNDS_MICROS[i];
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public double getMaxMicros() {
+        return max.get() / 1000.0;
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.bbv.sorter.hardware.timing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Dedicated timer thread for actions that must run at a precise instant, e.g. the edges
+ * of a valve pulse.
+ * <p>
+ * The thread parks until shortly before the next deadline and spins for the rest, because
+ * parking alone wakes up with a jitter in the order of the scheduler tick. The actions run
+ * on the timer thread and must be short, they delay the actions due after them: an action
+ * that writes to the hardware hands the write to the queue of its conveyor.
+ */
+public final class PulseTimer {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private final long spinNanos;
+    private final Thread thread;
+
+    private long sequence = 0;
+    private volatile boolean running = true;
+
+    /**
+     * @param spinTime how long before a deadline the thread stops parking and spins
+     */
+    public PulseTimer(String name, long spinTime, TimeUnit unit) {
+        this.spinNanos = unit.toNanos(spinTime);
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * @param deadline in {@link System#nanoTime()}
+     */
+    public void schedule(long deadline, Runnable action) {
+        lock.lock();
+        try {
+            Task task = new Task(deadline, sequence++, action);
+            tasks.add(task);
+            if (tasks.peek() == task) {
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            Task task;
+            lock.lock();
+            try {
+                task = tasks.peek();
+                if (task == null) {
+                    changed.await();
+                    continue;
+                }
+                long park = task.deadline - System.nanoTime() - spinNanos;
+                if (park > 0) {
+                    changed.awaitNanos(park);
+                    continue;
+                }
+                tasks.poll();
+            } catch (InterruptedException e) {
+                continue;
+            } finally {
+                lock.unlock();
+            }
+
+            while (System.nanoTime() < task.deadline) {
+                // spin, the remaining time is shorter than the park precision
+            }
+            try {
+                task.action.run();
+            } catch (RuntimeException e) {
+                logger.warn("Timed action failed", e);
+            }
+        }
+    }
+
+    private static final class Task implements Comparable<Task> {
+
+        private final long deadline;
+        private final long sequence;
+        private final Runnable action;
+
+        private Task(long deadline, long sequence, Runnable action) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            // nanoTime may overflow, compare the difference
+            long difference = deadline - other.deadline;
+            if (difference != 0) {
+                return difference < 0 ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+}
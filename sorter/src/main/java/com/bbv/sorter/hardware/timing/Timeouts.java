@@ -0,0 +1,59 @@
+package com.bbv.sorter.hardware.timing;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Deadlines for futures of hardware operations, as {@code orTimeout} of Java 9.
+ * <p>
+ * One daemon thread fails the futures whose deadline passed. A future completed in time
+ * cancels its deadline, so the queue of the thread only holds the operations in flight.
+ */
+public final class Timeouts {
+
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "timeout-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private Timeouts() {
+    }
+
+    /**
+     * Complete the future exceptionally with a {@link TimeoutException} if it did not
+     * complete within the timeout.
+     *
+     * @return the given future
+     */
+    public static <T> CompletableFuture<T> orTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+        return orTimeout(future, timeout, unit, () -> new TimeoutException("No result within " + timeout + " " + unit));
+    }
+
+    /**
+     * @param exception creates the exception the future is completed with when the timeout passed
+     * @return the given future
+     */
+    public static <T> CompletableFuture<T> orTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit,
+                                                     Supplier<? extends Throwable> exception) {
+        if (future.isDone()) {
+            return future;
+        }
+        ScheduledFuture<?> deadline = TIMER.schedule(() -> {
+            if (!future.isDone()) {
+                future.completeExceptionally(exception.get());
+            }
+        }, timeout, unit);
+        future.whenComplete((result, ex) -> deadline.cancel(false));
+        return future;
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.bbv.sorter.hardware.timing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps the monotonic {@link System#nanoTime()} of a sample to the wall clock.
+ * The offset of the two clocks is taken at the call, so a sample is mapped once and the
+ * result kept, not mapped again on every use.
+ */
+public interface WallClock {
+
+    /**
+     * @param nanoTime a {@link System#nanoTime()} in the recent past
+     * @return the same instant in nanoseconds since 1970-01-01 UTC
+     */
+    static long toEpochNanos(long nanoTime) {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - (System.nanoTime() - nanoTime);
+    }
+
+}
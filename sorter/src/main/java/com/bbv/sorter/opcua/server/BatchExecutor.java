@@ -0,0 +1,114 @@
+package com.bbv.sorter.opcua.server;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs the items of a large Read or Write request in parallel on a dedicated
+ * {@link ForkJoinPool}, small requests on the calling thread.
+ * <p>
+ * A request of at least {@link #PARALLEL_THRESHOLD} items is split in halves down to
+ * chunks of {@link #MIN_CHUNK} items or a few chunks per worker, whichever is larger.
+ * The caller waits for all items, every item writes its result at its own position,
+ * so the results keep the order of the request. The pool has {@link #PARALLELISM}
+ * daemon workers, with a parallelism of 1 there is no pool.
+ */
+public class BatchExecutor {
+
+    /**
+     * Number of items from which a request is run in parallel, see
+     * {@code benchmark.BatchBenchmark} for the crossover on a machine.
+     */
+    public static final int PARALLEL_THRESHOLD = Integer.getInteger("sorter.batch.parallelThreshold", 1000);
+
+    /**
+     * Number of workers of the pool.
+     */
+    public static final int PARALLELISM = Integer.getInteger("sorter.batch.parallelism", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Smallest number of items run as one task.
+     */
+    public static final int MIN_CHUNK = 64;
+
+    // chunks per worker, so a worker that finished early can steal
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final int threshold;
+
+    public BatchExecutor() {
+        this(PARALLELISM, PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * @param parallelism number of workers, 1 runs every request on the calling thread
+     * @param threshold   number of items from which a request is run in parallel
+     */
+    public BatchExecutor(int parallelism, int threshold) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.threshold = threshold;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism, BatchExecutor::newWorker, null, false) : null;
+    }
+
+    /**
+     * Run the action for every index from 0 to size and return when all completed.
+     */
+    public void forEach(int size, IntConsumer action) {
+        if (pool == null || size < threshold) {
+            for (int i = 0; i < size; i++) {
+                action.accept(i);
+            }
+            return;
+        }
+        int chunk = Math.max(MIN_CHUNK, size / (parallelism * CHUNKS_PER_WORKER));
+        pool.invoke(new Chunk(action, 0, size, chunk));
+    }
+
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private static ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        worker.setName("sorter-batch-" + worker.getPoolIndex());
+        worker.setDaemon(true);
+        return worker;
+    }
+
+    private static final class Chunk extends RecursiveAction {
+
+        private final IntConsumer action;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        private Chunk(IntConsumer action, int from, int to, int chunk) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                for (int i = from; i < to; i++) {
+                    action.accept(i);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Chunk(action, from, middle, chunk), new Chunk(action, middle, to, chunk));
+        }
+    }
+
+}
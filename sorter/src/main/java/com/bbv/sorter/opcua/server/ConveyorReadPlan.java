@@ -0,0 +1,128 @@
+package com.bbv.sorter.opcua.server;
+
+import com.bbv.sorter.hardware.conveyor.ConveyorImage;
+import com.bbv.sorter.hardware.conveyor.ConveyorScanner;
+import com.bbv.sorter.opcua.server.utils.CachedSignalValue;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The conveyor backed values of one Read request, grouped by the {@link ConveyorScanner}
+ * of their line.
+ * <p>
+ * Every group is acquired once: the last image of the scanner if it is young enough for
+ * the maxAge of the request, otherwise one new read of the conveyor. The values of a group
+ * come from the same image, so they are a coherent sample of the line, and are written to
+ * their position in the results of the request.
+ */
+final class ConveyorReadPlan {
+
+    private final List<Group> groups = new ArrayList<>(1);
+    private final long maxAgeNanos;
+    private final TimestampsToReturn timestamps;
+    private final DataValue[] results;
+
+    // the group of the last value added, the values of a line are usually adjacent
+    private Group last;
+
+    /**
+     * @param results the results of the request, filled at the positions of the added values
+     */
+    ConveyorReadPlan(long maxAgeNanos, TimestampsToReturn timestamps, DataValue[] results) {
+        this.maxAgeNanos = maxAgeNanos;
+        this.timestamps = timestamps;
+        this.results = results;
+    }
+
+    void add(int index, CachedSignalValue value) {
+        ConveyorScanner scanner = value.getScanner();
+        if (last == null || last.scanner != scanner) {
+            last = findGroup(scanner);
+        }
+        last.add(index, value);
+    }
+
+    boolean isEmpty() {
+        return groups.isEmpty();
+    }
+
+    /**
+     * Acquire every group and fill the results of its values.
+     *
+     * @return completes when the values of the groups that needed a new read are filled,
+     * null if all values were filled from the last images
+     */
+    CompletableFuture<Void> execute() {
+        List<CompletableFuture<?>> reads = null;
+        for (Group group : groups) {
+            ConveyorImage image = group.scanner.getImage();
+            // before the first scan there is no value of any age
+            if (image.isValid() && image.getAgeNanos() <= maxAgeNanos) {
+                group.fillCached(image);
+            } else {
+                if (reads == null) {
+                    reads = new ArrayList<>();
+                }
+                reads.add(group.scanner.refresh().handle((read, ex) -> {
+                    group.fillRead(read, ex);
+                    return read;
+                }));
+            }
+        }
+        return reads == null ? null : CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private Group findGroup(ConveyorScanner scanner) {
+        for (Group group : groups) {
+            if (group.scanner == scanner) {
+                return group;
+            }
+        }
+        Group group = new Group(scanner);
+        groups.add(group);
+        return group;
+    }
+
+    private final class Group {
+
+        private final ConveyorScanner scanner;
+        private int[] indexes = new int[16];
+        private CachedSignalValue[] values = new CachedSignalValue[16];
+        private int size;
+
+        private Group(ConveyorScanner scanner) {
+            this.scanner = scanner;
+        }
+
+        private void add(int index, CachedSignalValue value) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            indexes[size] = index;
+            values[size] = value;
+            size++;
+        }
+
+        private void fillCached(ConveyorImage image) {
+            for (int i = 0; i < size; i++) {
+                results[indexes[i]] = values[i].getCached(image, timestamps);
+            }
+        }
+
+        private void fillRead(ConveyorImage image, Throwable ex) {
+            for (int i = 0; i < size; i++) {
+                results[indexes[i]] = ex == null
+                        ? values[i].getRead(image, timestamps)
+                        : new DataValue(StatusCodes.Bad_NoCommunication);
+            }
+        }
+    }
+
+}
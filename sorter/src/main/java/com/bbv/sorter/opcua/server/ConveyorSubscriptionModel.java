@@ -0,0 +1,250 @@
+package com.bbv.sorter.opcua.server;
+
+import com.bbv.sorter.hardware.conveyor.ConveyorListener;
+import com.bbv.sorter.hardware.conveyor.ConveyorSignal;
+import com.bbv.sorter.hardware.timing.WallClock;
+import com.bbv.sorter.opcua.server.utils.CachedSignalValue;
+import com.bbv.sorter.opcua.server.utils.ConveyorBindings;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.ServerNode;
+import org.eclipse.milo.opcua.sdk.server.util.SubscriptionModel;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Report by exception for conveyor backed variables: instead of sampling the value
+ * at the sampling interval, the monitored items are fed by the {@link ConveyorListener}
+ * callbacks, so a notification is only produced on a real change.
+ * All other items are handed to the polling {@link SubscriptionModel}.
+ * Each conveyor line is registered with its {@link ConveyorBindings}.
+ */
+public class ConveyorSubscriptionModel {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<NodeId, LineSubscriptions> lines = new ConcurrentHashMap<>();
+
+    private final OpcUaServer server;
+    private final SubscriptionModel pollingModel;
+
+    public ConveyorSubscriptionModel(OpcUaServer server, SubscriptionModel pollingModel) {
+        this.server = server;
+        this.pollingModel = pollingModel;
+    }
+
+    /**
+     * Push the changes of the conveyor of this line to the items monitoring its bound nodes.
+     */
+    public void register(ConveyorBindings bindings) {
+        LineSubscriptions line = new LineSubscriptions(bindings);
+        bindings.getNodeIds().forEach(nodeId -> lines.put(nodeId, line));
+        bindings.getConveyor().addConveyorListener(line);
+    }
+
+    public void onDataItemsCreated(List<DataItem> dataItems) {
+        List<DataItem> polled = new ArrayList<>();
+
+        for (DataItem item : dataItems) {
+            LineSubscriptions line = getLine(item);
+            if (line != null) {
+                line.add(item);
+                pushCurrentValue(item);
+            } else {
+                polled.add(item);
+            }
+        }
+
+        if (!polled.isEmpty()) {
+            pollingModel.onDataItemsCreated(polled);
+        }
+    }
+
+    public void onDataItemsModified(List<DataItem> dataItems) {
+        // pushed items do not depend on the sampling interval
+        List<DataItem> polled = new ArrayList<>();
+        dataItems.stream().filter(item -> getLine(item) == null).forEach(polled::add);
+
+        if (!polled.isEmpty()) {
+            pollingModel.onDataItemsModified(polled);
+        }
+    }
+
+    public void onDataItemsDeleted(List<DataItem> dataItems) {
+        List<DataItem> polled = new ArrayList<>();
+
+        for (DataItem item : dataItems) {
+            LineSubscriptions line = getLine(item);
+            if (line != null) {
+                line.remove(item);
+            } else {
+                polled.add(item);
+            }
+        }
+
+        if (!polled.isEmpty()) {
+            pollingModel.onDataItemsDeleted(polled);
+        }
+    }
+
+    public void onMonitoringModeChanged(List<MonitoredItem> monitoredItems) {
+        List<MonitoredItem> polled = new ArrayList<>();
+
+        for (MonitoredItem item : monitoredItems) {
+            if (getLine(item) != null) {
+                if (item.isSamplingEnabled()) {
+                    pushCurrentValue((DataItem) item);
+                }
+            } else {
+                polled.add(item);
+            }
+        }
+
+        if (!polled.isEmpty()) {
+            pollingModel.onMonitoringModeChanged(polled);
+        }
+    }
+
+    private void pushCurrentValue(DataItem item) {
+        ReadValueId readValueId = item.getReadValueId();
+        ServerNode node = server.getNodeMap().get(readValueId.getNodeId());
+
+        if (node != null) {
+            DataValue value = node.readAttribute(
+                    new AttributeContext(server),
+                    readValueId.getAttributeId(),
+                    item.getTimestampsToReturn(),
+                    readValueId.getIndexRange(),
+                    readValueId.getDataEncoding()
+            );
+            item.setValue(value);
+        } else {
+            logger.warn("Monitored node {} not found", readValueId.getNodeId());
+        }
+    }
+
+    /**
+     * Only the Value attribute of a bound variable is pushed.
+     */
+    private LineSubscriptions getLine(MonitoredItem item) {
+        ReadValueId readValueId = item.getReadValueId();
+        if (!AttributeId.Value.isEqual(readValueId.getAttributeId())) {
+            return null;
+        }
+        return lines.get(readValueId.getNodeId());
+    }
+
+    /**
+     * The items monitoring the signals of one conveyor line.
+     */
+    private static final class LineSubscriptions implements ConveyorListener {
+
+        private final Map<ConveyorSignal, List<DataItem>> items = new EnumMap<>(ConveyorSignal.class);
+
+        private final ConveyorBindings bindings;
+
+        // only accessed by the thread publishing the changes of the conveyor
+        private long sampleNanos;
+        private DateTime sampleTime;
+
+        private LineSubscriptions(ConveyorBindings bindings) {
+            this.bindings = bindings;
+
+            for (ConveyorSignal signal : ConveyorSignal.values()) {
+                items.put(signal, new CopyOnWriteArrayList<>());
+            }
+        }
+
+        private void add(DataItem item) {
+            bindings.getSignal(item.getReadValueId().getNodeId()).ifPresent(signal -> items.get(signal).add(item));
+        }
+
+        private void remove(DataItem item) {
+            bindings.getSignal(item.getReadValueId().getNodeId()).ifPresent(signal -> items.get(signal).remove(item));
+        }
+
+        @Override
+        public void onSampled(long sampleNanos) {
+            this.sampleNanos = sampleNanos;
+            sampleTime = null;
+        }
+
+        @Override
+        public void onStatusChanged(boolean status) {
+            push(ConveyorSignal.STATUS, CachedSignalValue.toVariant(status));
+        }
+
+        @Override
+        public void onModeChanged(int mode) {
+            push(ConveyorSignal.MODE, CachedSignalValue.toEnumVariant(mode));
+        }
+
+        @Override
+        public void onLightBarrierChanged(int lightBarrier, boolean value) {
+            push(ConveyorSignal.lightBarrier(lightBarrier), CachedSignalValue.toVariant(value));
+        }
+
+        @Override
+        public void onValveChanged(int valve, boolean value) {
+            push(ConveyorSignal.valve(valve), CachedSignalValue.toVariant(value));
+        }
+
+        @Override
+        public void onLastProcessedColorChanged(int color) {
+            push(ConveyorSignal.LAST_PROCESSED_COLOR, CachedSignalValue.toEnumVariant(color));
+        }
+
+        @Override
+        public void onSpeedChanged(double speed) {
+            push(ConveyorSignal.SPEED, CachedSignalValue.toVariant(speed));
+        }
+
+        private void push(ConveyorSignal signal, Variant value) {
+            List<DataItem> signalItems = items.get(signal);
+            if (signalItems.isEmpty()) {
+                return;
+            }
+            if (sampleTime == null) {
+                // mapped once per sample, shared by the changes of the sample
+                sampleTime = CachedSignalValue.toDateTime(WallClock.toEpochNanos(sampleNanos));
+            }
+
+            DataValue[] values = new DataValue[TimestampsToReturn.values().length];
+            for (DataItem item : signalItems) {
+                if (item.isSamplingEnabled()) {
+                    TimestampsToReturn timestamps = item.getTimestampsToReturn();
+                    DataValue dataValue = values[timestamps.ordinal()];
+                    if (dataValue == null) {
+                        dataValue = withTimestamps(value, timestamps);
+                        values[timestamps.ordinal()] = dataValue;
+                    }
+                    item.setValue(dataValue);
+                }
+            }
+        }
+
+        private DataValue withTimestamps(Variant value, TimestampsToReturn timestamps) {
+            boolean source = timestamps == TimestampsToReturn.Source || timestamps == TimestampsToReturn.Both;
+            boolean server = timestamps == TimestampsToReturn.Server || timestamps == TimestampsToReturn.Both;
+            return new DataValue(value, StatusCode.GOOD, source ? sampleTime : null, server ? sampleTime : null);
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.bbv.sorter.opcua.server;
+
+import com.bbv.sorter.hardware.conveyor.AsyncConveyor;
+import com.bbv.sorter.hardware.conveyor.ConveyorScanner;
+import com.bbv.sorter.hardware.conveyor.ConveyorSignal;
+import com.bbv.sorter.opcua.server.utils.CachedSignalValue;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The writes of one Write request to the outputs of the conveyors, the valves and Mode,
+ * grouped by the {@link ConveyorScanner} of their line.
+ * <p>
+ * The valves written for a line are set with one hardware write, so they change at the
+ * same instant, the valves not written keep their state. A later write of the same output
+ * in the request wins. Mode 1 starts the conveyor, 0 stops it, after the valves are set.
+ * The status of every write is written to its position in the results of the request.
+ */
+final class ConveyorWritePlan {
+
+    // the codes of Conveyor#getMode()
+    private static final int MODE_STOPPED = 0;
+    private static final int MODE_STARTED = 1;
+
+    private final List<Group> groups = new ArrayList<>(1);
+    private final StatusCode[] results;
+
+    // the group of the last write added, the writes of a line are usually adjacent
+    private Group last;
+
+    /**
+     * @param results the results of the request, filled at the positions of the added writes
+     */
+    ConveyorWritePlan(StatusCode[] results) {
+        this.results = results;
+    }
+
+    /**
+     * Add the write of a new value to an output. A value of the wrong type or out of range
+     * is rejected at once.
+     *
+     * @param value the cached value of a node bound to an {@link ConveyorSignal#isOutput() output}
+     */
+    void add(int index, CachedSignalValue value, Object written) {
+        ConveyorSignal signal = value.getSignal();
+        if (signal.getType() == ConveyorSignal.Type.BOOLEAN) {
+            if (!(written instanceof Boolean)) {
+                results[index] = new StatusCode(StatusCodes.Bad_TypeMismatch);
+                return;
+            }
+            group(value.getScanner()).setValve(index, signal.getMask(), (Boolean) written);
+        } else {
+            if (!(written instanceof UInteger)) {
+                results[index] = new StatusCode(StatusCodes.Bad_TypeMismatch);
+                return;
+            }
+            long mode = ((UInteger) written).longValue();
+            if (mode != MODE_STOPPED && mode != MODE_STARTED) {
+                results[index] = new StatusCode(StatusCodes.Bad_OutOfRange);
+                return;
+            }
+            group(value.getScanner()).setMode(index, (int) mode);
+        }
+    }
+
+    boolean isEmpty() {
+        return groups.isEmpty();
+    }
+
+    /**
+     * Write the outputs of every line and fill the results of its writes.
+     *
+     * @return completes when all lines answered
+     */
+    CompletableFuture<Void> execute() {
+        CompletableFuture<?>[] writes = new CompletableFuture<?>[groups.size()];
+        for (int i = 0; i < writes.length; i++) {
+            writes[i] = groups.get(i).execute();
+        }
+        return CompletableFuture.allOf(writes);
+    }
+
+    private Group group(ConveyorScanner scanner) {
+        if (last == null || last.scanner != scanner) {
+            last = findGroup(scanner);
+        }
+        return last;
+    }
+
+    private Group findGroup(ConveyorScanner scanner) {
+        for (Group group : groups) {
+            if (group.scanner == scanner) {
+                return group;
+            }
+        }
+        Group group = new Group(scanner);
+        groups.add(group);
+        return group;
+    }
+
+    private final class Group {
+
+        private final ConveyorScanner scanner;
+        private final Writes valveWrites = new Writes();
+        private final Writes modeWrites = new Writes();
+        private int valveMask;
+        private int valves;
+        private int mode;
+
+        private Group(ConveyorScanner scanner) {
+            this.scanner = scanner;
+        }
+
+        private void setValve(int index, int valve, boolean pressure) {
+            valveMask |= valve;
+            valves = pressure ? valves | valve : valves & ~valve;
+            valveWrites.add(index);
+        }
+
+        private void setMode(int index, int mode) {
+            this.mode = mode;
+            modeWrites.add(index);
+        }
+
+        private CompletableFuture<Void> execute() {
+            AsyncConveyor conveyor = scanner.getConveyor();
+            // the conveyor runs its operations in the order they were issued
+            CompletableFuture<Void> valvesWritten = valveWrites.size == 0 ? null
+                    : valveWrites.complete(conveyor.updateValves(valves, valveMask));
+            CompletableFuture<Void> modeWritten = modeWrites.size == 0 ? null
+                    : modeWrites.complete(mode == MODE_STARTED ? conveyor.start() : conveyor.stop());
+
+            if (valvesWritten == null) {
+                return modeWritten;
+            }
+            return modeWritten == null ? valvesWritten : CompletableFuture.allOf(valvesWritten, modeWritten);
+        }
+    }
+
+    /**
+     * The positions of the writes of one hardware operation.
+     */
+    private final class Writes {
+
+        private int[] indexes = new int[4];
+        private int size;
+
+        private void add(int index) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+            }
+            indexes[size++] = index;
+        }
+
+        private CompletableFuture<Void> complete(CompletableFuture<Void> operation) {
+            return operation.handle((ignored, ex) -> {
+                StatusCode status = ex == null ? StatusCode.GOOD : new StatusCode(StatusCodes.Bad_NoCommunication);
+                for (int i = 0; i < size; i++) {
+                    results[indexes[i]] = status;
+                }
+                return null;
+            });
+        }
+    }
+
+}
@@ -13,11 +13,15 @@
 
 package com.bbv.sorter.opcua.server;
 
+import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.opcua.server.audit.AuditLog;
 import com.bbv.sorter.opcua.server.utils.*;
-import com.google.common.collect.Lists;
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
 import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
 import org.eclipse.milo.opcua.sdk.server.api.*;
+import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.*;
 import org.eclipse.milo.opcua.sdk.server.util.SubscriptionModel;
 import org.eclipse.milo.opcua.stack.core.AttributeId;
@@ -34,29 +38,46 @@ import org.eclipse.milo.opcua.stack.core.util.FutureUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class SorterNamespace implements Namespace {
 
     public static final String NAMESPACE_URI = "urn:bbv:fischer:color-sorter";
 
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    // a longer maxAge accepts any value
+    private static final double MAX_AGE_MILLIS = Long.MAX_VALUE / NANOS_PER_MILLI;
+
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
 
-    private final SubscriptionModel subscriptionModel;
+    private final ConveyorSubscriptionModel subscriptionModel;
+    private final BatchExecutor batchExecutor = new BatchExecutor();
+    private final AuditLog auditLog = AuditLog.getDefault();
     private final NodeFactory nodeFactory;
 
+    // the cached values of the conveyor backed variables of all lines, served without the attribute reader
+    private final Map<NodeId, CachedSignalValue> signalValues = new ConcurrentHashMap<>();
+
     private final OpcUaServer server;
     private final UShort namespaceIndex;
 
+    private UaObjectTypeNode conveyorTypeNode;
+    private UaObjectTypeNode compressorTypeNode;
+    private UaVariableNode[] valveInstanceDeclarations;
+
     SorterNamespace(OpcUaServer server, UShort namespaceIndex) {
         this.server = server;
         this.namespaceIndex = namespaceIndex;
 
-        subscriptionModel = new SubscriptionModel(server, this);
+        subscriptionModel = new ConveyorSubscriptionModel(server, new SubscriptionModel(server, this));
         nodeFactory = new NodeFactory(
                 server.getNodeMap(),
                 server.getObjectTypeManager(),
@@ -65,15 +86,57 @@ public class SorterNamespace implements Namespace {
 
         try {
             UaFolderNode sorterFolder = createSorterFolder(server, namespaceIndex);
-            UaObjectNode conveyor = createConveyor();
-            organizeInFolder(sorterFolder, conveyor);
-            UaObjectNode compressor = createCompressor();
-            organizeInFolder(sorterFolder, compressor);
+            addAuditDiagnostics(sorterFolder);
+            createConveyorType();
+            createCompressorType();
+
+            int lineCount = ConveyorFactory.getLineCount();
+            for (int line = 1; line <= lineCount; line++) {
+                createLine(sorterFolder, line, lineCount);
+            }
         } catch (UaException e) {
             logger.error("Error adding nodes: {}", e.getMessage(), e);
         }
     }
 
+    /**
+     * A single line keeps the flat layout "Sorter/Conveyor", several lines are
+     * organized in one folder per line, "Sorter/Line42/Conveyor".
+     */
+    private void createLine(UaFolderNode sorterFolder, int line, int lineCount) {
+        ConveyorBindings bindings = new ConveyorBindings(line, ConveyorFactory.getScanner(line), ConveyorFactory.getPulser(line), ConveyorFactory.getSortingEngine(line),
+                ConveyorFactory.getEdgeRing(line), ConveyorFactory.getSpeedEstimator(line),
+                ConveyorFactory.getSpeedController(line), ConveyorFactory.getThroughputOptimizer(line));
+
+        UaFolderNode lineFolder = sorterFolder;
+        if (lineCount > 1) {
+            lineFolder = createLineFolder(sorterFolder, line);
+        }
+        String path = lineFolder.getNodeId().getIdentifier().toString();
+
+        UaObjectNode conveyor = createConveyor(path, bindings);
+        organizeInFolder(lineFolder, conveyor);
+        UaObjectNode compressor = createCompressor(path, bindings);
+        organizeInFolder(lineFolder, compressor);
+
+        subscriptionModel.register(bindings);
+        signalValues.putAll(bindings.getValues());
+    }
+
+    private UaFolderNode createLineFolder(UaFolderNode sorterFolder, int line) {
+        String name = "Line" + line;
+        UaFolderNode folderNode = new UaFolderNode(
+                server.getNodeMap(),
+                new NodeId(namespaceIndex, sorterFolder.getNodeId().getIdentifier() + "/" + name),
+                new QualifiedName(namespaceIndex, name),
+                LocalizedText.english(name)
+        );
+
+        server.getNodeMap().addNode(folderNode);
+        organizeInFolder(sorterFolder, folderNode);
+        return folderNode;
+    }
+
     // Add forward and inverse references from the root folder.
     private void organizeInFolder(UaFolderNode sorterFolder, UaObjectNode conveyor) {
         sorterFolder.addOrganizes(conveyor);
@@ -87,34 +150,60 @@ public class SorterNamespace implements Namespace {
         ));
     }
 
-    private UaObjectNode createConveyor() throws UaException {
-        UaObjectTypeNode conveyorTypeNode = ConveyorNodeUtils.createConveyorTypeNode(server, namespaceIndex);
+    private void createConveyorType() throws UaException {
+        conveyorTypeNode = ConveyorNodeUtils.createConveyorTypeNode(server, namespaceIndex);
         ConveyorNodeUtils.addModeInstanceDeclaration(conveyorTypeNode, server, namespaceIndex);
         ConveyorNodeUtils.addStatusInstanceDeclaration(conveyorTypeNode, server, namespaceIndex);
         ConveyorSpeedIndicatorUtils.addSpeedIndicatorInstanceDeclaration(conveyorTypeNode, server, namespaceIndex);
         registerType(conveyorTypeNode, Identifiers.BaseObjectType, Identifiers.HasSubtype, NodeClass.ObjectType);
+    }
 
-        UaObjectNode conveyor = ConveyorNodeUtils.createConveyorInstance(conveyorTypeNode, nodeFactory, namespaceIndex);
+    private UaObjectNode createConveyor(String path, ConveyorBindings bindings) {
+        UaObjectNode conveyor = ConveyorNodeUtils.createConveyorInstance(conveyorTypeNode, nodeFactory, namespaceIndex, path, bindings);
 
-        ConveyorNodeUtils.addChangeConveyorMethodNode(conveyor, server, namespaceIndex);
-        LightBarrierUtils.addLightBarriers(conveyor, server, namespaceIndex);
-        ColorDetectorUtils.addColorDetector(conveyor, server, namespaceIndex);
+        ConveyorNodeUtils.addChangeConveyorMethodNode(conveyor, server, namespaceIndex, bindings);
+        ConveyorNodeUtils.addReadCacheDiagnostics(conveyor, server, namespaceIndex, bindings);
+        LightBarrierUtils.addLightBarriers(conveyor, server, namespaceIndex, bindings);
+        // the nodes of a feature only exist if the feature is enabled
+        if (bindings.getSpeedEstimator() != null) {
+            ConveyorSpeedIndicatorUtils.addEstimatedSpeed(conveyor, server, namespaceIndex, bindings);
+        }
+        if (bindings.getSpeedController() != null) {
+            ConveyorSpeedIndicatorUtils.addSpeedSetpoint(conveyor, server, namespaceIndex, bindings);
+            ConveyorSpeedIndicatorUtils.addSpeedControlDiagnostics(conveyor, server, namespaceIndex, bindings);
+        }
+        if (bindings.getThroughputOptimizer() != null) {
+            ConveyorSpeedIndicatorUtils.addThroughputDiagnostics(conveyor, server, namespaceIndex, bindings);
+        }
+        ColorDetectorUtils.addColorDetector(conveyor, server, namespaceIndex, bindings);
+        if (bindings.getSortingEngine() != null) {
+            SortingNodeUtils.addRecipe(conveyor, server, namespaceIndex, bindings);
+            SortingNodeUtils.addSortingDiagnostics(conveyor, server, namespaceIndex, bindings);
+            PartNodePool.addParts(conveyor, server, namespaceIndex, bindings);
+        }
 
 
         return conveyor;
     }
 
-    private UaObjectNode createCompressor() throws UaException {
-        UaObjectTypeNode compressorTypeNode = CompressorNodeUtils.createCompressorTypeNode(server, namespaceIndex);
-        UaVariableNode compressorValve1InstanceDeclaration = CompressorNodeUtils.addCompressorValveInstanceDeclaration(compressorTypeNode, server, namespaceIndex, CompressorNodeUtils.V1);
-        UaVariableNode compressorValve2InstanceDeclaration = CompressorNodeUtils.addCompressorValveInstanceDeclaration(compressorTypeNode, server, namespaceIndex, CompressorNodeUtils.V2);
-        UaVariableNode compressorValve3InstanceDeclaration = CompressorNodeUtils.addCompressorValveInstanceDeclaration(compressorTypeNode, server, namespaceIndex, CompressorNodeUtils.V3);
+    private void createCompressorType() throws UaException {
+        compressorTypeNode = CompressorNodeUtils.createCompressorTypeNode(server, namespaceIndex);
+        valveInstanceDeclarations = new UaVariableNode[]{
+                CompressorNodeUtils.addCompressorValveInstanceDeclaration(compressorTypeNode, server, namespaceIndex, CompressorNodeUtils.V1),
+                CompressorNodeUtils.addCompressorValveInstanceDeclaration(compressorTypeNode, server, namespaceIndex, CompressorNodeUtils.V2),
+                CompressorNodeUtils.addCompressorValveInstanceDeclaration(compressorTypeNode, server, namespaceIndex, CompressorNodeUtils.V3)
+        };
 
         registerType(compressorTypeNode, Identifiers.BaseObjectType, Identifiers.HasSubtype, NodeClass.ObjectType);
+    }
 
-        UaObjectNode compressor = CompressorNodeUtils.createCompressorInstance(compressorTypeNode, compressorValve1InstanceDeclaration, compressorValve2InstanceDeclaration, compressorValve3InstanceDeclaration, nodeFactory, namespaceIndex);
+    private UaObjectNode createCompressor(String path, ConveyorBindings bindings) {
+        UaObjectNode compressor = CompressorNodeUtils.createCompressorInstance(compressorTypeNode, valveInstanceDeclarations[0], valveInstanceDeclarations[1], valveInstanceDeclarations[2], nodeFactory, namespaceIndex, path, bindings);
 
-        CompressorNodeUtils.addChangeConveyorMethodNode(compressor, server, namespaceIndex);
+        CompressorNodeUtils.addChangeConveyorMethodNode(compressor, server, namespaceIndex, bindings);
+        CompressorNodeUtils.addPressurizeValvesMethodNode(compressor, server, namespaceIndex, bindings);
+        CompressorNodeUtils.addPulseValveMethodNode(compressor, server, namespaceIndex, bindings);
+        CompressorNodeUtils.addPulseJitter(compressor, server, namespaceIndex, bindings);
 
         return compressor;
     }
@@ -177,11 +266,32 @@ public class SorterNamespace implements Namespace {
     }
 
 
+    private void addAuditDiagnostics(UaFolderNode sorterFolder) {
+        String path = sorterFolder.getNodeId().getIdentifier() + "/Audit";
+
+        NodeUtils.addDiagnosticVariable(sorterFolder, server, namespaceIndex, path + "/Written", "AuditWritten",
+                "Writes and method calls recorded in the audit log",
+                Identifiers.Int64, ValueRanks.Scalar, auditLog::getWritten);
+        NodeUtils.addDiagnosticVariable(sorterFolder, server, namespaceIndex, path + "/Dropped", "AuditDropped",
+                "Writes and method calls not recorded because the audit queue was full or the file failed",
+                Identifiers.Int64, ValueRanks.Scalar, auditLog::getDropped);
+        NodeUtils.addDiagnosticVariable(sorterFolder, server, namespaceIndex, path + "/Commits", "AuditCommits",
+                "Batches of audit records forced to the disk at once",
+                Identifiers.Int64, ValueRanks.Scalar, auditLog::getCommits);
+    }
+
     @Override
     public UShort getNamespaceIndex() {
         return namespaceIndex;
     }
 
+    /**
+     * Stop the workers of the parallel batches.
+     */
+    void shutdown() {
+        batchExecutor.shutdown();
+    }
+
     @Override
     public String getNamespaceUri() {
         return NAMESPACE_URI;
@@ -206,62 +316,146 @@ public class SorterNamespace implements Namespace {
             TimestampsToReturn timestamps,
             List<ReadValueId> readValueIds) {
 
-        List<DataValue> results = Lists.newArrayListWithCapacity(readValueIds.size());
+        DataValue[] results = new DataValue[readValueIds.size()];
+        AttributeContext attributeContext = new AttributeContext(context);
 
-        for (ReadValueId readValueId : readValueIds) {
+        // the conveyor values are left to the plan of the request
+        batchExecutor.forEach(results.length, i -> {
+            ReadValueId readValueId = readValueIds.get(i);
             ServerNode node = server.getNodeMap().get(readValueId.getNodeId());
 
+            if (signalValues.containsKey(readValueId.getNodeId()) && isCurrentValueRead(readValueId, node)) {
+                return;
+            }
             if (node != null) {
-                DataValue value = node.readAttribute(
-                        new AttributeContext(context),
+                results[i] = node.readAttribute(
+                        attributeContext,
                         readValueId.getAttributeId(),
                         timestamps,
                         readValueId.getIndexRange(),
                         readValueId.getDataEncoding()
                 );
-
-                results.add(value);
             } else {
-                results.add(new DataValue(StatusCodes.Bad_NodeIdUnknown));
+                results[i] = new DataValue(StatusCodes.Bad_NodeIdUnknown);
             }
+        });
+
+        ConveyorReadPlan plan = new ConveyorReadPlan(toNanos(maxAge), timestamps, results);
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                plan.add(i, signalValues.get(readValueIds.get(i).getNodeId()));
+            }
+        }
+
+        CompletableFuture<Void> reads = plan.isEmpty() ? null : plan.execute();
+        if (reads == null) {
+            context.complete(Arrays.asList(results));
+        } else {
+            // the lines older than maxAge complete the request when their conveyors answered
+            reads.whenComplete((ignored, ex) -> context.complete(Arrays.asList(results)));
         }
+    }
 
-        context.complete(results);
+    /**
+     * @param maxAge in milliseconds as in the Read service, 0 or less for a new value
+     */
+    private static long toNanos(Double maxAge) {
+        if (maxAge == null || !(maxAge > 0)) {
+            return 0;
+        }
+        return maxAge >= MAX_AGE_MILLIS ? Long.MAX_VALUE : (long) (maxAge * NANOS_PER_MILLI);
+    }
+
+    /**
+     * The plain read of the Value attribute of a readable variable, which the cached value answers
+     * with the same result as the attribute reader.
+     */
+    private static boolean isCurrentValueRead(ReadValueId readValueId, ServerNode node) {
+        if (!(node instanceof VariableNode) || !AttributeId.Value.isEqual(readValueId.getAttributeId())) {
+            return false;
+        }
+        String indexRange = readValueId.getIndexRange();
+        QualifiedName dataEncoding = readValueId.getDataEncoding();
+        if ((indexRange != null && !indexRange.isEmpty()) || (dataEncoding != null && dataEncoding.isNotNull())) {
+            return false;
+        }
+        VariableNode variable = (VariableNode) node;
+        int readable = AccessLevel.CurrentRead.getValue();
+        return (variable.getAccessLevel().intValue() & variable.getUserAccessLevel().intValue() & readable) != 0;
     }
 
     @Override
     public void write(WriteContext context, List<WriteValue> writeValues) {
-        List<StatusCode> results = Lists.newArrayListWithCapacity(writeValues.size());
+        StatusCode[] results = new StatusCode[writeValues.size()];
+        AttributeContext attributeContext = new AttributeContext(context);
 
-        for (WriteValue writeValue : writeValues) {
+        // the conveyor outputs are left to the plan of the request
+        batchExecutor.forEach(results.length, i -> {
+            WriteValue writeValue = writeValues.get(i);
             ServerNode node = server.getNodeMap().get(writeValue.getNodeId());
 
+            if (isOutputWrite(writeValue, node)) {
+                return;
+            }
             if (node != null) {
                 try {
                     node.writeAttribute(
-                            new AttributeContext(context),
+                            attributeContext,
                             writeValue.getAttributeId(),
                             writeValue.getValue(),
                             writeValue.getIndexRange()
                     );
 
-                    results.add(StatusCode.GOOD);
-
-                    logger.info(
-                            "Wrote value {} to {} attribute of {}",
-                            writeValue.getValue().getValue(),
-                            AttributeId.from(writeValue.getAttributeId()).map(Object::toString).orElse("unknown"),
-                            node.getNodeId());
+                    results[i] = StatusCode.GOOD;
                 } catch (UaException e) {
-                    logger.error("Unable to write value={}", writeValue.getValue(), e);
-                    results.add(e.getStatusCode());
+                    logger.debug("Unable to write value={}", writeValue.getValue(), e);
+                    results[i] = e.getStatusCode();
                 }
             } else {
-                results.add(new StatusCode(StatusCodes.Bad_NodeIdUnknown));
+                results[i] = new StatusCode(StatusCodes.Bad_NodeIdUnknown);
             }
+        });
+
+        ConveyorWritePlan plan = new ConveyorWritePlan(results);
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                WriteValue writeValue = writeValues.get(i);
+                plan.add(i, signalValues.get(writeValue.getNodeId()), writeValue.getValue().getValue().getValue());
+            }
+        }
+
+        if (plan.isEmpty()) {
+            complete(context, writeValues, results);
+        } else {
+            // the writes to the outputs complete the request when their conveyors answered
+            plan.execute().whenComplete((ignored, ex) -> complete(context, writeValues, results));
         }
+    }
 
-        context.complete(results);
+    private void complete(WriteContext context, List<WriteValue> writeValues, StatusCode[] results) {
+        for (int i = 0; i < results.length; i++) {
+            auditLog.write(context, writeValues.get(i), results[i]);
+        }
+        context.complete(Arrays.asList(results));
+    }
+
+    /**
+     * The write of the Value attribute of a writable conveyor output, which the plan of the
+     * request coalesces into one hardware write per line.
+     */
+    private boolean isOutputWrite(WriteValue writeValue, ServerNode node) {
+        CachedSignalValue value = signalValues.get(writeValue.getNodeId());
+        if (value == null || !value.getSignal().isOutput()
+                || !(node instanceof VariableNode) || !AttributeId.Value.isEqual(writeValue.getAttributeId())) {
+            return false;
+        }
+        String indexRange = writeValue.getIndexRange();
+        if (indexRange != null && !indexRange.isEmpty()) {
+            return false;
+        }
+        VariableNode variable = (VariableNode) node;
+        int writable = AccessLevel.CurrentWrite.getValue();
+        return (variable.getAccessLevel().intValue() & variable.getUserAccessLevel().intValue() & writable) != 0;
     }
 
     @Override
@@ -13,6 +13,7 @@
 
 package com.bbv.sorter.opcua.server;
 
+import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
 import com.bbv.sorter.opcua.server.methods.ChangeConveyorModeMethod;
 import com.bbv.sorter.opcua.server.types.CustomDataType;
 import com.google.common.collect.Lists;
@@ -485,7 +486,7 @@ public class SorterNamespaceHelloWorld implements Namespace {
         try {
             AnnotationBasedInvocationHandler invocationHandler =
                 AnnotationBasedInvocationHandler.fromAnnotatedObject(
-                    server.getNodeMap(), new ChangeConveyorModeMethod());
+                    server.getNodeMap(), new ChangeConveyorModeMethod(ConveyorFactory.getAsyncInstance(1)));
 
             methodNode.setProperty(UaMethodNode.InputArguments, invocationHandler.getInputArguments());
             methodNode.setProperty(UaMethodNode.OutputArguments, invocationHandler.getOutputArguments());
@@ -13,6 +13,8 @@
 
 package com.bbv.sorter.opcua.server;
 
+import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.opcua.server.audit.AuditLog;
 import com.google.common.collect.ImmutableList;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
@@ -63,6 +65,7 @@ public class SorterServer {
     }
 
     private final OpcUaServer server;
+    private final SorterNamespace namespace;
 
     public SorterServer() throws Exception {
         File securityTempDir = new File(System.getProperty("java.io.tmpdir"), "security");
@@ -149,7 +152,7 @@ public class SorterServer {
 
         server = new OpcUaServer(serverConfig);
 
-        server.getNamespaceManager().registerAndAdd(
+        namespace = server.getNamespaceManager().registerAndAdd(
             SorterNamespace.NAMESPACE_URI,
             idx -> new SorterNamespace(server, idx));
     }
@@ -159,11 +162,16 @@ public class SorterServer {
     }
 
     public CompletableFuture<OpcUaServer> startup() {
+        ConveyorFactory.startScanners();
         return server.startup();
     }
 
     public CompletableFuture<OpcUaServer> shutdown() {
-        return server.shutdown();
+        return server.shutdown().whenComplete((s, ex) -> {
+            namespace.shutdown();
+            AuditLog.stopDefault();
+            ConveyorFactory.stopScanners();
+        });
     }
 
 }
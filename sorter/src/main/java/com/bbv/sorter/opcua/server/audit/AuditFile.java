@@ -0,0 +1,152 @@
+package com.bbv.sorter.opcua.server.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The audit log on disk: a series of JSON lines files "audit-000001.jsonl", ... in one
+ * directory, each written through a memory mapping of a fixed size.
+ * <p>
+ * A line is copied into the mapping, {@link #commit()} forces the lines appended since
+ * the last commit to the disk at once. A line that does not fit the current file any more
+ * starts the next one; the full file is truncated to its lines, and only the given number
+ * of files is kept. After a crash the last file ends with zeros, a reader stops at the
+ * first zero byte. Not thread safe, it is used by the writer of the {@link AuditLog} only.
+ */
+final class AuditFile implements Closeable {
+
+    // well above the longest line, the values of a record are cut
+    static final int MIN_SIZE = 64 * 1024;
+
+    private static final Pattern NAME = Pattern.compile("audit-(\\d{6})\\.jsonl");
+
+    private final Path directory;
+    private final int size;
+    private final int files;
+
+    private int number;
+    // the line being appended, copied to the mapping at once
+    private byte[] bytes = new byte[1024];
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    /**
+     * @param size  bytes per file, at least {@link #MIN_SIZE}
+     * @param files number of files kept, the current one included
+     */
+    AuditFile(Path directory, int size, int files) throws IOException {
+        if (size < MIN_SIZE) {
+            throw new IllegalArgumentException("size must be at least " + MIN_SIZE + ": " + size);
+        }
+        if (files < 1) {
+            throw new IllegalArgumentException("files must be at least 1: " + files);
+        }
+        this.directory = directory;
+        this.size = size;
+        this.files = files;
+        Files.createDirectories(directory);
+        // continue after the files of the previous runs, a new file per run
+        number = lastNumber();
+        next();
+    }
+
+    /**
+     * @return the file the lines are appended to
+     */
+    Path getPath() {
+        return path(number);
+    }
+
+    /**
+     * Append one line of ASCII characters.
+     */
+    void append(CharSequence line) throws IOException {
+        int length = line.length();
+        if (length > size) {
+            throw new IllegalArgumentException("Line of " + length + " bytes longer than the file size " + size);
+        }
+        if (buffer.remaining() < length) {
+            next();
+        }
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, 2 * bytes.length)];
+        }
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) line.charAt(i);
+        }
+        buffer.put(bytes, 0, length);
+    }
+
+    /**
+     * Force the appended lines to the disk.
+     */
+    void commit() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            finish();
+        }
+    }
+
+    private void next() throws IOException {
+        if (channel != null) {
+            finish();
+        }
+        number++;
+        channel = FileChannel.open(path(number), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        deleteBefore(number - files + 1);
+    }
+
+    private void finish() throws IOException {
+        buffer.force();
+        // the mapping stays valid until collected, it is not touched beyond the lines
+        channel.truncate(buffer.position());
+        channel.close();
+        channel = null;
+        buffer = null;
+    }
+
+    private Path path(int number) {
+        return directory.resolve(String.format("audit-%06d.jsonl", number));
+    }
+
+    private int lastNumber() throws IOException {
+        int last = 0;
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "audit-*.jsonl")) {
+            for (Path path : paths) {
+                last = Math.max(last, number(path));
+            }
+        }
+        return last;
+    }
+
+    private void deleteBefore(int first) throws IOException {
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "audit-*.jsonl")) {
+            for (Path path : paths) {
+                int other = number(path);
+                if (other > 0 && other < first) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    // 0 for a file of another name
+    private static int number(Path path) {
+        Matcher matcher = NAME.matcher(path.getFileName().toString());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+
+}
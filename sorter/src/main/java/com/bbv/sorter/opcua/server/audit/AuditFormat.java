@@ -0,0 +1,161 @@
+package com.bbv.sorter.opcua.server.audit;
+
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Formats {@link AuditRecord}s as JSON lines, used by the writer of the {@link AuditLog} only.
+ * <p>
+ * A line is ASCII only, so every character is one byte of the file. The strings that repeat
+ * from record to record, the second of the time, the node ids and the status names, are
+ * formatted once and kept.
+ */
+final class AuditFormat {
+
+    // longer values are cut, the audit log records what was done, not bulk data
+    static final int MAX_VALUE_CHARS = 256;
+
+    // node ids kept at most before the cache starts over
+    private static final int MAX_NODE_IDS = 4096;
+
+    private final Map<NodeId, String> nodeIds = new HashMap<>();
+    private final Map<Long, String> statusNames = new HashMap<>();
+    private final String[] attributeNames = new String[32];
+
+    private long second = Long.MIN_VALUE;
+    private String secondText;
+
+    /**
+     * Append the record as one line of JSON, terminated by a newline.
+     */
+    void append(AuditRecord record, StringBuilder line) {
+        appendTime(line.append("{\"time\":\""), record.epochMillis).append('"');
+        line.append(",\"type\":\"").append(record.type == AuditRecord.WRITE ? "write" : "call").append('"');
+        if (record.session != null) {
+            appendString(line.append(",\"session\":"), toString(record.session));
+        }
+        if (record.type == AuditRecord.WRITE) {
+            appendString(line.append(",\"node\":"), toString(record.node));
+            appendString(line.append(",\"attribute\":"), attributeName(record.attributeId));
+            appendValue(line.append(",\"value\":"), record.value);
+        } else {
+            appendString(line.append(",\"object\":"), toString(record.node));
+            appendString(line.append(",\"method\":"), toString(record.method));
+            line.append(",\"arguments\":[");
+            Variant[] arguments = (Variant[]) record.value;
+            for (int i = 0; i < arguments.length; i++) {
+                appendValue(i == 0 ? line : line.append(','), arguments[i]);
+            }
+            line.append(']');
+        }
+        appendString(line.append(",\"status\":"), statusName(record.status));
+        line.append("}\n");
+    }
+
+    /**
+     * ISO 8601 in UTC with milliseconds, as 2018-03-16T12:00:00.000Z.
+     */
+    private StringBuilder appendTime(StringBuilder line, long epochMillis) {
+        long millis = Math.floorMod(epochMillis, 1000L);
+        long epochSecond = Math.floorDiv(epochMillis, 1000L);
+        if (epochSecond != second) {
+            String text = Instant.ofEpochSecond(epochSecond).toString();
+            // a whole second is formatted without fraction, as 2018-03-16T12:00:00Z
+            secondText = text.substring(0, text.length() - 1);
+            second = epochSecond;
+        }
+        line.append(secondText).append('.');
+        if (millis < 100) {
+            line.append('0');
+        }
+        if (millis < 10) {
+            line.append('0');
+        }
+        return line.append(millis).append('Z');
+    }
+
+    private String toString(NodeId nodeId) {
+        String text = nodeIds.get(nodeId);
+        if (text == null) {
+            if (nodeIds.size() >= MAX_NODE_IDS) {
+                nodeIds.clear();
+            }
+            text = nodeId.toParseableString();
+            nodeIds.put(nodeId, text);
+        }
+        return text;
+    }
+
+    private String attributeName(int attributeId) {
+        if (attributeId < 0 || attributeId >= attributeNames.length) {
+            return Integer.toString(attributeId);
+        }
+        String name = attributeNames[attributeId];
+        if (name == null) {
+            name = AttributeId.from(attributeId).map(Object::toString).orElse(Integer.toString(attributeId));
+            attributeNames[attributeId] = name;
+        }
+        return name;
+    }
+
+    private String statusName(long status) {
+        return statusNames.computeIfAbsent(status, code -> StatusCodes.lookup(code)
+                .map(names -> names[0])
+                .orElse(String.format("0x%08X", code)));
+    }
+
+    private static void appendValue(StringBuilder line, Object value) {
+        Object plain = value instanceof Variant ? ((Variant) value).getValue() : value;
+        if (plain == null) {
+            line.append("null");
+        } else if (plain instanceof Boolean || (plain instanceof Number && isFinite((Number) plain))) {
+            appendString(line, plain.toString(), false);
+        } else {
+            appendString(line, plain instanceof Object[] ? Arrays.deepToString((Object[]) plain) : plain.toString());
+        }
+    }
+
+    // NaN and the infinities are no JSON numbers
+    private static boolean isFinite(Number number) {
+        return !(number instanceof Double || number instanceof Float) || !Double.isNaN(number.doubleValue())
+                && !Double.isInfinite(number.doubleValue());
+    }
+
+    private static void appendString(StringBuilder line, String value) {
+        appendString(line, value, true);
+    }
+
+    /**
+     * Append the value, cut to {@link #MAX_VALUE_CHARS}, with everything but printable ASCII escaped.
+     */
+    private static void appendString(StringBuilder line, String value, boolean quoted) {
+        if (quoted) {
+            line.append('"');
+        }
+        int length = Math.min(value.length(), MAX_VALUE_CHARS);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7E) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        if (length < value.length()) {
+            line.append("...");
+        }
+        if (quoted) {
+            line.append('"');
+        }
+    }
+
+}
@@ -0,0 +1,304 @@
+package com.bbv.sorter.opcua.server.audit;
+
+import org.eclipse.milo.opcua.sdk.server.Session;
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.WriteValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audit log of the writes and method calls of the clients, one JSON line per operation
+ * with its time, session, target, value or arguments and result status.
+ * <p>
+ * The request threads only fill a record of a preallocated {@link AuditQueue}, they never
+ * wait for I/O or a lock. When the queue is full the record is dropped and counted. A
+ * background writer appends the queued records to the {@link AuditFile}, a memory mapped
+ * file rotated at {@link #FILE_SIZE}, as they arrive, and forces them to the disk with one
+ * commit per {@link #COMMIT_MILLIS} at most: the more records arrive at once, the fewer
+ * commits per record.
+ */
+public final class AuditLog {
+
+    /**
+     * Directory of the audit files.
+     */
+    public static final String DIRECTORY = System.getProperty("sorter.audit.dir",
+            new File(System.getProperty("java.io.tmpdir"), "sorter-audit").getPath());
+
+    /**
+     * Records queued for the writer at most, a power of two.
+     */
+    public static final int CAPACITY = Integer.getInteger("sorter.audit.capacity", 8192);
+
+    /**
+     * Bytes per audit file.
+     */
+    public static final int FILE_SIZE = Integer.getInteger("sorter.audit.fileSize", 16 * 1024 * 1024);
+
+    /**
+     * Number of audit files kept.
+     */
+    public static final int FILES = Integer.getInteger("sorter.audit.files", 8);
+
+    /**
+     * Time a record waits at most for the commit of its group, the records appended
+     * in this time are forced to the disk together.
+     */
+    public static final long COMMIT_MILLIS = Long.getLong("sorter.audit.commitMillis", 10L);
+
+    // the writer looks for records it was not woken for after this time
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static AuditLog defaultLog;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Path directory;
+    private final int fileSize;
+    private final int files;
+    private final long commitNanos;
+    private final AuditQueue queue;
+    private final Thread writer;
+    private final LongAdder dropped = new LongAdder();
+
+    // written by the writer only
+    private volatile long written;
+    private volatile long commits;
+
+    private volatile boolean running;
+    private volatile boolean idle;
+
+    /**
+     * @param capacity    records queued at most, a power of two
+     * @param fileSize    bytes per file
+     * @param files       number of files kept
+     * @param commitMillis time a record waits at most for its commit
+     */
+    public AuditLog(Path directory, int capacity, int fileSize, int files, long commitMillis) {
+        this.directory = directory;
+        this.fileSize = fileSize;
+        this.files = files;
+        this.commitNanos = TimeUnit.MILLISECONDS.toNanos(commitMillis);
+        this.queue = new AuditQueue(capacity);
+        this.writer = new Thread(this::run, "sorter-audit");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * @return the audit log of the server, started on first use
+     */
+    public static synchronized AuditLog getDefault() {
+        if (defaultLog == null) {
+            defaultLog = new AuditLog(Paths.get(DIRECTORY), CAPACITY, FILE_SIZE, FILES, COMMIT_MILLIS);
+            defaultLog.start();
+        }
+        return defaultLog;
+    }
+
+    /**
+     * Write the queued records of the audit log of the server and stop it.
+     */
+    public static synchronized void stopDefault() {
+        if (defaultLog != null) {
+            defaultLog.stop();
+            defaultLog = null;
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writer.start();
+    }
+
+    /**
+     * Stop the writer after it wrote the records queued so far.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the records appended to the files and committed
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return the records dropped because the queue was full or the file could not be written
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the batches of records forced to the disk
+     */
+    public long getCommits() {
+        return commits;
+    }
+
+    /**
+     * Record a write of a client, never blocks.
+     */
+    public void write(AccessContext context, WriteValue writeValue, StatusCode status) {
+        long position = queue.claim();
+        if (position < 0) {
+            dropped.increment();
+            return;
+        }
+        AuditRecord record = queue.get(position);
+        record.type = AuditRecord.WRITE;
+        record.epochMillis = System.currentTimeMillis();
+        record.session = getSessionId(context);
+        record.node = writeValue.getNodeId();
+        record.attributeId = writeValue.getAttributeId().intValue();
+        record.value = writeValue.getValue().getValue();
+        record.status = status.getValue();
+        publish(position);
+    }
+
+    /**
+     * Record a method call of a client, never blocks.
+     */
+    public void call(AccessContext context, CallMethodRequest request, StatusCode status) {
+        long position = queue.claim();
+        if (position < 0) {
+            dropped.increment();
+            return;
+        }
+        AuditRecord record = queue.get(position);
+        record.type = AuditRecord.CALL;
+        record.epochMillis = System.currentTimeMillis();
+        record.session = getSessionId(context);
+        record.node = request.getObjectId();
+        record.method = request.getMethodId();
+        record.value = request.getInputArguments() != null ? request.getInputArguments() : new Variant[0];
+        record.status = status.getValue();
+        publish(position);
+    }
+
+    private void publish(long position) {
+        // the writer sets idle before it checks the queue, the publish is ordered before the read of idle
+        queue.publish(position);
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private static NodeId getSessionId(AccessContext context) {
+        return context.getSession().map(Session::getSessionId).orElse(null);
+    }
+
+    private void run() {
+        AuditFormat format = new AuditFormat();
+        StringBuilder line = new StringBuilder(1024);
+        AuditFile file = null;
+        long retryAt = System.nanoTime();
+        long committedAt = System.nanoTime();
+        // appended since the last commit
+        int pending = 0;
+
+        while (running || queue.peek() != null || pending > 0) {
+            if (file == null && System.nanoTime() - retryAt >= 0) {
+                file = open();
+                retryAt = System.nanoTime() + RETRY_NANOS;
+            }
+
+            // what is queued now, at most one queue length
+            int appended = 0;
+            AuditRecord record;
+            for (int i = 0; i < queue.getCapacity() && (record = queue.peek()) != null; i++) {
+                if (file == null) {
+                    dropped.increment();
+                } else {
+                    line.setLength(0);
+                    format.append(record, line);
+                    try {
+                        file.append(line);
+                        appended++;
+                    } catch (IOException | RuntimeException e) {
+                        logger.error("Error writing the audit log: {}", e.getMessage(), e);
+                        dropped.increment();
+                        // closing forces the records appended so far
+                        file = close(file);
+                    }
+                }
+                queue.release();
+            }
+            pending += appended;
+
+            long now = System.nanoTime();
+            long commitAt = committedAt + commitNanos;
+            if (pending > 0 && (now - commitAt >= 0 || !running)) {
+                if (file != null) {
+                    file.commit();
+                    commits++;
+                }
+                written += pending;
+                pending = 0;
+                committedAt = now;
+            } else if (appended == 0 && running) {
+                // without pending records a new record wakes the writer, otherwise it waits for the commit
+                idle = pending == 0;
+                if (queue.peek() == null) {
+                    LockSupport.parkNanos(this, pending == 0 ? IDLE_NANOS : commitAt - now);
+                }
+                idle = false;
+            }
+        }
+        close(file);
+    }
+
+    private AuditFile open() {
+        try {
+            AuditFile file = new AuditFile(directory, fileSize, files);
+            logger.info("Writing the audit log to {}", file.getPath());
+            return file;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error opening the audit log in {}: {}", directory, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private AuditFile close(AuditFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                logger.error("Error closing the audit log: {}", e.getMessage(), e);
+            }
+        }
+        return null;
+    }
+
+}
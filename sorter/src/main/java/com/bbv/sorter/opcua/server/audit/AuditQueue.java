@@ -0,0 +1,108 @@
+package com.bbv.sorter.opcua.server.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Preallocated bounded queue of {@link AuditRecord}s from any number of request threads
+ * to the single writer of the audit log.
+ * <p>
+ * A producer {@link #claim() claims} a slot, fills its record and {@link #publish(long)
+ * publishes} it, without locks and without allocation. When the queue is full the claim
+ * fails at once, the producer never waits for the writer. The consumer takes the published
+ * records in order with {@link #peek()} and {@link #release()}.
+ * <p>
+ * Every slot has a sequence: the position it is free for, one more once its record is
+ * published, and one round further once the consumer released it.
+ */
+final class AuditQueue {
+
+    private final AuditRecord[] records;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final int mask;
+
+    // only accessed by the consumer
+    private long head = 0;
+
+    /**
+     * @param capacity number of records queued at most, a power of two
+     */
+    AuditQueue(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.records = new AuditRecord[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            records[i] = new AuditRecord();
+            sequences.set(i, i);
+        }
+    }
+
+    int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Producer side, safe for concurrent producers.
+     *
+     * @return the position of the claimed slot, -1 if the queue is full
+     */
+    long claim() {
+        long position = tail.get();
+        while (true) {
+            long sequence = sequences.get((int) position & mask);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = tail.get();
+            } else if (sequence < position) {
+                // the slot still holds the record of the previous round
+                return -1;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the record of a claimed slot, to be filled by its producer only
+     */
+    AuditRecord get(long position) {
+        return records[(int) position & mask];
+    }
+
+    /**
+     * Hand the filled record of a claimed slot to the consumer.
+     * <p>
+     * A full volatile write: a producer reading whether the consumer sleeps after the
+     * publish must not see the state from before the consumer checked the queue.
+     */
+    void publish(long position) {
+        sequences.set((int) position & mask, position + 1);
+    }
+
+    /**
+     * Consumer side, must not be called concurrently.
+     *
+     * @return the next published record, null if there is none
+     */
+    AuditRecord peek() {
+        int index = (int) head & mask;
+        return sequences.get(index) == head + 1 ? records[index] : null;
+    }
+
+    /**
+     * Free the record returned by the last {@link #peek()} for the producers.
+     */
+    void release() {
+        int index = (int) head & mask;
+        records[index].clear();
+        sequences.lazySet(index, head + records.length);
+        head++;
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.bbv.sorter.opcua.server.audit;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * One slot of the {@link AuditQueue}, reused for every record that passes it.
+ * <p>
+ * A producer only copies references and primitives into the slot, the writer formats it
+ * with the {@link AuditFormat}.
+ */
+final class AuditRecord {
+
+    static final int WRITE = 1;
+    static final int CALL = 2;
+
+    int type;
+    long epochMillis;
+    NodeId session;
+    // the written node, or the object of the called method
+    NodeId node;
+    NodeId method;
+    int attributeId;
+    // the written Variant, or the Variant[] input arguments of the call
+    Object value;
+    long status;
+
+    void clear() {
+        session = null;
+        node = null;
+        method = null;
+        value = null;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.bbv.sorter.opcua.server.audit;
+
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.sdk.server.api.MethodInvocationHandler;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Records every Call of a method in the {@link AuditLog} with the status it completed with,
+ * whichever handler answers it. A handler that fails without a result is recorded with
+ * Bad_InternalError.
+ */
+public final class AuditingMethodInvocationHandler implements MethodInvocationHandler {
+
+    private final MethodInvocationHandler delegate;
+    private final AuditLog auditLog;
+
+    public AuditingMethodInvocationHandler(MethodInvocationHandler delegate, AuditLog auditLog) {
+        this.delegate = delegate;
+        this.auditLog = auditLog;
+    }
+
+    @Override
+    public void invoke(AccessContext context, CallMethodRequest request, CompletableFuture<CallMethodResult> future) {
+        CompletableFuture<CallMethodResult> result = new CompletableFuture<>();
+        result.whenComplete((value, ex) -> {
+            if (ex == null) {
+                auditLog.call(context, request, value.getStatusCode());
+                future.complete(value);
+            } else {
+                auditLog.call(context, request, new StatusCode(StatusCodes.Bad_InternalError));
+                future.completeExceptionally(ex);
+            }
+        });
+        try {
+            delegate.invoke(context, request, result);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+}
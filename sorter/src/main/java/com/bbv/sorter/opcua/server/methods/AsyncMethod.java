@@ -0,0 +1,46 @@
+package com.bbv.sorter.opcua.server.methods;
+
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * A method whose result depends on the hardware. Calls are dispatched by the
+ * {@link AsyncMethodInvocationHandler} to {@link #invokeAsync} once the input arguments
+ * match their declaration, so that the Call is completed when the hardware answered,
+ * without blocking a server thread.
+ */
+public interface AsyncMethod {
+
+    Argument[] getInputArguments();
+
+    Argument[] getOutputArguments();
+
+    /**
+     * @param context        the calling session
+     * @param inputArguments the input arguments in the declared order, of the declared data
+     *                       type and value rank
+     * @return the output arguments in the declared order
+     */
+    CompletableFuture<Variant[]> invokeAsync(AccessContext context, Variant[] inputArguments);
+
+    static Argument scalar(String name, NodeId dataType, String description) {
+        return new Argument(name, dataType, ValueRanks.Scalar, null, LocalizedText.english(description));
+    }
+
+    /**
+     * @return a one-dimensional array of any length
+     */
+    static Argument array(String name, NodeId dataType, String description) {
+        return new Argument(name, dataType, ValueRanks.OneDimension, new UInteger[]{uint(0)}, LocalizedText.english(description));
+    }
+
+}
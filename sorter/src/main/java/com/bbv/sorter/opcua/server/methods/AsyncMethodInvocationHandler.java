@@ -0,0 +1,100 @@
+package com.bbv.sorter.opcua.server.methods;
+
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.sdk.server.api.MethodInvocationHandler;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DiagnosticInfo;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Completes the Call with the future returned by an {@link AsyncMethod}.
+ * <p>
+ * As the annotation based handler of Milo, the input arguments are checked against their
+ * declaration first: an argument of another data type or value rank is rejected with
+ * Bad_TypeMismatch, and the method is not invoked.
+ */
+public class AsyncMethodInvocationHandler implements MethodInvocationHandler {
+
+    private static final DiagnosticInfo[] NO_DIAGNOSTICS = new DiagnosticInfo[0];
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Argument[] inputArguments;
+    private final AsyncMethod method;
+
+    public AsyncMethodInvocationHandler(AsyncMethod method) {
+        this.inputArguments = method.getInputArguments();
+        this.method = method;
+    }
+
+    @Override
+    public void invoke(AccessContext context, CallMethodRequest request, CompletableFuture<CallMethodResult> future) {
+        Variant[] inputs = request.getInputArguments() != null ? request.getInputArguments() : new Variant[0];
+
+        if (inputs.length != inputArguments.length) {
+            StatusCode status = new StatusCode(inputs.length < inputArguments.length ?
+                    StatusCodes.Bad_ArgumentsMissing : StatusCodes.Bad_TooManyArguments);
+            future.complete(new CallMethodResult(status, new StatusCode[0], NO_DIAGNOSTICS, new Variant[0]));
+            return;
+        }
+
+        StatusCode[] inputResults = new StatusCode[inputs.length];
+        boolean valid = true;
+        for (int i = 0; i < inputs.length; i++) {
+            if (matches(inputArguments[i], inputs[i])) {
+                inputResults[i] = StatusCode.GOOD;
+            } else {
+                inputResults[i] = new StatusCode(StatusCodes.Bad_TypeMismatch);
+                valid = false;
+            }
+        }
+        if (!valid) {
+            StatusCode status = new StatusCode(StatusCodes.Bad_InvalidArgument);
+            future.complete(new CallMethodResult(status, inputResults, NO_DIAGNOSTICS, new Variant[0]));
+            return;
+        }
+
+        CompletableFuture<Variant[]> outputs;
+        try {
+            outputs = method.invokeAsync(context, inputs);
+        } catch (RuntimeException e) {
+            outputs = new CompletableFuture<>();
+            outputs.completeExceptionally(e);
+        }
+
+        outputs.whenComplete((values, ex) -> {
+            if (ex == null) {
+                future.complete(new CallMethodResult(StatusCode.GOOD, inputResults, NO_DIAGNOSTICS, values));
+            } else {
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                StatusCode status = cause instanceof UaException ?
+                        ((UaException) cause).getStatusCode() : new StatusCode(StatusCodes.Bad_InternalError);
+                logger.error("Error invoking method {}: {}", method.getClass().getSimpleName(), cause.getMessage(), cause);
+                future.complete(new CallMethodResult(status, inputResults, NO_DIAGNOSTICS, new Variant[0]));
+            }
+        });
+    }
+
+    /**
+     * @return true if the value is not null and of the data type and value rank of the argument
+     */
+    private static boolean matches(Argument argument, Variant input) {
+        Object value = input.getValue();
+        if (value == null || !input.getDataType().map(argument.getDataType()::equals).orElse(false)) {
+            return false;
+        }
+        return value.getClass().isArray() == (argument.getValueRank() != ValueRanks.Scalar);
+    }
+
+}
@@ -13,54 +13,66 @@
 
 package com.bbv.sorter.opcua.server.methods;
 
-import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.hardware.conveyor.AsyncConveyor;
 import com.bbv.sorter.opcua.server.utils.ConveyorNodeUtils;
-import org.eclipse.milo.opcua.sdk.server.annotations.UaInputArgument;
-import org.eclipse.milo.opcua.sdk.server.annotations.UaMethod;
-import org.eclipse.milo.opcua.sdk.server.annotations.UaOutputArgument;
-import org.eclipse.milo.opcua.sdk.server.util.AnnotationBasedInvocationHandler.InvocationContext;
-import org.eclipse.milo.opcua.sdk.server.util.AnnotationBasedInvocationHandler.Out;
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
 import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
-public class ChangeConveyorModeMethod {
+public class ChangeConveyorModeMethod implements AsyncMethod {
+
+    private static final Argument[] INPUT_ARGUMENTS = {
+            AsyncMethod.scalar("mode", Identifiers.String, "the wanted mode")
+    };
+    private static final Argument[] OUTPUT_ARGUMENTS = {
+            AsyncMethod.scalar("result", Identifiers.String, "True or False.")
+    };
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    @UaMethod
-    public void invoke(
-        InvocationContext context,
+    private final AsyncConveyor conveyor;
+
+    public ChangeConveyorModeMethod(AsyncConveyor conveyor) {
+        this.conveyor = conveyor;
+    }
+
+    @Override
+    public Argument[] getInputArguments() {
+        return INPUT_ARGUMENTS;
+    }
 
-        @UaInputArgument(
-            name = "mode",
-            description = "the wanted mode")
-            String mode,
+    @Override
+    public Argument[] getOutputArguments() {
+        return OUTPUT_ARGUMENTS;
+    }
 
-        @UaOutputArgument(
-            name = "result",
-            description = "True or False.")
-            Out<String> result) {
+    @Override
+    public CompletableFuture<Variant[]> invokeAsync(AccessContext context, Variant[] inputArguments) {
+        String mode = (String) inputArguments[0].getValue();
 
-        logger.info("Invoking mode({}) method of Object '{}'", mode,context.getObjectNode().getBrowseName().getName());
+        logger.debug("Invoking mode({}) method", mode);
 
+        return changeMode(mode).thenApply(result -> new Variant[]{new Variant(result)});
+    }
+
+    private CompletableFuture<String> changeMode(String mode) {
         if (ConveyorNodeUtils.MODE_STARTED.getText().equals(mode)){
-            ConveyorFactory.getInstance().start();
-            result.set(mode);
+            return conveyor.start().thenApply(v -> mode);
         }else if (ConveyorNodeUtils.MODE_STOPPED.getText().equals(mode)){
-            ConveyorFactory.getInstance().stop();
-            result.set(mode);
+            return conveyor.stop().thenApply(v -> mode);
 
         }else{
 
-            result.set(String.format("Mode '%s' Unknown, possible values; %s",mode, Arrays.stream(ConveyorNodeUtils.MODES).map(LocalizedText::getText).collect(Collectors.toList())));
+            return CompletableFuture.completedFuture(String.format("Mode '%s' Unknown, possible values; %s",mode, Arrays.stream(ConveyorNodeUtils.MODES).map(LocalizedText::getText).collect(Collectors.toList())));
         }
-
-
-
     }
 
 }
\ No newline at end of file
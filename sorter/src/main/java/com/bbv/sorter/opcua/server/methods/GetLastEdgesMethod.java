@@ -0,0 +1,86 @@
+package com.bbv.sorter.opcua.server.methods;
+
+import com.bbv.sorter.hardware.conveyor.LightBarrierEdgeRing;
+import com.bbv.sorter.hardware.timing.WallClock;
+import com.bbv.sorter.opcua.server.utils.CachedSignalValue;
+import org.eclipse.milo.opcua.sdk.server.annotations.UaInputArgument;
+import org.eclipse.milo.opcua.sdk.server.annotations.UaMethod;
+import org.eclipse.milo.opcua.sdk.server.annotations.UaOutputArgument;
+import org.eclipse.milo.opcua.sdk.server.util.AnnotationBasedInvocationHandler.InvocationContext;
+import org.eclipse.milo.opcua.sdk.server.util.AnnotationBasedInvocationHandler.Out;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Returns the last light barrier edges of the conveyor from its {@link LightBarrierEdgeRing},
+ * oldest first. The edges stay in the ring for other consumers.
+ */
+public class GetLastEdgesMethod {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final LightBarrierEdgeRing edgeRing;
+
+    public GetLastEdgesMethod(LightBarrierEdgeRing edgeRing) {
+        this.edgeRing = edgeRing;
+    }
+
+    @UaMethod
+    public void invoke(
+        InvocationContext context,
+
+        @UaInputArgument(
+            name = "count",
+            description = "Number of edges wanted, at most the capacity of the ring")
+            Integer count,
+
+        @UaOutputArgument(
+            name = "lightBarriers",
+            description = "Light barrier of every edge, 1 to 3")
+            Out<Integer[]> lightBarriers,
+        @UaOutputArgument(
+            name = "rising",
+            description = "true if the barrier was interrupted, false if it was released")
+            Out<Boolean[]> rising,
+        @UaOutputArgument(
+            name = "times",
+            description = "Time every edge was sampled at")
+            Out<DateTime[]> times,
+        @UaOutputArgument(
+            name = "nanoTimes",
+            description = "Monotonic time of every edge in nanoseconds, for intervals between edges")
+            Out<Long[]> nanoTimes) {
+
+        logger.debug("Invoking getLastEdges({}) method of Object '{}'", count, context.getObjectNode().getBrowseName().getName());
+
+        int wanted = (int) Math.max(0, Math.min(count == null ? 0 : count, Math.min(edgeRing.getCapacity(), edgeRing.getHead())));
+        Integer[] barriers = new Integer[wanted];
+        Boolean[] edges = new Boolean[wanted];
+        Long[] nanos = new Long[wanted];
+        int[] size = {0};
+
+        edgeRing.readLast(wanted, (sequence, lightBarrier, risingEdge, nanoTime) -> {
+            if (size[0] < wanted) {
+                barriers[size[0]] = lightBarrier;
+                edges[size[0]] = risingEdge;
+                nanos[size[0]] = nanoTime;
+                size[0]++;
+            }
+        });
+
+        // the same mapping as the source timestamps of the light barrier variables
+        DateTime[] dates = new DateTime[size[0]];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = CachedSignalValue.toDateTime(WallClock.toEpochNanos(nanos[i]));
+        }
+
+        lightBarriers.set(Arrays.copyOf(barriers, size[0]));
+        rising.set(Arrays.copyOf(edges, size[0]));
+        times.set(dates);
+        nanoTimes.set(Arrays.copyOf(nanos, size[0]));
+    }
+
+}
@@ -13,58 +13,64 @@
 
 package com.bbv.sorter.opcua.server.methods;
 
-import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.hardware.conveyor.AsyncConveyor;
 import com.bbv.sorter.opcua.server.utils.CompressorNodeUtils;
-import org.eclipse.milo.opcua.sdk.server.annotations.UaInputArgument;
-import org.eclipse.milo.opcua.sdk.server.annotations.UaMethod;
-import org.eclipse.milo.opcua.sdk.server.annotations.UaOutputArgument;
-import org.eclipse.milo.opcua.sdk.server.util.AnnotationBasedInvocationHandler.InvocationContext;
-import org.eclipse.milo.opcua.sdk.server.util.AnnotationBasedInvocationHandler.Out;
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
-public class PressurizeValveModeMethod {
+public class PressurizeValveModeMethod implements AsyncMethod {
 
-    private final Logger logger = LoggerFactory.getLogger(getClass());
-
-    @UaMethod
-    public void invoke(
-        InvocationContext context,
+    private static final Argument[] INPUT_ARGUMENTS = {
+            AsyncMethod.scalar("valveName", Identifiers.String, "the wanted valveName"),
+            AsyncMethod.scalar("pressured", Identifiers.Boolean, "Put or Release Pressure on the Valve")
+    };
+    private static final Argument[] OUTPUT_ARGUMENTS = {
+            AsyncMethod.scalar("result", Identifiers.String, "True or False.")
+    };
 
-        @UaInputArgument(
-            name = "valveName",
-            description = "the wanted valveName")
-            String valveName,
-        @UaInputArgument(
-                name = "pressured",
-                description = "Put or Release Pressure on the Valve")
-                boolean pressured,
+    private final Logger logger = LoggerFactory.getLogger(getClass());
 
-        @UaOutputArgument(
-            name = "result",
-            description = "True or False.")
-            Out<String> result) {
+    private final AsyncConveyor conveyor;
 
-        logger.info("Invoking valveName({},{}) method of Object '{}'",valveName, pressured,context.getObjectNode().getBrowseName().getName());
+    public PressurizeValveModeMethod(AsyncConveyor conveyor) {
+        this.conveyor = conveyor;
+    }
 
-        result.set("OK");
-        switch (valveName){
-            case CompressorNodeUtils.V1:  ConveyorFactory.getInstance().setValve1(pressured);
-                break;
-            case CompressorNodeUtils.V2: ConveyorFactory.getInstance().setValve2(pressured);
-                break;
-            case CompressorNodeUtils.V3: ConveyorFactory.getInstance().setValve3(pressured);
-                break;
-                default:  result.set(String.format("Valve '%s' Unknown, possible values; %s",valveName, Arrays.stream(CompressorNodeUtils.VALVES).collect(Collectors.toList())));
-        }
+    @Override
+    public Argument[] getInputArguments() {
+        return INPUT_ARGUMENTS;
+    }
 
+    @Override
+    public Argument[] getOutputArguments() {
+        return OUTPUT_ARGUMENTS;
+    }
 
+    @Override
+    public CompletableFuture<Variant[]> invokeAsync(AccessContext context, Variant[] inputArguments) {
+        String valveName = (String) inputArguments[0].getValue();
+        boolean pressured = (Boolean) inputArguments[1].getValue();
 
+        logger.debug("Invoking valveName({},{}) method", valveName, pressured);
 
+        return pressurize(valveName, pressured).thenApply(result -> new Variant[]{new Variant(result)});
+    }
 
+    private CompletableFuture<String> pressurize(String valveName, boolean pressured) {
+        switch (valveName){
+            case CompressorNodeUtils.V1: return conveyor.setValve1(pressured).thenApply(v -> "OK");
+            case CompressorNodeUtils.V2: return conveyor.setValve2(pressured).thenApply(v -> "OK");
+            case CompressorNodeUtils.V3: return conveyor.setValve3(pressured).thenApply(v -> "OK");
+                default:  return CompletableFuture.completedFuture(String.format("Valve '%s' Unknown, possible values; %s",valveName, Arrays.stream(CompressorNodeUtils.VALVES).collect(Collectors.toList())));
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package com.bbv.sorter.opcua.server.methods;
+
+import com.bbv.sorter.hardware.conveyor.AsyncConveyor;
+import com.bbv.sorter.hardware.conveyor.ConveyorSnapshot;
+import com.bbv.sorter.opcua.server.utils.CompressorNodeUtils;
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sets all valves of the compressor with one hardware write, see
+ * {@link com.bbv.sorter.hardware.conveyor.Conveyor#setValves(int)}.
+ */
+public class PressurizeValvesMethod implements AsyncMethod {
+
+    private static final Argument[] INPUT_ARGUMENTS = {
+            AsyncMethod.array("pressured", Identifiers.Boolean, "Put (true) or Release (false) Pressure, one entry per Valve in the order V1, V2, V3")
+    };
+    private static final Argument[] OUTPUT_ARGUMENTS = {
+            AsyncMethod.scalar("result", Identifiers.String, "OK or the reason the pattern was rejected.")
+    };
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AsyncConveyor conveyor;
+
+    public PressurizeValvesMethod(AsyncConveyor conveyor) {
+        this.conveyor = conveyor;
+    }
+
+    @Override
+    public Argument[] getInputArguments() {
+        return INPUT_ARGUMENTS;
+    }
+
+    @Override
+    public Argument[] getOutputArguments() {
+        return OUTPUT_ARGUMENTS;
+    }
+
+    @Override
+    public CompletableFuture<Variant[]> invokeAsync(AccessContext context, Variant[] inputArguments) {
+        Boolean[] pressured = (Boolean[]) inputArguments[0].getValue();
+
+        logger.debug("Invoking pressurizeValves({}) method", Arrays.toString(pressured));
+
+        return pressurize(pressured).thenApply(result -> new Variant[]{new Variant(result)});
+    }
+
+    private CompletableFuture<String> pressurize(Boolean[] pressured) {
+        if (pressured.length != CompressorNodeUtils.VALVES.length) {
+            return CompletableFuture.completedFuture(String.format("Expected one entry per Valve; %s", Arrays.asList(CompressorNodeUtils.VALVES)));
+        }
+
+        int valves = 0;
+        for (int i = 0; i < pressured.length; i++) {
+            if (Boolean.TRUE.equals(pressured[i])) {
+                valves |= ConveyorSnapshot.VALVE_1 << i;
+            }
+        }
+        return conveyor.setValves(valves).thenApply(v -> "OK");
+    }
+
+}
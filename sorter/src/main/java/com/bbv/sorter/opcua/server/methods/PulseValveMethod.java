@@ -0,0 +1,70 @@
+package com.bbv.sorter.opcua.server.methods;
+
+import com.bbv.sorter.hardware.conveyor.ValvePulser;
+import com.bbv.sorter.opcua.server.utils.CompressorNodeUtils;
+import org.eclipse.milo.opcua.sdk.server.annotations.UaInputArgument;
+import org.eclipse.milo.opcua.sdk.server.annotations.UaMethod;
+import org.eclipse.milo.opcua.sdk.server.annotations.UaOutputArgument;
+import org.eclipse.milo.opcua.sdk.server.util.AnnotationBasedInvocationHandler.InvocationContext;
+import org.eclipse.milo.opcua.sdk.server.util.AnnotationBasedInvocationHandler.Out;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Pressurizes a valve for a given time, timed inside the server by the {@link ValvePulser}
+ * so that the pulse width does not depend on the client. The call returns as soon as the
+ * pulse is scheduled.
+ */
+public class PulseValveMethod {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ValvePulser pulser;
+
+    public PulseValveMethod(ValvePulser pulser) {
+        this.pulser = pulser;
+    }
+
+    @UaMethod
+    public void invoke(
+        InvocationContext context,
+
+        @UaInputArgument(
+            name = "valveName",
+            description = "the wanted valveName")
+            String valveName,
+        @UaInputArgument(
+            name = "durationMs",
+            description = "How long the Valve is pressurized, in milliseconds")
+            double durationMs,
+        @UaInputArgument(
+            name = "delayMs",
+            description = "Time until the Valve is pressurized, in milliseconds")
+            double delayMs,
+
+        @UaOutputArgument(
+            name = "result",
+            description = "OK or the reason the pulse was rejected.")
+            Out<String> result) {
+
+        logger.debug("Invoking pulseValve({},{},{}) method of Object '{}'", valveName, durationMs, delayMs, context.getObjectNode().getBrowseName().getName());
+
+        int valve = Arrays.asList(CompressorNodeUtils.VALVES).indexOf(valveName) + 1;
+        if (valve == 0) {
+            result.set(String.format("Valve '%s' Unknown, possible values; %s", valveName, Arrays.asList(CompressorNodeUtils.VALVES)));
+            return;
+        }
+
+        try {
+            pulser.pulse(valve, Math.round(delayMs * NANOS_PER_MILLI), Math.round(durationMs * NANOS_PER_MILLI));
+            result.set("OK");
+        } catch (IllegalArgumentException e) {
+            result.set(e.getMessage());
+        }
+    }
+
+}
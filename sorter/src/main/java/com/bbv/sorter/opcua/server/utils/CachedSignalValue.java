@@ -0,0 +1,299 @@
+package com.bbv.sorter.opcua.server.utils;
+
+import com.bbv.sorter.hardware.conveyor.ConveyorImage;
+import com.bbv.sorter.hardware.conveyor.ConveyorScanner;
+import com.bbv.sorter.hardware.conveyor.ConveyorSignal;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * The value of a variable bound to a {@link ConveyorSignal} as immutable {@link DataValue}s,
+ * one per {@link TimestampsToReturn}, so that reading it does not allocate.
+ * <p>
+ * A value is created for the type of its signal with {@link #ofBoolean}, {@link #ofEnum}
+ * or {@link #ofDouble}. It reads the signal with the primitive reader of the type and
+ * serves it as a variant of the data type of the node: Boolean, UInt32 or Double.
+ * <p>
+ * The timestamps are sample times of the hardware: the source timestamp is the sample
+ * time of the first image with the current value, the server timestamp the sample time
+ * of the image the value was taken from. The values are rebuilt only when the scanner
+ * published a new image, a new image with the same value of the signal keeps the variant
+ * and the source timestamp. Booleans and the small codes of the enumerations share
+ * constant variants, and without timestamps constant data values.
+ * <p>
+ * A read with a maximum age is served from the last image of the scanner while it is
+ * young enough, a hit, otherwise from an image read again by the scanner, a miss.
+ * Until the scanner read the hardware the first time the value is Bad_WaitingForInitialData.
+ */
+public abstract class CachedSignalValue {
+
+    // largest code of Mode and LastProcessedColor with a shared constant
+    private static final int MAX_CODE = 15;
+
+    // DateTime counts 100 ns ticks since 1601-01-01 UTC
+    private static final long NANOS_PER_TICK = 100;
+    private static final long EPOCH_TICKS = 116_444_736_000_000_000L;
+
+    private static final Variant TRUE = new Variant(true);
+    private static final Variant FALSE = new Variant(false);
+    private static final Variant[] CODES = new Variant[MAX_CODE + 1];
+    private static final DataValue TRUE_VALUE = new DataValue(TRUE, StatusCode.GOOD, null, null);
+    private static final DataValue FALSE_VALUE = new DataValue(FALSE, StatusCode.GOOD, null, null);
+    private static final DataValue[] CODE_VALUES = new DataValue[MAX_CODE + 1];
+    private static final DataValue WAITING = new DataValue(StatusCodes.Bad_WaitingForInitialData);
+
+    static {
+        for (int code = 0; code <= MAX_CODE; code++) {
+            CODES[code] = new Variant(uint(code));
+            CODE_VALUES[code] = new DataValue(CODES[code], StatusCode.GOOD, null, null);
+        }
+    }
+
+    private final ConveyorScanner scanner;
+    private final ConveyorSignal signal;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private volatile Entry entry;
+
+    private CachedSignalValue(ConveyorScanner scanner, ConveyorSignal signal, ConveyorSignal.Type type) {
+        if (signal.getType() != type) {
+            throw new IllegalArgumentException(signal + " is " + signal.getType() + ", not " + type);
+        }
+        this.scanner = scanner;
+        this.signal = signal;
+    }
+
+    /**
+     * @param signal a {@link ConveyorSignal.Type#BOOLEAN} signal, served as Boolean
+     */
+    public static CachedSignalValue ofBoolean(ConveyorScanner scanner, ConveyorSignal signal) {
+        return new BooleanValue(scanner, signal);
+    }
+
+    /**
+     * @param signal a {@link ConveyorSignal.Type#ENUM} signal, served as UInt32
+     */
+    public static CachedSignalValue ofEnum(ConveyorScanner scanner, ConveyorSignal signal) {
+        return new EnumValue(scanner, signal);
+    }
+
+    /**
+     * @param signal a {@link ConveyorSignal.Type#DOUBLE} signal, served as Double
+     */
+    public static CachedSignalValue ofDouble(ConveyorScanner scanner, ConveyorSignal signal) {
+        return new DoubleValue(scanner, signal);
+    }
+
+    /**
+     * @return the variant of a Boolean variable, shared
+     */
+    public static Variant toVariant(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    /**
+     * @return the variant of a UInt32 enumeration variable, shared for the small codes
+     */
+    public static Variant toEnumVariant(int code) {
+        return code >= 0 && code <= MAX_CODE ? CODES[code] : new Variant(uint(code));
+    }
+
+    /**
+     * @return the variant of a Double variable
+     */
+    public static Variant toVariant(double value) {
+        return new Variant(value);
+    }
+
+    public ConveyorScanner getScanner() {
+        return scanner;
+    }
+
+    public ConveyorSignal getSignal() {
+        return signal;
+    }
+
+    /**
+     * @return the value of the signal in the last image with the requested timestamps
+     */
+    public DataValue get(TimestampsToReturn timestamps) {
+        return get(scanner.getImage(), timestamps);
+    }
+
+    /**
+     * @param image the last image of the scanner, young enough for the reader
+     * @return the value of the signal in the image, counted as a hit
+     */
+    public DataValue getCached(ConveyorImage image, TimestampsToReturn timestamps) {
+        hits.increment();
+        return get(image, timestamps);
+    }
+
+    /**
+     * @param image a new image, read for a reader that needed a younger one than the last
+     * @return the value of the signal in the image, counted as a miss
+     */
+    public DataValue getRead(ConveyorImage image, TimestampsToReturn timestamps) {
+        misses.increment();
+        return get(image, timestamps);
+    }
+
+    /**
+     * @return the reads served from the last image
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the reads that needed a younger image than the last
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private DataValue get(ConveyorImage image, TimestampsToReturn timestamps) {
+        if (!image.isValid()) {
+            return WAITING;
+        }
+        Entry current = entry;
+        if (current == null || current.image != image) {
+            current = update(current, image);
+        }
+        return current.values[timestamps.ordinal()];
+    }
+
+    /**
+     * @return the value of the signal in the image, encoded without loss in a long
+     */
+    abstract long sample(ConveyorImage image);
+
+    /**
+     * @return the variant of a value returned by {@link #sample(ConveyorImage)}
+     */
+    abstract Variant toVariant(long sample);
+
+    private Entry update(Entry current, ConveyorImage image) {
+        long changed = image.getChangeEpochNanos(signal);
+        DateTime server = toDateTime(image.getEpochNanos());
+        // concurrent readers of a new image may both rebuild, either result is current
+        Entry next = current != null && current.changed == changed
+                ? new Entry(image, changed, withServerTime(current.values, server))
+                : new Entry(image, changed, toDataValues(toVariant(sample(image)), toDateTime(changed), server));
+        entry = next;
+        return next;
+    }
+
+    /**
+     * @param epochNanos nanoseconds since 1970-01-01 UTC
+     */
+    public static DateTime toDateTime(long epochNanos) {
+        return new DateTime(epochNanos / NANOS_PER_TICK + EPOCH_TICKS);
+    }
+
+    private static DataValue[] toDataValues(Variant variant, DateTime source, DateTime server) {
+        DataValue[] values = new DataValue[TimestampsToReturn.values().length];
+        values[TimestampsToReturn.Source.ordinal()] = new DataValue(variant, StatusCode.GOOD, source, null);
+        values[TimestampsToReturn.Server.ordinal()] = new DataValue(variant, StatusCode.GOOD, null, server);
+        values[TimestampsToReturn.Both.ordinal()] = new DataValue(variant, StatusCode.GOOD, source, server);
+        values[TimestampsToReturn.Neither.ordinal()] = withoutTimestamps(variant);
+        return values;
+    }
+
+    private static DataValue[] withServerTime(DataValue[] current, DateTime server) {
+        DataValue both = current[TimestampsToReturn.Both.ordinal()];
+        DataValue[] values = current.clone();
+        values[TimestampsToReturn.Server.ordinal()] = new DataValue(both.getValue(), StatusCode.GOOD, null, server);
+        values[TimestampsToReturn.Both.ordinal()] = new DataValue(both.getValue(), StatusCode.GOOD, both.getSourceTime(), server);
+        return values;
+    }
+
+    private static DataValue withoutTimestamps(Variant variant) {
+        if (variant == TRUE) {
+            return TRUE_VALUE;
+        }
+        if (variant == FALSE) {
+            return FALSE_VALUE;
+        }
+        for (int code = 0; code <= MAX_CODE; code++) {
+            if (variant == CODES[code]) {
+                return CODE_VALUES[code];
+            }
+        }
+        return new DataValue(variant, StatusCode.GOOD, null, null);
+    }
+
+    private static final class BooleanValue extends CachedSignalValue {
+
+        private BooleanValue(ConveyorScanner scanner, ConveyorSignal signal) {
+            super(scanner, signal, ConveyorSignal.Type.BOOLEAN);
+        }
+
+        @Override
+        long sample(ConveyorImage image) {
+            return getSignal().readBoolean(image) ? 1L : 0L;
+        }
+
+        @Override
+        Variant toVariant(long sample) {
+            return toVariant(sample != 0L);
+        }
+    }
+
+    private static final class EnumValue extends CachedSignalValue {
+
+        private EnumValue(ConveyorScanner scanner, ConveyorSignal signal) {
+            super(scanner, signal, ConveyorSignal.Type.ENUM);
+        }
+
+        @Override
+        long sample(ConveyorImage image) {
+            return getSignal().readInt(image);
+        }
+
+        @Override
+        Variant toVariant(long sample) {
+            return toEnumVariant((int) sample);
+        }
+    }
+
+    private static final class DoubleValue extends CachedSignalValue {
+
+        private DoubleValue(ConveyorScanner scanner, ConveyorSignal signal) {
+            super(scanner, signal, ConveyorSignal.Type.DOUBLE);
+        }
+
+        @Override
+        long sample(ConveyorImage image) {
+            return Double.doubleToLongBits(getSignal().readDouble(image));
+        }
+
+        @Override
+        Variant toVariant(long sample) {
+            return toVariant(Double.longBitsToDouble(sample));
+        }
+    }
+
+    private static final class Entry {
+
+        private final ConveyorImage image;
+        private final long changed;
+        private final DataValue[] values;
+
+        private Entry(ConveyorImage image, long changed, DataValue[] values) {
+            this.image = image;
+            this.changed = changed;
+            this.values = values;
+        }
+    }
+
+}
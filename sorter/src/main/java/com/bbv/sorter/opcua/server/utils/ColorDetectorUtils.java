@@ -1,7 +1,6 @@
 package com.bbv.sorter.opcua.server.utils;
 
-import com.bbv.sorter.hardware.conveyor.Conveyor;
-import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.hardware.conveyor.ConveyorSignal;
 import org.eclipse.milo.opcua.sdk.core.AccessLevel;
 import org.eclipse.milo.opcua.sdk.core.Reference;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
@@ -10,7 +9,6 @@ import org.eclipse.milo.opcua.sdk.server.model.nodes.variables.MultiStateDiscret
 import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaObjectNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
-import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
 import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.*;
@@ -40,9 +38,9 @@ public interface ColorDetectorUtils {
 
 
 
-    static UaVariableNode addColorDetector(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex) {
+    static UaVariableNode addColorDetector(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
 
-        NodeId nodeId = new NodeId(namespaceIndex, "Sorter/Conveyor/ColorDetector");
+        NodeId nodeId = new NodeId(namespaceIndex, conveyor.getNodeId().getIdentifier() + "/ColorDetector");
         UByte accessLevel = ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE));
         QualifiedName browseName = new QualifiedName(namespaceIndex, BROWSE_NAME_TYPE_COLOR_DETECTOR);
         LocalizedText display = LocalizedText.english("CS1 Color Detector");
@@ -50,12 +48,12 @@ public interface ColorDetectorUtils {
         Reference typeDefinition = new Reference(nodeId, Identifiers.HasTypeDefinition, new ExpandedNodeId(Identifiers.MultiStateDiscreteType), NodeClass.VariableType, true);
 
         MultiStateDiscreteNode compressorTypeColors = new MultiStateDiscreteNode(server.getNodeMap(), nodeId, browseName, display, description, uint(0), uint(0));
-        compressorTypeColors.setValue(new DataValue(new Variant(NO_READ)));
+        compressorTypeColors.setValue(new DataValue(new Variant(uint(0))));
         compressorTypeColors.setMinimumSamplingInterval(1.0);
         compressorTypeColors.setEnumStrings(COLOR_READS);
         compressorTypeColors.setDataType(Identifiers.UInteger);
         compressorTypeColors.addReference(typeDefinition);
-        compressorTypeColors.setAttributeDelegate(ConveyorNodeUtils.getAttributeDelegate(Conveyor::getLastProcessedColor));
+        bindings.bindEnum(compressorTypeColors, ConveyorSignal.LAST_PROCESSED_COLOR);
 
         conveyor.addComponent(compressorTypeColors);
         return compressorTypeColors;
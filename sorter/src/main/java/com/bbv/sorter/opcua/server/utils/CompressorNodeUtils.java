@@ -1,12 +1,17 @@
 package com.bbv.sorter.opcua.server.utils;
 
 import com.bbv.sorter.hardware.conveyor.Conveyor;
+import com.bbv.sorter.hardware.conveyor.ConveyorSignal;
 import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.hardware.timing.JitterHistogram;
 import com.bbv.sorter.opcua.server.SorterNamespace;
 import com.bbv.sorter.opcua.server.methods.ChangeConveyorModeMethod;
 import com.bbv.sorter.opcua.server.methods.PressurizeValveModeMethod;
+import com.bbv.sorter.opcua.server.methods.PressurizeValvesMethod;
+import com.bbv.sorter.opcua.server.methods.PulseValveMethod;
 import org.eclipse.milo.opcua.sdk.core.AccessLevel;
 import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
 import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
 import org.eclipse.milo.opcua.sdk.server.model.nodes.variables.AnalogItemNode;
@@ -70,12 +75,12 @@ public interface CompressorNodeUtils {
     }
 
 
-    static UaObjectNode createCompressorInstance(UaObjectTypeNode conveyorTypeNode, UaVariableNode valve1, UaVariableNode valve2, UaVariableNode valve3, NodeFactory nodeFactory, UShort namespaceIndex) {
+    static UaObjectNode createCompressorInstance(UaObjectTypeNode conveyorTypeNode, UaVariableNode valve1, UaVariableNode valve2, UaVariableNode valve3, NodeFactory nodeFactory, UShort namespaceIndex, String path, ConveyorBindings bindings) {
         // Use NodeFactory to create instance of ConveyorType called "Conveyor".
         // NodeFactory takes care of recursively instantiating MyObject member nodes
         // as well as adding all nodes to the address space.
         UaObjectNode conveyor = nodeFactory.createObject(
-                new NodeId(namespaceIndex, "Sorter/Compressor"),
+                new NodeId(namespaceIndex, path + "/Compressor"),
                 new QualifiedName(namespaceIndex, "Compressor"),
                 LocalizedText.english("Compressor"),
                 conveyorTypeNode.getNodeId()
@@ -84,21 +89,21 @@ public interface CompressorNodeUtils {
 
         conveyor.getComponentNodes().stream()
                 .filter(isEqualVariableNode(valve1.getBrowseName().getName(), UaVariableNode.class)).map(x -> ((UaVariableNode) x))
-                .forEach(variable -> variable.setAttributeDelegate(ConveyorNodeUtils.getAttributeDelegate(Conveyor::readValve1)));
+                .forEach(variable -> bindings.bindBoolean(variable, ConveyorSignal.VALVE_1));
         conveyor.getComponentNodes().stream()
                 .filter(isEqualVariableNode(valve2.getBrowseName().getName(), UaVariableNode.class)).map(x -> ((UaVariableNode) x))
-                .forEach(variable -> variable.setAttributeDelegate(ConveyorNodeUtils.getAttributeDelegate(Conveyor::readValve2)));
+                .forEach(variable -> bindings.bindBoolean(variable, ConveyorSignal.VALVE_2));
         conveyor.getComponentNodes().stream()
                 .filter(isEqualVariableNode(valve3.getBrowseName().getName(), UaVariableNode.class)).map(x -> ((UaVariableNode) x))
-                .forEach(variable -> variable.setAttributeDelegate(ConveyorNodeUtils.getAttributeDelegate(Conveyor::readValve3)));
+                .forEach(variable -> bindings.bindBoolean(variable, ConveyorSignal.VALVE_3));
 
 
         return conveyor;
     }
 
-    static void addChangeConveyorMethodNode(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex) {
+    static void addChangeConveyorMethodNode(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
         UaMethodNode methodNode = UaMethodNode.builder(server.getNodeMap())
-                .setNodeId(new NodeId(namespaceIndex, "Sorter/Compressor/PressurizeValve"))
+                .setNodeId(new NodeId(namespaceIndex, conveyor.getNodeId().getIdentifier() + "/PressurizeValve"))
                 .setBrowseName(new QualifiedName(namespaceIndex, "PressurizeValve"))
                 .setDisplayName(new LocalizedText(null, "C1 Pressurize a Valve"))
                 .setDescription(LocalizedText.english("On/Off the pressure on the Valve"))
@@ -106,12 +111,64 @@ public interface CompressorNodeUtils {
 
 
         try {
-            NodeUtils.addMethod(conveyor, server, methodNode, new PressurizeValveModeMethod());
+            NodeUtils.addMethod(conveyor, server, methodNode, new PressurizeValveModeMethod(bindings.getConveyor()));
 
         } catch (Exception e) {
             logger.error("Error creating PressurizeValveModeMethod() method.", e);
         }
     }
 
+    static void addPressurizeValvesMethodNode(UaObjectNode compressor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        UaMethodNode methodNode = UaMethodNode.builder(server.getNodeMap())
+                .setNodeId(new NodeId(namespaceIndex, compressor.getNodeId().getIdentifier() + "/PressurizeValves"))
+                .setBrowseName(new QualifiedName(namespaceIndex, "PressurizeValves"))
+                .setDisplayName(new LocalizedText(null, "C1 Pressurize the Valves"))
+                .setDescription(LocalizedText.english("On/Off the pressure on all Valves at the same instant"))
+                .build();
+
+
+        try {
+            NodeUtils.addMethod(compressor, server, methodNode, new PressurizeValvesMethod(bindings.getConveyor()));
+
+        } catch (Exception e) {
+            logger.error("Error creating PressurizeValvesMethod() method.", e);
+        }
+    }
+
+    static void addPulseValveMethodNode(UaObjectNode compressor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        UaMethodNode methodNode = UaMethodNode.builder(server.getNodeMap())
+                .setNodeId(new NodeId(namespaceIndex, compressor.getNodeId().getIdentifier() + "/PulseValve"))
+                .setBrowseName(new QualifiedName(namespaceIndex, "PulseValve"))
+                .setDisplayName(new LocalizedText(null, "C1 Pulse a Valve"))
+                .setDescription(LocalizedText.english("Pressure on the Valve for a given time, after a given delay"))
+                .build();
+
+
+        try {
+            NodeUtils.addMethod(compressor, server, methodNode, new PulseValveMethod(bindings.getPulser()));
+
+        } catch (Exception e) {
+            logger.error("Error creating PulseValveMethod() method.", e);
+        }
+    }
+
+    /**
+     * Histogram of the lateness of the timed valve edges, see {@link JitterHistogram}.
+     */
+    static void addPulseJitter(UaObjectNode compressor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        JitterHistogram jitter = bindings.getPulser().getJitter();
+        String path = compressor.getNodeId().getIdentifier().toString();
+
+        NodeUtils.addDiagnosticVariable(compressor, server, namespaceIndex, path + "/PulseJitter", "PulseJitter",
+                "Number of valve edges per lateness bucket of PulseJitterBounds",
+                Identifiers.Int64, ValueRanks.OneDimension, jitter::getCounts);
+        NodeUtils.addDiagnosticVariable(compressor, server, namespaceIndex, path + "/PulseJitterBounds", "PulseJitterBounds",
+                "Upper bound of the PulseJitter buckets in microseconds",
+                Identifiers.Double, ValueRanks.OneDimension, jitter::getBoundsMicros);
+        NodeUtils.addDiagnosticVariable(compressor, server, namespaceIndex, path + "/PulseJitterMax", "PulseJitterMax",
+                "Largest lateness of a valve edge in microseconds",
+                Identifiers.Double, ValueRanks.Scalar, jitter::getMaxMicros);
+    }
+
 
 }
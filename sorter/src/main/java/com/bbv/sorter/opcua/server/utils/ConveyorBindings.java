@@ -0,0 +1,171 @@
+package com.bbv.sorter.opcua.server.utils;
+
+import com.bbv.sorter.hardware.conveyor.AsyncConveyor;
+import com.bbv.sorter.hardware.conveyor.ConveyorScanner;
+import com.bbv.sorter.hardware.conveyor.ConveyorSignal;
+import com.bbv.sorter.hardware.conveyor.LightBarrierEdgeRing;
+import com.bbv.sorter.hardware.conveyor.SortingEngine;
+import com.bbv.sorter.hardware.conveyor.SpeedController;
+import com.bbv.sorter.hardware.conveyor.ThroughputOptimizer;
+import com.bbv.sorter.hardware.conveyor.TransitSpeedEstimator;
+import com.bbv.sorter.hardware.conveyor.ValvePulser;
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+
+/**
+ * Binds the nodes of one conveyor line to its hardware and keeps track of which variable
+ * node is backed by which {@link ConveyorSignal}, so that the namespace can route reads
+ * and subscriptions by signal.
+ */
+public class ConveyorBindings {
+
+    private final Map<NodeId, CachedSignalValue> values = new ConcurrentHashMap<>();
+
+    private final int line;
+    private final ConveyorScanner scanner;
+    private final ValvePulser pulser;
+    private final SortingEngine sortingEngine;
+    private final LightBarrierEdgeRing edgeRing;
+    private final TransitSpeedEstimator speedEstimator;
+    private final SpeedController speedController;
+    private final ThroughputOptimizer throughputOptimizer;
+
+    public ConveyorBindings(int line, ConveyorScanner scanner, ValvePulser pulser, SortingEngine sortingEngine,
+                            LightBarrierEdgeRing edgeRing, TransitSpeedEstimator speedEstimator, SpeedController speedController,
+                            ThroughputOptimizer throughputOptimizer) {
+        this.line = line;
+        this.scanner = scanner;
+        this.pulser = pulser;
+        this.sortingEngine = sortingEngine;
+        this.edgeRing = edgeRing;
+        this.speedEstimator = speedEstimator;
+        this.speedController = speedController;
+        this.throughputOptimizer = throughputOptimizer;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public ConveyorScanner getScanner() {
+        return scanner;
+    }
+
+    public AsyncConveyor getConveyor() {
+        return scanner.getConveyor();
+    }
+
+    public ValvePulser getPulser() {
+        return pulser;
+    }
+
+    /**
+     * @return null if the feature is not enabled
+     */
+    public SortingEngine getSortingEngine() {
+        return sortingEngine;
+    }
+
+    public LightBarrierEdgeRing getEdgeRing() {
+        return edgeRing;
+    }
+
+    /**
+     * @return null if the feature is not enabled
+     */
+    public TransitSpeedEstimator getSpeedEstimator() {
+        return speedEstimator;
+    }
+
+    /**
+     * @return null if the feature is not enabled
+     */
+    public SpeedController getSpeedController() {
+        return speedController;
+    }
+
+    /**
+     * @return null if the feature is not enabled
+     */
+    public ThroughputOptimizer getThroughputOptimizer() {
+        return throughputOptimizer;
+    }
+
+    /**
+     * Serve the Boolean node from the digital signal and remember the binding.
+     */
+    public void bindBoolean(UaVariableNode node, ConveyorSignal signal) {
+        bind(node, Identifiers.Boolean, CachedSignalValue.ofBoolean(scanner, signal));
+    }
+
+    /**
+     * Serve the UInt32 node, an enumeration like Mode, from the code of the signal and
+     * remember the binding.
+     */
+    public void bindEnum(UaVariableNode node, ConveyorSignal signal) {
+        bind(node, Identifiers.UInteger, CachedSignalValue.ofEnum(scanner, signal));
+    }
+
+    /**
+     * Serve the Double node from the analog signal and remember the binding.
+     */
+    public void bindDouble(UaVariableNode node, ConveyorSignal signal) {
+        bind(node, Identifiers.Double, CachedSignalValue.ofDouble(scanner, signal));
+    }
+
+    private void bind(UaVariableNode node, NodeId dataType, CachedSignalValue value) {
+        if (!dataType.equals(node.getDataType())) {
+            throw new IllegalArgumentException("Node " + node.getNodeId() + " of data type " + node.getDataType()
+                    + " cannot serve " + value.getSignal() + " as " + dataType);
+        }
+        if (value.getSignal().isOutput()) {
+            // the outputs are written through the namespace, see SorterNamespace#write
+            UByte readWrite = ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE));
+            node.setAccessLevel(readWrite);
+            node.setUserAccessLevel(readWrite);
+        }
+        node.setAttributeDelegate(ConveyorNodeUtils.getAttributeDelegate(value));
+        values.put(node.getNodeId(), value);
+    }
+
+    public Optional<ConveyorSignal> getSignal(NodeId nodeId) {
+        return Optional.ofNullable(values.get(nodeId)).map(CachedSignalValue::getSignal);
+    }
+
+    public Set<NodeId> getNodeIds() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    /**
+     * @return the reads of the bound nodes served from the last image of the scanner
+     */
+    public long getReadCacheHits() {
+        return values.values().stream().mapToLong(CachedSignalValue::getHits).sum();
+    }
+
+    /**
+     * @return the reads of the bound nodes that needed a new image
+     */
+    public long getReadCacheMisses() {
+        return values.values().stream().mapToLong(CachedSignalValue::getMisses).sum();
+    }
+
+    /**
+     * @return the cached value of every bound node
+     */
+    public Map<NodeId, CachedSignalValue> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+}
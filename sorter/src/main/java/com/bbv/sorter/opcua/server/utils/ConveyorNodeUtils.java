@@ -1,10 +1,11 @@
 package com.bbv.sorter.opcua.server.utils;
 
 import com.bbv.sorter.hardware.conveyor.Conveyor;
-import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.hardware.conveyor.ConveyorSignal;
 import com.bbv.sorter.opcua.server.methods.ChangeConveyorModeMethod;
 import org.eclipse.milo.opcua.sdk.core.AccessLevel;
 import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
 import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
 import org.eclipse.milo.opcua.sdk.server.model.nodes.variables.BaseVariableNode;
@@ -13,15 +14,16 @@ import org.eclipse.milo.opcua.sdk.server.nodes.*;
 import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
 import org.eclipse.milo.opcua.sdk.server.util.AnnotationBasedInvocationHandler;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
 import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.*;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.function.Function;
 
 import static com.bbv.sorter.opcua.server.utils.NodePredicates.isEqualVariableNode;
 import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
@@ -42,12 +44,23 @@ public interface ConveyorNodeUtils {
     String BROWSE_NAME_CHANGE_CONVEYOR_MODE = "Change Mode";
 
 
-    static AttributeDelegate getAttributeDelegate(Function<Conveyor, Object> consumer) {
+    /**
+     * Bind a variable to a signal of the conveyor I/O image. The value is served from the
+     * image captured by the last scan cycle, the hardware is never accessed on read.
+     * The outputs are written to the conveyor by the namespace, which coalesces the writes
+     * of a request, a write of any other kind is not supported.
+     */
+    static AttributeDelegate getAttributeDelegate(CachedSignalValue value) {
         return
                 new AttributeDelegate() {
                     @Override
                     public DataValue getValue(AttributeContext context, VariableNode node) throws UaException {
-                        return new DataValue(new Variant(consumer.apply(ConveyorFactory.getInstance())));
+                        return value.get(TimestampsToReturn.Both);
+                    }
+
+                    @Override
+                    public void setValue(AttributeContext context, VariableNode node, DataValue dataValue) throws UaException {
+                        throw new UaException(StatusCodes.Bad_WriteNotSupported, value.getSignal() + " is written as a whole value");
                     }
                 };
     }
@@ -94,7 +107,7 @@ public interface ConveyorNodeUtils {
         Reference typeDefinition = new Reference(nodeId, Identifiers.HasTypeDefinition, new ExpandedNodeId(Identifiers.MultiStateDiscreteType), NodeClass.VariableType, true);
 
         MultiStateDiscreteNode conveyorTypeVariableNodeMode = new MultiStateDiscreteNode(server.getNodeMap(), nodeId, browseName, displayName, description, uint(0), uint(0));
-        conveyorTypeVariableNodeMode.setValue(new DataValue(new Variant(0)));
+        conveyorTypeVariableNodeMode.setValue(new DataValue(new Variant(uint(0))));
         conveyorTypeVariableNodeMode.setMinimumSamplingInterval(1.0);
         conveyorTypeVariableNodeMode.setEnumStrings(ConveyorNodeUtils.MODES);
         conveyorTypeVariableNodeMode.setDataType(Identifiers.UInteger);
@@ -105,56 +118,67 @@ public interface ConveyorNodeUtils {
     }
 
 
-    static UaObjectNode createConveyorInstance(UaObjectTypeNode conveyorTypeNode, NodeFactory nodeFactory, UShort namespaceIndex) {
+    static UaObjectNode createConveyorInstance(UaObjectTypeNode conveyorTypeNode, NodeFactory nodeFactory, UShort namespaceIndex, String path, ConveyorBindings bindings) {
         // Use NodeFactory to create instance of ConveyorType called "Conveyor".
         // NodeFactory takes care of recursively instantiating Conveyor member nodes
         // as well as adding all nodes to the address space.
         UaObjectNode conveyor = nodeFactory.createObject(
-                new NodeId(namespaceIndex, "Sorter/Conveyor"),
+                new NodeId(namespaceIndex, path + "/Conveyor"),
                 new QualifiedName(namespaceIndex, "Conveyor"),
                 LocalizedText.english("Conveyor"),
                 conveyorTypeNode.getNodeId()
         );
 
-        ConveyorNodeUtils.enhanceConveyorModeInstance(conveyor);
-        ConveyorNodeUtils.enhanceConveyorStatusInstance(conveyor);
-        ConveyorSpeedIndicatorUtils.enhanceSpeedIndicatorInstance(conveyor);
+        ConveyorNodeUtils.enhanceConveyorModeInstance(conveyor, bindings);
+        ConveyorNodeUtils.enhanceConveyorStatusInstance(conveyor, bindings);
+        ConveyorSpeedIndicatorUtils.enhanceSpeedIndicatorInstance(conveyor, bindings);
 
         return conveyor;
     }
 
 
-    static void enhanceConveyorStatusInstance(UaObjectNode conveyor) {
+    static void enhanceConveyorStatusInstance(UaObjectNode conveyor, ConveyorBindings bindings) {
         conveyor.getComponentNodes().stream()
                 .filter(isEqualVariableNode(BROWSE_NAME_CONVEYOR_STATUS, BaseVariableNode.class)).map(x -> ((BaseVariableNode) x))
                 .forEach(variable -> {
-                    variable.setAttributeDelegate(ConveyorNodeUtils.getAttributeDelegate(Conveyor::getStatus));
+                    bindings.bindBoolean(variable, ConveyorSignal.STATUS);
                 });
     }
 
-    static void enhanceConveyorModeInstance(UaObjectNode conveyor) {
+    static void enhanceConveyorModeInstance(UaObjectNode conveyor, ConveyorBindings bindings) {
         conveyor.getComponentNodes().stream()
                 .filter(isEqualVariableNode(BROWSE_NAME_CONVEYOR_MODE, MultiStateDiscreteNode.class)).map(x -> ((MultiStateDiscreteNode) x))
                 .forEach((MultiStateDiscreteNode multiStateDiscreteNode) -> {
                     multiStateDiscreteNode.setDisplayName(LocalizedText.english("M1 Mode"));
-                    multiStateDiscreteNode.setAttributeDelegate(ConveyorNodeUtils.getAttributeDelegate(Conveyor::getMode));
+                    bindings.bindEnum(multiStateDiscreteNode, ConveyorSignal.MODE);
                 });
     }
 
 
-    static void addChangeConveyorMethodNode(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex) {
+    static void addChangeConveyorMethodNode(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
         UaMethodNode methodNode = UaMethodNode.builder(server.getNodeMap())
-                .setNodeId(new NodeId(namespaceIndex, "Sorter/Conveyor/ChangeMode"))
+                .setNodeId(new NodeId(namespaceIndex, conveyor.getNodeId().getIdentifier() + "/ChangeMode"))
                 .setBrowseName(new QualifiedName(namespaceIndex, BROWSE_NAME_CHANGE_CONVEYOR_MODE))
                 .setDisplayName(new LocalizedText(null, "M1 Change Mode"))
                 .setDescription(LocalizedText.english("Start Stop the Conveyor"))
                 .build();
         try {
-            NodeUtils.addMethod(conveyor, server, methodNode, new ChangeConveyorModeMethod());
+            NodeUtils.addMethod(conveyor, server, methodNode, new ChangeConveyorModeMethod(bindings.getConveyor()));
         } catch (Exception e) {
             logger.error("Error creating ChangeConveyorModeMethod() method.", e);
         }
     }
 
+    static void addReadCacheDiagnostics(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        String path = conveyor.getNodeId().getIdentifier() + "/ReadCache";
+
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Hits", "ReadCacheHits",
+                "Reads of the conveyor signals served from the last scan within their maxAge",
+                Identifiers.Int64, ValueRanks.Scalar, bindings::getReadCacheHits);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Misses", "ReadCacheMisses",
+                "Reads of the conveyor signals older than their maxAge that read the conveyor again",
+                Identifiers.Int64, ValueRanks.Scalar, bindings::getReadCacheMisses);
+    }
+
 
 }
@@ -1,10 +1,14 @@
 package com.bbv.sorter.opcua.server.utils;
 
 import com.bbv.sorter.hardware.conveyor.Conveyor;
+import com.bbv.sorter.hardware.conveyor.ConveyorSignal;
 import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.hardware.conveyor.SpeedController;
+import com.bbv.sorter.hardware.conveyor.ThroughputOptimizer;
 import com.bbv.sorter.opcua.server.SorterNamespace;
 import org.eclipse.milo.opcua.sdk.core.AccessLevel;
 import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
 import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
 import org.eclipse.milo.opcua.sdk.server.model.nodes.variables.AnalogItemNode;
@@ -14,6 +18,7 @@ import org.eclipse.milo.opcua.sdk.server.nodes.UaObjectTypeNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
 import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.*;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
@@ -30,6 +35,8 @@ public interface ConveyorSpeedIndicatorUtils {
 
 
     String BROWSE_NAME_SPEED_INDICATOR = "SpeedIndicator";
+    String BROWSE_NAME_ESTIMATED_SPEED = "EstimatedSpeed";
+    String BROWSE_NAME_SPEED_SETPOINT = "SpeedSetpoint";
 
     static UaVariableNode addSpeedIndicatorInstanceDeclaration(UaObjectTypeNode conveyorTypeNode, OpcUaServer server, UShort namespaceIndex) {
 
@@ -42,7 +49,7 @@ public interface ConveyorSpeedIndicatorUtils {
 
         AnalogItemNode speedIndicatorType = new AnalogItemNode(server.getNodeMap(), nodeId, browseName, display, description, uint(0), uint(0));
         speedIndicatorType.setMinimumSamplingInterval(1.0);
-        speedIndicatorType.setDataType(Identifiers.UInteger);
+        speedIndicatorType.setDataType(Identifiers.Double);
         speedIndicatorType.addReference(typeDefinition);
         speedIndicatorType.setEngineeringUnits(new EUInformation(SorterNamespace.NAMESPACE_URI, 177, LocalizedText.english("cm/s"), LocalizedText.english("cm per second as UN/CEFACT Recomendation 20")));
         speedIndicatorType.setInstrumentRange(new Range(1.0, 10.0));
@@ -54,7 +61,7 @@ public interface ConveyorSpeedIndicatorUtils {
         return speedIndicatorType;
     }
 
-    static void enhanceSpeedIndicatorInstance(UaObjectNode conveyor) {
+    static void enhanceSpeedIndicatorInstance(UaObjectNode conveyor, ConveyorBindings bindings) {
         conveyor.getComponentNodes().stream()
                 .filter(NodePredicates.isEqualVariableNode(BROWSE_NAME_SPEED_INDICATOR, AnalogItemNode.class)).map(x -> ((AnalogItemNode) x))
                 .forEach((AnalogItemNode speedIndicatorNode) -> {
@@ -63,9 +70,144 @@ public interface ConveyorSpeedIndicatorUtils {
                     speedIndicatorNode.setInstrumentRange(new Range(1.0, 10.0));
                     speedIndicatorNode.setEURange(new Range(1.0, Double.MAX_VALUE));
                     speedIndicatorNode.setValue(new DataValue(new Variant(0.0)));
-                    speedIndicatorNode.setAttributeDelegate(ConveyorNodeUtils.getAttributeDelegate(Conveyor::readSpeed));
+                    bindings.bindDouble(speedIndicatorNode, ConveyorSignal.SPEED);
                 });
     }
 
+    /**
+     * Speed measured by the transit times of the buttons between the light barriers,
+     * see {@link com.bbv.sorter.hardware.conveyor.TransitSpeedEstimator}.
+     */
+    static AnalogItemNode addEstimatedSpeed(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        NodeId nodeId = new NodeId(namespaceIndex, conveyor.getNodeId().getIdentifier() + "/" + BROWSE_NAME_ESTIMATED_SPEED);
+        QualifiedName browseName = new QualifiedName(namespaceIndex, BROWSE_NAME_ESTIMATED_SPEED);
+        LocalizedText display = LocalizedText.english("S2 Estimated Speed");
+        LocalizedText description = LocalizedText.english("Belt speed from the transit times LB1 to LB2 to LB3, moving average");
+        Reference typeDefinition = new Reference(nodeId, Identifiers.HasTypeDefinition, new ExpandedNodeId(Identifiers.AnalogItemType), NodeClass.VariableType, true);
+
+        AnalogItemNode estimatedSpeed = new AnalogItemNode(server.getNodeMap(), nodeId, browseName, display, description, uint(0), uint(0));
+        estimatedSpeed.setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)));
+        estimatedSpeed.setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)));
+        estimatedSpeed.setMinimumSamplingInterval(1.0);
+        estimatedSpeed.setDataType(Identifiers.Double);
+        estimatedSpeed.addReference(typeDefinition);
+        estimatedSpeed.setEngineeringUnits(new EUInformation(SorterNamespace.NAMESPACE_URI, 177, LocalizedText.english("cm/s"), LocalizedText.english("cm per second as UN/CEFACT Recomendation 20")));
+        estimatedSpeed.setInstrumentRange(new Range(1.0, 10.0));
+        estimatedSpeed.setEURange(new Range(0.0, 10.0));
+        estimatedSpeed.setValue(new DataValue(new Variant(0.0)));
+        estimatedSpeed.setAttributeDelegate(new AttributeDelegate() {
+            @Override
+            public DataValue getValue(AttributeContext context, VariableNode node) throws UaException {
+                return new DataValue(new Variant(bindings.getSpeedEstimator().getSpeed()));
+            }
+        });
+
+        server.getNodeMap().addNode(estimatedSpeed);
+        conveyor.addComponent(estimatedSpeed);
+        return estimatedSpeed;
+    }
+
+    /**
+     * Writable belt speed the {@link SpeedController} of the line holds, a write outside
+     * of the EU range is rejected.
+     */
+    static AnalogItemNode addSpeedSetpoint(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        SpeedController controller = bindings.getSpeedController();
+        NodeId nodeId = new NodeId(namespaceIndex, conveyor.getNodeId().getIdentifier() + "/" + BROWSE_NAME_SPEED_SETPOINT);
+        QualifiedName browseName = new QualifiedName(namespaceIndex, BROWSE_NAME_SPEED_SETPOINT);
+        LocalizedText display = LocalizedText.english("S3 Speed Setpoint");
+        LocalizedText description = LocalizedText.english("Belt speed held by the speed control of the server");
+        Reference typeDefinition = new Reference(nodeId, Identifiers.HasTypeDefinition, new ExpandedNodeId(Identifiers.AnalogItemType), NodeClass.VariableType, true);
+
+        AnalogItemNode setpoint = new AnalogItemNode(server.getNodeMap(), nodeId, browseName, display, description, uint(0), uint(0));
+        setpoint.setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE)));
+        setpoint.setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE)));
+        setpoint.setDataType(Identifiers.Double);
+        setpoint.addReference(typeDefinition);
+        setpoint.setEngineeringUnits(new EUInformation(SorterNamespace.NAMESPACE_URI, 177, LocalizedText.english("cm/s"), LocalizedText.english("cm per second as UN/CEFACT Recomendation 20")));
+        setpoint.setInstrumentRange(new Range(1.0, 10.0));
+        setpoint.setEURange(new Range(SpeedController.MIN_SETPOINT, SpeedController.MAX_SETPOINT));
+        setpoint.setValue(new DataValue(new Variant(controller.getSetpoint())));
+        setpoint.setAttributeDelegate(new AttributeDelegate() {
+            @Override
+            public DataValue getValue(AttributeContext context, VariableNode node) throws UaException {
+                return new DataValue(new Variant(controller.getSetpoint()));
+            }
+
+            @Override
+            public void setValue(AttributeContext context, VariableNode node, DataValue value) throws UaException {
+                Object speed = value.getValue().getValue();
+                if (!(speed instanceof Number)) {
+                    throw new UaException(StatusCodes.Bad_TypeMismatch, "Speed setpoint must be a number");
+                }
+                try {
+                    controller.setSetpoint(((Number) speed).doubleValue());
+                } catch (IllegalArgumentException e) {
+                    throw new UaException(StatusCodes.Bad_OutOfRange, e.getMessage());
+                }
+            }
+        });
+
+        server.getNodeMap().addNode(setpoint);
+        conveyor.addComponent(setpoint);
+        return setpoint;
+    }
+
+    static void addSpeedControlDiagnostics(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        SpeedController controller = bindings.getSpeedController();
+        String path = conveyor.getNodeId().getIdentifier() + "/SpeedControl";
+
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Active", "SpeedControlActive",
+                "Whether the server controls the belt speed of this line",
+                Identifiers.Boolean, ValueRanks.Scalar, controller::isRunning);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/DriveOutput", "DriveOutput",
+                "Last drive output of the speed control in percent of the rated speed",
+                Identifiers.Double, ValueRanks.Scalar, controller::getOutput);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Cycles", "SpeedControlCycles",
+                "Control cycles run",
+                Identifiers.Int64, ValueRanks.Scalar, controller::getCycles);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Overruns", "SpeedControlOverruns",
+                "Control cycles that did not end before the start of the next one",
+                Identifiers.Int64, ValueRanks.Scalar, controller::getOverruns);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Errors", "SpeedControlErrors",
+                "Control cycles that failed to read or write the conveyor",
+                Identifiers.Int64, ValueRanks.Scalar, controller::getErrors);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/CycleJitter", "CycleJitter",
+                "Control cycles per bucket of start lateness, buckets as PulseJitterBounds",
+                Identifiers.Int64, ValueRanks.OneDimension, controller.getJitter()::getCounts);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/CycleJitterMax", "CycleJitterMax",
+                "Largest start lateness of a control cycle in microseconds",
+                Identifiers.Double, ValueRanks.Scalar, controller.getJitter()::getMaxMicros);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/ExecutionTimeMax", "ExecutionTimeMax",
+                "Longest control cycle in microseconds",
+                Identifiers.Double, ValueRanks.Scalar, controller::getMaxExecutionMicros);
+    }
+
+    static void addThroughputDiagnostics(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        ThroughputOptimizer optimizer = bindings.getThroughputOptimizer();
+        String path = conveyor.getNodeId().getIdentifier() + "/Throughput";
+
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Active", "ThroughputOptimizerActive",
+                "Whether the server adapts the speed setpoint of this line to its traffic",
+                Identifiers.Boolean, ValueRanks.Scalar, optimizer::isRunning);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/PartsPerMinute", "PartsPerMinute",
+                "Buttons leaving LB1 per minute",
+                Identifiers.Double, ValueRanks.Scalar, optimizer::getPartsPerMinute);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Occupancy", "Occupancy",
+                "Share of the time a button covers LB1",
+                Identifiers.Double, ValueRanks.Scalar, optimizer::getOccupancy);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Spacing", "Spacing",
+                "Mean distance between the buttons in cm",
+                Identifiers.Double, ValueRanks.Scalar, optimizer::getSpacing);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Bunched", "Bunched",
+                "Share of the buttons closer than " + optimizer.getBunchedGap() + " cm to the one before",
+                Identifiers.Double, ValueRanks.Scalar, optimizer::getBunched);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Unread", "Unread",
+                "Share of the buttons the color detector could not read",
+                Identifiers.Double, ValueRanks.Scalar, optimizer::getUnread);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/SpeedLimit", "SpeedLimit",
+                "Highest speed setpoint allowed by the valve lead time and the read rate in cm/s",
+                Identifiers.Double, ValueRanks.Scalar, optimizer::getSpeedLimit);
+    }
 
 }
@@ -1,13 +1,13 @@
 package com.bbv.sorter.opcua.server.utils;
 
 import com.bbv.sorter.hardware.conveyor.Conveyor;
-import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.hardware.conveyor.ConveyorSignal;
+import com.bbv.sorter.opcua.server.methods.GetLastEdgesMethod;
 import com.bbv.sorter.opcua.server.ValueLoggingDelegate;
 import org.eclipse.milo.opcua.sdk.core.AccessLevel;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
 import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.*;
-import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
 import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegateChain;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
 import org.eclipse.milo.opcua.stack.core.UaException;
@@ -15,7 +15,6 @@ import org.eclipse.milo.opcua.stack.core.types.builtin.*;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
 
 import java.util.function.Consumer;
-import java.util.function.Function;
 
 import static com.bbv.sorter.opcua.server.utils.NodePredicates.isEqualVariableNode;
 import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
@@ -24,14 +23,29 @@ import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.
 public interface LightBarrierUtils {
 
 
-    static void addLightBarriers(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex ) {
-        addLightBarrier(conveyor, server, namespaceIndex, "Sorter/Conveyor/LB1", "LB1 Handover Pickup Position Conveyor", "Handover of Color Buttons", ConveyorNodeUtils.getAttributeDelegate(Conveyor::readLightBarrier1));
-        addLightBarrier(conveyor, server, namespaceIndex, "Sorter/Conveyor/LB2", "LB2 Control Position Conveyor", "Control Position after detection of Color Buttons", ConveyorNodeUtils.getAttributeDelegate(Conveyor::readLightBarrier2));
-        addLightBarrier(conveyor, server, namespaceIndex, "Sorter/Conveyor/LB3", "LB3 Reject Position Conveyor", "Reject position of bad read Buttons", ConveyorNodeUtils.getAttributeDelegate(Conveyor::readLightBarrier3));
+    static void addLightBarriers(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        String path = conveyor.getNodeId().getIdentifier().toString();
+        addLightBarrier(conveyor, server, namespaceIndex, path + "/LB1", "LB1 Handover Pickup Position Conveyor", "Handover of Color Buttons", ConveyorSignal.LIGHT_BARRIER_1, bindings);
+        addLightBarrier(conveyor, server, namespaceIndex, path + "/LB2", "LB2 Control Position Conveyor", "Control Position after detection of Color Buttons", ConveyorSignal.LIGHT_BARRIER_2, bindings);
+        addLightBarrier(conveyor, server, namespaceIndex, path + "/LB3", "LB3 Reject Position Conveyor", "Reject position of bad read Buttons", ConveyorSignal.LIGHT_BARRIER_3, bindings);
+        addGetLastEdgesMethodNode(conveyor, server, namespaceIndex, bindings);
+    }
 
+    static void addGetLastEdgesMethodNode(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        UaMethodNode methodNode = UaMethodNode.builder(server.getNodeMap())
+                .setNodeId(new NodeId(namespaceIndex, conveyor.getNodeId().getIdentifier() + "/GetLastEdges"))
+                .setBrowseName(new QualifiedName(namespaceIndex, "GetLastEdges"))
+                .setDisplayName(new LocalizedText(null, "Get Last Edges"))
+                .setDescription(LocalizedText.english("The last edges of LB1 to LB3 with their sample times"))
+                .build();
+        try {
+            NodeUtils.addMethod(conveyor, server, methodNode, new GetLastEdgesMethod(bindings.getEdgeRing()));
+        } catch (Exception e) {
+            NodeUtils.logger.error("Error creating GetLastEdgesMethod() method.", e);
+        }
     }
 
-    static void addLightBarrier(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, String nodeIdentifier, String name, String description, AttributeDelegate delegate) {
+    static void addLightBarrier(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, String nodeIdentifier, String name, String description, ConveyorSignal signal, ConveyorBindings bindings) {
 
         UaVariableNode node = new UaVariableNode.UaVariableNodeBuilder(server.getNodeMap())
                 .setNodeId(new NodeId(namespaceIndex, nodeIdentifier))
@@ -45,7 +59,7 @@ public interface LightBarrierUtils {
 
         node.setValue(new DataValue(new Variant(false)));
 
-        node.setAttributeDelegate(delegate);
+        bindings.bindBoolean(node, signal);
 
         server.getNodeMap().addNode(node);
         conveyor.addComponent(node);
@@ -1,6 +1,6 @@
 package com.bbv.sorter.opcua.server.utils;
 
-import com.sun.istack.internal.NotNull;
+import javax.annotation.Nonnull;
 import org.eclipse.milo.opcua.sdk.server.api.nodes.Node;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
 
@@ -11,7 +11,7 @@ import java.util.function.Predicate;
  */
 public interface NodePredicates {
 
-    static Predicate<Node> isEqualVariableNode(@NotNull String browseName, Class<? extends Node> clazz) {
+    static Predicate<Node> isEqualVariableNode(@Nonnull String browseName, Class<? extends Node> clazz) {
         return x -> x.getBrowseName().getName().equals(browseName) && clazz.isInstance(x);
     }
 }
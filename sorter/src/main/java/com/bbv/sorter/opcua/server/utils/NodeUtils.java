@@ -1,15 +1,36 @@
 package com.bbv.sorter.opcua.server.utils;
 
+import com.bbv.sorter.opcua.server.audit.AuditLog;
+import com.bbv.sorter.opcua.server.audit.AuditingMethodInvocationHandler;
+import com.bbv.sorter.opcua.server.methods.AsyncMethod;
+import com.bbv.sorter.opcua.server.methods.AsyncMethodInvocationHandler;
 import com.bbv.sorter.opcua.server.methods.PressurizeValveModeMethod;
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
 import org.eclipse.milo.opcua.sdk.core.Reference;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.MethodInvocationHandler;
+import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaMethodNode;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaObjectNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
 import org.eclipse.milo.opcua.sdk.server.util.AnnotationBasedInvocationHandler;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.function.Supplier;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+
 /**
  * Created by lorenzodemicheli on 16.03.2018.
  */
@@ -18,13 +39,23 @@ public interface NodeUtils {
 
     static void addMethod(UaObjectNode objectNode, OpcUaServer server, UaMethodNode methodNode, Object method) throws Exception {
         try {
-            AnnotationBasedInvocationHandler invocationHandler =
-                    AnnotationBasedInvocationHandler.fromAnnotatedObject(
-                            server.getNodeMap(), method);
+            MethodInvocationHandler handler;
+            if (method instanceof AsyncMethod) {
+                AsyncMethod asyncMethod = (AsyncMethod) method;
+                methodNode.setProperty(UaMethodNode.InputArguments, asyncMethod.getInputArguments());
+                methodNode.setProperty(UaMethodNode.OutputArguments, asyncMethod.getOutputArguments());
+                handler = new AsyncMethodInvocationHandler(asyncMethod);
+            } else {
+                AnnotationBasedInvocationHandler invocationHandler =
+                        AnnotationBasedInvocationHandler.fromAnnotatedObject(
+                                server.getNodeMap(), method);
 
-            methodNode.setProperty(UaMethodNode.InputArguments, invocationHandler.getInputArguments());
-            methodNode.setProperty(UaMethodNode.OutputArguments, invocationHandler.getOutputArguments());
-            methodNode.setInvocationHandler(invocationHandler);
+                methodNode.setProperty(UaMethodNode.InputArguments, invocationHandler.getInputArguments());
+                methodNode.setProperty(UaMethodNode.OutputArguments, invocationHandler.getOutputArguments());
+                handler = invocationHandler;
+            }
+            // every call is audited, whichever handler answers it
+            methodNode.setInvocationHandler(new AuditingMethodInvocationHandler(handler, AuditLog.getDefault()));
 
             server.getNodeMap().addNode(methodNode);
             objectNode.addComponent(methodNode);
@@ -51,4 +82,33 @@ public interface NodeUtils {
         }
 
     }
+
+    /**
+     * Read-only variable computed on every read.
+     */
+    static UaVariableNode addDiagnosticVariable(UaObjectNode object, OpcUaServer server, UShort namespaceIndex, String nodeIdentifier, String name, String description, NodeId dataType, int valueRank, Supplier<Object> value) {
+        UaVariableNode node = new UaVariableNode.UaVariableNodeBuilder(server.getNodeMap())
+                .setNodeId(new NodeId(namespaceIndex, nodeIdentifier))
+                .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
+                .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
+                .setBrowseName(new QualifiedName(namespaceIndex, name))
+                .setDisplayName(LocalizedText.english(name))
+                .setDescription(LocalizedText.english(description))
+                .setDataType(dataType)
+                .setValueRank(valueRank)
+                .setTypeDefinition(Identifiers.BaseDataVariableType)
+                .build();
+
+        node.setAttributeDelegate(new AttributeDelegate() {
+            @Override
+            public DataValue getValue(AttributeContext context, VariableNode node) throws UaException {
+                return new DataValue(new Variant(value.get()));
+            }
+        });
+
+        server.getNodeMap().addNode(node);
+        object.addComponent(node);
+        return node;
+    }
+
 }
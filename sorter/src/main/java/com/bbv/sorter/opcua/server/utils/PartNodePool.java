@@ -0,0 +1,226 @@
+package com.bbv.sorter.opcua.server.utils;
+
+import com.bbv.sorter.hardware.conveyor.PartListener;
+import com.bbv.sorter.hardware.conveyor.PartOutcome;
+import com.bbv.sorter.hardware.conveyor.SortingEngine;
+import com.bbv.sorter.hardware.timing.WallClock;
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaObjectNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+
+/**
+ * Shows the buttons tracked by a {@link SortingEngine} as objects in the folder
+ * "Conveyor/Parts", from their LB1 edge until they are retired.
+ * <p>
+ * The part objects are built once and recycled: a part takes a free object, the
+ * folder organizes the object while the part is tracked and it is released when
+ * the part is retired. Only the forward references of the folder change at run time,
+ * the node map does not grow. The inverse references of the objects stay, the node
+ * map would drop an object without them.
+ * The least recently released object is taken first, so a retired part can still
+ * be read for a while. If all objects are in use, further parts are not shown.
+ */
+public class PartNodePool implements PartListener {
+
+    /**
+     * Number of part objects per line.
+     */
+    public static final int SIZE = Integer.getInteger("sorter.parts.pool", 32);
+
+    public static final String BROWSE_NAME_PARTS = "Parts";
+
+    private static final String TRACKING = "TRACKING";
+
+    private final AtomicLong overflow = new AtomicLong();
+
+    // only accessed by the engine thread
+    private final ArrayDeque<PartNode> free = new ArrayDeque<>();
+    private final Map<Long, PartNode> active = new HashMap<>();
+
+    private final UaFolderNode folder;
+
+    private PartNodePool(UaFolderNode folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Adds the folder and its part objects to the conveyor and follows the parts of its sorting engine.
+     */
+    public static PartNodePool addParts(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        String path = conveyor.getNodeId().getIdentifier() + "/" + BROWSE_NAME_PARTS;
+        UaFolderNode folder = new UaFolderNode(
+                server.getNodeMap(),
+                new NodeId(namespaceIndex, path),
+                new QualifiedName(namespaceIndex, BROWSE_NAME_PARTS),
+                LocalizedText.english(BROWSE_NAME_PARTS)
+        );
+        server.getNodeMap().addNode(folder);
+        conveyor.addComponent(folder);
+
+        PartNodePool pool = new PartNodePool(folder);
+        for (int i = 0; i < SIZE; i++) {
+            PartNode node = new PartNode(server, namespaceIndex, path + "/Slot" + i);
+            node.object.addReference(new Reference(
+                    node.object.getNodeId(),
+                    Identifiers.Organizes,
+                    folder.getNodeId().expanded(),
+                    folder.getNodeClass(),
+                    false
+            ));
+            pool.free.add(node);
+        }
+
+        NodeUtils.addDiagnosticVariable(folder, server, namespaceIndex, path + "/Overflow", "Overflow",
+                "Parts not shown because all " + SIZE + " part objects were in use",
+                Identifiers.Int64, ValueRanks.Scalar, pool::getOverflow);
+
+        bindings.getSortingEngine().setPartListener(pool);
+        return pool;
+    }
+
+    public long getOverflow() {
+        return overflow.get();
+    }
+
+    @Override
+    public void onPartEntered(long id, long lightBarrier1) {
+        PartNode node = free.poll();
+        if (node == null) {
+            overflow.incrementAndGet();
+            return;
+        }
+        node.reset(id, toDateTime(lightBarrier1));
+        active.put(id, node);
+        folder.addReference(organizes(node.object));
+    }
+
+    @Override
+    public void onPartColored(long id, int color) {
+        PartNode node = active.get(id);
+        if (node != null) {
+            boolean known = color >= 0 && color < ColorDetectorUtils.COLOR_READS.length;
+            set(node.color, known ? ColorDetectorUtils.COLOR_READS[color].getText() : String.valueOf(color));
+        }
+    }
+
+    @Override
+    public void onPartReachedValves(long id, long lightBarrier2) {
+        PartNode node = active.get(id);
+        if (node != null) {
+            set(node.lightBarrier2, toDateTime(lightBarrier2));
+        }
+    }
+
+    @Override
+    public void onPartReachedEnd(long id, long lightBarrier3) {
+        PartNode node = active.get(id);
+        if (node != null) {
+            set(node.lightBarrier3, toDateTime(lightBarrier3));
+        }
+    }
+
+    @Override
+    public void onPartRetired(long id, PartOutcome outcome, int valve) {
+        PartNode node = active.remove(id);
+        if (node != null) {
+            set(node.valve, valve == 0 ? "" : CompressorNodeUtils.VALVES[valve - 1]);
+            set(node.outcome, outcome.name());
+            folder.removeReference(organizes(node.object));
+            free.add(node);
+        }
+    }
+
+    private Reference organizes(UaObjectNode object) {
+        return new Reference(folder.getNodeId(), Identifiers.Organizes, object.getNodeId().expanded(), object.getNodeClass(), true);
+    }
+
+    private static void set(UaVariableNode variable, Object value) {
+        variable.setValue(new DataValue(new Variant(value)));
+    }
+
+    /**
+     * @return the time of an edge on the same clock as the source timestamps of the signals
+     */
+    private static DateTime toDateTime(long nanoTime) {
+        return CachedSignalValue.toDateTime(WallClock.toEpochNanos(nanoTime));
+    }
+
+    private static final class PartNode {
+
+        private final UaObjectNode object;
+        private final UaVariableNode id;
+        private final UaVariableNode color;
+        private final UaVariableNode lightBarrier1;
+        private final UaVariableNode lightBarrier2;
+        private final UaVariableNode lightBarrier3;
+        private final UaVariableNode outcome;
+        private final UaVariableNode valve;
+
+        private PartNode(OpcUaServer server, UShort namespaceIndex, String path) {
+            object = UaObjectNode.builder(server.getNodeMap())
+                    .setNodeId(new NodeId(namespaceIndex, path))
+                    .setBrowseName(new QualifiedName(namespaceIndex, "Part"))
+                    .setDisplayName(LocalizedText.english("Part"))
+                    .setTypeDefinition(Identifiers.BaseObjectType)
+                    .build();
+            server.getNodeMap().addNode(object);
+
+            id = addVariable(server, namespaceIndex, path, "Id", Identifiers.Int64);
+            color = addVariable(server, namespaceIndex, path, "Color", Identifiers.String);
+            lightBarrier1 = addVariable(server, namespaceIndex, path, "LB1", Identifiers.DateTime);
+            lightBarrier2 = addVariable(server, namespaceIndex, path, "LB2", Identifiers.DateTime);
+            lightBarrier3 = addVariable(server, namespaceIndex, path, "LB3", Identifiers.DateTime);
+            outcome = addVariable(server, namespaceIndex, path, "Outcome", Identifiers.String);
+            valve = addVariable(server, namespaceIndex, path, "Valve", Identifiers.String);
+        }
+
+        private void reset(long partId, DateTime entered) {
+            object.setBrowseName(new QualifiedName(object.getNodeId().getNamespaceIndex(), "Part" + partId));
+            object.setDisplayName(LocalizedText.english("Part " + partId));
+            set(id, partId);
+            set(color, null);
+            set(lightBarrier1, entered);
+            set(lightBarrier2, null);
+            set(lightBarrier3, null);
+            set(outcome, TRACKING);
+            set(valve, "");
+        }
+
+        private UaVariableNode addVariable(OpcUaServer server, UShort namespaceIndex, String path, String name, NodeId dataType) {
+            UaVariableNode variable = new UaVariableNode.UaVariableNodeBuilder(server.getNodeMap())
+                    .setNodeId(new NodeId(namespaceIndex, path + "/" + name))
+                    .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
+                    .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.CurrentRead)))
+                    .setBrowseName(new QualifiedName(namespaceIndex, name))
+                    .setDisplayName(LocalizedText.english(name))
+                    .setDataType(dataType)
+                    .setTypeDefinition(Identifiers.BaseDataVariableType)
+                    .build();
+            variable.setValue(new DataValue(Variant.NULL_VALUE));
+
+            server.getNodeMap().addNode(variable);
+            object.addComponent(variable);
+            return variable;
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.bbv.sorter.opcua.server.utils;
+
+import com.bbv.sorter.hardware.conveyor.SortingEngine;
+import com.bbv.sorter.hardware.conveyor.SortingTable;
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.nodes.VariableNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaObjectNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.delegates.AttributeDelegate;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Recipe and diagnostics of the {@link SortingEngine} of a line, added to its conveyor.
+ */
+public interface SortingNodeUtils {
+
+    String BROWSE_NAME_RECIPE = "Recipe";
+
+    /**
+     * Writable recipe of the line: one valve mask per entry of {@link ColorDetectorUtils#COLOR_READS},
+     * bit n is valve {@link CompressorNodeUtils#VALVES}[n]. A write is validated as a whole and
+     * replaces the recipe of the running engine at once.
+     */
+    static UaVariableNode addRecipe(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        SortingEngine engine = bindings.getSortingEngine();
+        // the recipe is indexed by the color codes of the detector and its bits are the valves of the compressor
+        if (ColorDetectorUtils.COLOR_READS.length != SortingTable.COLORS
+                || CompressorNodeUtils.VALVES.length != Integer.bitCount(SortingTable.VALVES)) {
+            throw new IllegalStateException("Recipe of " + SortingTable.COLORS + " colors and " + Integer.bitCount(SortingTable.VALVES)
+                    + " valves does not match " + ColorDetectorUtils.COLOR_READS.length + " color reads and "
+                    + CompressorNodeUtils.VALVES.length + " valves");
+        }
+        String colors = Arrays.stream(ColorDetectorUtils.COLOR_READS).map(LocalizedText::getText).collect(Collectors.joining(", "));
+        String valves = String.join(", ", CompressorNodeUtils.VALVES);
+
+        UaVariableNode node = new UaVariableNode.UaVariableNodeBuilder(server.getNodeMap())
+                .setNodeId(new NodeId(namespaceIndex, conveyor.getNodeId().getIdentifier() + "/Sorting/" + BROWSE_NAME_RECIPE))
+                .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE)))
+                .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE)))
+                .setBrowseName(new QualifiedName(namespaceIndex, BROWSE_NAME_RECIPE))
+                .setDisplayName(LocalizedText.english(BROWSE_NAME_RECIPE))
+                .setDescription(LocalizedText.english("Valve mask per color (" + colors + "), bit 0 to 2 are the valves " + valves))
+                .setDataType(Identifiers.Byte)
+                .setValueRank(ValueRanks.OneDimension)
+                .setArrayDimensions(new UInteger[]{uint(SortingTable.COLORS)})
+                .setTypeDefinition(Identifiers.BaseDataVariableType)
+                .build();
+
+        node.setAttributeDelegate(new AttributeDelegate() {
+            @Override
+            public DataValue getValue(AttributeContext context, VariableNode node) throws UaException {
+                int[] masks = engine.getTable().getValveMasks();
+                UByte[] value = new UByte[masks.length];
+                for (int i = 0; i < masks.length; i++) {
+                    value[i] = ubyte(masks[i]);
+                }
+                return new DataValue(new Variant(value));
+            }
+
+            @Override
+            public void setValue(AttributeContext context, VariableNode node, DataValue value) throws UaException {
+                engine.setTable(toSortingTable(value.getValue().getValue()));
+            }
+        });
+
+        server.getNodeMap().addNode(node);
+        conveyor.addComponent(node);
+        return node;
+    }
+
+    static SortingTable toSortingTable(Object value) throws UaException {
+        if (!(value instanceof Number[])) {
+            throw new UaException(StatusCodes.Bad_TypeMismatch, "Recipe must be an array of valve masks");
+        }
+        Number[] entries = (Number[]) value;
+        int[] masks = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] == null) {
+                throw new UaException(StatusCodes.Bad_TypeMismatch, "Valve mask of color " + i + " missing");
+            }
+            masks[i] = entries[i].intValue();
+        }
+        try {
+            return SortingTable.of(masks);
+        } catch (IllegalArgumentException e) {
+            throw new UaException(StatusCodes.Bad_OutOfRange, e.getMessage());
+        }
+    }
+
+    static void addSortingDiagnostics(UaObjectNode conveyor, OpcUaServer server, UShort namespaceIndex, ConveyorBindings bindings) {
+        SortingEngine engine = bindings.getSortingEngine();
+        String path = conveyor.getNodeId().getIdentifier() + "/Sorting";
+
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/Active", "SortingActive",
+                "Whether the server sorts the buttons of this line",
+                Identifiers.Boolean, ValueRanks.Scalar, engine::isRunning);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/SortedParts", "SortedParts",
+                "Buttons a valve was pulsed for",
+                Identifiers.Int64, ValueRanks.Scalar, engine::getSortedParts);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/PassedParts", "PassedParts",
+                "Buttons without a valve for their color",
+                Identifiers.Int64, ValueRanks.Scalar, engine::getPassedParts);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/LateParts", "LateParts",
+                "Buttons whose decision exceeded the latency budget",
+                Identifiers.Int64, ValueRanks.Scalar, engine::getLateParts);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/UnexpectedParts", "UnexpectedParts",
+                "LB2 edges without a button seen at LB1",
+                Identifiers.Int64, ValueRanks.Scalar, engine::getUnexpectedParts);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/DecisionLatency", "DecisionLatency",
+                "Buttons per bucket of the time from the LB2 edge to the scheduled valve pulse, buckets as PulseJitterBounds",
+                Identifiers.Int64, ValueRanks.OneDimension, engine.getDecisionLatency()::getCounts);
+        NodeUtils.addDiagnosticVariable(conveyor, server, namespaceIndex, path + "/DecisionLatencyMax", "DecisionLatencyMax",
+                "Longest time from the LB2 edge to the scheduled valve pulse in microseconds",
+                Identifiers.Double, ValueRanks.Scalar, engine.getDecisionLatency()::getMaxMicros);
+    }
+
+}
@@ -0,0 +1,100 @@
+package benchmark;
+
+import com.bbv.sorter.opcua.server.audit.AuditLog;
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.WriteValue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording a write in the {@link AuditLog} on the request thread, and how the
+ * writer keeps up with bursts of writes.
+ * <p>
+ * Every producer thread records bursts of {@value #BURST} writes as fast as it can and
+ * pauses {@value #PAUSE_MICROS} us between them, like clients writing a recipe. The mean
+ * is the time of a record call on the producer; the records per commit show the group
+ * commit. Records are dropped once the producers record faster than the writer appends,
+ * the optional argument is the number of producers, 4 by default.
+ */
+public class AuditLogBenchmark {
+
+    private static final int BURST = 500;
+    private static final long PAUSE_MICROS = 10_000;
+    private static final long WARMUP_MILLIS = 2000;
+    private static final long MEASURE_MILLIS = 4000;
+
+    private static final AccessContext CONTEXT = Optional::empty;
+    private static final WriteValue WRITE_VALUE = new WriteValue(new NodeId(2, "Sorter/Compressor.V1"),
+            AttributeId.Value.uid(), null, new DataValue(new Variant(true)));
+
+    public static void main(String[] args) throws Exception {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        Path directory = Files.createTempDirectory("sorter-audit-benchmark");
+
+        System.out.printf("%d producers, queue %d, commit %d ms, %s%n", producers, AuditLog.CAPACITY,
+                AuditLog.COMMIT_MILLIS, directory);
+        System.out.printf("%12s %12s %12s %12s %12s %16s%n", "records", "ns/record", "written", "dropped", "commits", "records/commit");
+
+        // a log of its own, so the counters of the measurement start at 0
+        run(directory, producers, WARMUP_MILLIS);
+        long[] result = run(directory, producers, MEASURE_MILLIS);
+        System.out.printf("%12d %12.1f %12d %12d %12d %16.1f%n", result[0], (double) result[1] / result[0],
+                result[2], result[3], result[4], (double) result[2] / Math.max(1, result[4]));
+    }
+
+    /**
+     * @return records, nanoseconds recording them, written, dropped and commits
+     */
+    private static long[] run(Path directory, int producers, long millis) throws InterruptedException {
+        AuditLog auditLog = new AuditLog(directory, AuditLog.CAPACITY, AuditLog.FILE_SIZE, 2, AuditLog.COMMIT_MILLIS);
+        auditLog.start();
+
+        long[] records = new long[producers];
+        long[] nanos = new long[producers];
+        CountDownLatch done = new CountDownLatch(producers);
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < BURST; i++) {
+                        auditLog.write(CONTEXT, WRITE_VALUE, StatusCode.GOOD);
+                    }
+                    nanos[producer] += System.nanoTime() - start;
+                    records[producer] += BURST;
+                    sleepMicros(PAUSE_MICROS);
+                }
+                done.countDown();
+            }, "producer-" + p);
+            thread.start();
+        }
+        done.await();
+        auditLog.stop();
+
+        long[] result = {0, 0, auditLog.getWritten(), auditLog.getDropped(), auditLog.getCommits()};
+        for (int p = 0; p < producers; p++) {
+            result[0] += records[p];
+            result[1] += nanos[p];
+        }
+        return result;
+    }
+
+    private static void sleepMicros(long micros) {
+        try {
+            TimeUnit.MICROSECONDS.sleep(micros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
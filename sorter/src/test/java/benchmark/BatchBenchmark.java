@@ -0,0 +1,100 @@
+package benchmark;
+
+import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.opcua.server.BatchExecutor;
+import com.bbv.sorter.opcua.server.SorterNamespace;
+import com.bbv.sorter.opcua.server.SorterServer;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.ServerNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of a batch of Value reads of the variables of the sorter namespace, item by item on
+ * the calling thread and split on the {@link BatchExecutor}, for growing batches.
+ * <p>
+ * The batch with the first speedup above 1 is the crossover, a sensible
+ * {@code sorter.batch.parallelThreshold} for the machine. The items are the variables of
+ * all lines, conveyor signals and diagnostics, read through their attribute delegates.
+ * The optional argument is the parallelism, the number of processors by default; set
+ * {@code sorter.lines} for a larger namespace.
+ */
+public class BatchBenchmark {
+
+    private static final int[] BATCH_SIZES = {16, 64, 256, 1024, 4096, 16384};
+    private static final long MEASURE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("sorter.conveyor") == null) {
+            System.setProperty("sorter.conveyor", "simulator");
+        }
+        int parallelism = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+        SorterServer sorterServer = new SorterServer();
+        OpcUaServer server = sorterServer.getServer();
+        ConveyorFactory.startScanners();
+        UShort namespaceIndex = server.getNamespaceManager().getNamespaceTable().getIndex(SorterNamespace.NAMESPACE_URI);
+
+        List<ServerNode> variables = new ArrayList<>();
+        for (ServerNode node : server.getNodeMap().values()) {
+            if (node instanceof UaVariableNode && node.getNodeId().getNamespaceIndex().equals(namespaceIndex)
+                    && !node.getNodeId().getIdentifier().toString().startsWith("ObjectTypes/")) {
+                variables.add(node);
+            }
+        }
+
+        BatchExecutor sequential = new BatchExecutor(1, Integer.MAX_VALUE);
+        BatchExecutor parallel = new BatchExecutor(parallelism, 0);
+        AttributeContext context = new AttributeContext(server);
+
+        System.out.printf("%d variables, parallelism %d, %d processors%n", variables.size(), parallelism,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %16s %16s %10s%n", "items", "sequential us", "parallel us", "speedup");
+        for (int size : BATCH_SIZES) {
+            ServerNode[] batch = new ServerNode[size];
+            for (int i = 0; i < size; i++) {
+                batch[i] = variables.get(i % variables.size());
+            }
+            DataValue[] results = new DataValue[size];
+
+            // warm up both paths before measuring
+            time(sequential, batch, results, context);
+            time(parallel, batch, results, context);
+            double sequentialMicros = time(sequential, batch, results, context);
+            double parallelMicros = time(parallel, batch, results, context);
+            System.out.printf("%8d %16.1f %16.1f %10.2f%n", size, sequentialMicros, parallelMicros, sequentialMicros / parallelMicros);
+        }
+
+        parallel.shutdown();
+        ConveyorFactory.stopScanners();
+        System.exit(0);
+    }
+
+    private static volatile Object sink;
+
+    /**
+     * @return mean microseconds per batch
+     */
+    private static double time(BatchExecutor executor, ServerNode[] batch, DataValue[] results, AttributeContext context) {
+        long batches = 0;
+        long start = System.nanoTime();
+        long end = start + MEASURE_NANOS;
+        long now;
+        do {
+            executor.forEach(batch.length, i -> results[i] = batch[i].readAttribute(context, AttributeId.Value.uid(),
+                    TimestampsToReturn.Both, null, null));
+            sink = results[batch.length - 1];
+            batches++;
+        } while ((now = System.nanoTime()) < end);
+        return (now - start) / 1000.0 / batches;
+    }
+
+}
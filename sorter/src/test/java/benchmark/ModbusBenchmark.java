@@ -0,0 +1,105 @@
+package benchmark;
+
+import com.bbv.sorter.hardware.conveyor.Conveyor;
+import com.bbv.sorter.hardware.conveyor.ConveyorModbusDataModel;
+import com.bbv.sorter.hardware.conveyor.ConveyorSimulator;
+import com.bbv.sorter.hardware.conveyor.ConveyorSnapshot;
+import com.bbv.sorter.hardware.conveyor.ModbusConveyor;
+import com.bbv.sorter.hardware.modbus.ModbusConnectionPool;
+import com.bbv.sorter.hardware.modbus.ModbusSlave;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Throughput and latency of a full conveyor read over Modbus TCP on the loopback interface,
+ * against an in-process {@link ModbusSlave} serving a {@link ConveyorSimulator}.
+ * <p>
+ * Compares reading the signals one by one with the coalesced and pipelined
+ * {@link ModbusConveyor#readSnapshot(ConveyorSnapshot)}, for one and several
+ * connections and client threads.
+ */
+public class ModbusBenchmark {
+
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long MEASURE_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        ConveyorSimulator simulator = new ConveyorSimulator(42L, 2.0, 5.0, 0.02, System::nanoTime);
+        simulator.start();
+
+        try (ModbusSlave slave = new ModbusSlave(new ConveyorModbusDataModel(simulator), 0)) {
+            System.out.printf("%-28s %11s %12s %10s %10s %10s%n", "read", "connections", "threads", "reads/s", "p50 us", "p99 us");
+
+            run(slave, "signal by signal", 1, 1, ModbusBenchmark::readSignals);
+            run(slave, "snapshot", 1, 1, conveyor -> conveyor.readSnapshot(new ConveyorSnapshot()));
+            run(slave, "snapshot", 1, 4, conveyor -> conveyor.readSnapshot(new ConveyorSnapshot()));
+            run(slave, "snapshot", 4, 4, conveyor -> conveyor.readSnapshot(new ConveyorSnapshot()));
+        }
+    }
+
+    private static void readSignals(Conveyor conveyor) {
+        conveyor.getStatus();
+        conveyor.getMode();
+        conveyor.readLightBarrier1();
+        conveyor.readLightBarrier2();
+        conveyor.readLightBarrier3();
+        conveyor.readSpeed();
+        conveyor.readValve1();
+        conveyor.readValve2();
+        conveyor.readValve3();
+        conveyor.getLastProcessedColor();
+    }
+
+    private static void run(ModbusSlave slave, String name, int connections, int threads, Consumer<Conveyor> read) throws Exception {
+        try (ModbusConnectionPool pool = new ModbusConnectionPool("localhost", slave.getPort(), connections, 1000)) {
+            ModbusConveyor conveyor = new ModbusConveyor(pool, 1);
+
+            long[][] latencies = new long[threads][];
+            int[] counts = new int[threads];
+            CountDownLatch done = new CountDownLatch(threads);
+
+            for (int t = 0; t < threads; t++) {
+                int index = t;
+                Thread thread = new Thread(() -> {
+                    long[] samples = new long[1 << 20];
+                    long warmupEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WARMUP_MILLIS);
+                    while (System.nanoTime() < warmupEnd) {
+                        read.accept(conveyor);
+                    }
+                    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MEASURE_MILLIS);
+                    int count = 0;
+                    long now = System.nanoTime();
+                    while (now < end && count < samples.length) {
+                        read.accept(conveyor);
+                        long after = System.nanoTime();
+                        samples[count++] = after - now;
+                        now = after;
+                    }
+                    latencies[index] = samples;
+                    counts[index] = count;
+                    done.countDown();
+                });
+                thread.start();
+            }
+            done.await();
+
+            int total = Arrays.stream(counts).sum();
+            long[] all = new long[total];
+            int offset = 0;
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(latencies[t], 0, all, offset, counts[t]);
+                offset += counts[t];
+            }
+            Arrays.sort(all);
+
+            System.out.printf("%-28s %11d %12d %10.0f %10.1f %10.1f%n", name, connections, threads,
+                    total * 1000.0 / MEASURE_MILLIS,
+                    all[total / 2] / 1000.0,
+                    all[(int) (total * 0.99)] / 1000.0);
+        }
+    }
+
+}
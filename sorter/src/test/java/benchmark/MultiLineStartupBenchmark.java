@@ -0,0 +1,97 @@
+package benchmark;
+
+import com.bbv.sorter.opcua.server.SorterServer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Startup time and heap of the SorterServer per conveyor line.
+ * <p>
+ * The number of lines is fixed when ConveyorFactory is loaded, so every line count
+ * is measured in a fresh JVM. Without arguments the benchmark measures 10, 100 and
+ * 1000 lines and prints the marginal cost per line; with a single argument it measures
+ * that line count in the current JVM.
+ */
+public class MultiLineStartupBenchmark {
+
+    private static final int[] LINE_COUNTS = {10, 100, 1000};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1) {
+            measure(Integer.parseInt(args[0]));
+        } else {
+            fork();
+        }
+    }
+
+    private static void fork() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+
+        List<long[]> results = new ArrayList<>();
+        for (int lines : LINE_COUNTS) {
+            Process process = new ProcessBuilder(
+                    java, "-Xmx2g", "-Dsorter.lines=" + lines, "-cp", classpath,
+                    MultiLineStartupBenchmark.class.getName(), String.valueOf(lines))
+                    .redirectErrorStream(true)
+                    .start();
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("RESULT ")) {
+                        String[] fields = line.split(" ");
+                        results.add(new long[]{lines, Long.parseLong(fields[2]), Long.parseLong(fields[3])});
+                    }
+                }
+            }
+            process.waitFor();
+        }
+
+        System.out.printf("%8s %12s %12s%n", "lines", "startup ms", "heap KiB");
+        for (long[] result : results) {
+            System.out.printf("%8d %12d %12d%n", result[0], result[1], result[2] / 1024);
+        }
+        if (results.size() == LINE_COUNTS.length) {
+            long[] first = results.get(0);
+            long[] last = results.get(results.size() - 1);
+            long lines = last[0] - first[0];
+            System.out.printf("per line: %.3f ms, %.1f KiB%n",
+                    (double) (last[1] - first[1]) / lines,
+                    (double) (last[2] - first[2]) / lines / 1024);
+        }
+    }
+
+    private static void measure(int lines) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        long heapBefore = usedHeap(memory);
+        long start = System.nanoTime();
+
+        SorterServer server = new SorterServer();
+        server.startup().get();
+
+        long startup = (System.nanoTime() - start) / 1_000_000;
+        long heap = usedHeap(memory) - heapBefore;
+
+        System.out.println("RESULT " + lines + " " + startup + " " + heap);
+
+        server.shutdown().get();
+        System.exit(0);
+    }
+
+    private static long usedHeap(MemoryMXBean memory) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+}
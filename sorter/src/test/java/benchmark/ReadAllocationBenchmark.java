@@ -0,0 +1,119 @@
+package benchmark;
+
+import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.opcua.server.SorterNamespace;
+import com.bbv.sorter.opcua.server.SorterServer;
+import org.eclipse.milo.opcua.sdk.server.DiagnosticsContext;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.AttributeManager.ReadContext;
+import org.eclipse.milo.opcua.sdk.server.api.Namespace;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.ServerNode;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Heap allocated per value by the Read service of the {@link SorterNamespace} for the conveyor
+ * backed variables of a line, measured with the allocation counter of the thread.
+ * <p>
+ * Compares the read of the namespace, which answers from the cached values, with the
+ * attribute reader of the nodes, the path every read took before. The namespace is read
+ * with a maxAge longer than the scan cycle, so every value is a hit of the read cache.
+ * The per request part, the results, the context and the read plan of the request, is
+ * spread over the values of the request.
+ * The simulator runs and the scanner replaces the image every cycle, so the cost of
+ * rebuilding a changed value is included.
+ */
+public class ReadAllocationBenchmark {
+
+    private static final String[] NODES = {
+            "Sorter/Conveyor.Status", "Sorter/Conveyor.Mode", "Sorter/Conveyor.SpeedIndicator",
+            "Sorter/Conveyor/LB1", "Sorter/Conveyor/LB2", "Sorter/Conveyor/LB3",
+            "Sorter/Compressor.V1", "Sorter/Compressor.V2", "Sorter/Compressor.V3",
+            "Sorter/Conveyor/ColorDetector"};
+
+    private static final double MAX_AGE_MILLIS = 1000.0;
+
+    private static final int WARMUP_REQUESTS = 200_000;
+    private static final int MEASURE_REQUESTS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("sorter.conveyor") == null) {
+            System.setProperty("sorter.conveyor", "simulator");
+        }
+        SorterServer sorterServer = new SorterServer();
+        OpcUaServer server = sorterServer.getServer();
+        ConveyorFactory.startScanners();
+        ConveyorFactory.getInstance().start();
+
+        UShort namespaceIndex = server.getNamespaceManager().getNamespaceTable().getIndex(SorterNamespace.NAMESPACE_URI);
+        Namespace namespace = server.getNamespaceManager().getNamespace(namespaceIndex);
+
+        List<ReadValueId> readValueIds = new ArrayList<>();
+        for (String node : NODES) {
+            NodeId nodeId = new NodeId(namespaceIndex, node);
+            if (server.getNodeMap().get(nodeId) == null) {
+                throw new IllegalStateException("Node " + node + " not found");
+            }
+            readValueIds.add(new ReadValueId(nodeId, AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE));
+        }
+
+        System.out.printf("%-22s %-10s %14s %14s %14s%n", "read", "timestamps", "bytes/request", "bytes/value", "reads/s");
+        for (TimestampsToReturn timestamps : new TimestampsToReturn[]{TimestampsToReturn.Neither, TimestampsToReturn.Both}) {
+            run("attribute reader", timestamps, readValueIds, ids -> {
+                for (ReadValueId id : ids) {
+                    ServerNode node = server.getNodeMap().get(id.getNodeId());
+                    DataValue value = node.readAttribute(new AttributeContext(server), id.getAttributeId(),
+                            timestamps, id.getIndexRange(), id.getDataEncoding());
+                    consume(value);
+                }
+            });
+            run("namespace read", timestamps, readValueIds, ids -> {
+                CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
+                namespace.read(new ReadContext(server, null, future, new DiagnosticsContext<>()), MAX_AGE_MILLIS, timestamps, ids);
+                consume(future.join().get(0));
+            });
+        }
+
+        ConveyorFactory.stopScanners();
+        System.exit(0);
+    }
+
+    private static volatile Object sink;
+
+    private static void consume(DataValue value) {
+        sink = value;
+    }
+
+    private static void run(String name, TimestampsToReturn timestamps, List<ReadValueId> ids, Consumer<List<ReadValueId>> read) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            read.accept(ids);
+        }
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURE_REQUESTS; i++) {
+            read.accept(ids);
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        long values = (long) MEASURE_REQUESTS * ids.size();
+        System.out.printf("%-22s %-10s %14.1f %14.1f %14.0f%n", name, timestamps, (double) bytes / MEASURE_REQUESTS,
+                (double) bytes / values, values * 1e9 / nanos);
+    }
+
+}
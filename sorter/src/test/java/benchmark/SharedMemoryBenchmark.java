@@ -0,0 +1,105 @@
+package benchmark;
+
+import com.bbv.sorter.hardware.conveyor.Conveyor;
+import com.bbv.sorter.hardware.conveyor.ConveyorFactory;
+import com.bbv.sorter.hardware.conveyor.ConveyorSimulator;
+import com.bbv.sorter.hardware.conveyor.ConveyorSnapshot;
+import com.bbv.sorter.hardware.conveyor.SharedMemoryConveyor;
+import com.bbv.sorter.hardware.conveyor.SharedMemoryImage;
+import com.bbv.sorter.hardware.conveyor.SharedMemoryPlcSimulator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a full conveyor read from a {@link SharedMemoryConveyor} compared to the
+ * in-memory ConveyorMock.
+ * <p>
+ * The shared memory image is read once while a {@link SharedMemoryPlcSimulator} publishes
+ * it every 100 us and once while a writer rewrites it as fast as it can. The writer keeps
+ * all fields of the image equal to a counter, so any torn read is detected and counted.
+ * The p99 is taken over batches of {@value #BATCH} reads, per read.
+ */
+public class SharedMemoryBenchmark {
+
+    private static final int BATCH = 1000;
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long MEASURE_MILLIS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        Path file = Files.createTempFile("sorter-benchmark", ".img");
+        try (SharedMemoryImage image = SharedMemoryImage.open(file)) {
+            SharedMemoryConveyor conveyor = new SharedMemoryConveyor(image);
+
+            System.out.printf("%-36s %10s %10s %12s%n", "conveyor", "mean ns", "p99 ns", "torn reads");
+
+            measure("ConveyorMock", ConveyorFactory.getInstance(), false);
+
+            ConveyorSimulator simulator = new ConveyorSimulator(42L, 2.0, 5.0, 0.02, System::nanoTime);
+            SharedMemoryPlcSimulator plc = new SharedMemoryPlcSimulator(image, simulator, 100, TimeUnit.MICROSECONDS);
+            conveyor.start();
+            Thread plcThread = new Thread(plc, "plc");
+            plcThread.start();
+            measure("SharedMemoryConveyor, PLC 100 us", conveyor, false);
+            plc.stop();
+            plcThread.join();
+
+            Thread writer = new Thread(() -> {
+                ConveyorSnapshot written = new ConveyorSnapshot();
+                int counter = 0;
+                while (!Thread.currentThread().isInterrupted()) {
+                    counter++;
+                    written.set(counter, counter, counter, counter, System.nanoTime());
+                    image.writeInputs(written);
+                }
+            }, "writer");
+            writer.start();
+            measure("SharedMemoryConveyor, busy writer", conveyor, true);
+            writer.interrupt();
+            writer.join();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void measure(String name, Conveyor conveyor, boolean checkTorn) {
+        ConveyorSnapshot snapshot = new ConveyorSnapshot();
+
+        long warmupEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WARMUP_MILLIS);
+        while (System.nanoTime() < warmupEnd) {
+            conveyor.readSnapshot(snapshot);
+        }
+
+        long[] batches = new long[1 << 16];
+        int count = 0;
+        long torn = 0;
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MEASURE_MILLIS);
+        while (System.nanoTime() < end && count < batches.length) {
+            long start = System.nanoTime();
+            for (int i = 0; i < BATCH; i++) {
+                conveyor.readSnapshot(snapshot);
+                if (checkTorn && !consistent(snapshot)) {
+                    torn++;
+                }
+            }
+            batches[count++] = System.nanoTime() - start;
+        }
+
+        long[] sorted = Arrays.copyOf(batches, count);
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).sum() / (double) count / BATCH;
+        double p99 = sorted[(int) (count * 0.99)] / (double) BATCH;
+
+        System.out.printf("%-36s %10.1f %10.1f %12s%n", name, mean, p99, checkTorn ? String.valueOf(torn) : "-");
+    }
+
+    private static boolean consistent(ConveyorSnapshot snapshot) {
+        int signals = snapshot.getSignals();
+        return snapshot.getMode() == signals
+                && snapshot.getLastProcessedColor() == signals
+                && snapshot.getSpeed() == signals;
+    }
+
+}
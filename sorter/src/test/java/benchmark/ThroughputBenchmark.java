@@ -0,0 +1,108 @@
+package benchmark;
+
+import com.bbv.sorter.hardware.control.PidController;
+import com.bbv.sorter.hardware.conveyor.AsyncConveyorAdapter;
+import com.bbv.sorter.hardware.conveyor.ConveyorScanner;
+import com.bbv.sorter.hardware.conveyor.ConveyorSimulator;
+import com.bbv.sorter.hardware.conveyor.LightBarrierEdgeRing;
+import com.bbv.sorter.hardware.conveyor.SortingEngine;
+import com.bbv.sorter.hardware.conveyor.SortingTable;
+import com.bbv.sorter.hardware.conveyor.SpeedController;
+import com.bbv.sorter.hardware.conveyor.ThroughputOptimizer;
+import com.bbv.sorter.hardware.conveyor.ValvePulser;
+import com.bbv.sorter.hardware.timing.PulseTimer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buttons sorted per minute by a simulated line with a fixed belt speed and with the
+ * {@link ThroughputOptimizer}, in real time with the sorting engine and the speed control
+ * of the server.
+ * <p>
+ * The feeder alternates between sparse and dense traffic. The color detector of the
+ * simulator needs {@link #DETECTOR_EXPOSURE} per button, so a fast belt loses reads while
+ * a slow one blocks the feeder. A button counts as sorted when it was put on the belt and
+ * its color was read. The arrivals are random in real time, so besides the sorted buttons
+ * per minute the share of the offered buttons that were sorted is reported.
+ * The optional argument is the length of a traffic phase in seconds.
+ */
+public class ThroughputBenchmark {
+
+    private static final long SEED = 42L;
+    private static final double[] PARTS_PER_SECOND = {0.4, 3.0};
+    private static final double NO_READ_PROBABILITY = 0.02;
+    private static final double LOAD_PER_PART = 0.01;
+    private static final double DETECTOR_EXPOSURE = 0.2;
+    private static final double[] FIXED_SPEEDS = {5.0, 10.0};
+
+    public static void main(String[] args) throws Exception {
+        long phaseMillis = TimeUnit.SECONDS.toMillis(args.length > 0 ? Long.parseLong(args[0]) : 15);
+
+        System.out.printf("%-18s %10s %10s %10s %10s %10s %12s %10s%n",
+                "belt", "arrived", "blocked", "unread", "late", "mean cm/s", "sorted/min", "sorted %");
+        for (double speed : FIXED_SPEEDS) {
+            run(String.format("fixed %.1f cm/s", speed), speed, false, phaseMillis);
+        }
+        run("optimized", 5.0, true, phaseMillis);
+    }
+
+    private static void run(String name, double speed, boolean optimize, long phaseMillis) throws Exception {
+        ConveyorSimulator simulator = new ConveyorSimulator(SEED, PARTS_PER_SECOND[0], speed, NO_READ_PROBABILITY,
+                LOAD_PER_PART, DETECTOR_EXPOSURE, System::nanoTime);
+        ExecutorService io = Executors.newSingleThreadExecutor();
+        ScheduledExecutorService scan = Executors.newSingleThreadScheduledExecutor();
+        PulseTimer timer = new PulseTimer("benchmark-pulse-timer", 200, TimeUnit.MICROSECONDS);
+
+        AsyncConveyorAdapter conveyor = new AsyncConveyorAdapter(simulator, io);
+        ConveyorScanner scanner = new ConveyorScanner(conveyor, 10, 2000, TimeUnit.MILLISECONDS);
+        LightBarrierEdgeRing edgeRing = new LightBarrierEdgeRing(4096);
+        simulator.addConveyorListener(edgeRing);
+        SortingEngine engine = new SortingEngine(1, simulator.getGeometry(), scanner, new ValvePulser(conveyor, timer),
+                SortingTable.parse("1:1,2:2,3:3"), 25, TimeUnit.MILLISECONDS);
+        SpeedController controller = new SpeedController(1, scanner, simulator, new PidController(10.0, 33.0, 0.0, 0.0, 100.0),
+                speed, 1, TimeUnit.MILLISECONDS);
+        ThroughputOptimizer optimizer = new ThroughputOptimizer(1, simulator.getGeometry(), edgeRing, scanner, engine, controller,
+                50, 1000, TimeUnit.MILLISECONDS);
+
+        simulator.start();
+        scanner.start(scan);
+        engine.start();
+        controller.start();
+        if (optimize) {
+            optimizer.start();
+        }
+
+        long start = System.nanoTime();
+        double speedSum = 0.0;
+        int speedSamples = 0;
+        for (int phase = 0; phase < 4; phase++) {
+            simulator.setPartsPerSecond(PARTS_PER_SECOND[phase % PARTS_PER_SECOND.length]);
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(phaseMillis);
+            while (System.nanoTime() < end) {
+                Thread.sleep(100);
+                speedSum += simulator.readSpeed();
+                speedSamples++;
+            }
+        }
+        double minutes = (System.nanoTime() - start) / (double) TimeUnit.MINUTES.toNanos(1);
+
+        optimizer.stop();
+        controller.stop();
+        engine.stop();
+        scanner.stop();
+        timer.shutdown();
+        scan.shutdown();
+        io.shutdown();
+
+        long arrived = simulator.getArrivedParts();
+        long blocked = simulator.getBlockedParts();
+        long unread = simulator.getUnreadParts();
+        System.out.printf("%-18s %10d %10d %10d %10d %10.2f %12.1f %10.1f%n", name, arrived, blocked,
+                unread, engine.getLateParts(), speedSum / speedSamples, (arrived - unread) / minutes,
+                100.0 * (arrived - unread) / (arrived + blocked));
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.bbv.sorter.hardware.control;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PidControllerTest {
+
+    private static final double DT = 0.01;
+
+    @Test
+    public void outputIsProportionalPlusIntegral() {
+        PidController controller = new PidController(2.0, 10.0, 0.0, 0.0, 100.0);
+
+        assertEquals(2.0 * 3.0 + 10.0 * 3.0 * DT, controller.update(8.0, 5.0, DT), 1e-9);
+        assertEquals(2.0 * 3.0 + 2 * 10.0 * 3.0 * DT, controller.update(8.0, 5.0, DT), 1e-9);
+    }
+
+    @Test
+    public void integralDoesNotWindUpWhileSaturated() {
+        PidController controller = new PidController(10.0, 10.0, 0.0, 0.0, 100.0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(100.0, controller.update(20.0, 0.0, DT), 0.0);
+        }
+
+        // the belt caught up, the output follows at once instead of unwinding ten seconds of integral
+        assertEquals(10.0 * 1.0 + 10.0 * 1.0 * DT, controller.update(20.0, 19.0, DT), 1e-9);
+    }
+
+    @Test
+    public void resetRestartsWithoutBump() {
+        PidController controller = new PidController(10.0, 10.0, 5.0, 0.0, 100.0);
+        controller.update(5.0, 0.0, DT);
+        controller.update(5.0, 1.0, DT);
+
+        controller.reset(40.0);
+
+        // no error and no derivative of the first measurement, the output stays where it was set
+        assertEquals(40.0, controller.update(5.0, 5.0, DT), 1e-9);
+    }
+
+    @Test
+    public void resetIsLimitedToTheOutputRange() {
+        PidController controller = new PidController(10.0, 10.0, 0.0, 0.0, 100.0);
+
+        controller.reset(150.0);
+
+        assertEquals(100.0 - 10.0 * 1.0 - 10.0 * 1.0 * DT, controller.update(5.0, 6.0, DT), 1e-9);
+    }
+
+    @Test
+    public void setpointStepDoesNotKickTheDerivative() {
+        PidController controller = new PidController(1.0, 0.0, 0.01, -100.0, 100.0);
+        controller.update(5.0, 5.0, DT);
+
+        assertEquals(5.0, controller.update(10.0, 5.0, DT), 1e-9);
+        // a change of the measurement does
+        assertEquals(4.0 - 0.01 * 1.0 / DT, controller.update(10.0, 6.0, DT), 1e-9);
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.bbv.sorter.hardware.conveyor.ConveyorSimulator.DRIVE_TIME_CONSTANT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Timing of the simulated line on a manual clock, sampled every {@link #STEP_MILLIS} ms.
+ */
+public class ConveyorSimulatorTest {
+
+    private static final ConveyorGeometry GEOMETRY = ConveyorGeometry.DEFAULT;
+    private static final long SEED = 42L;
+    private static final double SPEED = 5.0;
+    private static final long STEP_MILLIS = 1;
+    // the drive reached its speed after ten time constants
+    private static final long SETTLED_MILLIS = 3000;
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    // an edge is seen in the first sample after it, one step late at most
+    private static final double EDGE_TOLERANCE = 2.0 * STEP_MILLIS / 1000.0;
+
+    private long now;
+    private ConveyorSimulator simulator;
+    private Edges edges;
+
+    @Before
+    public void setUp() {
+        now = TimeUnit.SECONDS.toNanos(100);
+        simulator = new ConveyorSimulator(SEED, 1.0, SPEED, 0.0, () -> now);
+        edges = new Edges();
+        simulator.addConveyorListener(edges);
+    }
+
+    @Test
+    public void sameSeedAndClockGiveSameSignals() {
+        ConveyorSimulator other = new ConveyorSimulator(SEED, 1.0, SPEED, 0.0, () -> now);
+        ConveyorSnapshot expected = new ConveyorSnapshot();
+        ConveyorSnapshot actual = new ConveyorSnapshot();
+        simulator.start();
+        other.start();
+
+        for (int i = 0; i < 10_000; i++) {
+            now += TimeUnit.MILLISECONDS.toNanos(STEP_MILLIS);
+            simulator.readSnapshot(expected);
+            other.readSnapshot(actual);
+            assertEquals(expected.getSignals(), actual.getSignals());
+            assertEquals(expected.getSpeed(), actual.getSpeed(), 0.0);
+            assertEquals(expected.getLastProcessedColor(), actual.getLastProcessedColor());
+        }
+        assertTrue(simulator.getArrivedParts() > 0);
+        assertEquals(simulator.getArrivedParts(), other.getArrivedParts());
+    }
+
+    @Test
+    public void beltFollowsDriveOutputWithFirstOrderLag() {
+        simulator.start();
+        run(Math.round(DRIVE_TIME_CONSTANT * 1000));
+        assertEquals(SPEED * (1.0 - Math.exp(-1.0)), simulator.readSpeed(), 0.01);
+
+        run(SETTLED_MILLIS);
+        assertEquals(SPEED, simulator.readSpeed(), 0.01);
+
+        simulator.setDriveOutput(100.0);
+        run(SETTLED_MILLIS);
+        assertEquals(GEOMETRY.getRatedSpeed(), simulator.readSpeed(), 0.01);
+    }
+
+    @Test
+    public void buttonsCrossBarriersAtBeltSpeed() {
+        simulator.start();
+        run(30_000);
+
+        List<Double> lb1 = edges.falling(1);
+        List<Double> lb2 = edges.falling(2);
+        List<Double> lb3 = edges.falling(3);
+        int checked = 0;
+        // no button leaves the belt, the n-th button releases every barrier as the n-th
+        for (int i = 0; i < lb3.size(); i++) {
+            if (lb1.get(i) < edges.start + SETTLED_MILLIS / 1000.0) {
+                continue;
+            }
+            assertEquals((GEOMETRY.getLightBarrier2() - GEOMETRY.getLightBarrier1()) / SPEED, lb2.get(i) - lb1.get(i), EDGE_TOLERANCE);
+            assertEquals((GEOMETRY.getLightBarrier3() - GEOMETRY.getLightBarrier2()) / SPEED, lb3.get(i) - lb2.get(i), EDGE_TOLERANCE);
+            checked++;
+        }
+        assertTrue("too few buttons: " + checked, checked >= 10);
+    }
+
+    @Test
+    public void buttonCoversBarrierForItsLength() {
+        simulator.start();
+        run(30_000);
+
+        List<Double> rising = edges.rising(2);
+        List<Double> falling = edges.falling(2);
+        assertTrue(rising.size() >= 10);
+        for (int i = 0; i < rising.size(); i++) {
+            if (rising.get(i) >= edges.start + SETTLED_MILLIS / 1000.0) {
+                assertEquals(GEOMETRY.getPartLength() / SPEED, falling.get(i) - rising.get(i), EDGE_TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void pressurizedValveEjectsEveryButton() {
+        simulator.setValve1(true);
+        simulator.start();
+        run(30_000);
+
+        assertTrue(simulator.getEjectedParts(1) > 0);
+        assertEquals(0, simulator.getEjectedParts(2));
+        assertEquals(0, simulator.getPassedParts());
+        assertTrue(edges.rising(3).isEmpty());
+        // the buttons between LB1 and valve 1 are still on the belt
+        assertTrue(simulator.getArrivedParts() - simulator.getEjectedParts(1) <= 4);
+    }
+
+    @Test
+    public void minimalGapLimitsTheRateOfTheLine() {
+        simulator = new ConveyorSimulator(SEED, 50.0, GEOMETRY.getRatedSpeed(), 0.0, () -> now);
+        simulator.start();
+        run(SETTLED_MILLIS);
+        long arrived = simulator.getArrivedParts();
+
+        run(10_000);
+
+        double partsPerSecond = (simulator.getArrivedParts() - arrived) / 10.0;
+        assertTrue("parts/s: " + partsPerSecond, partsPerSecond <= GEOMETRY.getMaxPartsPerSecond() * 1.01);
+        assertTrue(simulator.getBlockedParts() > 0);
+    }
+
+    @Test
+    public void scaledLineReachesConfiguredRateAtLightBarrier1() {
+        ConveyorGeometry load = GEOMETRY.scale(0.01);
+        double rate = 0.4 * load.getMaxPartsPerSecond();
+        simulator = new ConveyorSimulator(load, SEED, rate, load.getRatedSpeed(), 0.0, 0.0, 0.0, () -> now);
+        edges = new Edges();
+        simulator.addConveyorListener(edges);
+        simulator.start();
+        // a button covers LB1 for 1.5 ms at the rated speed, sample ten times as often
+        run(SETTLED_MILLIS, 100);
+        double from = now / NANOS_PER_SECOND;
+
+        run(5_000, 100);
+
+        long entered = edges.rising(1).stream().filter(t -> t > from).count();
+        assertTrue("parts/s at LB1: " + entered / 5.0, entered / 5.0 >= 0.8 * rate);
+        // far beyond what the line of the demonstrator carries
+        assertTrue(entered / 5.0 > 10 * GEOMETRY.getMaxPartsPerSecond());
+    }
+
+    @Test
+    public void stopHaltsBeltAndFeeder() {
+        simulator.start();
+        run(10_000);
+        simulator.stop();
+        long arrived = simulator.getArrivedParts();
+        int edgeCount = edges.count();
+
+        run(10_000);
+
+        assertEquals(0.0, simulator.readSpeed(), 0.0);
+        assertEquals(0, simulator.getMode());
+        assertEquals(arrived, simulator.getArrivedParts());
+        assertEquals(edgeCount, edges.count());
+    }
+
+    /**
+     * Sample the simulator every step, as the scanner does.
+     */
+    private void run(long millis) {
+        run(millis, TimeUnit.MILLISECONDS.toMicros(STEP_MILLIS));
+    }
+
+    private void run(long millis, long stepMicros) {
+        ConveyorSnapshot snapshot = new ConveyorSnapshot();
+        for (long t = 0; t < TimeUnit.MILLISECONDS.toMicros(millis); t += stepMicros) {
+            now += TimeUnit.MICROSECONDS.toNanos(stepMicros);
+            simulator.readSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * Light barrier edges in seconds of the manual clock, at the sample that saw them.
+     */
+    private final class Edges implements ConveyorListener {
+
+        private final double start = now / NANOS_PER_SECOND;
+        private final List<List<Double>> rising = new ArrayList<>();
+        private final List<List<Double>> falling = new ArrayList<>();
+
+        private Edges() {
+            for (int i = 0; i < 3; i++) {
+                rising.add(new ArrayList<>());
+                falling.add(new ArrayList<>());
+            }
+        }
+
+        @Override
+        public void onLightBarrierChanged(int lightBarrier, boolean value) {
+            (value ? rising : falling).get(lightBarrier - 1).add(now / NANOS_PER_SECOND);
+        }
+
+        List<Double> rising(int lightBarrier) {
+            return rising.get(lightBarrier - 1);
+        }
+
+        List<Double> falling(int lightBarrier) {
+            return falling.get(lightBarrier - 1);
+        }
+
+        int count() {
+            int count = 0;
+            for (int i = 0; i < 3; i++) {
+                count += rising.get(i).size() + falling.get(i).size();
+            }
+            return count;
+        }
+    }
+
+}
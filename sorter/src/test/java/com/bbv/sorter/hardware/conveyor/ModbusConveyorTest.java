@@ -0,0 +1,129 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import com.bbv.sorter.hardware.modbus.ModbusConnectionPool;
+import com.bbv.sorter.hardware.modbus.ModbusSlave;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ModbusConveyor} against a {@link ModbusSlave} serving a {@link ConveyorSimulator}
+ * on a manual clock, so that both sides see the same line.
+ */
+public class ModbusConveyorTest {
+
+    private static final int TIMEOUT_MILLIS = 300;
+
+    private long now;
+    private ConveyorSimulator simulator;
+    private ModbusSlave slave;
+    private ModbusConnectionPool pool;
+    private ModbusConveyor conveyor;
+
+    @Before
+    public void setUp() throws IOException {
+        now = TimeUnit.SECONDS.toNanos(100);
+        simulator = new ConveyorSimulator(42L, 2.0, 5.0, 0.0, () -> now);
+        slave = new ModbusSlave(new ConveyorModbusDataModel(simulator), 0);
+        pool = new ModbusConnectionPool("localhost", slave.getPort(), 2, TIMEOUT_MILLIS);
+        conveyor = new ModbusConveyor(pool, 1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.close();
+        slave.close();
+    }
+
+    @Test
+    public void startAndStopReachTheLine() {
+        conveyor.start();
+        assertEquals(1, simulator.getMode());
+        assertEquals(1, conveyor.getMode());
+
+        conveyor.stop();
+        assertEquals(0, simulator.getMode());
+        assertEquals(0, conveyor.getMode());
+    }
+
+    @Test
+    public void valveWritesReachTheLine() {
+        conveyor.setValve2(true);
+        assertFalse(simulator.readValve1());
+        assertTrue(simulator.readValve2());
+
+        conveyor.setValve1(true);
+        conveyor.setValve2(false);
+        assertTrue(simulator.readValve1());
+        assertFalse(simulator.readValve2());
+        assertFalse(simulator.readValve3());
+        assertTrue(conveyor.readValve1());
+        assertFalse(conveyor.readValve2());
+    }
+
+    @Test
+    public void snapshotMatchesTheLine() {
+        simulator.start();
+        simulator.setValve3(true);
+        ConveyorSnapshot expected = new ConveyorSnapshot();
+        ConveyorSnapshot actual = new ConveyorSnapshot();
+        int covered = 0;
+
+        for (int i = 0; i < 500; i++) {
+            now += TimeUnit.MILLISECONDS.toNanos(10);
+            // the clock stands still during the round trip, both reads see the same state
+            conveyor.readSnapshot(actual);
+            simulator.readSnapshot(expected);
+            assertEquals(expected.getSignals(), actual.getSignals());
+            assertEquals(expected.getMode(), actual.getMode());
+            assertEquals(expected.getSpeed(), actual.getSpeed(), 1.0 / ModbusConveyor.SPEED_SCALE);
+            assertEquals(expected.getLastProcessedColor(), actual.getLastProcessedColor());
+            covered += (expected.getSignals() & ConveyorSnapshot.LIGHT_BARRIERS) != 0 ? 1 : 0;
+        }
+        assertTrue("no button covered a barrier", covered > 0);
+    }
+
+    @Test
+    public void driveOutputSetsTheSpeed() {
+        simulator.start();
+        conveyor.setDriveOutput(80.0);
+        now += TimeUnit.SECONDS.toNanos(5);
+
+        assertEquals(0.8 * ConveyorGeometry.DEFAULT.getRatedSpeed(), conveyor.readSpeed(), 0.02);
+    }
+
+    @Test
+    public void missingResponseFailsWithinTimeout() throws IOException {
+        // accepts the connection but never answers
+        try (ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ModbusConnectionPool silentPool = new ModbusConnectionPool("localhost", silent.getLocalPort(), 1, TIMEOUT_MILLIS)) {
+            ModbusConveyor silentConveyor = new ModbusConveyor(silentPool, 1);
+            long start = System.nanoTime();
+            try {
+                silentConveyor.readSnapshot(new ConveyorSnapshot());
+                fail("read without response succeeded");
+            } catch (UncheckedIOException e) {
+                assertTrue(e.getCause().toString(), e.getCause() instanceof SocketTimeoutException);
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("failed after " + elapsedMillis + " ms", elapsedMillis < 5 * TIMEOUT_MILLIS);
+            try (Socket ignored = silent.accept()) {
+                // the connection was made
+            }
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Seqlock of the {@link SharedMemoryImage}, with the PLC side in the same process.
+ */
+public class SharedMemoryImageTest {
+
+    // sequence of the input area in the layout shared with the PLC
+    private static final int OFFSET_INPUT_SEQUENCE = 64;
+
+    private Path file;
+    private SharedMemoryImage server;
+    private SharedMemoryImage plc;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("sorter-line", ".img");
+        Files.delete(file);
+        server = SharedMemoryImage.open(file);
+        plc = SharedMemoryImage.open(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        plc.close();
+        server.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void newImageHasNoDriveOutput() {
+        assertTrue(Double.isNaN(server.readDriveOutput()));
+        assertEquals(0, plc.readOutputs());
+    }
+
+    @Test
+    public void inputsAndOutputsRoundTrip() {
+        ConveyorSnapshot written = new ConveyorSnapshot();
+        written.set(ConveyorSnapshot.STATUS | ConveyorSnapshot.LIGHT_BARRIER_2 | ConveyorSnapshot.VALVE_3, 4.25, 1, 5, 0L);
+        plc.writeInputs(written);
+        server.writeOutputs(SharedMemoryImage.RUN | ConveyorSnapshot.VALVE_1, 42.5);
+
+        ConveyorSnapshot read = new ConveyorSnapshot();
+        server.readInputs(read);
+        assertEquals(written.getSignals(), read.getSignals());
+        assertEquals(4.25, read.getSpeed(), 0.0);
+        assertEquals(1, read.getMode());
+        assertEquals(5, read.getLastProcessedColor());
+        assertEquals(SharedMemoryImage.RUN | ConveyorSnapshot.VALVE_1, plc.readOutputs());
+        assertEquals(42.5, plc.readDriveOutput(), 0.0);
+    }
+
+    @Test
+    public void otherFileIsRejected() throws IOException {
+        Path other = Files.createTempFile("sorter-other", ".img");
+        try {
+            Files.write(other, new byte[SharedMemoryImage.SIZE]);
+            try (FileChannel channel = FileChannel.open(other, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap("not an image".getBytes("US-ASCII")));
+            }
+            try {
+                SharedMemoryImage.open(other).close();
+                fail("foreign file opened");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            Files.deleteIfExists(other);
+        }
+    }
+
+    @Test
+    public void readerNeverSeesTornImage() throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        // every value of a write is derived from the same counter
+        Thread writer = new Thread(() -> {
+            ConveyorSnapshot snapshot = new ConveyorSnapshot();
+            try {
+                for (int i = 1; running.get(); i++) {
+                    snapshot.set(i & ConveyorSnapshot.LIGHT_BARRIERS, i, i, i, 0L);
+                    plc.writeInputs(snapshot);
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "plc-writer");
+        writer.start();
+
+        ConveyorSnapshot snapshot = new ConveyorSnapshot();
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        long reads = 0;
+        try {
+            while (System.nanoTime() < end) {
+                server.readInputs(snapshot);
+                int counter = snapshot.getMode();
+                assertEquals(counter & ConveyorSnapshot.LIGHT_BARRIERS, snapshot.getSignals());
+                assertEquals(counter, snapshot.getSpeed(), 0.0);
+                assertEquals(counter, snapshot.getLastProcessedColor());
+                reads++;
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        assertNull(failure.get());
+        assertTrue(reads > 0);
+    }
+
+    @Test
+    public void writerStuckInWriteFailsRead() throws IOException {
+        // a PLC that died halfway through a write leaves the sequence odd
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer sequence = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+            sequence.putLong(0, 1L);
+            channel.write(sequence, OFFSET_INPUT_SEQUENCE);
+        }
+
+        long start = System.nanoTime();
+        try {
+            server.readInputs(new ConveyorSnapshot());
+            fail("read of a locked image succeeded");
+        } catch (UncheckedIOException e) {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("failed after " + elapsedMillis + " ms", elapsedMillis >= 100 && elapsedMillis < 1000);
+        }
+
+        // the output area has its own sequence
+        server.writeOutputs(SharedMemoryImage.RUN, 10.0);
+        assertEquals(SharedMemoryImage.RUN, plc.readOutputs());
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import com.bbv.sorter.opcua.server.utils.ColorDetectorUtils;
+import com.bbv.sorter.opcua.server.utils.CompressorNodeUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SortingTableTest {
+
+    @Test
+    public void parseAssignsValvesToColors() {
+        SortingTable table = SortingTable.parse("1:1, 2:2,3:3,5:0");
+
+        assertEquals(1, table.getValve(1));
+        assertEquals(2, table.getValve(2));
+        assertEquals(3, table.getValve(3));
+        assertEquals(0, table.getValve(4));
+        assertEquals(0, table.getValve(5));
+        assertEquals(0, table.getValve(0));
+    }
+
+    @Test
+    public void buttonTakesFirstValveOfItsMask() {
+        SortingTable table = SortingTable.parse("4:3,4:2");
+
+        assertEquals(0b110, table.getValveMask(4));
+        assertEquals(2, table.getValve(4));
+    }
+
+    @Test
+    public void tableCoversTheColorsAndValvesOfTheAddressSpace() {
+        assertEquals(ColorDetectorUtils.COLOR_READS.length, SortingTable.COLORS);
+        assertEquals(CompressorNodeUtils.VALVES.length, Integer.bitCount(SortingTable.VALVES));
+    }
+
+    @Test
+    public void unknownColorIsNotEjected() {
+        SortingTable table = SortingTable.parse("1:1");
+
+        assertEquals(0, table.getValve(-1));
+        assertEquals(0, table.getValve(SortingTable.COLORS));
+    }
+
+    @Test
+    public void emptyDefinitionEjectsNothing() {
+        assertArrayEquals(new int[SortingTable.COLORS], SortingTable.parse("").getValveMasks());
+    }
+
+    @Test
+    public void tableIsNotChangedByItsMasks() {
+        int[] masks = {0, 1, 2, 4, 0, 0, 0};
+        SortingTable table = SortingTable.of(masks);
+        masks[1] = 4;
+        table.getValveMasks()[2] = 1;
+
+        assertEquals(1, table.getValve(1));
+        assertEquals(2, table.getValve(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void colorOutOfRangeIsRejected() {
+        SortingTable.parse("7:1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void valveOutOfRangeIsRejected() {
+        SortingTable.parse("1:4");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedPairIsRejected() {
+        SortingTable.parse("1-1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maskOutOfRangeIsRejected() {
+        SortingTable.of(new int[]{0, 8, 0, 0, 0, 0, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingMasksAreRejected() {
+        SortingTable.of(new int[]{0, 1, 2});
+    }
+
+}
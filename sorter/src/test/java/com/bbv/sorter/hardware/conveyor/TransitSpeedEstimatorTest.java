@@ -0,0 +1,96 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Transits between the barriers of the {@link ConveyorGeometry#DEFAULT} line, LB1 to LB2 16 cm
+ * and LB2 to LB3 24 cm, fed as the scanner reports them.
+ */
+public class TransitSpeedEstimatorTest {
+
+    private static final double ALPHA = 0.5;
+    private static final double TOLERANCE = 0.3;
+
+    private final TransitSpeedEstimator estimator = new TransitSpeedEstimator(ConveyorGeometry.DEFAULT, ALPHA, TOLERANCE);
+
+    @Test
+    public void firstTransitPairsTheOldestButtons() {
+        released(1, 0.0);
+        released(1, 0.5);
+        released(2, 1.6);
+
+        assertEquals(10.0, estimator.getSpeed(), 1e-9);
+        assertEquals(1, estimator.getSamples());
+
+        // the second button is paired with the departure that fits the estimate
+        released(2, 2.1);
+        assertEquals(10.0, estimator.getSpeed(), 1e-9);
+        assertEquals(2, estimator.getSamples());
+    }
+
+    @Test
+    public void transitsToLightBarrier3AreAveraged() {
+        released(1, 0.0);
+        released(2, 1.6);
+        // 24 cm in 2 s, averaged with alpha 0.5
+        released(3, 3.6);
+
+        assertEquals(11.0, estimator.getSpeed(), 1e-9);
+        assertEquals(2, estimator.getSamples());
+    }
+
+    @Test
+    public void transitOutsideTheToleranceIsDropped() {
+        released(1, 0.0);
+        released(2, 1.6);
+
+        // half the estimated speed, another button left or was taken off the belt
+        released(1, 2.0);
+        released(2, 5.2);
+
+        assertEquals(10.0, estimator.getSpeed(), 1e-9);
+        assertEquals(1, estimator.getSamples());
+    }
+
+    @Test
+    public void estimateStartsOverAfterTooManyDroppedTransits() {
+        released(1, 0.0);
+        released(2, 1.6);
+        for (int i = 0; i < 32; i++) {
+            released(2, 2.0 + i * 0.1);
+        }
+
+        assertEquals(0.0, estimator.getSpeed(), 0.0);
+
+        // the belt runs slower now, the next transit is taken as it is
+        released(1, 10.0);
+        released(2, 13.2);
+        assertEquals(5.0, estimator.getSpeed(), 1e-9);
+    }
+
+    @Test
+    public void stoppedBeltForgetsThePendingButtons() {
+        released(1, 0.0);
+        estimator.onModeChanged(0);
+        assertEquals(0.0, estimator.getSpeed(), 0.0);
+
+        estimator.onModeChanged(1);
+        estimator.onSpeedChanged(8.0);
+        released(2, 1.6);
+        assertEquals(0, estimator.getSamples());
+
+        released(1, 2.0);
+        released(2, 4.0);
+        assertEquals(8.0, estimator.getSpeed(), 1e-9);
+    }
+
+    private void released(int lightBarrier, double seconds) {
+        estimator.onSampled(TimeUnit.MILLISECONDS.toNanos(Math.round(seconds * 1000)));
+        estimator.onLightBarrierChanged(lightBarrier, false);
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.bbv.sorter.hardware.conveyor;
+
+import com.bbv.sorter.hardware.timing.PulseTimer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Valve edges of overlapping and separate pulses, on the real clock.
+ */
+public class ValvePulserTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ExecutorService io = Executors.newSingleThreadExecutor();
+    private final PulseTimer timer = new PulseTimer("test-pulse-timer", 200, TimeUnit.MICROSECONDS);
+    private final RecordingConveyor conveyor = new RecordingConveyor();
+    private final ValvePulser pulser = new ValvePulser(new AsyncConveyorAdapter(conveyor, io), timer);
+
+    @After
+    public void tearDown() {
+        timer.shutdown();
+        io.shutdownNow();
+    }
+
+    @Test
+    public void overlappingPulsesMergeAndReleaseOnTheLastEnd() throws Exception {
+        long start = System.nanoTime();
+        pulser.pulse(1, 0, 100 * MILLIS);
+        pulser.pulse(1, 50 * MILLIS, 100 * MILLIS);
+        // ends inside the second pulse, the valve stays pressurized
+        pulser.pulse(1, 20 * MILLIS, 40 * MILLIS);
+
+        List<Edge> edges = conveyor.awaitEdges(2, 1000);
+
+        assertEquals(2, edges.size());
+        assertTrue(edges.get(0).pressure);
+        assertFalse(edges.get(1).pressure);
+        long releasedAfter = edges.get(1).nanoTime - start;
+        assertTrue("released after " + releasedAfter / MILLIS + " ms", releasedAfter >= 150 * MILLIS);
+        Thread.sleep(50);
+        assertEquals(2, conveyor.edges().size());
+    }
+
+    @Test
+    public void separatePulsesGiveSeparateEdges() throws Exception {
+        pulser.pulse(1, 0, 20 * MILLIS);
+        pulser.pulse(1, 60 * MILLIS, 20 * MILLIS);
+
+        List<Edge> edges = conveyor.awaitEdges(4, 1000);
+
+        assertEquals(4, edges.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i % 2 == 0, edges.get(i).pressure);
+        }
+        // the lateness is recorded when the write completed, just after the edge
+        long deadline = System.currentTimeMillis() + 1000;
+        while (pulser.getJitter().getCount() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(4, pulser.getJitter().getCount());
+    }
+
+    @Test
+    public void pulsesOfDifferentValvesDoNotMerge() throws Exception {
+        pulser.pulse(1, 0, 100 * MILLIS);
+        pulser.pulse(2, 0, 20 * MILLIS);
+
+        List<Edge> edges = conveyor.awaitEdges(4, 1000);
+
+        // valve 2 was released while valve 1 was still pressurized
+        assertEquals(2, edges.get(2).valve);
+        assertFalse(edges.get(2).pressure);
+        assertEquals(1, edges.get(3).valve);
+        assertFalse(edges.get(3).pressure);
+    }
+
+    private static final class Edge {
+
+        final int valve;
+        final boolean pressure;
+        final long nanoTime;
+
+        Edge(int valve, boolean pressure, long nanoTime) {
+            this.valve = valve;
+            this.pressure = pressure;
+            this.nanoTime = nanoTime;
+        }
+    }
+
+    /**
+     * Records the valve writes in their order.
+     */
+    private static final class RecordingConveyor extends ConveyorMock {
+
+        private final List<Edge> edges = new ArrayList<>();
+
+        @Override
+        public void setValve1(boolean pressure) {
+            record(1, pressure);
+        }
+
+        @Override
+        public void setValve2(boolean pressure) {
+            record(2, pressure);
+        }
+
+        @Override
+        public void setValve3(boolean pressure) {
+            record(3, pressure);
+        }
+
+        synchronized List<Edge> edges() {
+            return new ArrayList<>(edges);
+        }
+
+        synchronized List<Edge> awaitEdges(int count, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (edges.size() < count && System.currentTimeMillis() < deadline) {
+                wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            return new ArrayList<>(edges);
+        }
+
+        private synchronized void record(int valve, boolean pressure) {
+            edges.add(new Edge(valve, pressure, System.nanoTime()));
+            notifyAll();
+        }
+    }
+
+}
@@ -0,0 +1,311 @@
+package com.bbv.sorter.hardware.modbus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trips of {@link ModbusConnection} and {@link ModbusConnectionPool} against a
+ * {@link ModbusSlave} and against a slave that drops chosen requests.
+ */
+public class ModbusConnectionTest {
+
+    private static final int UNIT_ID = 1;
+    private static final int TIMEOUT_MILLIS = 300;
+    private static final int COILS = 16;
+
+    private final List<Closeable> resources = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (Closeable resource : resources) {
+            resource.close();
+        }
+    }
+
+    @Test
+    public void pipelinedRequestsGetTheirOwnResponses() throws Exception {
+        ModbusSlave slave = open(new ModbusSlave(new CoilModel(), 0));
+        ModbusConnection connection = open(new ModbusConnection("localhost", slave.getPort(), TIMEOUT_MILLIS));
+
+        List<CompletableFuture<byte[]>> writes = new ArrayList<>();
+        for (int coil = 0; coil < COILS; coil++) {
+            writes.add(connection.request(UNIT_ID, Modbus.writeSingleCoil(coil, coil % 3 == 0)));
+        }
+        for (CompletableFuture<byte[]> write : writes) {
+            write.get(1, TimeUnit.SECONDS);
+        }
+
+        // all reads in flight at once, each response matches its request
+        List<CompletableFuture<byte[]>> reads = new ArrayList<>();
+        for (int coil = 0; coil < COILS; coil++) {
+            reads.add(connection.request(UNIT_ID, Modbus.readRequest(Modbus.READ_COILS, coil, 1)));
+        }
+        for (int coil = 0; coil < COILS; coil++) {
+            assertEquals("coil " + coil, coil % 3 == 0, Modbus.bit(reads.get(coil).get(1, TimeUnit.SECONDS), 0));
+        }
+        assertEquals(0, connection.getPendingRequests());
+    }
+
+    @Test
+    public void exceptionResponseFailsOnlyItsRequest() throws Exception {
+        ModbusSlave slave = open(new ModbusSlave(new CoilModel(), 0));
+        ModbusConnection connection = open(new ModbusConnection("localhost", slave.getPort(), TIMEOUT_MILLIS));
+
+        try {
+            connection.request(UNIT_ID, Modbus.readRequest(Modbus.READ_COILS, COILS, 1)).get(1, TimeUnit.SECONDS);
+            fail("read outside of the model succeeded");
+        } catch (ExecutionException e) {
+            ModbusException exception = (ModbusException) e.getCause();
+            assertEquals(Modbus.READ_COILS, exception.getFunction());
+            assertEquals(Modbus.ILLEGAL_DATA_ADDRESS, exception.getExceptionCode());
+        }
+
+        assertTrue(connection.isOpen());
+        connection.request(UNIT_ID, Modbus.readRequest(Modbus.READ_COILS, 0, 1)).get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void droppedResponseTimesOutAndClosesConnection() throws Exception {
+        // the second request on the connection is never answered
+        DroppingSlave slave = open(new DroppingSlave(0, (connection, request) -> request != 2));
+        ModbusConnection connection = open(new ModbusConnection("localhost", slave.getPort(), TIMEOUT_MILLIS));
+        byte[] read = Modbus.readRequest(Modbus.READ_COILS, 0, 8);
+
+        connection.request(UNIT_ID, read).get(1, TimeUnit.SECONDS);
+        long start = System.nanoTime();
+        CompletableFuture<byte[]> lost = connection.request(UNIT_ID, read);
+        // the later requests are answered while the lost one waits
+        assertArrayEquals(DroppingSlave.COILS_RESPONSE, connection.request(UNIT_ID, read).get(1, TimeUnit.SECONDS));
+
+        try {
+            lost.get(10 * TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            fail("dropped request succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), e.getCause() instanceof SocketTimeoutException);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("failed after " + elapsedMillis + " ms", elapsedMillis >= TIMEOUT_MILLIS - 50);
+
+        assertFalse(connection.isOpen());
+        assertEquals(0, connection.getPendingRequests());
+        assertTrue(connection.request(UNIT_ID, read).isCompletedExceptionally());
+    }
+
+    @Test
+    public void poolReplacesConnectionAfterTimeout() throws Exception {
+        // the first connection answers nothing, the ones after it everything
+        DroppingSlave slave = open(new DroppingSlave(0, (connection, request) -> connection > 1));
+        ModbusConnectionPool pool = open(new ModbusConnectionPool("localhost", slave.getPort(), 1, TIMEOUT_MILLIS));
+        byte[] read = Modbus.readRequest(Modbus.READ_COILS, 0, 8);
+
+        try {
+            pool.request(UNIT_ID, read).get(10 * TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            fail("dropped request succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), e.getCause() instanceof SocketTimeoutException);
+        }
+
+        assertArrayEquals(DroppingSlave.COILS_RESPONSE, pool.request(UNIT_ID, read).get(1, TimeUnit.SECONDS));
+        assertEquals(2, slave.getConnections());
+    }
+
+    @Test
+    public void requestCarriesUnitId() throws Exception {
+        DroppingSlave slave = open(new DroppingSlave(0, (connection, request) -> true));
+        ModbusConnectionPool pool = open(new ModbusConnectionPool("localhost", slave.getPort(), 1, TIMEOUT_MILLIS));
+
+        pool.request(7, Modbus.readRequest(Modbus.READ_COILS, 0, 8)).get(1, TimeUnit.SECONDS);
+        pool.request(3, Modbus.readRequest(Modbus.READ_COILS, 0, 8)).get(1, TimeUnit.SECONDS);
+
+        assertEquals(Integer.valueOf(7), slave.getUnitIds().get(0));
+        assertEquals(Integer.valueOf(3), slave.getUnitIds().get(1));
+    }
+
+    @Test
+    public void unreachableGatewayFailsFastUntilBackoffExpires() throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            port = free.getLocalPort();
+        }
+        ModbusConnectionPool pool = open(new ModbusConnectionPool("localhost", port, 1, TIMEOUT_MILLIS));
+        byte[] read = Modbus.readRequest(Modbus.READ_COILS, 0, 8);
+
+        try {
+            pool.request(UNIT_ID, read).get(1, TimeUnit.SECONDS);
+            fail("request without gateway succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), e.getCause() instanceof ConnectException);
+        }
+
+        // the gateway is back, but the slot backs off and fails at once without connecting
+        DroppingSlave slave = open(new DroppingSlave(port, (connection, request) -> true));
+        CompletableFuture<byte[]> backingOff = pool.request(UNIT_ID, read);
+        assertTrue(backingOff.isCompletedExceptionally());
+        assertEquals(0, slave.getConnections());
+
+        Thread.sleep(2 * ModbusConnectionPool.MIN_RECONNECT_MILLIS);
+        assertArrayEquals(DroppingSlave.COILS_RESPONSE, pool.request(UNIT_ID, read).get(1, TimeUnit.SECONDS));
+        assertEquals(1, slave.getConnections());
+    }
+
+    private <T extends Closeable> T open(T resource) {
+        resources.add(resource);
+        return resource;
+    }
+
+    /**
+     * {@link #COILS} coils, accesses to anything else are illegal.
+     */
+    private static final class CoilModel implements ModbusDataModel {
+
+        private int coils;
+
+        @Override
+        public synchronized int readCoils(int address, int count) throws ModbusException {
+            check(Modbus.READ_COILS, address, count);
+            return coils >>> address;
+        }
+
+        @Override
+        public int readDiscreteInputs(int address, int count) throws ModbusException {
+            throw new ModbusException(Modbus.READ_DISCRETE_INPUTS, Modbus.ILLEGAL_DATA_ADDRESS);
+        }
+
+        @Override
+        public void readInputRegisters(int address, int count, int[] registers) throws ModbusException {
+            throw new ModbusException(Modbus.READ_INPUT_REGISTERS, Modbus.ILLEGAL_DATA_ADDRESS);
+        }
+
+        @Override
+        public synchronized void writeCoils(int address, int count, int values) throws ModbusException {
+            check(Modbus.WRITE_MULTIPLE_COILS, address, count);
+            int mask = ((1 << count) - 1) << address;
+            coils = (coils & ~mask) | ((values << address) & mask);
+        }
+
+        @Override
+        public void writeHoldingRegister(int address, int value) throws ModbusException {
+            throw new ModbusException(Modbus.WRITE_SINGLE_REGISTER, Modbus.ILLEGAL_DATA_ADDRESS);
+        }
+
+        private static void check(int function, int address, int count) throws ModbusException {
+            if (address < 0 || count < 1 || address + count > COILS) {
+                throw new ModbusException(function, Modbus.ILLEGAL_DATA_ADDRESS);
+            }
+        }
+    }
+
+    /**
+     * Answers every read of coils with {@link #COILS_RESPONSE}, unless the request is dropped.
+     */
+    private static final class DroppingSlave implements Closeable {
+
+        static final byte[] COILS_RESPONSE = {Modbus.READ_COILS, 1, 0b101};
+
+        interface Policy {
+
+            /**
+             * @param connection number of the connection, from 1
+             * @param request    number of the request on the connection, from 1
+             */
+            boolean answer(int connection, int request);
+        }
+
+        private final ServerSocket serverSocket;
+        private final AtomicInteger connections = new AtomicInteger();
+        private final List<Integer> unitIds = new ArrayList<>();
+        private final Policy policy;
+
+        /**
+         * @param port 0 for any free port
+         */
+        DroppingSlave(int port, Policy policy) throws IOException {
+            this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+            this.policy = policy;
+            Thread acceptor = new Thread(this::accept, "dropping-slave");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        int getConnections() {
+            return connections.get();
+        }
+
+        synchronized List<Integer> getUnitIds() {
+            return new ArrayList<>(unitIds);
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    int connection = connections.incrementAndGet();
+                    Thread thread = new Thread(() -> serve(socket, connection), "dropping-slave-" + connection);
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket, int connection) {
+            try (Socket client = socket) {
+                DataInputStream in = new DataInputStream(client.getInputStream());
+                OutputStream out = client.getOutputStream();
+                byte[] header = new byte[Modbus.HEADER_LENGTH];
+                for (int request = 1; ; request++) {
+                    in.readFully(header);
+                    byte[] pdu = new byte[Modbus.unsignedShort(header, 4) - 1];
+                    in.readFully(pdu);
+                    synchronized (this) {
+                        unitIds.add(header[6] & 0xFF);
+                    }
+                    if (!policy.answer(connection, request)) {
+                        continue;
+                    }
+                    byte[] frame = new byte[Modbus.HEADER_LENGTH + COILS_RESPONSE.length];
+                    System.arraycopy(header, 0, frame, 0, Modbus.HEADER_LENGTH);
+                    frame[4] = 0;
+                    frame[5] = (byte) (COILS_RESPONSE.length + 1);
+                    System.arraycopy(COILS_RESPONSE, 0, frame, Modbus.HEADER_LENGTH, COILS_RESPONSE.length);
+                    out.write(frame);
+                }
+            } catch (IOException e) {
+                // client disconnected
+            }
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.bbv.sorter.hardware.timing;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JitterHistogramTest {
+
+    private final JitterHistogram histogram = new JitterHistogram();
+
+    @Test
+    public void percentileIsTheUpperBoundOfItsBucket() {
+        for (int i = 0; i < 99; i++) {
+            histogram.record(micros(3));
+        }
+        histogram.record(micros(300));
+
+        long[] start = new long[histogram.snapshot().length];
+        assertEquals(5.0, histogram.getPercentileMicros(start, 0.5), 0.0);
+        assertEquals(5.0, histogram.getPercentileMicros(start, 0.99), 0.0);
+        assertEquals(500.0, histogram.getPercentileMicros(start, 1.0), 0.0);
+    }
+
+    @Test
+    public void windowIgnoresActionsBeforeTheSnapshot() {
+        histogram.record(micros(4000));
+        long[] since = histogram.snapshot();
+        for (int i = 0; i < 10; i++) {
+            histogram.record(micros(15));
+        }
+
+        // the outlier before the window does not count
+        assertEquals(20.0, histogram.getPercentileMicros(since, 0.99), 0.0);
+        assertEquals(5000.0, histogram.getPercentileMicros(new long[since.length], 1.0), 0.0);
+        assertEquals(11, histogram.getCount());
+    }
+
+    @Test
+    public void emptyWindowHasNoPercentile() {
+        histogram.record(micros(15));
+
+        assertTrue(Double.isNaN(histogram.getPercentileMicros(histogram.snapshot(), 0.99)));
+    }
+
+    @Test
+    public void lateActionBeyondTheLastBoundIsInfinite() {
+        long[] since = histogram.snapshot();
+        histogram.record(micros(20_000));
+
+        assertEquals(Double.POSITIVE_INFINITY, histogram.getPercentileMicros(since, 0.5), 0.0);
+        assertEquals(20_000.0, histogram.getMaxMicros(), 0.0);
+    }
+
+    @Test
+    public void earlyActionCountsAsOnTime() {
+        long[] since = histogram.snapshot();
+        histogram.record(-micros(100));
+
+        assertEquals(1.0, histogram.getPercentileMicros(since, 0.5), 0.0);
+    }
+
+    private static long micros(long micros) {
+        return TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+}
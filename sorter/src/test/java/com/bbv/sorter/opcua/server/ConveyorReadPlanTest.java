@@ -0,0 +1,204 @@
+package com.bbv.sorter.opcua.server;
+
+import com.bbv.sorter.hardware.conveyor.ConveyorImage;
+import com.bbv.sorter.hardware.conveyor.ConveyorScanner;
+import com.bbv.sorter.hardware.conveyor.ConveyorSignal;
+import com.bbv.sorter.hardware.conveyor.ConveyorSnapshot;
+import com.bbv.sorter.opcua.server.utils.CachedSignalValue;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConveyorReadPlanTest {
+
+    private static final long YOUNG_ENOUGH = TimeUnit.HOURS.toNanos(1);
+
+    private FakeConveyor line1;
+    private FakeConveyor line2;
+    private ConveyorScanner scanner1;
+    private ConveyorScanner scanner2;
+
+    @Before
+    public void setUp() {
+        line1 = new FakeConveyor();
+        line2 = new FakeConveyor();
+        scanner1 = new ConveyorScanner(line1, 10, 1000, TimeUnit.MILLISECONDS);
+        scanner2 = new ConveyorScanner(line2, 10, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void youngImageServesWithoutRead() throws Exception {
+        line1.signals |= ConveyorSnapshot.VALVE_2;
+        line1.speed = 4.5;
+        scanner1.refresh().get();
+        int reads = reads(line1);
+        CachedSignalValue valve = CachedSignalValue.ofBoolean(scanner1, ConveyorSignal.VALVE_2);
+        CachedSignalValue speed = CachedSignalValue.ofDouble(scanner1, ConveyorSignal.SPEED);
+        DataValue[] results = new DataValue[2];
+
+        ConveyorReadPlan plan = new ConveyorReadPlan(YOUNG_ENOUGH, TimestampsToReturn.Neither, results);
+        plan.add(0, valve);
+        plan.add(1, speed);
+
+        assertNull(plan.execute());
+        assertEquals(true, results[0].getValue().getValue());
+        assertEquals(4.5, results[1].getValue().getValue());
+        assertEquals(reads, reads(line1));
+        assertEquals(1, valve.getHits());
+        assertEquals(0, valve.getMisses());
+    }
+
+    @Test
+    public void oldImageIsReadOncePerLine() throws Exception {
+        line1.mode = 1;
+        line2.speed = 7.0;
+        int reads1 = reads(line1);
+        int reads2 = reads(line2);
+        DataValue[] results = new DataValue[4];
+
+        ConveyorReadPlan plan = new ConveyorReadPlan(0, TimestampsToReturn.Neither, results);
+        plan.add(0, CachedSignalValue.ofEnum(scanner1, ConveyorSignal.MODE));
+        plan.add(1, CachedSignalValue.ofDouble(scanner2, ConveyorSignal.SPEED));
+        plan.add(2, CachedSignalValue.ofBoolean(scanner1, ConveyorSignal.STATUS));
+        plan.add(3, CachedSignalValue.ofBoolean(scanner2, ConveyorSignal.STATUS));
+        CompletableFuture<Void> reads = plan.execute();
+
+        assertNotNull(reads);
+        reads.get(1, TimeUnit.SECONDS);
+        assertEquals(UInteger.valueOf(1), results[0].getValue().getValue());
+        assertEquals(7.0, results[1].getValue().getValue());
+        assertEquals(true, results[2].getValue().getValue());
+        assertEquals(true, results[3].getValue().getValue());
+        assertEquals(reads1 + 1, reads(line1));
+        assertEquals(reads2 + 1, reads(line2));
+    }
+
+    @Test
+    public void firstReadWaitsForTheLine() throws Exception {
+        DataValue[] results = new DataValue[1];
+
+        ConveyorReadPlan plan = new ConveyorReadPlan(YOUNG_ENOUGH, TimestampsToReturn.Neither, results);
+        plan.add(0, CachedSignalValue.ofBoolean(scanner1, ConveyorSignal.STATUS));
+        plan.execute().get(1, TimeUnit.SECONDS);
+
+        assertTrue(results[0].getStatusCode().isGood());
+        assertEquals(1, reads(line1));
+    }
+
+    @Test
+    public void failedReadIsNoCommunicationForItsLineOnly() throws Exception {
+        line1.failing = true;
+        DataValue[] results = new DataValue[3];
+
+        ConveyorReadPlan plan = new ConveyorReadPlan(0, TimestampsToReturn.Neither, results);
+        plan.add(0, CachedSignalValue.ofBoolean(scanner1, ConveyorSignal.LIGHT_BARRIER_1));
+        plan.add(1, CachedSignalValue.ofBoolean(scanner2, ConveyorSignal.LIGHT_BARRIER_1));
+        plan.add(2, CachedSignalValue.ofDouble(scanner1, ConveyorSignal.SPEED));
+        plan.execute().get(1, TimeUnit.SECONDS);
+
+        assertEquals(StatusCodes.Bad_NoCommunication, results[0].getStatusCode().getValue());
+        assertTrue(results[1].getStatusCode().isGood());
+        assertEquals(StatusCodes.Bad_NoCommunication, results[2].getStatusCode().getValue());
+    }
+
+    @Test
+    public void oldImageIsCountedAsMissAndServedFromTheNewRead() throws Exception {
+        scanner1.refresh().get();
+        ConveyorImage old = scanner1.getImage();
+        Thread.sleep(1);
+        CachedSignalValue status = CachedSignalValue.ofBoolean(scanner1, ConveyorSignal.STATUS);
+        DataValue[] results = new DataValue[1];
+
+        ConveyorReadPlan plan = new ConveyorReadPlan(0, TimestampsToReturn.Server, results);
+        plan.add(0, status);
+        plan.execute().get(1, TimeUnit.SECONDS);
+
+        ConveyorImage read = scanner1.getImage();
+        assertNotEquals(old.getEpochNanos(), read.getEpochNanos());
+        assertEquals(CachedSignalValue.toDateTime(read.getEpochNanos()), results[0].getServerTime());
+        assertEquals(0, status.getHits());
+        assertEquals(1, status.getMisses());
+    }
+
+    @Test
+    public void timestampsAreTheSampleTimesRequested() throws Exception {
+        line1.speed = 3.0;
+        scanner1.refresh().get();
+        ConveyorImage image = scanner1.getImage();
+        DateTime sampled = CachedSignalValue.toDateTime(image.getEpochNanos());
+        CachedSignalValue speed = CachedSignalValue.ofDouble(scanner1, ConveyorSignal.SPEED);
+
+        DataValue source = readCached(speed, TimestampsToReturn.Source);
+        DataValue server = readCached(speed, TimestampsToReturn.Server);
+        DataValue both = readCached(speed, TimestampsToReturn.Both);
+        DataValue neither = readCached(speed, TimestampsToReturn.Neither);
+
+        assertEquals(sampled, source.getSourceTime());
+        assertNull(source.getServerTime());
+        assertNull(server.getSourceTime());
+        assertEquals(sampled, server.getServerTime());
+        assertEquals(sampled, both.getSourceTime());
+        assertEquals(sampled, both.getServerTime());
+        assertNull(neither.getSourceTime());
+        assertNull(neither.getServerTime());
+        for (DataValue value : new DataValue[]{source, server, both, neither}) {
+            assertEquals(3.0, value.getValue().getValue());
+        }
+        assertEquals(4, speed.getHits());
+    }
+
+    @Test
+    public void sourceTimeIsTheFirstSampleOfTheValue() throws Exception {
+        CachedSignalValue valve = CachedSignalValue.ofBoolean(scanner1, ConveyorSignal.VALVE_1);
+        scanner1.refresh().get();
+        DateTime first = CachedSignalValue.toDateTime(scanner1.getImage().getEpochNanos());
+        DataValue before = readCached(valve, TimestampsToReturn.Both);
+        Thread.sleep(1);
+
+        scanner1.refresh().get();
+        DateTime second = CachedSignalValue.toDateTime(scanner1.getImage().getEpochNanos());
+        DataValue unchanged = readCached(valve, TimestampsToReturn.Both);
+        Thread.sleep(1);
+
+        line1.signals |= ConveyorSnapshot.VALVE_1;
+        scanner1.refresh().get();
+        DateTime third = CachedSignalValue.toDateTime(scanner1.getImage().getEpochNanos());
+        DataValue changed = readCached(valve, TimestampsToReturn.Both);
+
+        assertEquals(first, before.getSourceTime());
+        assertEquals(first, unchanged.getSourceTime());
+        assertEquals(second, unchanged.getServerTime());
+        assertSame(before.getValue(), unchanged.getValue());
+        assertEquals(third, changed.getSourceTime());
+        assertEquals(third, changed.getServerTime());
+        assertEquals(true, changed.getValue().getValue());
+    }
+
+    private static DataValue readCached(CachedSignalValue value, TimestampsToReturn timestamps) {
+        DataValue[] results = new DataValue[1];
+        ConveyorReadPlan plan = new ConveyorReadPlan(YOUNG_ENOUGH, timestamps, results);
+        plan.add(0, value);
+        assertNull(plan.execute());
+        return results[0];
+    }
+
+    private static int reads(FakeConveyor line) {
+        return Collections.frequency(line.getOperations(), "read");
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.bbv.sorter.opcua.server;
+
+import com.bbv.sorter.hardware.conveyor.ConveyorScanner;
+import com.bbv.sorter.hardware.conveyor.ConveyorSignal;
+import com.bbv.sorter.hardware.conveyor.ConveyorSnapshot;
+import com.bbv.sorter.opcua.server.utils.CachedSignalValue;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConveyorWritePlanTest {
+
+    private FakeConveyor line1;
+    private FakeConveyor line2;
+    private ConveyorScanner scanner1;
+    private ConveyorScanner scanner2;
+
+    @Before
+    public void setUp() {
+        line1 = new FakeConveyor();
+        line2 = new FakeConveyor();
+        scanner1 = new ConveyorScanner(line1, 10, 1000, TimeUnit.MILLISECONDS);
+        scanner2 = new ConveyorScanner(line2, 10, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void valvesOfLineAreSetAtOnce() throws Exception {
+        StatusCode[] results = new StatusCode[3];
+
+        ConveyorWritePlan plan = new ConveyorWritePlan(results);
+        plan.add(0, valve(scanner1, ConveyorSignal.VALVE_1), true);
+        plan.add(1, valve(scanner1, ConveyorSignal.VALVE_3), false);
+        // a later write of the same valve wins
+        plan.add(2, valve(scanner1, ConveyorSignal.VALVE_1), false);
+        plan.execute().get(1, TimeUnit.SECONDS);
+
+        int mask = ConveyorSnapshot.VALVE_1 | ConveyorSnapshot.VALVE_3;
+        assertEquals(Collections.singletonList("updateValves 0/" + mask), writes(line1));
+        for (StatusCode result : results) {
+            assertTrue(result.isGood());
+        }
+    }
+
+    @Test
+    public void modeIsSetAfterValves() throws Exception {
+        StatusCode[] results = new StatusCode[3];
+
+        ConveyorWritePlan plan = new ConveyorWritePlan(results);
+        plan.add(0, mode(scanner1), UInteger.valueOf(1));
+        plan.add(1, valve(scanner1, ConveyorSignal.VALVE_2), true);
+        plan.add(2, mode(scanner2), UInteger.valueOf(0));
+        plan.execute().get(1, TimeUnit.SECONDS);
+
+        int valve2 = ConveyorSnapshot.VALVE_2;
+        assertEquals(asList("updateValves " + valve2 + "/" + valve2, "start"), writes(line1));
+        assertEquals(Collections.singletonList("stop"), writes(line2));
+        for (StatusCode result : results) {
+            assertTrue(result.isGood());
+        }
+    }
+
+    @Test
+    public void wrongTypeIsRejected() {
+        StatusCode[] results = new StatusCode[3];
+
+        ConveyorWritePlan plan = new ConveyorWritePlan(results);
+        plan.add(0, valve(scanner1, ConveyorSignal.VALVE_1), UInteger.valueOf(1));
+        plan.add(1, mode(scanner1), true);
+        plan.add(2, mode(scanner1), 1);
+
+        assertTrue(plan.isEmpty());
+        for (StatusCode result : results) {
+            assertEquals(StatusCodes.Bad_TypeMismatch, result.getValue());
+        }
+    }
+
+    @Test
+    public void unknownModeIsRejected() {
+        StatusCode[] results = new StatusCode[1];
+
+        ConveyorWritePlan plan = new ConveyorWritePlan(results);
+        plan.add(0, mode(scanner1), UInteger.valueOf(2));
+
+        assertTrue(plan.isEmpty());
+        assertEquals(StatusCodes.Bad_OutOfRange, results[0].getValue());
+    }
+
+    @Test
+    public void rejectedWriteKeepsTheOthers() throws Exception {
+        StatusCode[] results = new StatusCode[2];
+
+        ConveyorWritePlan plan = new ConveyorWritePlan(results);
+        plan.add(0, mode(scanner1), UInteger.valueOf(3));
+        plan.add(1, valve(scanner1, ConveyorSignal.VALVE_2), false);
+        plan.execute().get(1, TimeUnit.SECONDS);
+
+        int valve2 = ConveyorSnapshot.VALVE_2;
+        assertEquals(StatusCodes.Bad_OutOfRange, results[0].getValue());
+        assertTrue(results[1].isGood());
+        assertEquals(Collections.singletonList("updateValves 0/" + valve2), writes(line1));
+    }
+
+    @Test
+    public void failedWriteIsNoCommunicationForItsLineOnly() throws Exception {
+        line1.failing = true;
+        StatusCode[] results = new StatusCode[3];
+
+        ConveyorWritePlan plan = new ConveyorWritePlan(results);
+        plan.add(0, valve(scanner1, ConveyorSignal.VALVE_1), true);
+        plan.add(1, valve(scanner2, ConveyorSignal.VALVE_1), true);
+        plan.add(2, mode(scanner1), UInteger.valueOf(1));
+        plan.execute().get(1, TimeUnit.SECONDS);
+
+        assertEquals(StatusCodes.Bad_NoCommunication, results[0].getValue());
+        assertTrue(results[1].isGood());
+        assertEquals(StatusCodes.Bad_NoCommunication, results[2].getValue());
+    }
+
+    /**
+     * @return the operations on the line other than reads, e.g. of its scanner
+     */
+    private static List<String> writes(FakeConveyor line) {
+        return line.getOperations().stream().filter(operation -> !operation.equals("read")).collect(Collectors.toList());
+    }
+
+    private static CachedSignalValue valve(ConveyorScanner scanner, ConveyorSignal signal) {
+        return CachedSignalValue.ofBoolean(scanner, signal);
+    }
+
+    private static CachedSignalValue mode(ConveyorScanner scanner) {
+        return CachedSignalValue.ofEnum(scanner, ConveyorSignal.MODE);
+    }
+
+}
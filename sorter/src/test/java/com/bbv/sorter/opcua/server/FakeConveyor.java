@@ -0,0 +1,98 @@
+package com.bbv.sorter.opcua.server;
+
+import com.bbv.sorter.hardware.conveyor.AsyncConveyor;
+import com.bbv.sorter.hardware.conveyor.ConveyorListener;
+import com.bbv.sorter.hardware.conveyor.ConveyorSnapshot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Line that answers at once and records its hardware operations, or fails them all.
+ */
+final class FakeConveyor implements AsyncConveyor {
+
+    volatile int signals = ConveyorSnapshot.STATUS;
+    volatile int mode;
+    volatile double speed;
+    volatile boolean failing;
+
+    private final List<String> operations = new ArrayList<>();
+
+    /**
+     * @return the operations in the order they were issued, e.g. "read", "updateValves 5/7", "start"
+     */
+    synchronized List<String> getOperations() {
+        return new ArrayList<>(operations);
+    }
+
+    @Override
+    public CompletableFuture<ConveyorSnapshot> readSnapshot(ConveyorSnapshot snapshot) {
+        return operation("read", () -> snapshot.set(signals, speed, mode, 0, System.nanoTime()))
+                .thenApply(ignored -> snapshot);
+    }
+
+    @Override
+    public CompletableFuture<Void> start() {
+        return operation("start", () -> mode = 1);
+    }
+
+    @Override
+    public CompletableFuture<Void> stop() {
+        return operation("stop", () -> mode = 0);
+    }
+
+    @Override
+    public CompletableFuture<Void> setValve1(boolean pressure) {
+        return updateValves(pressure ? ConveyorSnapshot.VALVE_1 : 0, ConveyorSnapshot.VALVE_1);
+    }
+
+    @Override
+    public CompletableFuture<Void> setValve2(boolean pressure) {
+        return updateValves(pressure ? ConveyorSnapshot.VALVE_2 : 0, ConveyorSnapshot.VALVE_2);
+    }
+
+    @Override
+    public CompletableFuture<Void> setValve3(boolean pressure) {
+        return updateValves(pressure ? ConveyorSnapshot.VALVE_3 : 0, ConveyorSnapshot.VALVE_3);
+    }
+
+    @Override
+    public CompletableFuture<Void> setValves(int valves) {
+        return updateValves(valves, ConveyorSnapshot.VALVES);
+    }
+
+    @Override
+    public CompletableFuture<Void> updateValves(int valves, int mask) {
+        return operation("updateValves " + valves + "/" + mask, () -> signals = (signals & ~mask) | (valves & mask));
+    }
+
+    @Override
+    public CompletableFuture<Void> setDriveOutput(double percent) {
+        return operation("setDriveOutput " + percent, () -> {
+        });
+    }
+
+    @Override
+    public void addConveyorListener(ConveyorListener listener) {
+    }
+
+    @Override
+    public void removeConveyorListener(ConveyorListener listener) {
+    }
+
+    private synchronized CompletableFuture<Void> operation(String name, Runnable action) {
+        operations.add(name);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (failing) {
+            result.completeExceptionally(new IOException("Line not reachable"));
+        } else {
+            action.run();
+            result.complete(null);
+        }
+        return result;
+    }
+
+}
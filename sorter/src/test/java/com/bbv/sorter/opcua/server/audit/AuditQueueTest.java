@@ -0,0 +1,171 @@
+package com.bbv.sorter.opcua.server.audit;
+
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.structured.WriteValue;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AuditQueueTest {
+
+    @Test
+    public void fullQueueRefusesClaim() {
+        AuditQueue queue = new AuditQueue(4);
+        for (int i = 0; i < 4; i++) {
+            long position = queue.claim();
+            assertEquals(i, position);
+            queue.publish(position);
+        }
+
+        assertEquals(-1, queue.claim());
+
+        queue.peek();
+        queue.release();
+        assertEquals(4, queue.claim());
+        assertEquals(-1, queue.claim());
+    }
+
+    @Test
+    public void recordsLeaveInClaimOrder() {
+        AuditQueue queue = new AuditQueue(4);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 3; i++) {
+                long position = queue.claim();
+                queue.get(position).status = round * 10 + i;
+                queue.publish(position);
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(round * 10 + i, queue.peek().status);
+                queue.release();
+            }
+            assertNull(queue.peek());
+        }
+    }
+
+    @Test
+    public void unpublishedRecordHoldsBackLaterOnes() {
+        AuditQueue queue = new AuditQueue(4);
+        long first = queue.claim();
+        long second = queue.claim();
+        queue.publish(second);
+
+        assertNull(queue.peek());
+
+        queue.publish(first);
+        assertSame(queue.get(first), queue.peek());
+        queue.release();
+        assertSame(queue.get(second), queue.peek());
+    }
+
+    @Test
+    public void releaseClearsRecord() {
+        AuditQueue queue = new AuditQueue(1);
+        long position = queue.claim();
+        AuditRecord record = queue.get(position);
+        record.node = NodeId.NULL_VALUE;
+        record.value = new Variant(1);
+        queue.publish(position);
+
+        queue.peek();
+        queue.release();
+
+        assertNull(record.node);
+        assertNull(record.value);
+    }
+
+    @Test
+    public void concurrentProducersLoseNothing() throws Exception {
+        int producers = 4;
+        int perProducer = 100_000;
+        AuditQueue queue = new AuditQueue(64);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < perProducer; ) {
+                        long position = queue.claim();
+                        if (position < 0) {
+                            Thread.yield();
+                            continue;
+                        }
+                        queue.get(position).attributeId = producer;
+                        queue.get(position).status = i++;
+                        queue.publish(position);
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }, "producer-" + p);
+            threads[p].start();
+        }
+
+        // the records of every producer arrive complete and in its order
+        long[] next = new long[producers];
+        for (int received = 0; received < producers * perProducer; ) {
+            AuditRecord record = queue.peek();
+            if (record == null) {
+                assertNull(failure.get());
+                Thread.yield();
+                continue;
+            }
+            assertEquals(next[record.attributeId]++, record.status);
+            queue.release();
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertNull(queue.peek());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePowerOfTwo() {
+        new AuditQueue(6);
+    }
+
+    @Test
+    public void logCountsDroppedRecords() throws Exception {
+        Path directory = Files.createTempDirectory("sorter-audit");
+        try {
+            AuditLog log = new AuditLog(directory, 2, 64 * 1024, 2, 10);
+            AccessContext anonymous = Optional::empty;
+            WriteValue write = new WriteValue(NodeId.NULL_VALUE, UInteger.valueOf(13), null,
+                    new DataValue(new Variant(true)));
+
+            // the writer is not running yet, the third record finds the queue full
+            for (int i = 0; i < 3; i++) {
+                log.write(anonymous, write, StatusCode.GOOD);
+            }
+            assertEquals(1, log.getDropped());
+
+            log.start();
+            log.stop();
+            assertEquals(2, log.getWritten());
+            assertEquals(1, log.getDropped());
+            assertTrue(log.getCommits() > 0);
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+}
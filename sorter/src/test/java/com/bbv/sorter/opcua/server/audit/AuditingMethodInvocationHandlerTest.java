@@ -0,0 +1,124 @@
+package com.bbv.sorter.opcua.server.audit;
+
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DiagnosticInfo;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AuditingMethodInvocationHandlerTest {
+
+    private static final AccessContext ANONYMOUS = Optional::empty;
+    private static final CallMethodRequest REQUEST =
+            new CallMethodRequest(NodeId.NULL_VALUE, NodeId.NULL_VALUE, new Variant[]{new Variant(1)});
+
+    private Path directory;
+    private AuditLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("sorter-audit");
+        log = new AuditLog(directory, 16, 64 * 1024, 2, 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.stop();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void resultIsPassedOnAndAuditedWithItsStatus() throws Exception {
+        CallMethodResult answer = new CallMethodResult(new StatusCode(StatusCodes.Bad_UserAccessDenied),
+                new StatusCode[0], new DiagnosticInfo[0], new Variant[0]);
+        AuditingMethodInvocationHandler handler = new AuditingMethodInvocationHandler(
+                (context, request, future) -> future.complete(answer), log);
+
+        CompletableFuture<CallMethodResult> future = new CompletableFuture<>();
+        handler.invoke(ANONYMOUS, REQUEST, future);
+
+        assertSame(answer, future.get(1, TimeUnit.SECONDS));
+        assertTrue(auditLines().contains("\"status\":\"Bad_UserAccessDenied\""));
+    }
+
+    @Test
+    public void callIsAuditedWhenItCompletes() throws Exception {
+        CompletableFuture<CallMethodResult> pending = new CompletableFuture<>();
+        AuditingMethodInvocationHandler handler = new AuditingMethodInvocationHandler(
+                (context, request, future) -> pending.thenAccept(future::complete), log);
+
+        CompletableFuture<CallMethodResult> future = new CompletableFuture<>();
+        handler.invoke(ANONYMOUS, REQUEST, future);
+        assertFalse(future.isDone());
+
+        pending.complete(new CallMethodResult(StatusCode.GOOD, new StatusCode[0], new DiagnosticInfo[0], new Variant[0]));
+
+        assertTrue(future.isDone());
+        assertEquals(1, auditLines().split("\n").length);
+    }
+
+    @Test
+    public void failingHandlerIsAuditedAsInternalError() throws Exception {
+        AuditingMethodInvocationHandler handler = new AuditingMethodInvocationHandler((context, request, future) -> {
+            throw new IllegalStateException("broken");
+        }, log);
+
+        CompletableFuture<CallMethodResult> future = new CompletableFuture<>();
+        handler.invoke(ANONYMOUS, REQUEST, future);
+
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("the failure is passed on");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(auditLines().contains("\"status\":\"Bad_InternalError\""));
+    }
+
+    /**
+     * Stop the log and read its records, a log is not started again.
+     *
+     * @return the records written, one per line
+     */
+    private String auditLines() throws Exception {
+        log.start();
+        log.stop();
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.map(this::read).collect(Collectors.joining()).replace("\0", "").trim();
+        }
+    }
+
+    private String read(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.bbv.sorter.opcua.server.methods;
+
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncMethodInvocationHandlerTest {
+
+    private static final AccessContext ANONYMOUS = Optional::empty;
+
+    private final EchoMethod method = new EchoMethod();
+    private final AsyncMethodInvocationHandler handler = new AsyncMethodInvocationHandler(method);
+
+    @Test
+    public void matchingArgumentsAreDispatched() throws Exception {
+        CallMethodResult result = call(new Variant("V1"), new Variant(true), new Variant(new Boolean[]{true, false}));
+
+        assertTrue(result.getStatusCode().isGood());
+        assertEquals(1, method.calls);
+        assertEquals("V1", result.getOutputArguments()[0].getValue());
+    }
+
+    @Test
+    public void wrongDataTypeIsRejected() throws Exception {
+        CallMethodResult result = call(new Variant("V1"), new Variant("true"), new Variant(new Boolean[0]));
+
+        assertEquals(StatusCodes.Bad_InvalidArgument, result.getStatusCode().getValue());
+        assertArrayEquals(new long[]{StatusCode.GOOD.getValue(), StatusCodes.Bad_TypeMismatch, StatusCode.GOOD.getValue()},
+                values(result.getInputArgumentResults()));
+        assertEquals(0, method.calls);
+    }
+
+    @Test
+    public void nullIsRejected() throws Exception {
+        CallMethodResult result = call(new Variant("V1"), Variant.NULL_VALUE, new Variant(new Boolean[0]));
+
+        assertEquals(StatusCodes.Bad_TypeMismatch, result.getInputArgumentResults()[1].getValue());
+        assertEquals(0, method.calls);
+    }
+
+    @Test
+    public void wrongValueRankIsRejected() throws Exception {
+        CallMethodResult result = call(new Variant(new String[]{"V1"}), new Variant(true), new Variant(true));
+
+        assertEquals(StatusCodes.Bad_InvalidArgument, result.getStatusCode().getValue());
+        assertArrayEquals(new long[]{StatusCodes.Bad_TypeMismatch, StatusCode.GOOD.getValue(), StatusCodes.Bad_TypeMismatch},
+                values(result.getInputArgumentResults()));
+        assertEquals(0, method.calls);
+    }
+
+    @Test
+    public void missingArgumentIsRejected() throws Exception {
+        CallMethodResult result = call(new Variant("V1"));
+
+        assertEquals(StatusCodes.Bad_ArgumentsMissing, result.getStatusCode().getValue());
+        assertEquals(0, method.calls);
+    }
+
+    @Test
+    public void failedHardwareCompletesWithItsStatus() throws Exception {
+        method.failure = new UaException(StatusCodes.Bad_NoCommunication);
+
+        CallMethodResult result = call(new Variant("V1"), new Variant(true), new Variant(new Boolean[0]));
+
+        assertEquals(StatusCodes.Bad_NoCommunication, result.getStatusCode().getValue());
+    }
+
+    private CallMethodResult call(Variant... inputs) throws Exception {
+        CompletableFuture<CallMethodResult> future = new CompletableFuture<>();
+        handler.invoke(ANONYMOUS, new CallMethodRequest(NodeId.NULL_VALUE, NodeId.NULL_VALUE, inputs), future);
+        return future.get(1, TimeUnit.SECONDS);
+    }
+
+    private static long[] values(StatusCode[] statusCodes) {
+        long[] values = new long[statusCodes.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = statusCodes[i].getValue();
+        }
+        return values;
+    }
+
+    /**
+     * Answers with its first argument, or fails.
+     */
+    private static final class EchoMethod implements AsyncMethod {
+
+        private int calls;
+        private UaException failure;
+
+        @Override
+        public Argument[] getInputArguments() {
+            return new Argument[]{
+                    AsyncMethod.scalar("name", Identifiers.String, "a name"),
+                    AsyncMethod.scalar("flag", Identifiers.Boolean, "a flag"),
+                    AsyncMethod.array("flags", Identifiers.Boolean, "some flags")
+            };
+        }
+
+        @Override
+        public Argument[] getOutputArguments() {
+            return new Argument[]{AsyncMethod.scalar("name", Identifiers.String, "the name")};
+        }
+
+        @Override
+        public CompletableFuture<Variant[]> invokeAsync(AccessContext context, Variant[] inputArguments) {
+            calls++;
+            CompletableFuture<Variant[]> result = new CompletableFuture<>();
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(new Variant[]{inputArguments[0]});
+            }
+            return result;
+        }
+    }
+
+}